@@ -0,0 +1,45 @@
+package com.muhammadminhaz.talkateeve.config;
+
+import com.muhammadminhaz.talkateeve.service.QuantizationBackfillService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * One-shot quantization backfill plus a recall@k report for the largest bots, off unless
+ * QUANTIZATION_BACKFILL=true is set for a single deploy. Read the report before setting
+ * {@code quantized_search} on a bot.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "app.quantization.backfill", havingValue = "true")
+public class QuantizationBackfillRunner implements ApplicationRunner {
+
+    private final QuantizationBackfillService backfillService;
+    private final int reportBots;
+    private final int reportK;
+    private final int reportQueries;
+
+    public QuantizationBackfillRunner(QuantizationBackfillService backfillService,
+                                      @Value("${app.quantization.report.bots:10}") int reportBots,
+                                      @Value("${app.quantization.report.k:5}") int reportK,
+                                      @Value("${app.quantization.report.queries:50}") int reportQueries) {
+        this.backfillService = backfillService;
+        this.reportBots = reportBots;
+        this.reportK = reportK;
+        this.reportQueries = reportQueries;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        log.warn("QUANTIZATION_BACKFILL is on: quantizing stored chunks. "
+                + "Unset it after this deploy so the next restart does not repeat the report.");
+        log.warn("Quantization backfill complete: {} chunks updated", backfillService.backfill());
+        backfillService.reportLargestBots(reportBots, reportK, reportQueries).forEach(report ->
+                log.warn("Quantized recall@{}: bot={} queries={} recall={}",
+                        report.k(), report.botId(), report.queries(), String.format("%.3f", report.recall())));
+    }
+}
@@ -0,0 +1,27 @@
+package com.muhammadminhaz.talkateeve.config;
+
+import com.muhammadminhaz.talkateeve.service.QueryPartitions;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+/**
+ * Turns Hibernate's plain {@code bot_query} table into the monthly partitioned one on
+ * the first start, and makes sure the coming months have partitions before the first
+ * flush needs them rather than waiting for the nightly job.
+ */
+@Component
+public class QueryPartitionInitializer implements ApplicationRunner {
+
+    private final QueryPartitions queryPartitions;
+
+    public QueryPartitionInitializer(QueryPartitions queryPartitions) {
+        this.queryPartitions = queryPartitions;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        queryPartitions.ensurePartitioned();
+        queryPartitions.scheduledMaintain();
+    }
+}
@@ -0,0 +1,33 @@
+package com.muhammadminhaz.talkateeve.config;
+
+import com.muhammadminhaz.talkateeve.service.QueryCounter;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * One-shot load of the {@code bot_query_daily} rollup from the raw {@code bot_query}
+ * rows, for history counted before the rollup existed. Off unless
+ * QUERY_ROLLUP_BACKFILL=true is set for a single deploy; repeating it is harmless but
+ * scans every raw row.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "app.query-rollup.backfill", havingValue = "true")
+public class QueryRollupBackfillRunner implements ApplicationRunner {
+
+    private final QueryCounter queryCounter;
+
+    public QueryRollupBackfillRunner(QueryCounter queryCounter) {
+        this.queryCounter = queryCounter;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        log.warn("QUERY_ROLLUP_BACKFILL is on: rebuilding daily query counts from bot_query. "
+                + "Unset it after this deploy.");
+        log.warn("Query rollup backfill complete: {} bot-days updated", queryCounter.backfillRollup());
+    }
+}
@@ -0,0 +1,24 @@
+package com.muhammadminhaz.talkateeve.config;
+
+import com.muhammadminhaz.talkateeve.service.BotConfigCache;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.redis.connection.RedisConnectionFactory;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+/**
+ * Subscribes the in-process caches to cross-node invalidations published through Redis.
+ */
+@Configuration
+public class RedisPubSubConfig {
+
+    @Bean
+    public RedisMessageListenerContainer redisMessageListenerContainer(RedisConnectionFactory connectionFactory,
+                                                                       BotConfigCache botConfigCache) {
+        RedisMessageListenerContainer container = new RedisMessageListenerContainer();
+        container.setConnectionFactory(connectionFactory);
+        container.addMessageListener(botConfigCache, new ChannelTopic(BotConfigCache.CHANNEL));
+        return container;
+    }
+}
@@ -0,0 +1,149 @@
+package com.muhammadminhaz.talkateeve.config;
+
+import com.muhammadminhaz.talkateeve.service.FileRoutingIndex;
+import com.muhammadminhaz.talkateeve.service.QuantizedVectorSearch;
+import com.muhammadminhaz.talkateeve.service.TwoStageVectorSearch;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Search indexes Hibernate's ddl-auto cannot express: it adds the columns, this adds the
+ * pgvector, btree and full-text indexes over them. Every statement is idempotent, so it is safe on
+ * every start.
+ *
+ * <p>Columns that live queries read are added in {@link #afterSingletonsInstantiated},
+ * after Hibernate's schema update and before the web server starts, so no request runs
+ * against a table that lacks them. Indexes and backfills only speed things up and run
+ * once the node is serving. Indexes are built {@code CONCURRENTLY}, so uploads and
+ * deletes keep going while an HNSW graph over every chunk is built.
+ */
+@Slf4j
+@Component
+public class SearchSchemaInitializer implements SmartInitializingSingleton, ApplicationRunner {
+
+    /** Advisory lock key for index builds; any constant no other code uses. */
+    private static final long INDEX_LOCK = 0x7461_6c6b_6964_78L;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TwoStageVectorSearch twoStageVectorSearch;
+    private final QuantizedVectorSearch quantizedVectorSearch;
+    private final FileRoutingIndex fileRoutingIndex;
+
+    public SearchSchemaInitializer(JdbcTemplate jdbcTemplate, TwoStageVectorSearch twoStageVectorSearch,
+                                   QuantizedVectorSearch quantizedVectorSearch, FileRoutingIndex fileRoutingIndex) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.twoStageVectorSearch = twoStageVectorSearch;
+        this.quantizedVectorSearch = quantizedVectorSearch;
+        this.fileRoutingIndex = fileRoutingIndex;
+    }
+
+    @Override
+    public void afterSingletonsInstantiated() {
+        // Full-text side of hybrid search, read by every HybridSearch.lexical query. The
+        // 'simple' configuration neither stems nor drops stop words, so product codes and
+        // names match exactly as written. Adding a stored generated column rewrites the
+        // table once, holding startup until it is done; after that it is a no-op.
+        jdbcTemplate.execute("ALTER TABLE bot_document ADD COLUMN IF NOT EXISTS content_tsv tsvector "
+                + "GENERATED ALWAYS AS (to_tsvector('simple', coalesce(content, ''))) STORED");
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        Map<String, String> indexes = new LinkedHashMap<>();
+        // Postgres does not index foreign keys, and every per-bot query filters on this.
+        indexes.put("idx_bot_document_bot_id", "(bot_id)");
+        // Cheap to keep even when no bot has opted in: 96 bytes per chunk. Rows are filled
+        // on insert, and by QuantizationBackfillRunner for older ones.
+        indexes.put("idx_bot_document_embedding_bits", "USING hnsw (embedding_bits bit_hamming_ops)");
+        if (quantizedVectorSearch.representation() == QuantizedVectorSearch.Representation.HALFVEC) {
+            // An expression index, so no column and no backfill; but building it reads every
+            // vector once, hence only when configured.
+            indexes.put("idx_bot_document_embedding_half",
+                    "USING hnsw ((embedding::halfvec(768)) halfvec_cosine_ops)");
+        }
+        indexes.put("idx_bot_document_content_tsv", "USING gin (content_tsv)");
+        createIndexesConcurrently(indexes);
+
+        int files = fileRoutingIndex.backfillMissing();
+        if (files > 0) {
+            log.info("Backfilled routing centroids for {} files", files);
+        }
+
+        if (twoStageVectorSearch.isEnabled()) {
+            // Rows written before the coarse column existed. Inserts fill it, so this partial
+            // index is empty once they are backfilled, and the check below reads only it
+            // instead of scanning the table on every start.
+            createIndexesConcurrently(Map.of("idx_bot_document_coarse_pending",
+                    "(id) WHERE embedding_coarse IS NULL AND embedding IS NOT NULL"));
+            if (Boolean.TRUE.equals(jdbcTemplate.queryForObject("SELECT EXISTS (SELECT 1 FROM bot_document "
+                    + "WHERE embedding_coarse IS NULL AND embedding IS NOT NULL)", Boolean.class))) {
+                int backfilled = jdbcTemplate.update(
+                        "UPDATE bot_document SET embedding_coarse = subvector(embedding, 1, "
+                                + TwoStageVectorSearch.COARSE_DIMENSIONS + ") "
+                                + "WHERE embedding_coarse IS NULL AND embedding IS NOT NULL");
+                log.info("Backfilled coarse embeddings for {} chunks", backfilled);
+            }
+            createIndexesConcurrently(Map.of("idx_bot_document_embedding_coarse",
+                    "USING hnsw (embedding_coarse vector_cosine_ops)"));
+        }
+    }
+
+    /**
+     * Builds the missing indexes on {@code bot_document} without blocking writes. A build
+     * that failed or was interrupted leaves an invalid index that {@code IF NOT EXISTS}
+     * would skip forever, so it is dropped and built again. One node builds at a time,
+     * under an advisory lock on one connection: to a second node an index still being
+     * built looks just like a failed one.
+     */
+    private void createIndexesConcurrently(Map<String, String> indexes) {
+        jdbcTemplate.execute((ConnectionCallback<Void>) connection -> {
+            try (Statement statement = connection.createStatement()) {
+                if (!queryBoolean(statement, "SELECT pg_try_advisory_lock(" + INDEX_LOCK + ")")) {
+                    log.info("Another node is building search indexes; skipping");
+                    return null;
+                }
+                try {
+                    for (Map.Entry<String, String> index : indexes.entrySet()) {
+                        String name = index.getKey();
+                        Boolean valid = queryBooleanOrNull(statement, "SELECT i.indisvalid FROM pg_index i "
+                                + "JOIN pg_class c ON c.oid = i.indexrelid WHERE c.relname = '" + name + "'");
+                        if (Boolean.TRUE.equals(valid)) {
+                            continue;
+                        }
+                        if (valid != null) {
+                            log.warn("Index {} is invalid from an earlier build; rebuilding it", name);
+                            statement.execute("DROP INDEX CONCURRENTLY IF EXISTS " + name);
+                        }
+                        log.info("Building index {}", name);
+                        statement.execute("CREATE INDEX CONCURRENTLY IF NOT EXISTS " + name
+                                + " ON bot_document " + index.getValue());
+                    }
+                } finally {
+                    statement.execute("SELECT pg_advisory_unlock(" + INDEX_LOCK + ")");
+                }
+            }
+            return null;
+        });
+    }
+
+    private static boolean queryBoolean(Statement statement, String sql) throws SQLException {
+        return Boolean.TRUE.equals(queryBooleanOrNull(statement, sql));
+    }
+
+    private static Boolean queryBooleanOrNull(Statement statement, String sql) throws SQLException {
+        try (ResultSet rs = statement.executeQuery(sql)) {
+            return rs.next() ? rs.getBoolean(1) : null;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.muhammadminhaz.talkateeve.config;
+
+import com.muhammadminhaz.talkateeve.service.VectorSearchBenchmark;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+/**
+ * One-shot latency and recall@k report for the vector search paths, off unless
+ * VECTOR_SEARCH_BENCHMARK=true is set for a single deploy. Read it before enabling
+ * two-stage search, choosing a quantized representation or opting a bot into it, or
+ * moving the local search tier's limits; it runs on the deployed JVM and flags, unlike
+ * a laptop measurement.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "app.search.benchmark.enabled", havingValue = "true")
+public class VectorSearchBenchmarkRunner implements ApplicationRunner {
+
+    private final VectorSearchBenchmark benchmark;
+    private final int bots;
+    private final int k;
+    private final int queries;
+
+    public VectorSearchBenchmarkRunner(VectorSearchBenchmark benchmark,
+                                       @Value("${app.search.benchmark.bots:5}") int bots,
+                                       @Value("${app.search.benchmark.k:5}") int k,
+                                       @Value("${app.search.benchmark.queries:50}") int queries) {
+        this.benchmark = benchmark;
+        this.bots = bots;
+        this.k = k;
+        this.queries = queries;
+    }
+
+    @Override
+    public void run(ApplicationArguments args) {
+        log.warn("VECTOR_SEARCH_BENCHMARK is on: running {} sample queries against each of {} bots. "
+                + "Unset it after this deploy.", queries, bots);
+        benchmark.run(bots, k, queries).forEach(result ->
+                log.warn("Vector search benchmark: bot={} chunks={} path={} recall@{}={} p50={}ms p95={}ms queries={}",
+                        result.botId(), result.chunks(), result.path(), result.k(),
+                        String.format("%.3f", result.recall()), String.format("%.2f", result.p50Millis()),
+                        String.format("%.2f", result.p95Millis()), result.queries()));
+    }
+}
@@ -1,5 +1,9 @@
 package com.muhammadminhaz.talkateeve.config;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.muhammadminhaz.talkateeve.service.HedgedEmbeddingModel;
+import com.muhammadminhaz.talkateeve.service.MappedVectorStore;
+import com.muhammadminhaz.talkateeve.service.RequestHedger;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.ai.embedding.EmbeddingModel;
 import org.springframework.ai.google.genai.GoogleGenAiEmbeddingConnectionDetails;
@@ -8,10 +12,13 @@ import org.springframework.ai.google.genai.text.GoogleGenAiTextEmbeddingOptions;
 import org.springframework.ai.vectorstore.VectorStore;
 import org.springframework.ai.vectorstore.pgvector.PgVectorStore;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.jdbc.core.JdbcTemplate;
 
+import java.nio.file.Path;
+
 @Slf4j
 @Configuration
 public class VectorStoreConfig {
@@ -20,7 +27,8 @@ public class VectorStoreConfig {
     public EmbeddingModel embeddingModel(
             @Value("${spring.ai.google.genai.api-key}") String apiKey,
             @Value("${spring.ai.google.genai.embedding.text.options.model:gemini-embedding-001}") String model,
-            @Value("${spring.ai.embedding.dimensions:768}") int dimensions) {
+            @Value("${spring.ai.embedding.dimensions:768}") int dimensions,
+            RequestHedger requestHedger) {
 
         // ponytail: DEFAULT_MODEL_NAME is text-embedding-004, which Google retired on
         // 2026-01-14 - never fall back to it. gemini-embedding-001 defaults to 3072 dims
@@ -39,10 +47,12 @@ public class VectorStoreConfig {
                 .taskType(GoogleGenAiTextEmbeddingOptions.TaskType.RETRIEVAL_DOCUMENT)
                 .build();
 
-        return new GoogleGenAiTextEmbeddingModel(connectionDetails, options);
+        // A pass-through unless app.hedging.enabled is set.
+        return new HedgedEmbeddingModel(new GoogleGenAiTextEmbeddingModel(connectionDetails, options), requestHedger);
     }
 
     @Bean
+    @ConditionalOnProperty(name = "app.vector-store.type", havingValue = "pgvector", matchIfMissing = true)
     public VectorStore vectorStore(JdbcTemplate jdbcTemplate,
                                    EmbeddingModel embeddingModel,
                                    @Value("${spring.ai.embedding.dimensions:768}") int dimensions) {
@@ -57,4 +67,18 @@ public class VectorStoreConfig {
                 .maxDocumentBatchSize(10000)
                 .build();
     }
+
+    /**
+     * Opt-in local store for read-heavy nodes. It does not share state with pgvector:
+     * switching an existing deployment over needs a re-upload, or a one-off copy of
+     * rag_documents, before answers have context again.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "app.vector-store.type", havingValue = "mapped")
+    public VectorStore mappedVectorStore(EmbeddingModel embeddingModel,
+                                         ObjectMapper objectMapper,
+                                         @Value("${app.vector-store.mapped.directory:./data/vectors}") String directory,
+                                         @Value("${app.vector-store.mapped.compact-after-segments:8}") int compactAfterSegments) {
+        return new MappedVectorStore(embeddingModel, objectMapper, Path.of(directory), compactAfterSegments);
+    }
 }
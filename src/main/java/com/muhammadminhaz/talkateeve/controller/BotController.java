@@ -7,6 +7,7 @@ import com.muhammadminhaz.talkateeve.dto.ChatMessageDTO;
 import com.muhammadminhaz.talkateeve.dto.ChatRequestDTO;
 import com.muhammadminhaz.talkateeve.service.AuthService;
 import com.muhammadminhaz.talkateeve.service.BotService;
+import com.muhammadminhaz.talkateeve.service.StageTimings;
 import com.muhammadminhaz.talkateeve.validation.FileUploadValidator;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.core.io.ClassPathResource;
@@ -14,10 +15,15 @@ import org.springframework.core.io.Resource;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
@@ -31,6 +37,8 @@ public class BotController {
     private final AuthService authService;
     private final FileUploadValidator fileUploadValidator;
 
+    private static final Duration HEARTBEAT = Duration.ofSeconds(2);
+
     public BotController(BotService botService, AuthService authService,
                          FileUploadValidator fileUploadValidator) {
         this.botService = botService;
@@ -38,12 +46,23 @@ public class BotController {
         this.fileUploadValidator = fileUploadValidator;
     }
 
+    /**
+     * Starts a server-side conversation. The widget sends the returned id with each
+     * message instead of the history; once it expires, the ask endpoints answer 404 and
+     * the widget opens a new one.
+     */
+    @PostMapping("/widget/session")
+    public ResponseEntity<Map<String, String>> openWidgetSession(@RequestParam String botId) {
+        return ResponseEntity.status(HttpStatus.CREATED)
+                .body(Map.of("sessionId", botService.openSession(UUID.fromString(botId))));
+    }
+
     /**
      * Widget endpoint - Public API for embedded chat widgets
-     * Accepts chat history for context-aware responses
+     * Answers in the context of the session, or of the history sent by older widgets
      */
     @PostMapping("/widget/ask")
-    public ResponseEntity<String> askBotWidget(
+    public Mono<ResponseEntity<String>> askBotWidget(
             @RequestParam String botId,
             @RequestBody ChatRequestDTO chatRequest
     ) {
@@ -52,17 +71,42 @@ public class BotController {
         // a months-long outage left no trace in the logs.
         String question = chatRequest.getMessage();
         List<ChatMessageDTO> history = chatRequest.getHistory();
+        String sessionId = chatRequest.getSessionId();
+
+        log.info("widget ask botId={} session={} historySize={}", botId, sessionId != null,
+                history == null ? 0 : history.size());
 
-        log.info("widget ask botId={} historySize={}", botId, history == null ? 0 : history.size());
+        // Async: the request thread is released while Gemini generates, and if the
+        // visitor leaves (or spring.mvc.async.request-timeout passes) the answer is cancelled.
+        StageTimings timings = new StageTimings();
+        Mono<String> reply = sessionId != null
+                ? botService.askInSession(UUID.fromString(botId), sessionId, question, timings)
+                : botService.askBotWithHistory(UUID.fromString(botId), question, history, timings);
+        return reply.map(answer -> {
+            log.debug("widget answer botId={}: {}", botId, answer);
+            return withTimings(answer, timings);
+        });
+    }
 
-        String answer = botService.askBotWithHistory(
-                UUID.fromString(botId),
-                question,
-                history
-        );
+    /**
+     * Streaming widget endpoint: the same answer as {@code /widget/ask}, sent as
+     * server-sent events while Gemini generates it. See {@link #toEvents} for the format.
+     */
+    @PostMapping(value = "/widget/ask/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<Map<String, String>>> askBotWidgetStream(
+            @RequestParam String botId,
+            @RequestBody ChatRequestDTO chatRequest
+    ) {
+        List<ChatMessageDTO> history = chatRequest.getHistory();
+        String sessionId = chatRequest.getSessionId();
+        log.info("widget stream botId={} session={} historySize={}", botId, sessionId != null,
+                history == null ? 0 : history.size());
 
-        log.debug("widget answer botId={}: {}", botId, answer);
-        return ResponseEntity.ok(answer);
+        StageTimings timings = new StageTimings();
+        Flux<String> answer = sessionId != null
+                ? botService.streamInSession(UUID.fromString(botId), sessionId, chatRequest.getMessage(), timings)
+                : botService.streamAnswerWithHistory(UUID.fromString(botId), chatRequest.getMessage(), history, timings);
+        return toEvents(botId, answer, timings);
     }
 
     /**
@@ -151,7 +195,7 @@ public class BotController {
     }
 
     @PostMapping("/{botId}/ask")
-    public ResponseEntity<String> askBot(
+    public Mono<ResponseEntity<String>> askBot(
             @PathVariable UUID botId,
             @RequestBody Map<String, String> body,
             @CookieValue(value = "token", required = false) String token
@@ -159,8 +203,57 @@ public class BotController {
         requireUserId(token);
 
         String question = body.get("question");
-        String answer = botService.askBot(botId, question);
-        return ResponseEntity.ok(answer);
+        StageTimings timings = new StageTimings();
+        return botService.askBot(botId, question, timings).map(answer -> withTimings(answer, timings));
+    }
+
+    @PostMapping(value = "/{botId}/ask/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<Map<String, String>>> askBotStream(
+            @PathVariable UUID botId,
+            @RequestBody Map<String, String> body,
+            @CookieValue(value = "token", required = false) String token
+    ) {
+        requireUserId(token);
+
+        StageTimings timings = new StageTimings();
+        return toEvents(botId.toString(),
+                botService.streamAnswerWithHistory(botId, body.get("question"), new ArrayList<>(), timings), timings);
+    }
+
+    /** Stage timings go in Server-Timing, where browser dev tools already show them. */
+    private static ResponseEntity<String> withTimings(String answer, StageTimings timings) {
+        return ResponseEntity.ok()
+                .header("Server-Timing", timings.toServerTiming())
+                .body(answer);
+    }
+
+    /**
+     * Each piece of text is a default event with {@code {"text": ...}} as data, followed
+     * by one {@code done} event whose data is the answer's stage timings in milliseconds
+     * (headers are long gone by then, so Server-Timing is not an option). The text is wrapped in JSON because SSE strips the
+     * leading space of a data line, and Gemini's chunks often start with one.
+     *
+     * <p>An unknown bot surfaces as a normal error response via GlobalExceptionHandler.
+     * Anything later, retrieval included, happens after the 200 has been sent, so it
+     * becomes an {@code error} event carrying an errorId that matches the log line.
+     */
+    private Flux<ServerSentEvent<Map<String, String>>> toEvents(String botId, Flux<String> answer,
+                                                                StageTimings timings) {
+        return answer
+                .map(text -> ServerSentEvent.builder(Map.of("text", text)).build())
+                // A disconnect is only noticed when a write fails, and retrieval plus
+                // Gemini's first chunk can take seconds. The comments give the container
+                // something to write so an abandoned answer is cancelled promptly.
+                .publish(events -> Flux.merge(events, Flux.interval(HEARTBEAT, HEARTBEAT)
+                        .map(tick -> ServerSentEvent.<Map<String, String>>builder().comment("keep-alive").build())
+                        .takeUntilOther(events.then())))
+                .concatWith(Flux.defer(() -> Flux.just(
+                        ServerSentEvent.builder(timings.toMillis()).event("done").build())))
+                .onErrorResume(e -> {
+                    String errorId = UUID.randomUUID().toString();
+                    log.error("[{}] answer stream failed for bot {}", errorId, botId, e);
+                    return Flux.just(ServerSentEvent.builder(Map.of("errorId", errorId)).event("error").build());
+                });
     }
 
     /**
@@ -12,5 +12,13 @@ public class BotRequest {
     private String description;
     private String slug;
     private List<String> instructions;
+    // Null leaves the bot's current setting unchanged.
+    private Boolean quantizedSearch;
+    // Null leaves the current deadline unchanged; zero or less resets it to the default.
+    private Integer answerDeadlineMs;
+    // Same convention as answerDeadlineMs.
+    private Integer promptTokenBudget;
+    // Same convention, as a cosine similarity such as 0.6.
+    private Double minRelevance;
 }
 
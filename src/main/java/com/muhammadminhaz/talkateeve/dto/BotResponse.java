@@ -14,7 +14,15 @@ public class BotResponse {
     private String description;
     private String slug;
     private List<String> instructions;
+    private boolean quantizedSearch;
+    private Integer answerDeadlineMs;
+    private Integer promptTokenBudget;
+    private Double minRelevance;
     private String embedScript;
+    // Only set when the request uploaded files. Skipped chunks were near-duplicates of
+    // what the same file already had, so they were never embedded.
+    private Integer chunksStored;
+    private Integer chunksSkipped;
 
     public static BotResponse fromBot(Bot bot) {
         BotResponse response = new BotResponse();
@@ -23,6 +31,10 @@ public class BotResponse {
         response.setDescription(bot.getDescription());
         response.setSlug(bot.getSlug());
         response.setInstructions(bot.getInstructions());
+        response.setQuantizedSearch(bot.isQuantizedSearch());
+        response.setAnswerDeadlineMs(bot.getAnswerDeadlineMs());
+        response.setPromptTokenBudget(bot.getPromptTokenBudget());
+        response.setMinRelevance(bot.getMinRelevance());
         response.setEmbedScript(generateEmbedScript(bot));
         return response;
     }
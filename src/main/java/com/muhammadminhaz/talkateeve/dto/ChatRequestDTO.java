@@ -14,6 +14,9 @@ import java.util.List;
 @AllArgsConstructor
 public class ChatRequestDTO {
     private String message;
+    /** From {@code /widget/session}. When set, the server holds the history and {@code history} is ignored. */
+    private String sessionId;
+    /** Only for clients without a session; at most the last 10 turns are used. */
     private List<ChatMessageDTO> history = new ArrayList<>();
 }
 
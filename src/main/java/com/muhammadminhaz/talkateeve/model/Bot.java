@@ -31,6 +31,22 @@ public class Bot {
     @Column(name = "instruction", length = 2000)
     private List<String> instructions = new ArrayList<>();
 
+    // Opt-in binary-quantized candidate search; the default keeps existing rows on exact search.
+    @Column(name = "quantized_search", columnDefinition = "boolean default false")
+    private boolean quantizedSearch;
+
+    // End-to-end budget for one answer; null means app.chat.deadline.
+    @Column(name = "answer_deadline_ms")
+    private Integer answerDeadlineMs;
+
+    // Estimated input tokens per prompt; null means app.chat.prompt.token-budget.
+    @Column(name = "prompt_token_budget")
+    private Integer promptTokenBudget;
+
+    // Cosine similarity a chunk needs to be sent as context; null means app.search.relevance.min-score.
+    @Column(name = "min_relevance")
+    private Double minRelevance;
+
     @ManyToOne
     @JoinColumn(name = "user_id")
     private User user;
@@ -27,6 +27,18 @@ public class BotDocument {
     @Column(name = "embedding", columnDefinition = "vector(768)")
     private PGvector embedding;
 
+    /** MRL prefix of {@code embedding}, the coarse pass of TwoStageVectorSearch. */
+    @Column(name = "embedding_coarse", columnDefinition = "vector(256)")
+    private PGvector embeddingCoarse;
+
+    /** Sign bit of each dimension of {@code embedding}, the candidate pass of QuantizedVectorSearch. */
+    @Column(name = "embedding_bits", columnDefinition = "bit(768)")
+    private String embeddingBits;
+
+    /** SimHash of the content's word 3-grams, for NearDuplicateDetector; null until first computed. */
+    @Column(name = "simhash")
+    private Long simhash;
+
     @ManyToOne
     @JoinColumn(name = "bot_id", nullable = false)
     private Bot bot;
@@ -0,0 +1,66 @@
+package com.muhammadminhaz.talkateeve.model;
+
+import com.pgvector.PGvector;
+import jakarta.persistence.*;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.time.Instant;
+import java.util.UUID;
+
+/**
+ * One row per uploaded file of a bot: the catalog the file list and the dashboard read.
+ * Written with native SQL by FileRoutingIndex and FileCatalog; mapped here so ddl-auto
+ * creates the table and its unique key.
+ */
+@Entity
+@Getter
+@Setter
+@NoArgsConstructor
+@Table(name = "bot_file", uniqueConstraints = @UniqueConstraint(columnNames = {"bot_id", "filename"}))
+public class BotFile {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.UUID)
+    private UUID id;
+
+    @ManyToOne
+    @JoinColumn(name = "bot_id", nullable = false)
+    private Bot bot;
+
+    private String filename;
+
+    @Column(name = "chunk_count")
+    private int chunkCount;
+
+    /** Characters across the file's chunks, overlap included; sizes the KB for retrieval. */
+    @Column(name = "content_chars", nullable = false, columnDefinition = "bigint not null default 0")
+    private long contentChars;
+
+    /** Mean of the file's chunk embeddings, used to pick files before chunks. */
+    @Column(name = "centroid", columnDefinition = "vector(768)")
+    private PGvector centroid;
+
+    /** Upload size; 0 for files uploaded before the catalog recorded it. */
+    @Column(name = "bytes", nullable = false, columnDefinition = "bigint not null default 0")
+    private long bytes;
+
+    /** SHA-256 of the uploaded file, hex. */
+    @Column(name = "content_hash", length = 64)
+    private String contentHash;
+
+    @Column(name = "ingested_at", nullable = false, columnDefinition = "timestamp(6) with time zone not null default now()")
+    private Instant ingestedAt;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "status", nullable = false, columnDefinition = "varchar(16) not null default 'READY'")
+    private Status status;
+
+    public enum Status {
+        /** Chunks are stored and searchable. */
+        READY,
+        /** The upload was rolled back; the row has no chunks and only tells the owner. */
+        FAILED
+    }
+}
@@ -9,10 +9,18 @@ import java.time.Instant;
 import java.util.UUID;
 
 /**
- * One row per question asked of a bot. The dashboard had no source of truth for
- * interaction counts, so its numbers and chart were hardcoded; this is that source.
- * Deliberately not a full transcript: storing user questions would be a privacy
- * liability, and counts are all the dashboard needs.
+ * Questions asked of a bot. The dashboard had no source of truth for interaction counts,
+ * so its numbers and chart were hardcoded; this is that source. Deliberately not a full
+ * transcript: storing user questions would be a privacy liability, and counts are all
+ * the dashboard needs.
+ *
+ * <p>Rows are written in batches by QueryCounter, one per bot and minute per flush, so
+ * a row stands for {@code queryCount} questions asked in the minute starting at
+ * {@code askedAt}. Rows from before batching count one each.
+ *
+ * <p>The table is partitioned by month by QueryPartitions, which makes its primary key
+ * {@code (id, asked_at)}. Nothing loads these rows through JPA; the mapping is here for
+ * the columns and the index.
  */
 @Entity
 @Table(name = "bot_query", indexes = @Index(name = "idx_bot_query_bot_asked", columnList = "bot_id, asked_at"))
@@ -31,6 +39,9 @@ public class BotQuery {
     @Column(name = "asked_at", nullable = false)
     private Instant askedAt = Instant.now();
 
+    @Column(name = "query_count", nullable = false, columnDefinition = "integer not null default 1")
+    private int queryCount = 1;
+
     public BotQuery(UUID botId) {
         this.botId = botId;
     }
@@ -0,0 +1,47 @@
+package com.muhammadminhaz.talkateeve.model;
+
+import jakarta.persistence.*;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+import java.io.Serializable;
+import java.time.LocalDate;
+import java.util.UUID;
+
+/**
+ * Questions per bot per UTC day, kept up to date by QueryCounter in the same transaction
+ * that writes the {@link BotQuery} rows. The dashboard reads only this, so its cost
+ * follows the number of bots and days shown rather than the traffic ever received.
+ */
+@Entity
+@Getter
+@Setter
+@NoArgsConstructor
+@IdClass(BotQueryDaily.Key.class)
+@Table(name = "bot_query_daily")
+public class BotQueryDaily {
+
+    @Id
+    @Column(name = "bot_id", nullable = false)
+    private UUID botId;
+
+    @Id
+    @Column(name = "day", nullable = false)
+    private LocalDate day;
+
+    @Column(name = "query_count", nullable = false)
+    private long queryCount;
+
+    @Getter
+    @Setter
+    @NoArgsConstructor
+    @EqualsAndHashCode
+    public static class Key implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private UUID botId;
+        private LocalDate day;
+    }
+}
@@ -0,0 +1,24 @@
+package com.muhammadminhaz.talkateeve.repository;
+
+import com.muhammadminhaz.talkateeve.model.BotQueryDaily;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+
+import java.time.LocalDate;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+
+public interface BotQueryDailyRepository extends JpaRepository<BotQueryDaily, BotQueryDaily.Key> {
+
+    @Query("select coalesce(sum(d.queryCount), 0) from BotQueryDaily d where d.botId in :botIds")
+    long sumQueryCountByBotIdIn(@Param("botIds") Collection<UUID> botIds);
+
+    /**
+     * Daily counts per bot for the dashboard chart. Days with no traffic have no row, and
+     * the caller zero-fills them so the chart shows a continuous series rather than a
+     * broken line.
+     */
+    List<BotQueryDaily> findByBotIdInAndDayGreaterThanEqual(Collection<UUID> botIds, LocalDate since);
+}
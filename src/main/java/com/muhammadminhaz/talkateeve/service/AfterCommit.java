@@ -0,0 +1,29 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Runs cache invalidations, and other side effects outside the database, once the
+ * surrounding transaction has committed, or at once outside one. Run before the commit,
+ * a reader in between reloads the old rows and caches them as current; after a rollback
+ * there is nothing to invalidate, and nothing the database would agree with to write.
+ */
+final class AfterCommit {
+
+    private AfterCommit() {
+    }
+
+    static void run(Runnable work) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    work.run();
+                }
+            });
+        } else {
+            work.run();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+
+/**
+ * How long one chat answer may take, and what happens when it takes longer.
+ *
+ * <p>The budget starts when the question arrives. Retrieval gets the first
+ * {@code retrievalShare} of it; past that the answer goes ahead with whatever the
+ * retrieval cache holds, or with no context. Generation gets the rest, and a timed-out
+ * generation returns {@link #fallbackAnswer()}. Each of those is counted in
+ * {@code chat.answer.degraded}, so a bot that routinely degrades shows up on a dashboard
+ * instead of only in users' complaints.
+ */
+@Slf4j
+@Component
+public class AnswerDeadlines {
+
+    private final Duration defaultBudget;
+    private final double retrievalShare;
+    private final String fallbackAnswer;
+    private final MeterRegistry meterRegistry;
+
+    public AnswerDeadlines(@Value("${app.chat.deadline:20s}") Duration defaultBudget,
+                           @Value("${app.chat.deadline.retrieval-share:0.4}") double retrievalShare,
+                           @Value("${app.chat.deadline.fallback-answer:Sorry, I'm taking too long to answer right now. Please try asking again in a moment.}")
+                           String fallbackAnswer,
+                           MeterRegistry meterRegistry) {
+        this.defaultBudget = defaultBudget;
+        this.retrievalShare = Math.min(1.0, Math.max(0.0, retrievalShare));
+        this.fallbackAnswer = fallbackAnswer;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /** The bot's own deadline if it has one, the configured default otherwise. */
+    public Duration budgetFor(BotConfigCache.BotChatConfig config) {
+        return config.deadline() != null ? config.deadline() : defaultBudget;
+    }
+
+    public Duration retrievalBudget(Duration budget) {
+        return Duration.ofNanos((long) (budget.toNanos() * retrievalShare));
+    }
+
+    public String fallbackAnswer() {
+        return fallbackAnswer;
+    }
+
+    /**
+     * @param stage   {@code retrieval} or {@code generation}
+     * @param outcome what the answer went ahead with: {@code cached_context} or
+     *                {@code no_context} for retrieval; {@code fallback} or
+     *                {@code truncated} (a stream that stalled part-way) for generation
+     */
+    public void degraded(String botId, String stage, String outcome) {
+        meterRegistry.counter("chat.answer.degraded", "stage", stage, "outcome", outcome).increment();
+        log.warn("answer degraded botId={} stage={} outcome={}", botId, stage, outcome);
+    }
+}
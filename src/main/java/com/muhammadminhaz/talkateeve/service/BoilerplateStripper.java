@@ -0,0 +1,87 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Removes the running headers and footers that PDF extraction leaves on every page:
+ * "Acme Corp - Confidential", "Page 3 of 12", the document title. Left in, they end up
+ * in most chunks, make unrelated chunks look alike to the embedding, and match every
+ * question that happens to name the company.
+ *
+ * <p>Lines are compared with digits masked (page numbers, dates) and case and spacing
+ * ignored. Very short lines ("Yes", "1.") are never boilerplate; they repeat in
+ * legitimate tables and lists. Only lines at a page's top or bottom are candidates, see
+ * {@link PageEdges}. Text without page boundaries (Tika's DOCX output) is left alone:
+ * a line repeating there may as well be a recurring step or table row as a header.
+ */
+final class BoilerplateStripper {
+
+    private static final Pattern DIGITS = Pattern.compile("\\d+");
+    private static final Pattern SPACE = Pattern.compile("\\s+");
+    private static final int MIN_LENGTH = 4;
+
+    private BoilerplateStripper() {
+    }
+
+    /**
+     * Running headers and footers of pages seen one at a time: the first and last
+     * {@code EDGE} non-blank lines of a page are dropped once the same line has been at
+     * a page edge {@code minRepeats} times. The first pages keep theirs, since nothing
+     * has repeated yet; the document is never held whole to look ahead.
+     */
+    static final class PageEdges {
+
+        private static final int EDGE = 2;
+
+        private final int minRepeats;
+        private final Map<String, Integer> seen = new HashMap<>();
+        private int removed;
+
+        PageEdges(int minRepeats) {
+            this.minRepeats = minRepeats;
+        }
+
+        List<String> strip(List<String> page) {
+            List<Integer> content = new ArrayList<>();
+            for (int i = 0; i < page.size(); i++) {
+                if (!page.get(i).isBlank()) {
+                    content.add(i);
+                }
+            }
+            Set<Integer> drop = new HashSet<>();
+            for (int k = 0; k < content.size(); k++) {
+                if (k >= EDGE && k < content.size() - EDGE) {
+                    continue;
+                }
+                String key = normalize(page.get(content.get(k)));
+                if (key.length() >= MIN_LENGTH && seen.merge(key, 1, Integer::sum) >= minRepeats) {
+                    drop.add(content.get(k));
+                }
+            }
+            removed += drop.size();
+            List<String> kept = new ArrayList<>(page.size() - drop.size());
+            for (int i = 0; i < page.size(); i++) {
+                if (!drop.contains(i)) {
+                    kept.add(page.get(i));
+                }
+            }
+            return kept;
+        }
+
+        int removed() {
+            return removed;
+        }
+    }
+
+    private static String normalize(String line) {
+        String masked = DIGITS.matcher(line.trim().toLowerCase(Locale.ROOT)).replaceAll("#");
+        return SPACE.matcher(masked).replaceAll(" ");
+    }
+}
@@ -0,0 +1,183 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import com.muhammadminhaz.talkateeve.model.Bot;
+import com.muhammadminhaz.talkateeve.repository.BotRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Per-bot chat configuration, held in-process so a widget question does not load the
+ * {@code Bot} entity and join {@code bot_instructions} just to read the instructions.
+ *
+ * <p>Entries are dropped on this node when the bot changes, and on every other node via
+ * a Redis pub/sub message on {@link #CHANNEL}. Pub/sub delivery is fire-and-forget, so a
+ * TTL bounds how long a node that missed a message can serve a stale entry.
+ *
+ * <p>The KB generation is a Redis counter bumped on every document change. It is part of
+ * the retrieval cache key, so a change makes old cached results unreachable without
+ * scanning Redis for them; they expire on their own TTL.
+ */
+@Slf4j
+@Component
+public class BotConfigCache implements MessageListener {
+
+    public static final String CHANNEL = "bot-config-invalidation";
+
+    private static final String GENERATION_PREFIX = "kb-generation:";
+    private static final String CONFIG_EVENT = "config:";
+    private static final String KB_EVENT = "kb:";
+
+    /** {@code deadline}, {@code promptTokenBudget} and {@code minRelevance} are null when the bot uses the defaults. */
+    public record BotChatConfig(UUID botId, List<String> instructions, String instructionsText,
+                                Duration deadline, Integer promptTokenBudget, Double minRelevance,
+                                long kbGeneration, long loadedAtNanos) {
+    }
+
+    private final BotRepository botRepository;
+    private final RedisTemplate<String, String> redisTemplate;
+    private final long ttlNanos;
+
+    private final Map<UUID, BotChatConfig> configs = new ConcurrentHashMap<>();
+    private final List<Consumer<String>> kbListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Bumped on every eviction. A load that read the database before an update committed
+     * must not install its stale result after the eviction for that update.
+     */
+    private final AtomicLong evictions = new AtomicLong();
+
+    public BotConfigCache(BotRepository botRepository,
+                          RedisTemplate<String, String> redisTemplate,
+                          @Value("${app.bot-config-cache.ttl:10m}") Duration ttl) {
+        this.botRepository = botRepository;
+        this.redisTemplate = redisTemplate;
+        this.ttlNanos = ttl.toNanos();
+    }
+
+    public BotChatConfig get(UUID botId) {
+        return find(botId).orElseThrow(() -> new RuntimeException("Bot not found"));
+    }
+
+    private Optional<BotChatConfig> find(UUID botId) {
+        BotChatConfig config = configs.get(botId);
+        if (config != null && System.nanoTime() - config.loadedAtNanos() < ttlNanos) {
+            return Optional.of(config);
+        }
+
+        long evictionsBefore = evictions.get();
+        Optional<Bot> found = botRepository.findById(botId);
+        if (found.isEmpty()) {
+            return Optional.empty();
+        }
+        Bot bot = found.get();
+        List<String> instructions = List.copyOf(bot.getInstructions());
+        Duration deadline = bot.getAnswerDeadlineMs() == null ? null : Duration.ofMillis(bot.getAnswerDeadlineMs());
+        BotChatConfig loaded = new BotChatConfig(botId, instructions, String.join("\n", instructions),
+                deadline, bot.getPromptTokenBudget(), bot.getMinRelevance(), readGeneration(botId.toString()), System.nanoTime());
+
+        if (evictions.get() == evictionsBefore) {
+            configs.put(botId, loaded);
+        }
+        return Optional.of(loaded);
+    }
+
+    /**
+     * An unknown or malformed id has no documents either, so retrieval finds nothing under
+     * generation 0. A Redis or database failure propagates: answering it with 0 would
+     * serve whatever was cached before the bot's first document change.
+     */
+    public long kbGeneration(String botId) {
+        return parse(botId).flatMap(this::find).map(BotChatConfig::kbGeneration).orElse(0L);
+    }
+
+    /** The bot's own relevance cutoff, or null for the default (and for an unknown bot). */
+    public Double minRelevance(String botId) {
+        return parse(botId).flatMap(this::find).map(BotChatConfig::minRelevance).orElse(null);
+    }
+
+    /**
+     * The bot's settings changed: evict it here and on every other node, once the change
+     * has committed.
+     */
+    public void invalidate(UUID botId) {
+        AfterCommit.run(() -> {
+            evict(botId);
+            publish(CONFIG_EVENT + botId);
+        });
+    }
+
+    /**
+     * The bot's documents changed. Deferred to the commit, so no node reloads the old
+     * chunks under the new generation. Other nodes also run the {@link #onKbChange}
+     * listeners for their own in-process indexes; the caller handles this node's.
+     */
+    public void bumpKbGeneration(String botId) {
+        AfterCommit.run(() -> {
+            redisTemplate.opsForValue().increment(GENERATION_PREFIX + botId);
+            evict(UUID.fromString(botId));
+            publish(KB_EVENT + botId);
+        });
+    }
+
+    public void onKbChange(Consumer<String> listener) {
+        kbListeners.add(listener);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        try {
+            if (body.startsWith(KB_EVENT)) {
+                String botId = body.substring(KB_EVENT.length());
+                evict(UUID.fromString(botId));
+                kbListeners.forEach(listener -> listener.accept(botId));
+            } else if (body.startsWith(CONFIG_EVENT)) {
+                evict(UUID.fromString(body.substring(CONFIG_EVENT.length())));
+            }
+        } catch (IllegalArgumentException e) {
+            log.warn("Ignoring malformed bot cache invalidation '{}'", body);
+        }
+    }
+
+    private void evict(UUID botId) {
+        evictions.incrementAndGet();
+        configs.remove(botId);
+    }
+
+    private static Optional<UUID> parse(String botId) {
+        try {
+            return Optional.of(UUID.fromString(botId));
+        } catch (IllegalArgumentException e) {
+            return Optional.empty();
+        }
+    }
+
+    private long readGeneration(String botId) {
+        String value = redisTemplate.opsForValue().get(GENERATION_PREFIX + botId);
+        return value == null ? 0 : Long.parseLong(value);
+    }
+
+    private void publish(String event) {
+        try {
+            redisTemplate.convertAndSend(CHANNEL, event);
+        } catch (Exception e) {
+            // Other nodes fall back to the TTL; failing the update over it would be worse.
+            log.warn("Could not publish bot cache invalidation {}", event, e);
+        }
+    }
+}
@@ -10,10 +10,12 @@ import org.apache.tika.Tika;
 import org.springframework.ai.document.Document;
 import org.springframework.ai.vectorstore.SearchRequest;
 import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.BufferedReader;
@@ -22,6 +24,7 @@ import java.nio.charset.StandardCharsets;
 import java.security.MessageDigest;
 import java.time.Duration;
 import java.util.*;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -33,6 +36,19 @@ public class BotDocumentService {
     private final RedisTemplate<String, String> redisTemplate;
     private final ObjectMapper objectMapper;
     private final JdbcTemplate jdbcTemplate;
+    private final LocalVectorIndex localVectorIndex;
+    private final TwoStageVectorSearch twoStageVectorSearch;
+    private final QuantizedVectorSearch quantizedVectorSearch;
+    private final FileRoutingIndex fileRoutingIndex;
+    private final FileCatalog fileCatalog;
+    private final HybridSearch hybridSearch;
+    private final RelevanceCutoff relevanceCutoff;
+    private final NearDuplicateDetector nearDuplicateDetector;
+    private final PdfTextExtractor pdfTextExtractor;
+    private final BotConfigCache botConfigCache;
+    private final SingleFlight singleFlight;
+    private final DataSize maxFileSize;
+    private final DataSize maxPdfSize;
     private final Tika tika = new Tika();
 
     private static final String CACHE_PREFIX = "query:";
@@ -42,35 +58,78 @@ public class BotDocumentService {
     private static final int BATCH_SIZE = 5; // Process 5 chunks at a time
     private static final int MAX_CHUNK_SIZE = 500; // Smaller chunks
     private static final int CHUNK_OVERLAP = 100;
-    private static final long MAX_FILE_SIZE = 5 * 1024 * 1024; // 5MB max per file
     private static final long MAX_TEXT_LENGTH = 1_000_000; // 1M chars max
+    private static final int BOILERPLATE_MIN_REPEATS = 3; // a line on 3+ pages is a header or footer
+
+    /**
+     * What an upload stored. Near-duplicate chunks were dropped before embedding, and
+     * PDF header and footer lines before chunking; neither is in {@code documents}.
+     */
+    public record UploadResult(List<BotDocument> documents, int duplicateChunksSkipped, int boilerplateLinesStripped) {
+    }
+
+    private record ProcessedFile(List<BotDocument> documents, int boilerplateLinesStripped) {
+    }
 
     public BotDocumentService(VectorStore vectorStore,
                               EmbeddingService embeddingService,
                               RedisTemplate<String, String> redisTemplate,
                               ObjectMapper objectMapper,
-                              JdbcTemplate jdbcTemplate) {
+                              JdbcTemplate jdbcTemplate,
+                              LocalVectorIndex localVectorIndex,
+                              TwoStageVectorSearch twoStageVectorSearch,
+                              QuantizedVectorSearch quantizedVectorSearch,
+                              FileRoutingIndex fileRoutingIndex,
+                              FileCatalog fileCatalog,
+                              HybridSearch hybridSearch,
+                              RelevanceCutoff relevanceCutoff,
+                              NearDuplicateDetector nearDuplicateDetector,
+                              PdfTextExtractor pdfTextExtractor,
+                              BotConfigCache botConfigCache,
+                              SingleFlight singleFlight,
+                              @Value("${app.ingest.max-file-size:5MB}") DataSize maxFileSize,
+                              @Value("${app.ingest.max-pdf-size:50MB}") DataSize maxPdfSize) {
         this.vectorStore = vectorStore;
         this.embeddingService = embeddingService;
         this.redisTemplate = redisTemplate;
         this.objectMapper = objectMapper;
         this.jdbcTemplate = jdbcTemplate;
+        this.localVectorIndex = localVectorIndex;
+        this.twoStageVectorSearch = twoStageVectorSearch;
+        this.quantizedVectorSearch = quantizedVectorSearch;
+        this.fileRoutingIndex = fileRoutingIndex;
+        this.fileCatalog = fileCatalog;
+        this.hybridSearch = hybridSearch;
+        this.relevanceCutoff = relevanceCutoff;
+        this.nearDuplicateDetector = nearDuplicateDetector;
+        this.pdfTextExtractor = pdfTextExtractor;
+        this.botConfigCache = botConfigCache;
+        this.singleFlight = singleFlight;
+        this.maxFileSize = maxFileSize;
+        this.maxPdfSize = maxPdfSize;
+        // Another node changed this bot's documents; drop what this node holds in memory.
+        botConfigCache.onKbChange(this::evictLocalIndexes);
     }
 
     /**
      * Upload documents with streaming - NO full text in memory
      */
     @Transactional
-    public List<BotDocument> uploadDocuments(Bot bot, List<MultipartFile> files) throws Exception {
+    public UploadResult uploadDocuments(Bot bot, List<MultipartFile> files) throws Exception {
         List<BotDocument> savedDocs = new ArrayList<>();
         List<String> failed = new ArrayList<>();
+        // One index for the whole upload; it only compares chunks within a filename.
+        NearDuplicateDetector.Index duplicates = nearDuplicateDetector.forBot(bot.getId());
+        int boilerplateLines = 0;
 
         for (MultipartFile file : files) {
-            // Validate file size
-            if (file.getSize() > MAX_FILE_SIZE) {
+            // Validate file size; PDFs are streamed, so they may be larger than DOCX
+            DataSize limit = PdfTextExtractor.isPdf(file) ? maxPdfSize : maxFileSize;
+            if (file.getSize() > limit.toBytes()) {
                 log.warn("Rejecting file {} - exceeds max size of {}MB",
-                        file.getOriginalFilename(), MAX_FILE_SIZE / 1024 / 1024);
-                failed.add(file.getOriginalFilename() + " (exceeds " + (MAX_FILE_SIZE / 1024 / 1024) + "MB)");
+                        file.getOriginalFilename(), limit.toMegabytes());
+                failed.add(file.getOriginalFilename() + " (exceeds " + limit.toMegabytes() + "MB)");
+                fileCatalog.recordFailure(bot.getId(), file.getOriginalFilename(), file.getSize(), null);
                 continue;
             }
 
@@ -78,10 +137,16 @@ public class BotDocumentService {
                     file.getOriginalFilename(),
                     file.getSize() / 1024);
 
+            String contentHash = null;
             try {
+                contentHash = FileCatalog.sha256(file.getInputStream());
                 // Process file with streaming - never load full text
-                List<BotDocument> fileDocs = processFileStreaming(bot, file);
+                ProcessedFile processed = processFileStreaming(bot, file, duplicates);
+                List<BotDocument> fileDocs = processed.documents();
                 savedDocs.addAll(fileDocs);
+                boilerplateLines += processed.boilerplateLinesStripped();
+                fileRoutingIndex.refresh(bot.getId().toString(), file.getOriginalFilename());
+                fileCatalog.recordUpload(bot.getId(), file.getOriginalFilename(), file.getSize(), contentHash);
 
                 log.info("Processed {} chunks from {}", fileDocs.size(), file.getOriginalFilename());
 
@@ -95,6 +160,7 @@ public class BotDocumentService {
             } catch (Exception e) {
                 log.error("Failed to process file {}", file.getOriginalFilename(), e);
                 failed.add(file.getOriginalFilename());
+                fileCatalog.recordFailure(bot.getId(), file.getOriginalFilename(), file.getSize(), contentHash);
             }
         }
 
@@ -106,24 +172,21 @@ public class BotDocumentService {
             throw new RuntimeException("Document upload failed for: " + String.join(", ", failed));
         }
 
-        log.info("Successfully uploaded {} document chunks for bot {}", savedDocs.size(), bot.getId());
+        log.info("Successfully uploaded {} document chunks for bot {}, skipped {} near-duplicates and {} boilerplate lines",
+                savedDocs.size(), bot.getId(), duplicates.skipped(), boilerplateLines);
 
-        return savedDocs;
+        return new UploadResult(savedDocs, duplicates.skipped(), boilerplateLines);
     }
 
     /**
      * STREAMING APPROACH - Never holds full text in memory
-     * Processes text line-by-line and creates chunks on the fly
+     * Processes text line-by-line and creates chunks on the fly. PDFs are read a page at
+     * a time by {@link PdfTextExtractor}; other formats still go through Tika whole.
      */
-    private List<BotDocument> processFileStreaming(Bot bot, MultipartFile file) throws Exception {
-        List<BotDocument> savedDocs = new ArrayList<>();
-        List<Document> vectorDocsBatch = new ArrayList<>();
-
-        String filename = file.getOriginalFilename();
-        int chunkIndex = 0;
-
-        // Use a streaming text chunker
-        StreamingTextChunker chunker = new StreamingTextChunker(MAX_CHUNK_SIZE, CHUNK_OVERLAP);
+    private ProcessedFile processFileStreaming(Bot bot, MultipartFile file,
+                                               NearDuplicateDetector.Index duplicates) throws Exception {
+        ChunkSink sink = new ChunkSink(bot, file.getOriginalFilename(), duplicates);
+        int boilerplateLines = 0;
 
         // Read file line by line
         String contentType = file.getContentType();
@@ -135,40 +198,23 @@ public class BotDocumentService {
 
                 String line;
                 while ((line = reader.readLine()) != null) {
-                    chunker.addLine(line);
-
-                    // Process any complete chunks
-                    while (chunker.hasCompleteChunk()) {
-                        String chunk = chunker.getNextChunk();
-
-                        if (chunk != null && !chunk.isBlank()) {
-                            BotDocument doc = processChunk(bot, filename, chunk, chunkIndex++, vectorDocsBatch);
-                            if (doc != null) {
-                                savedDocs.add(doc);
-                            }
-
-                            // Batch insert to vector store
-                            if (vectorDocsBatch.size() >= BATCH_SIZE) {
-                                insertVectorBatch(vectorDocsBatch);
-                            }
-                        }
-                    }
-                }
-
-                // Process final chunk
-                String finalChunk = chunker.getLastChunk();
-                if (finalChunk != null && !finalChunk.isBlank()) {
-                    BotDocument doc = processChunk(bot, filename, finalChunk, chunkIndex++, vectorDocsBatch);
-                    if (doc != null) {
-                        savedDocs.add(doc);
-                    }
+                    sink.addLine(line);
                 }
             }
 
+        } else if (PdfTextExtractor.isPdf(file)) {
+            PdfTextExtractor.Extracted extracted = pdfTextExtractor.extract(file, MAX_TEXT_LENGTH,
+                    BOILERPLATE_MIN_REPEATS, (page, lines) -> {
+                        sink.page = page;
+                        lines.forEach(sink::addLine);
+                    });
+            boilerplateLines = extracted.boilerplateLinesStripped();
+            log.debug("Read {} pages of {}", extracted.pages(), file.getOriginalFilename());
+
         } else {
-            // For PDF/DOCX - extract to temp string (risky but necessary for Tika)
+            // For DOCX - extract to temp string (risky but necessary for Tika)
             // If this fails, file is too large
-            String extractedText = null;
+            String extractedText;
             try {
                 extractedText = tika.parseToString(file.getInputStream());
 
@@ -178,72 +224,112 @@ public class BotDocumentService {
                 }
 
             } catch (OutOfMemoryError e) {
-                log.error("File {} too large for Tika extraction", filename, e);
-                throw new RuntimeException("PDF/DOCX file too large. Please reduce file size or convert to plain text.", e);
+                log.error("File {} too large for Tika extraction", file.getOriginalFilename(), e);
+                throw new RuntimeException("DOCX file too large. Please reduce file size or convert to plain text.", e);
             }
 
-            // Split extracted text into lines and stream through chunker
-            if (extractedText != null) {
-                String[] lines = extractedText.split("\n");
-                extractedText = null; // Release immediately
+            // Split extracted text into lines and stream through chunker. Tika's text has no
+            // page boundaries, so there is no evidence of which repeated lines are headers.
+            String[] lines = extractedText.split("\n");
+            extractedText = null; // Release immediately
+            for (String line : lines) {
+                sink.addLine(line);
+            }
+        }
 
-                for (String line : lines) {
-                    chunker.addLine(line);
+        sink.finish();
+        return new ProcessedFile(sink.savedDocs, boilerplateLines);
+    }
 
-                    while (chunker.hasCompleteChunk()) {
-                        String chunk = chunker.getNextChunk();
+    /**
+     * Feeds lines through the chunker and every complete chunk through {@link #processChunk},
+     * pushing to the vector store in batches. {@code page} is where the next chunk starts,
+     * for formats that have pages.
+     */
+    private final class ChunkSink {
+        private final Bot bot;
+        private final String filename;
+        private final NearDuplicateDetector.Index duplicates;
+        private final StreamingTextChunker chunker = new StreamingTextChunker(MAX_CHUNK_SIZE, CHUNK_OVERLAP);
+        private final List<Document> vectorDocsBatch = new ArrayList<>();
+        private final List<BotDocument> savedDocs = new ArrayList<>();
+        private int chunkIndex = 0;
+        private Integer page;
+        private Integer chunkPage;
+
+        private ChunkSink(Bot bot, String filename, NearDuplicateDetector.Index duplicates) {
+            this.bot = bot;
+            this.filename = filename;
+            this.duplicates = duplicates;
+        }
 
-                        if (chunk != null && !chunk.isBlank()) {
-                            BotDocument doc = processChunk(bot, filename, chunk, chunkIndex++, vectorDocsBatch);
-                            if (doc != null) {
-                                savedDocs.add(doc);
-                            }
+        void addLine(String line) {
+            if (chunkPage == null) {
+                chunkPage = page;
+            }
+            chunker.addLine(line);
 
-                            if (vectorDocsBatch.size() >= BATCH_SIZE) {
-                                insertVectorBatch(vectorDocsBatch);
-                            }
-                        }
-                    }
-                }
+            // Process any complete chunks
+            while (chunker.hasCompleteChunk()) {
+                emit(chunker.getNextChunk());
+                // What is left over, overlap included, was read from the current page.
+                chunkPage = page;
 
-                // Final chunk
-                String finalChunk = chunker.getLastChunk();
-                if (finalChunk != null && !finalChunk.isBlank()) {
-                    BotDocument doc = processChunk(bot, filename, finalChunk, chunkIndex++, vectorDocsBatch);
-                    if (doc != null) {
-                        savedDocs.add(doc);
-                    }
+                // Batch insert to vector store
+                if (vectorDocsBatch.size() >= BATCH_SIZE) {
+                    insertVectorBatch(vectorDocsBatch);
                 }
             }
         }
 
-        // Insert remaining vector documents
-        if (!vectorDocsBatch.isEmpty()) {
-            insertVectorBatch(vectorDocsBatch);
+        void finish() {
+            emit(chunker.getLastChunk());
+
+            // Insert remaining vector documents
+            if (!vectorDocsBatch.isEmpty()) {
+                insertVectorBatch(vectorDocsBatch);
+            }
         }
 
-        return savedDocs;
+        private void emit(String chunk) {
+            if (chunk != null && !chunk.isBlank()) {
+                BotDocument doc = processChunk(bot, filename, chunk, chunkIndex++, chunkPage, vectorDocsBatch, duplicates);
+                if (doc != null) {
+                    savedDocs.add(doc);
+                }
+            }
+        }
     }
 
     /**
-     * Process a single chunk - create embedding and save
+     * Process a single chunk - create embedding and save. Returns null, without embedding
+     * anything, for a near-duplicate of a chunk the file already has.
      */
     private BotDocument processChunk(Bot bot, String filename, String chunk,
-                                     int chunkIndex, List<Document> vectorBatch) {
+                                     int chunkIndex, Integer page, List<Document> vectorBatch,
+                                     NearDuplicateDetector.Index duplicates) {
+        Long fingerprint = duplicates.admit(filename, chunk);
+        if (fingerprint == null) {
+            log.debug("Skipping chunk {} of {}: near-duplicate", chunkIndex, filename);
+            return null;
+        }
         try {
             // Generate embedding
             float[] embedding = embeddingService.createEmbedding(chunk);
 
             // Insert to database
             UUID docId = UUID.randomUUID();
-            insertDocument(docId, bot.getId(), filename, chunk, embedding);
+            insertDocument(docId, bot.getId(), filename, chunk, embedding, fingerprint);
 
             // Prepare for vector store
-            Map<String, Object> metadata = Map.of(
+            Map<String, Object> metadata = new HashMap<>(Map.of(
                     "bot_id", bot.getId().toString(),
                     "filename", filename,
                     "chunk_index", chunkIndex
-            );
+            ));
+            if (page != null) {
+                metadata.put("page", page);
+            }
 
             vectorBatch.add(new Document(docId.toString(), chunk, metadata));
 
@@ -263,6 +349,15 @@ public class BotDocumentService {
         }
     }
 
+    /** The mapped store is told the bot, so it does not open every bot's shard to find the ids. */
+    private void deleteVectors(String botId, List<String> ids) {
+        if (vectorStore instanceof MappedVectorStore mapped) {
+            mapped.delete(botId, ids);
+        } else {
+            vectorStore.delete(ids);
+        }
+    }
+
     /**
      * Insert batch of documents to vector store
      */
@@ -354,17 +449,22 @@ public class BotDocumentService {
      * Insert document using native SQL
      */
     private void insertDocument(UUID docId, UUID botId, String filename,
-                                String content, float[] embedding) {
+                                String content, float[] embedding, long simhash) {
         String vectorString = floatArrayToVectorString(embedding);
 
-        String sql = "INSERT INTO bot_document(id, bot_id, filename, content, embedding) " +
-                "VALUES (?::uuid, ?::uuid, ?, ?, ?::vector)";
+        // The coarse prefix and sign bits are written even while nothing searches them, so
+        // turning either path on later needs no backfill for new uploads.
+        String sql = "INSERT INTO bot_document(id, bot_id, filename, content, simhash, embedding, embedding_coarse, embedding_bits) " +
+                "SELECT ?::uuid, ?::uuid, ?, ?, ?, v, subvector(v, 1, " + TwoStageVectorSearch.COARSE_DIMENSIONS + "), " +
+                "binary_quantize(v) " +
+                "FROM (SELECT ?::vector AS v) src";
 
         jdbcTemplate.update(sql,
                 docId.toString(),
                 botId.toString(),
                 filename,
                 content,
+                simhash,
                 vectorString
         );
     }
@@ -372,9 +472,16 @@ public class BotDocumentService {
     @Transactional
     public void deleteDocument(UUID docId) {
         try {
+            List<Map<String, Object>> owners = jdbcTemplate.queryForList(
+                    "SELECT bot_id::text AS bot_id, filename FROM bot_document WHERE id = ?::uuid", docId.toString());
             String sql = "DELETE FROM bot_document WHERE id = ?::uuid";
             jdbcTemplate.update(sql, docId.toString());
-            vectorStore.delete(List.of(docId.toString()));
+            for (Map<String, Object> owner : owners) {
+                String botId = (String) owner.get("bot_id");
+                deleteVectors(botId, List.of(docId.toString()));
+                fileRoutingIndex.refresh(botId, (String) owner.get("filename"));
+                invalidateBotCache(botId);
+            }
             log.info("Deleted document: {}", docId);
         } catch (Exception e) {
             log.error("Failed to delete document {}", docId, e);
@@ -382,34 +489,136 @@ public class BotDocumentService {
         }
     }
 
+    /**
+     * Removes every chunk of a bot from both tables. Goes through the VectorStore rather
+     * than SQL so a non-pgvector store is cleaned up too.
+     */
+    @Transactional
+    public void deleteAllDocuments(UUID botId) {
+        List<String> ids = jdbcTemplate.queryForList(
+                "SELECT id::text FROM bot_document WHERE bot_id = ?::uuid", String.class, botId.toString());
+
+        jdbcTemplate.update("DELETE FROM bot_document WHERE bot_id = ?::uuid", botId.toString());
+        fileRoutingIndex.removeBot(botId.toString());
+        if (!ids.isEmpty()) {
+            deleteVectors(botId.toString(), ids);
+        }
+
+        invalidateBotCache(botId.toString());
+        log.info("Deleted all {} chunks for bot {}", ids.size(), botId);
+    }
+
+    /** As many chunks as the {@link RelevanceCutoff} lets through, possibly none. */
+    public List<Document> querySimilar(String botId, String query) {
+        return querySimilar(botId, query, relevanceCutoff.maxResults());
+    }
+
+    /**
+     * Cached for an hour per KB generation. A miss is single-flighted: concurrent misses
+     * for the same question, on any node, wait for one search to fill the cache.
+     */
     public List<Document> querySimilar(String botId, String query, int topK) {
         String cacheKey = generateCacheKey(botId, query, topK);
 
+        Optional<List<Document>> cached = readCache(cacheKey);
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+
+        return singleFlight.call("retrieval", cacheKey, () -> {
+            List<Document> results = search(botId, query, topK);
+            try {
+                redisTemplate.opsForValue().set(cacheKey, serializeDocuments(results), CACHE_TTL);
+            } catch (JsonProcessingException e) {
+                log.error("Failed to cache query results for key {}", cacheKey, e);
+            }
+            return results;
+        }, () -> readCache(cacheKey));
+    }
+
+    /**
+     * Whatever the retrieval cache already holds for this question, without embedding or
+     * searching. The chat path falls back to it when a search overruns its deadline.
+     */
+    public Optional<List<Document>> cachedSimilar(String botId, String query, int topK) {
+        return readCache(generateCacheKey(botId, query, topK));
+    }
+
+    public Optional<List<Document>> cachedSimilar(String botId, String query) {
+        return cachedSimilar(botId, query, relevanceCutoff.maxResults());
+    }
+
+    private Optional<List<Document>> readCache(String cacheKey) {
         String cachedResult = redisTemplate.opsForValue().get(cacheKey);
         if (cachedResult != null) {
             try {
-                return deserializeDocuments(cachedResult);
+                return Optional.of(deserializeDocuments(cachedResult));
             } catch (JsonProcessingException e) {
                 log.warn("Corrupt cache entry {}, evicting and re-querying", cacheKey, e);
                 redisTemplate.delete(cacheKey);
             }
         }
+        return Optional.empty();
+    }
 
-        SearchRequest searchRequest = SearchRequest.builder()
-                .query(query)
-                .topK(topK)
-                .filterExpression(String.format("bot_id == '%s'", botId))
-                .build();
+    /**
+     * Full-text hits fused with the vector tiers' by {@link HybridSearch}. The lexical
+     * query goes first: when it alone is conclusive the question is never embedded. The
+     * relevance cutoff applies to the vector results, whose scores are similarities; the
+     * fused scores are ranks and say nothing about relevance.
+     */
+    private List<Document> search(String botId, String query, int topK) {
+        Double minScore = botConfigCache.minRelevance(botId);
+        if (!hybridSearch.isEnabled()) {
+            return relevanceCutoff.apply(vectorSearch(botId, query, topK), minScore);
+        }
+        return hybridSearch.search(botId, query, topK,
+                candidates -> relevanceCutoff.apply(vectorSearch(botId, query, candidates), minScore));
+    }
 
-        List<Document> results = vectorStore.similaritySearch(searchRequest);
+    /**
+     * Small bots are scored in memory. Bots with many files are routed to their closest
+     * files first and only those are searched. The rest take the binary-quantized path if
+     * they opted in, then the two-stage Matryoshka path when it is enabled, and the
+     * configured VectorStore otherwise.
+     */
+    private List<Document> vectorSearch(String botId, String query, int topK) {
+        Supplier<float[]> embedding = memoize(() -> embeddingService.createQueryEmbedding(query));
 
-        try {
-            redisTemplate.opsForValue().set(cacheKey, serializeDocuments(results), CACHE_TTL);
-        } catch (JsonProcessingException e) {
-            log.error("Failed to cache query results for key {}", cacheKey, e);
+        Optional<List<Document>> local = localVectorIndex.search(botId, embedding, topK);
+        if (local.isPresent()) {
+            return local.get();
         }
 
-        return results;
+        Optional<List<String>> files = fileRoutingIndex.route(botId, embedding);
+        if (files.isPresent()) {
+            return fileRoutingIndex.search(botId, embedding.get(), files.get(), topK);
+        }
+
+        if (quantizedVectorSearch.isEnabledFor(botId)) {
+            return quantizedVectorSearch.search(botId, embedding.get(), topK);
+        }
+
+        if (twoStageVectorSearch.isEnabled()) {
+            return twoStageVectorSearch.search(botId, embedding.get(), topK);
+        }
+
+        return vectorStore.similaritySearch(SearchRequest.builder()
+                .query(query)
+                .topK(topK)
+                .filterExpression(String.format("bot_id == '%s'", botId))
+                .build());
+    }
+
+    /** A tier may decline after embedding the query; the next one must not pay for it again. */
+    private static Supplier<float[]> memoize(Supplier<float[]> supplier) {
+        float[][] value = new float[1][];
+        return () -> {
+            if (value[0] == null) {
+                value[0] = supplier.get();
+            }
+            return value[0];
+        };
     }
 
     private String floatArrayToVectorString(float[] embedding) {
@@ -424,7 +633,12 @@ public class BotDocumentService {
         return sb.toString();
     }
 
+    /**
+     * The key carries the bot's KB generation, so a document change makes every older
+     * entry unreachable at once instead of needing a KEYS scan to find and delete them.
+     */
     private String generateCacheKey(String botId, String query, int topK) {
+        String prefix = CACHE_PREFIX + botId + ":" + botConfigCache.kbGeneration(botId) + ":";
         try {
             MessageDigest digest = MessageDigest.getInstance("SHA-256");
             byte[] hash = digest.digest(query.getBytes(StandardCharsets.UTF_8));
@@ -432,18 +646,25 @@ public class BotDocumentService {
             for (byte b : hash) {
                 sb.append(String.format("%02x", b));
             }
-            return CACHE_PREFIX + botId + ":" + sb + ":" + topK;
+            return prefix + sb + ":" + topK;
         } catch (Exception e) {
             log.warn("SHA-256 unavailable, falling back to hashCode for cache key", e);
-            return CACHE_PREFIX + botId + ":" + query.hashCode() + ":" + topK;
+            return prefix + query.hashCode() + ":" + topK;
         }
     }
 
+    /** Both steps wait for the commit: before it, a question would reload the old chunks. */
     void invalidateBotCache(String botId) {
-        Set<String> keys = redisTemplate.keys(CACHE_PREFIX + botId + ":*");
-        if (keys != null && !keys.isEmpty()) {
-            redisTemplate.delete(keys);
-        }
+        AfterCommit.run(() -> evictLocalIndexes(botId));
+        // Orphans this bot's cached results (they expire on CACHE_TTL) and tells the
+        // other nodes to run evictLocalIndexes too.
+        botConfigCache.bumpKbGeneration(botId);
+    }
+
+    private void evictLocalIndexes(String botId) {
+        localVectorIndex.invalidate(botId);
+        quantizedVectorSearch.forget(botId);
+        fileRoutingIndex.forget(botId);
     }
 
     private String serializeDocuments(List<Document> documents) throws JsonProcessingException {
@@ -468,19 +689,22 @@ public class BotDocumentService {
                 .toList();
     }
 
+    /**
+     * Every chunk of the bot, for knowledge bases small enough to send whole. Ordered so
+     * the same KB always yields the same prompt.
+     */
+    public List<Document> allChunks(String botId) {
+        return jdbcTemplate.queryForList(
+                        "SELECT id::text AS id, filename, content FROM bot_document WHERE bot_id = ?::uuid "
+                                + "ORDER BY filename, id", botId)
+                .stream()
+                .map(row -> VectorLiterals.toDocument(row, botId))
+                .toList();
+    }
+
+    /** From the file catalog; grouping the chunk rows cost a scan of every chunk. */
     public List<Map<String, Object>> listBotFiles(UUID botId) {
-        String sql = """
-        SELECT filename, COUNT(*) AS chunk_count
-        FROM bot_document
-        WHERE bot_id = ?::uuid
-        GROUP BY filename
-        ORDER BY filename
-    """;
-
-        return jdbcTemplate.query(sql, (rs, rowNum) -> Map.of(
-                "filename", rs.getString("filename"),
-                "chunkCount", rs.getInt("chunk_count")
-        ), botId.toString());
+        return fileCatalog.list(botId);
     }
 
     @Transactional
@@ -488,13 +712,18 @@ public class BotDocumentService {
         String findSql = "SELECT id FROM bot_document WHERE bot_id = ?::uuid AND filename = ?";
         List<String> ids = jdbcTemplate.queryForList(findSql, String.class, botId.toString(), filename);
 
-        if (ids.isEmpty()) return;
+        if (ids.isEmpty()) {
+            // Nothing to unindex, but a failed upload still has a catalog row to clear.
+            fileCatalog.remove(botId, filename);
+            return;
+        }
 
         String deleteSql = "DELETE FROM bot_document WHERE bot_id = ?::uuid AND filename = ?";
         jdbcTemplate.update(deleteSql, botId.toString(), filename);
 
-        vectorStore.delete(ids);
+        deleteVectors(botId.toString(), ids);
 
+        fileRoutingIndex.refresh(botId.toString(), filename);
         invalidateBotCache(botId.toString());
 
         log.info("Deleted file {} with {} chunks for bot {}", filename, ids.size(), botId);
@@ -5,24 +5,48 @@ import com.muhammadminhaz.talkateeve.dto.BotResponse;
 import com.muhammadminhaz.talkateeve.dto.ChatMessageDTO;
 import com.muhammadminhaz.talkateeve.dto.DashboardStatsResponse;
 import com.muhammadminhaz.talkateeve.model.Bot;
-import com.muhammadminhaz.talkateeve.model.BotQuery;
+import com.muhammadminhaz.talkateeve.model.BotQueryDaily;
 import com.muhammadminhaz.talkateeve.model.User;
-import com.muhammadminhaz.talkateeve.repository.BotQueryRepository;
+import com.muhammadminhaz.talkateeve.repository.BotQueryDailyRepository;
 import com.muhammadminhaz.talkateeve.repository.BotRepository;
 import com.muhammadminhaz.talkateeve.repository.UserRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.messages.SystemMessage;
+import org.springframework.ai.chat.messages.UserMessage;
+import org.springframework.ai.chat.model.ChatResponse;
 import org.springframework.ai.chat.prompt.Prompt;
 import org.springframework.ai.google.genai.GoogleGenAiChatModel;
-import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.ai.google.genai.GoogleGenAiChatOptions;
+import org.springframework.http.HttpStatus;
 import org.springframework.jdbc.core.namedparam.MapSqlParameterSource;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.multipart.MultipartFile;
-
-import java.time.Instant;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
 import java.time.LocalDate;
 import java.time.ZoneOffset;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 @Slf4j
@@ -33,23 +57,74 @@ public class BotService {
     private final BotRepository botRepository;
     private final UserRepository userRepository;
     private final BotDocumentService botDocumentService;
-    private final JdbcTemplate jdbcTemplate;
     private final NamedParameterJdbcTemplate namedParameterJdbcTemplate;
-    private final BotQueryRepository botQueryRepository;
+    private final BotQueryDailyRepository botQueryDailyRepository;
+    private final MeterRegistry meterRegistry;
+    private final BotConfigCache botConfigCache;
+    private final AnswerDeadlines deadlines;
+    private final RequestHedger requestHedger;
+    private final SmallTalkClassifier smallTalkClassifier;
+    private final PromptBuilder promptBuilder;
+    private final ConversationSessions conversationSessions;
+    private final PromptPrefixCache promptPrefixCache;
+    private final SingleFlight singleFlight;
+    private final QueryCounter queryCounter;
+    private final FileCatalog fileCatalog;
+    private final KnowledgeBaseStrategy knowledgeBaseStrategy;
+
+    /**
+     * Clients that still send their own history (widget.js copies cached from before
+     * server-side sessions) get at most this many turns of it into the prompt; the
+     * widget never sent more.
+     */
+    private static final int MAX_CLIENT_TURNS = 10;
+
+    private static final Consumer<String> NO_SESSION = text -> {
+    };
+
+    /**
+     * Retrieval, history preparation and the query insert block on I/O. Virtual threads
+     * make a thread per stage cheap enough that they can simply run side by side.
+     */
+    private final Scheduler pipeline = Schedulers.fromExecutorService(
+            Executors.newVirtualThreadPerTaskExecutor(), "chat-pipeline");
 
     public BotService(GoogleGenAiChatModel chatModel,
                       BotRepository botRepository,
                       UserRepository userRepository,
                       BotDocumentService botDocumentService,
-                      JdbcTemplate jdbcTemplate, NamedParameterJdbcTemplate namedParameterJdbcTemplate,
-                      BotQueryRepository botQueryRepository) {
+                      NamedParameterJdbcTemplate namedParameterJdbcTemplate,
+                      BotQueryDailyRepository botQueryDailyRepository,
+                      MeterRegistry meterRegistry,
+                      BotConfigCache botConfigCache,
+                      AnswerDeadlines deadlines,
+                      RequestHedger requestHedger,
+                      SmallTalkClassifier smallTalkClassifier,
+                      PromptBuilder promptBuilder,
+                      ConversationSessions conversationSessions,
+                      PromptPrefixCache promptPrefixCache,
+                      SingleFlight singleFlight,
+                      QueryCounter queryCounter,
+                      FileCatalog fileCatalog,
+                      KnowledgeBaseStrategy knowledgeBaseStrategy) {
         this.chatModel = chatModel;
         this.botRepository = botRepository;
         this.userRepository = userRepository;
         this.botDocumentService = botDocumentService;
-        this.jdbcTemplate = jdbcTemplate;
         this.namedParameterJdbcTemplate = namedParameterJdbcTemplate;
-        this.botQueryRepository = botQueryRepository;
+        this.botQueryDailyRepository = botQueryDailyRepository;
+        this.meterRegistry = meterRegistry;
+        this.botConfigCache = botConfigCache;
+        this.deadlines = deadlines;
+        this.requestHedger = requestHedger;
+        this.smallTalkClassifier = smallTalkClassifier;
+        this.promptBuilder = promptBuilder;
+        this.conversationSessions = conversationSessions;
+        this.promptPrefixCache = promptPrefixCache;
+        this.singleFlight = singleFlight;
+        this.queryCounter = queryCounter;
+        this.fileCatalog = fileCatalog;
+        this.knowledgeBaseStrategy = knowledgeBaseStrategy;
     }
 
     /**
@@ -68,11 +143,12 @@ public class BotService {
 
         Bot savedBot = botRepository.save(bot);
 
+        BotDocumentService.UploadResult upload = null;
         if (files != null && !files.isEmpty()) {
-            botDocumentService.uploadDocuments(savedBot, files);
+            upload = botDocumentService.uploadDocuments(savedBot, files);
         }
 
-        return BotResponse.fromBot(savedBot);
+        return withUpload(BotResponse.fromBot(savedBot), upload);
     }
 
     /**
@@ -90,14 +166,49 @@ public class BotService {
         bot.setDescription(request.getDescription());
         bot.setSlug(generateSlug(request.getName()));
         bot.setInstructions(request.getInstructions());
+        boolean searchModeChanged = request.getQuantizedSearch() != null
+                && request.getQuantizedSearch() != bot.isQuantizedSearch();
+        if (searchModeChanged) {
+            bot.setQuantizedSearch(request.getQuantizedSearch());
+        }
+        if (request.getAnswerDeadlineMs() != null) {
+            bot.setAnswerDeadlineMs(request.getAnswerDeadlineMs() > 0 ? request.getAnswerDeadlineMs() : null);
+        }
+        if (request.getPromptTokenBudget() != null) {
+            bot.setPromptTokenBudget(request.getPromptTokenBudget() > 0 ? request.getPromptTokenBudget() : null);
+        }
+        Double minRelevance = request.getMinRelevance() == null || request.getMinRelevance() > 0
+                ? request.getMinRelevance()
+                : null;
+        boolean cutoffChanged = request.getMinRelevance() != null
+                && !Objects.equals(minRelevance, bot.getMinRelevance());
+        if (cutoffChanged) {
+            bot.setMinRelevance(minRelevance);
+        }
 
         Bot updatedBot = botRepository.save(bot);
+        botConfigCache.invalidate(botId);
+        promptPrefixCache.refresh(botId, () -> promptBuilder.systemPrefix(botConfigCache.get(botId)));
 
+        if (searchModeChanged || cutoffChanged) {
+            // Cached answers came from the other search path, or passed the old cutoff.
+            botDocumentService.invalidateBotCache(botId.toString());
+        }
+
+        BotDocumentService.UploadResult upload = null;
         if (files != null && !files.isEmpty()) {
-            botDocumentService.uploadDocuments(updatedBot, files);
+            upload = botDocumentService.uploadDocuments(updatedBot, files);
         }
 
-        return BotResponse.fromBot(updatedBot);
+        return withUpload(BotResponse.fromBot(updatedBot), upload);
+    }
+
+    private static BotResponse withUpload(BotResponse response, BotDocumentService.UploadResult upload) {
+        if (upload != null) {
+            response.setChunksStored(upload.documents().size());
+            response.setChunksSkipped(upload.duplicateChunksSkipped());
+        }
+        return response;
     }
 
     /**
@@ -125,8 +236,10 @@ public class BotService {
     }
 
     /**
-     * Delete a bot
+     * Delete a bot. One transaction, so a failure leaves both the bot and its knowledge
+     * base in place rather than a live bot with its documents gone.
      */
+    @Transactional
     public void deleteBot(UUID botId, UUID userId) {
         Bot bot = botRepository.findById(botId)
                 .orElseThrow(() -> new RuntimeException("Bot not found"));
@@ -136,16 +249,7 @@ public class BotService {
         }
 
         String sql = """
-        WITH deleted_docs AS (
-            DELETE FROM bot_document
-            WHERE bot_id = :botId
-            RETURNING id
-        ),
-        deleted_rag AS (
-            DELETE FROM rag_documents
-            WHERE id IN (SELECT id FROM deleted_docs)
-        ),
-        deleted_instructions AS (
+        WITH deleted_instructions AS (
             DELETE FROM bot_instructions
             WHERE bot_id = :botId
         )
@@ -153,97 +257,347 @@ public class BotService {
         WHERE id = :botId
     """;
 
+        // Chunks go through the one path that reaches whichever VectorStore is configured;
+        // rag_documents does not even exist with the mapped store.
+        botDocumentService.deleteAllDocuments(botId);
+
         MapSqlParameterSource params = new MapSqlParameterSource()
                 .addValue("botId", botId);
 
         namedParameterJdbcTemplate.update(sql, params);
+        botConfigCache.invalidate(botId);
+        AfterCommit.run(() -> promptPrefixCache.evict(botId));
     }
 
     /**
-     * Ask bot with conversation history (for chat widget)
+     * Ask bot with conversation history (for chat widget). Built on the same stream as
+     * {@link #streamAnswerWithHistory}, collected into one string, so that a request the
+     * client abandons cancels the Gemini call instead of waiting it out.
      */
-    public String askBotWithHistory(UUID botId, String question, List<ChatMessageDTO> history) {
-        Bot bot = botRepository.findById(botId)
-                .orElseThrow(() -> new RuntimeException("Bot not found"));
+    public Mono<String> askBotWithHistory(UUID botId, String question, List<ChatMessageDTO> history,
+                                          StageTimings timings) {
+        return answer(botId, question, clientTurns(history), false, timings, NO_SESSION).collect(Collectors.joining());
+    }
+
+    /**
+     * Streaming variant of {@link #askBotWithHistory}: same prompt, but text is emitted as
+     * Gemini produces it. The query is only counted once the stream completes.
+     */
+    public Flux<String> streamAnswerWithHistory(UUID botId, String question, List<ChatMessageDTO> history,
+                                                StageTimings timings) {
+        return answer(botId, question, clientTurns(history), true, timings, NO_SESSION);
+    }
+
+    /** Starts a server-side conversation for the widget; see {@link ConversationSessions}. */
+    public String openSession(UUID botId) {
+        botConfigCache.get(botId);
+        return conversationSessions.open(botId);
+    }
+
+    /**
+     * Like {@link #askBotWithHistory}, with the history read from the session, and the
+     * exchange added to it once the answer completes.
+     */
+    public Mono<String> askInSession(UUID botId, String sessionId, String question, StageTimings timings) {
+        ConversationSessions.Session session = requireSession(botId, sessionId);
+        return answer(botId, question, sessionTurns(session), false, timings,
+                text -> conversationSessions.append(session, question, text)).collect(Collectors.joining());
+    }
 
+    /** Streaming variant of {@link #askInSession}. */
+    public Flux<String> streamInSession(UUID botId, String sessionId, String question, StageTimings timings) {
+        ConversationSessions.Session session = requireSession(botId, sessionId);
+        return answer(botId, question, sessionTurns(session), true, timings,
+                text -> conversationSessions.append(session, question, text));
+    }
+
+    /**
+     * Checked up front, like the bot itself, so an expired session is a 404 the widget can
+     * recover from by opening a new one, not an error event after the SSE 200.
+     */
+    private ConversationSessions.Session requireSession(UUID botId, String sessionId) {
+        return conversationSessions.find(botId, sessionId)
+                .orElseThrow(() -> new ResponseStatusException(HttpStatus.NOT_FOUND, "Chat session not found or expired"));
+    }
+
+    private Callable<List<String>> sessionTurns(ConversationSessions.Session session) {
+        return () -> PromptBuilder.formatTurns(session.summary(), conversationSessions.turns(session));
+    }
+
+    private static Callable<List<String>> clientTurns(List<ChatMessageDTO> history) {
+        if (history == null || history.size() <= MAX_CLIENT_TURNS) {
+            return () -> PromptBuilder.formatTurns(history);
+        }
+        List<ChatMessageDTO> recent = history.subList(history.size() - MAX_CLIENT_TURNS, history.size());
+        return () -> PromptBuilder.formatTurns(recent);
+    }
+
+    /**
+     * An unknown bot still throws straight away, before an SSE response has committed to
+     * a 200; with the config cache that check is a map lookup. After it, retrieval and
+     * history preparation do not depend on each other and run side by side on virtual
+     * threads. They are zipped, so they share one fate: if either fails the other is
+     * cancelled, and cancelling the answer (the client went away, or the async request
+     * timed out) interrupts both and never reaches Gemini. Generation stops reading
+     * Gemini's stream on cancel.
+     *
+     * <p>Both stages run against the bot's deadline (see {@link AnswerDeadlines}): a slow
+     * search is cancelled and the answer uses cached or no context, and a slow generation
+     * is cancelled and replaced by the fallback answer. The fallback is not an answer: it
+     * is neither counted as a query nor added to the session, where the next turn would
+     * read the apology as something the bot had said.
+     */
+    private Flux<String> answer(UUID botId, String question, Callable<List<String>> history, boolean streaming,
+                                StageTimings timings, Consumer<String> onAnswered) {
+        long start = System.nanoTime();
+        String mode = streaming ? "stream" : "blocking";
+        BotConfigCache.BotChatConfig config = botConfigCache.get(botId);
+        timings.record("config", System.nanoTime() - start);
+        Duration budget = deadlines.budgetFor(config);
+        long deadlineNanos = start + budget.toNanos();
+
+        // "hi" and "thanks!" need no knowledge base: skip the embedding call and the
+        // search, and send Gemini a prompt without KB context.
+        boolean smallTalk = smallTalkClassifier.isSmallTalk(question);
+        Mono<List<org.springframework.ai.document.Document>> retrieval = smallTalk
+                ? Mono.just(List.of())
+                : switch (knowledgeBaseStrategy.choose(config)) {
+                    case NONE -> Mono.just(List.of());
+                    case INLINE -> stage("retrieval", timings, () -> knowledgeBaseStrategy.inlineChunks(config));
+                    case VECTOR -> stage("retrieval", timings, () -> botDocumentService.querySimilar(botId.toString(), question))
+                            .timeout(deadlines.retrievalBudget(budget), Mono.defer(() -> fallbackContext(botId, question)));
+                };
+
+        AtomicReference<String> stage = new AtomicReference<>("retrieval");
+        AtomicBoolean firstToken = new AtomicBoolean(true);
+        AtomicLong generationStart = new AtomicLong();
+        AtomicInteger contextTokens = new AtomicInteger();
+        AtomicBoolean fellBack = new AtomicBoolean();
+        StringBuilder answered = new StringBuilder();
+        return Mono.zip(retrieval, stage("history", timings, history))
+                .map(parts -> smallTalk
+                        ? promptBuilder.buildSmallTalk(config, question, parts.getT2())
+                        : promptBuilder.build(config, question, parts.getT1(), parts.getT2()))
+                .flatMapMany(built -> {
+                    log.debug("prompt botId={} tokens={} context={} saved={}",
+                            botId, built.tokens(), built.contextTokens(), built.tokensSaved());
+                    contextTokens.set(built.contextTokens());
+                    Optional<String> cached = promptPrefixCache.handleFor(botId, built.prefix());
+                    stage.set("generation");
+                    generationStart.set(System.nanoTime());
+                    // Identical prompts get identical requests, so concurrent ones share one
+                    // generation. In practice that is the same opening question, asked
+                    // without history by a burst of visitors.
+                    Flux<String> text = singleFlight.shareText("answer", answerKey(botId, built), () ->
+                            generate(botId, built, cached)
+                                    .mapNotNull(BotService::textOf)
+                                    .filter(chunk -> !chunk.isEmpty()));
+                    return withinDeadline(text, botId, streaming, deadlineNanos, budget, fellBack);
+                })
+                .doOnNext(text -> {
+                    answered.append(text);
+                    if (firstToken.compareAndSet(true, false)) {
+                        long now = System.nanoTime();
+                        timings.record("first_token", now - generationStart.get());
+                        if (streaming) {
+                            answerTimer("first_token", mode).record(now - start, TimeUnit.NANOSECONDS);
+                        }
+                    }
+                })
+                .doOnComplete(() -> {
+                    long now = System.nanoTime();
+                    long elapsed = now - start;
+                    timings.record("generation", now - generationStart.get());
+                    timings.record("total", elapsed);
+                    if (!fellBack.get()) {
+                        // The fallback took the deadline, not the model: keep it out of the
+                        // generation latency too.
+                        generationTimer(contextTokens.get()).record(now - generationStart.get(), TimeUnit.NANOSECONDS);
+                        recordQuery(botId);
+                        // Off the critical path: the answer is complete as far as the visitor
+                        // is concerned, and the session append is best effort anyway.
+                        pipeline.schedule(() -> {
+                            try {
+                                onAnswered.accept(answered.toString());
+                            } catch (RuntimeException e) {
+                                log.warn("Could not add the exchange to the session for bot {}", botId, e);
+                            }
+                        });
+                    }
+                    if (!streaming) {
+                        // The whole answer is the first byte here, so both timers get the same value.
+                        answerTimer("first_token", mode).record(elapsed, TimeUnit.NANOSECONDS);
+                    }
+                    answerTimer("total", mode).record(elapsed, TimeUnit.NANOSECONDS);
+                    timings.snapshot().forEach((name, nanos) -> stageTimer(name).record(nanos, TimeUnit.NANOSECONDS));
+                    log.debug("{} answer botId={} timings={}", mode, botId, timings.toMillis());
+                })
+                .doOnCancel(() -> recordAbandoned(botId, mode, stage.get(), System.nanoTime() - start))
+                // Returning a friendly string here once made every failure look like a
+                // successful 200. Propagate: GlobalExceptionHandler (or the SSE error event)
+                // logs it with an errorId, and widget.js renders its own friendly message.
+                .onErrorMap(e -> new RuntimeException("Bot query failed for bot " + botId, e));
+    }
+
+    /**
+     * The bot-level prefix goes first, as the system instruction, so it is the same bytes
+     * on every call. With a cached-content handle it is not sent at all: Gemini rejects a
+     * system instruction alongside cached content, and the handle already holds it.
+     */
+    private static Prompt toPrompt(PromptBuilder.BuiltPrompt built, Optional<String> cached) {
+        if (cached.isPresent()) {
+            return new Prompt(List.of(new UserMessage(built.suffix())), GoogleGenAiChatOptions.builder()
+                    .cachedContentName(cached.get())
+                    .useCachedContent(true)
+                    .build());
+        }
+        return new Prompt(List.of(new SystemMessage(built.prefix()), new UserMessage(built.suffix())));
+    }
+
+    /**
+     * Gemini can drop a cached content before the expiry we were told (or another node
+     * evicted it), and then rejects the call outright. That is no reason to fail the
+     * question: resend it with the prefix inline, and let the cache build a new handle.
+     */
+    private Flux<ChatResponse> generate(UUID botId, PromptBuilder.BuiltPrompt built, Optional<String> cached) {
+        Prompt prompt = toPrompt(built, cached);
+        Flux<ChatResponse> response = requestHedger.hedgeStream("chat", () -> chatModel.stream(prompt));
+        if (cached.isEmpty()) {
+            return response;
+        }
+        return response.onErrorResume(PromptPrefixCache::isMissingHandle, e -> {
+            promptPrefixCache.forget(botId, cached.get());
+            Prompt uncached = toPrompt(built, Optional.empty());
+            return requestHedger.hedgeStream("chat", () -> chatModel.stream(uncached));
+        });
+    }
+
+    private static String answerKey(UUID botId, PromptBuilder.BuiltPrompt built) {
         try {
-            // Retrieve relevant documents from RAG
-            List<org.springframework.ai.document.Document> docs = botDocumentService.querySimilar(
-                    botId.toString(), question, 3
-            );
-
-            String context = docs.stream()
-                    .map(org.springframework.ai.document.Document::getText)
-                    .collect(Collectors.joining("\n\n"));
-
-            String instructions = String.join("\n", bot.getInstructions());
-
-            // Build conversation history
-            StringBuilder conversationContext = new StringBuilder();
-            if (history != null && !history.isEmpty()) {
-                conversationContext.append("Previous conversation:\n");
-                for (ChatMessageDTO msg : history) {
-                    String role = "user".equals(msg.getRole()) ? "User" : "Assistant";
-                    conversationContext.append(String.format("%s: %s\n", role, msg.getContent()));
-                }
-                conversationContext.append("\n");
-            }
+            byte[] hash = MessageDigest.getInstance("SHA-256")
+                    .digest(built.text().getBytes(StandardCharsets.UTF_8));
+            return "answer:" + botId + ":" + HexFormat.of().formatHex(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
 
-            String prompt = String.format("""
-                You are a helpful assistant. Follow these instructions:
-                %s
-                
-                %s
-                
-                Use the following knowledge base to answer questions:
-                %s
-                
-                Current question: %s
-
-                If this is a greeting, thanks, or other small talk, just answer it like a person would, briefly and
-                warmly. Do not consult the knowledge base or pitch what you can do for it. Otherwise answer from the
-                conversation history and knowledge base, and if the answer isn't there, say so politely.
-
-                Style: you are talking in a chat window, not writing a report.
-                - Match the length to the question. A simple question gets a sentence or two, a question that
-                  genuinely needs detail gets as much room as it needs. Never pad to sound thorough.
-                - Do not dump everything you know. Answer only what was asked and let the user ask for more.
-                - Write plain text only. No markdown: no **bold**, no *italics*, no backticks, no #headings,
-                  no bullet or numbered lists, no emoji. Just sentences, the way a person types in a chat.
-                - Only use a list if the user explicitly asks for one or for step-by-step instructions,
-                  and even then keep it plain, one short item per line.
-                - Do not summarize the whole knowledge base or restate the document back to the user.
-                - Do not end with a menu of things you could do. At most one short natural follow-up question.
-                """,
-                    instructions,
-                    conversationContext.toString(),
-                    context.isEmpty() ? "No specific context available." : context,
-                    question
-            );
-
-            String answer = chatModel.call(new Prompt(prompt))
-                    .getResult()
-                    .getOutput()
-                    .getText();
-
-            recordQuery(botId);
-            return answer;
+    /**
+     * Retrieval overran its share of the budget and was cancelled. A concurrent identical
+     * question may have filled the retrieval cache meanwhile; otherwise the model answers
+     * from instructions and history alone, which beats no answer.
+     */
+    private Mono<List<org.springframework.ai.document.Document>> fallbackContext(UUID botId, String question) {
+        return Mono.fromCallable(() -> {
+            Optional<List<org.springframework.ai.document.Document>> cached =
+                    botDocumentService.cachedSimilar(botId.toString(), question);
+            deadlines.degraded(botId.toString(), "retrieval", cached.isPresent() ? "cached_context" : "no_context");
+            return cached.orElse(List.of());
+        }).subscribeOn(pipeline);
+    }
 
-        } catch (Exception e) {
-            // Returning a friendly string here made every failure look like a successful
-            // 200 to the caller. Rethrow: GlobalExceptionHandler logs it with an errorId
-            // and returns a 5xx, and widget.js already renders its own friendly message
-            // on !response.ok.
-            log.error("Bot query failed for bot {}", botId, e);
-            throw new RuntimeException("Bot query failed for bot " + botId, e);
+    /**
+     * Holds generation to whatever is left of the budget. A blocking answer is all or
+     * nothing, so it is collected first and replaced whole by the fallback on timeout. A
+     * stream only has to start before the deadline; after that the visitor can see it
+     * progressing, so it is cut only if it stalls for a whole budget between chunks, and
+     * keeps what was already sent. {@code fellBack} is set when the fallback replaced it.
+     */
+    private Flux<String> withinDeadline(Flux<String> text, UUID botId, boolean streaming,
+                                        long deadlineNanos, Duration budget, AtomicBoolean fellBack) {
+        Mono<Long> untilDeadline = Mono.defer(() ->
+                Mono.delay(Duration.ofNanos(Math.max(0, deadlineNanos - System.nanoTime()))));
+        Flux<String> bounded = streaming
+                ? text.timeout(untilDeadline, chunk -> Mono.delay(budget))
+                : text.collect(Collectors.joining()).timeout(untilDeadline).flux();
+        AtomicBoolean sentText = new AtomicBoolean();
+        return bounded
+                .doOnNext(chunk -> sentText.set(true))
+                .onErrorResume(TimeoutException.class, e -> {
+                    if (sentText.get()) {
+                        deadlines.degraded(botId.toString(), "generation", "truncated");
+                        return Flux.empty();
+                    }
+                    deadlines.degraded(botId.toString(), "generation", "fallback");
+                    fellBack.set(true);
+                    return Flux.just(deadlines.fallbackAnswer());
+                });
+    }
+
+    /**
+     * Counts an answer nobody waited for. The reclaimed time is an estimate: the mean
+     * duration of completed answers in the same mode, less the time already spent.
+     */
+    private void recordAbandoned(UUID botId, String mode, String stage, long elapsedNanos) {
+        double elapsed = elapsedNanos / 1e9;
+        double typical = answerTimer("total", mode).mean(TimeUnit.SECONDS);
+        meterRegistry.counter("chat.answer.abandoned", "mode", mode, "stage", stage).increment();
+        meterRegistry.counter("chat.answer.reclaimed.seconds", "mode", mode, "stage", stage)
+                .increment(Math.max(0, typical - elapsed));
+        log.info("answer abandoned botId={} mode={} stage={} afterMs={}",
+                botId, mode, stage, Math.round(elapsed * 1000));
+    }
+
+    /** Runs one pipeline stage on its own virtual thread and records how long it took. */
+    private <T> Mono<T> stage(String name, StageTimings timings, Callable<T> work) {
+        return Mono.fromCallable(() -> {
+            long start = System.nanoTime();
+            try {
+                return work.call();
+            } finally {
+                timings.record(name, System.nanoTime() - start);
+            }
+        }).subscribeOn(pipeline);
+    }
+
+    /** Stream chunks can carry only metadata (finish reason, usage) and no text. */
+    private static String textOf(ChatResponse response) {
+        if (response == null || response.getResult() == null || response.getResult().getOutput() == null) {
+            return null;
         }
+        return response.getResult().getOutput().getText();
+    }
+
+    /**
+     * Latency of an answer as the visitor sees it, from request to first text and to the
+     * end, tagged so the streaming and blocking endpoints can be compared directly.
+     */
+    private Timer answerTimer(String stage, String mode) {
+        return Timer.builder("chat.answer.latency")
+                .tag("stage", stage)
+                .tag("mode", mode)
+                .publishPercentiles(0.5, 0.95)
+                .register(meterRegistry);
+    }
+
+    /** Per-stage latency across all answers; {@link StageTimings} carries the same for one. */
+    private Timer stageTimer(String stage) {
+        return Timer.builder("chat.stage.latency")
+                .tag("stage", stage)
+                .publishPercentiles(0.5, 0.95)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Generation latency by how much knowledge-base context the prompt carried, so the
+     * cost of sending more chunks shows up next to {@code chat.context.tokens}.
+     */
+    private Timer generationTimer(int contextTokens) {
+        String context = contextTokens == 0 ? "none"
+                : contextTokens <= 500 ? "small"
+                : contextTokens <= 1500 ? "medium"
+                : "large";
+        return Timer.builder("chat.generation.latency")
+                .tag("context", context)
+                .publishPercentiles(0.5, 0.95)
+                .register(meterRegistry);
     }
 
     /**
      * Ask bot without history (backward compatibility)
      */
-    public String askBot(UUID botId, String question) {
-        return askBotWithHistory(botId, question, new ArrayList<>());
+    public Mono<String> askBot(UUID botId, String question, StageTimings timings) {
+        return askBotWithHistory(botId, question, new ArrayList<>(), timings);
     }
 
     /**
@@ -257,21 +611,7 @@ public class BotService {
             throw new RuntimeException("Unauthorized");
         }
 
-        String sql = """
-            SELECT DISTINCT filename, COUNT(*) as chunk_count
-            FROM bot_document
-            WHERE bot_id = ?::uuid
-            GROUP BY filename
-            ORDER BY filename
-            """;
-
-        return jdbcTemplate.query(sql,
-                (rs, rowNum) -> Map.of(
-                        "filename", rs.getString("filename"),
-                        "chunkCount", rs.getInt("chunk_count")
-                ),
-                botId.toString()
-        );
+        return fileCatalog.list(botId);
     }
 
     /**
@@ -285,29 +625,27 @@ public class BotService {
             throw new RuntimeException("Unauthorized");
         }
 
-        String sql = "DELETE FROM bot_document WHERE bot_id = ?::uuid AND filename = ?";
-        int deleted = jdbcTemplate.update(sql, botId.toString(), filename);
-
-        log.info("Deleted {} chunks for file {} from bot {}", deleted, filename, botId);
-
-        // Invalidate cache
-        botDocumentService.invalidateBotCache(botId.toString());
+        // The one delete path that also keeps the file catalog and routing index in step.
+        botDocumentService.deleteFile(botId, filename);
     }
 
     /**
-     * Counts one answered question. Best effort on purpose: a dashboard metric must
-     * never be the reason a user's chat request fails.
+     * Counts one answered question; {@link QueryCounter} writes it later in a batch. Best
+     * effort on purpose: a dashboard metric must never be the reason a user's chat
+     * request fails.
      */
     private void recordQuery(UUID botId) {
         try {
-            botQueryRepository.save(new BotQuery(botId));
+            queryCounter.increment(botId);
         } catch (Exception e) {
             log.warn("Could not record query for bot {}", botId, e);
         }
     }
 
     /**
-     * Real numbers for the dashboard Overview, which used to be hardcoded.
+     * Real numbers for the dashboard Overview, which used to be hardcoded. Query counts
+     * come from the daily rollup, so this costs the same however much traffic the bots
+     * have had.
      */
     public DashboardStatsResponse getDashboardStats(UUID userId, int days) {
         List<Bot> bots = botRepository.findByUserId(userId);
@@ -322,19 +660,21 @@ public class BotService {
         }
 
         List<UUID> botIds = bots.stream().map(Bot::getId).toList();
-        long totalInteractions = botQueryRepository.countByBotIdIn(botIds);
+        // Counts from the last few seconds are still in memory; show them anyway.
+        Map<UUID, Map<LocalDate, Long>> pending = queryCounter.pendingByDay(botIds);
+        long totalInteractions = botQueryDailyRepository.sumQueryCountByBotIdIn(botIds)
+                + pending.values().stream().flatMap(perDay -> perDay.values().stream()).mapToLong(Long::longValue).sum();
 
-        Long documents = namedParameterJdbcTemplate.queryForObject(
-                "SELECT COUNT(DISTINCT filename) FROM bot_document WHERE CAST(bot_id AS text) IN (:ids)",
-                new MapSqlParameterSource("ids", botIds.stream().map(UUID::toString).toList()),
-                Long.class);
+        long documents = fileCatalog.countReady(botIds);
 
-        Instant since = today.minusDays(days - 1L).atStartOfDay(ZoneOffset.UTC).toInstant();
         Map<UUID, Map<String, Long>> byBot = new HashMap<>();
-        for (Object[] row : botQueryRepository.countDailyByBot(botIds, since)) {
-            byBot.computeIfAbsent((UUID) row[0], k -> new HashMap<>())
-                    .put(row[1].toString(), ((Number) row[2]).longValue());
+        for (BotQueryDaily row : botQueryDailyRepository.findByBotIdInAndDayGreaterThanEqual(
+                botIds, today.minusDays(days - 1L))) {
+            byBot.computeIfAbsent(row.getBotId(), k -> new HashMap<>())
+                    .put(row.getDay().toString(), row.getQueryCount());
         }
+        pending.forEach((botId, perDay) -> perDay.forEach((day, count) ->
+                byBot.computeIfAbsent(botId, k -> new HashMap<>()).merge(day.toString(), count, Long::sum)));
 
         List<DashboardStatsResponse.BotSeries> series = bots.stream()
                 .map(bot -> {
@@ -348,7 +688,7 @@ public class BotService {
                 .toList();
 
         return new DashboardStatsResponse(bots.size(), totalInteractions,
-                documents == null ? 0 : documents, dayLabels, series);
+                documents, dayLabels, series);
     }
 
     private String generateSlug(String name) {
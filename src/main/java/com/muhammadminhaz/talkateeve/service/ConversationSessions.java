@@ -0,0 +1,186 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.muhammadminhaz.talkateeve.dto.ChatMessageDTO;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.google.genai.GoogleGenAiChatModel;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Widget conversations kept server-side, so a request carries only the new message
+ * instead of resending (and re-serialising) the history every turn.
+ *
+ * <p>A session is a hash {@code chat-session:<id>} holding the bot it belongs to and the
+ * rolling summary, plus a list {@code chat-session:<id>:turns} of the turns since that
+ * summary. Both expire {@code ttl} after the last answer. Once the list passes
+ * {@code compact-after} turns, everything but the last {@code keep-recent} is folded into
+ * the summary by Gemini, so a long conversation costs a bounded prompt instead of a
+ * growing one.
+ */
+@Slf4j
+@Component
+public class ConversationSessions {
+
+    private static final String PREFIX = "chat-session:";
+    private static final String TURNS = ":turns";
+    private static final String COMPACTING = ":compacting";
+    private static final String BOT = "bot";
+    private static final String SUMMARY = "summary";
+
+    /** Only guards against two nodes compacting at once; a crashed holder just delays one compaction. */
+    private static final Duration COMPACTION_LOCK = Duration.ofSeconds(60);
+
+    /** {@code summary} is empty until the first compaction. */
+    public record Session(String id, UUID botId, String summary) {
+    }
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final GoogleGenAiChatModel chatModel;
+    private final ObjectMapper objectMapper;
+    private final MeterRegistry meterRegistry;
+    private final Duration ttl;
+    private final int compactAfter;
+    private final int keepRecent;
+
+    public ConversationSessions(RedisTemplate<String, String> redisTemplate,
+                                GoogleGenAiChatModel chatModel,
+                                ObjectMapper objectMapper,
+                                MeterRegistry meterRegistry,
+                                @Value("${app.chat.session.ttl:30m}") Duration ttl,
+                                @Value("${app.chat.session.compact-after:16}") int compactAfter,
+                                @Value("${app.chat.session.keep-recent:6}") int keepRecent) {
+        this.redisTemplate = redisTemplate;
+        this.chatModel = chatModel;
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+        this.ttl = ttl;
+        this.keepRecent = Math.max(0, keepRecent);
+        this.compactAfter = Math.max(this.keepRecent + 1, compactAfter);
+    }
+
+    public String open(UUID botId) {
+        String id = UUID.randomUUID().toString();
+        redisTemplate.opsForHash().putAll(PREFIX + id, Map.of(BOT, botId.toString(), SUMMARY, ""));
+        redisTemplate.expire(PREFIX + id, ttl);
+        return id;
+    }
+
+    /**
+     * The session, if it exists and belongs to {@code botId}. An id issued for another
+     * bot is treated as unknown rather than leaking that conversation into this one.
+     */
+    public Optional<Session> find(UUID botId, String sessionId) {
+        if (sessionId == null || sessionId.isBlank()) {
+            return Optional.empty();
+        }
+        Map<Object, Object> fields = redisTemplate.opsForHash().entries(PREFIX + sessionId);
+        if (!botId.toString().equals(fields.get(BOT))) {
+            return Optional.empty();
+        }
+        Object summary = fields.get(SUMMARY);
+        return Optional.of(new Session(sessionId, botId, summary == null ? "" : summary.toString()));
+    }
+
+    /** Turns since the last compaction, oldest first. */
+    public List<ChatMessageDTO> turns(Session session) {
+        List<String> stored = redisTemplate.opsForList().range(turnsKey(session.id()), 0, -1);
+        return stored == null ? List.of() : stored.stream().map(this::fromJson).toList();
+    }
+
+    /**
+     * Records one exchange and refreshes the TTL. Runs after the answer has been sent, so
+     * a compaction it triggers costs the visitor nothing.
+     */
+    public void append(Session session, String question, String answer) {
+        String turnsKey = turnsKey(session.id());
+        Long length = redisTemplate.opsForList().rightPushAll(turnsKey,
+                toJson(new ChatMessageDTO("user", question)), toJson(new ChatMessageDTO("assistant", answer)));
+        redisTemplate.expire(PREFIX + session.id(), ttl);
+        redisTemplate.expire(turnsKey, ttl);
+        if (length != null && length > compactAfter) {
+            compact(session.id());
+        }
+    }
+
+    /**
+     * Folds all but the most recent turns into the summary. Turns are only ever appended
+     * on the right, so trimming exactly the summarised count from the left is safe even
+     * if another exchange lands meanwhile. A failed summary keeps the turns: the prompt
+     * budget still trims them, so the conversation only loses compaction, not context.
+     */
+    void compact(String sessionId) {
+        String lockKey = PREFIX + sessionId + COMPACTING;
+        if (!Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(lockKey, "1", COMPACTION_LOCK))) {
+            return;
+        }
+        try {
+            String turnsKey = turnsKey(sessionId);
+            List<String> stored = redisTemplate.opsForList().range(turnsKey, 0, -1);
+            int fold = stored == null ? 0 : stored.size() - keepRecent;
+            if (fold <= 0) {
+                return;
+            }
+            Object previous = redisTemplate.opsForHash().get(PREFIX + sessionId, SUMMARY);
+            String summary = summarize(previous == null ? "" : previous.toString(),
+                    stored.subList(0, fold).stream().map(this::fromJson).toList());
+            // Summary first, then trim: a read in between sees a few turns twice, never a gap.
+            redisTemplate.opsForHash().put(PREFIX + sessionId, SUMMARY, summary);
+            redisTemplate.opsForList().trim(turnsKey, fold, -1);
+            meterRegistry.counter("chat.session.compactions", "outcome", "compacted").increment();
+        } catch (RuntimeException e) {
+            meterRegistry.counter("chat.session.compactions", "outcome", "failed").increment();
+            log.warn("Compacting chat session {} failed; keeping its turns", sessionId, e);
+        } finally {
+            redisTemplate.delete(lockKey);
+        }
+    }
+
+    private String summarize(String previous, List<ChatMessageDTO> turns) {
+        StringBuilder prompt = new StringBuilder("""
+                Summarize this chat between a user and an assistant in at most 120 words. Keep names,
+                numbers, decisions and open questions; drop greetings and pleasantries. Plain text only.
+
+                """);
+        if (!previous.isBlank()) {
+            prompt.append("Summary so far: ").append(previous).append("\n\n");
+        }
+        PromptBuilder.formatTurns(turns).forEach(prompt::append);
+
+        String text = chatModel.call(new Prompt(prompt.toString())).getResult().getOutput().getText();
+        if (text == null || text.isBlank()) {
+            throw new IllegalStateException("Empty summary");
+        }
+        return text.trim();
+    }
+
+    private static String turnsKey(String sessionId) {
+        return PREFIX + sessionId + TURNS;
+    }
+
+    private String toJson(ChatMessageDTO turn) {
+        try {
+            return objectMapper.writeValueAsString(turn);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Could not serialise chat turn", e);
+        }
+    }
+
+    private ChatMessageDTO fromJson(String json) {
+        try {
+            return objectMapper.readValue(json, ChatMessageDTO.class);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Could not read chat turn", e);
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package com.muhammadminhaz.talkateeve.service;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.stereotype.Service;
 
@@ -22,28 +23,34 @@ import java.util.Map;
 @Service
 public class EmbeddingReindexService {
 
-    /** Both tables are (id uuid, content text, embedding vector). */
-    private static final List<String> TABLES = List.of("bot_document", "rag_documents");
-
     private static final int PAGE_SIZE = 100;
 
     private final JdbcTemplate jdbcTemplate;
     private final EmbeddingService embeddingService;
-
-    public EmbeddingReindexService(JdbcTemplate jdbcTemplate, EmbeddingService embeddingService) {
+    /**
+     * Both tables are (id uuid, content text, embedding vector). rag_documents belongs to
+     * PgVectorStore and is never created when the mapped store is configured.
+     */
+    private final List<String> tables;
+
+    public EmbeddingReindexService(JdbcTemplate jdbcTemplate, EmbeddingService embeddingService,
+                                   @Value("${app.vector-store.type:pgvector}") String vectorStoreType) {
         this.jdbcTemplate = jdbcTemplate;
         this.embeddingService = embeddingService;
+        this.tables = "mapped".equals(vectorStoreType)
+                ? List.of("bot_document")
+                : List.of("bot_document", "rag_documents");
     }
 
     public record Result(String table, int reembedded, int failed) {
     }
 
     public List<Result> reindexAll() {
-        return TABLES.stream().map(this::reindex).toList();
+        return tables.stream().map(this::reindex).toList();
     }
 
     public Result reindex(String table) {
-        if (!TABLES.contains(table)) {
+        if (!tables.contains(table)) {
             throw new IllegalArgumentException("Unknown table: " + table);
         }
 
@@ -15,9 +15,15 @@ public class EmbeddingService {
         this.embeddingModel = embeddingModel;
     }
 
+    /** A chunk being ingested or reindexed. Never hedged, see {@link HedgedEmbeddingModel}. */
     public float[] createEmbedding(String text) {
         EmbeddingResponse response = embeddingModel.embedForResponse(List.of(text));
         return response.getResults().getFirst().getOutput();
     }
+
+    /** A visitor's question, on the chat path; hedged when hedging is on. */
+    public float[] createQueryEmbedding(String text) {
+        return embeddingModel.embed(text);
+    }
 }
 
@@ -0,0 +1,134 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import com.muhammadminhaz.talkateeve.model.BotFile;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Timestamp;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * The per-bot file list, read from {@code bot_file} instead of grouping every chunk row
+ * of {@code bot_document}.
+ *
+ * <p>{@link FileRoutingIndex#refresh} keeps each file's row and chunk count in step with
+ * its chunks, in the same transaction; this adds what the upload knows (size, content
+ * hash, when) and the status. An upload that fails rolls back with its chunks, so the
+ * failure is written after the rollback, as a {@code FAILED} row the owner can see and
+ * delete.
+ */
+@Slf4j
+@Component
+public class FileCatalog {
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public FileCatalog(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /** After the file's chunks are in and {@link FileRoutingIndex#refresh} created its row. */
+    public void recordUpload(UUID botId, String filename, long bytes, String contentHash) {
+        jdbcTemplate.update("""
+                UPDATE bot_file SET bytes = ?, content_hash = ?, ingested_at = now(), status = ?
+                WHERE bot_id = ?::uuid AND filename = ?
+                """, bytes, contentHash, BotFile.Status.READY.name(), botId.toString(), filename);
+    }
+
+    /**
+     * Records a failed upload once the surrounding transaction has rolled back, so it
+     * does not wait on that transaction's locks or vanish with it. A file that already
+     * had chunks keeps them and its status.
+     */
+    public void recordFailure(UUID botId, String filename, long bytes, String contentHash) {
+        Runnable write = () -> {
+            try {
+                jdbcTemplate.update("""
+                        INSERT INTO bot_file (id, bot_id, filename, chunk_count, bytes, content_hash, ingested_at, status)
+                        VALUES (gen_random_uuid(), ?::uuid, ?, 0, ?, ?, now(), ?)
+                        ON CONFLICT (bot_id, filename) DO NOTHING
+                        """, botId.toString(), filename, bytes, contentHash, BotFile.Status.FAILED.name());
+            } catch (RuntimeException e) {
+                log.warn("Could not record failed upload {} for bot {}", filename, botId, e);
+            }
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    write.run();
+                }
+            });
+        } else {
+            write.run();
+        }
+    }
+
+    public List<Map<String, Object>> list(UUID botId) {
+        return jdbcTemplate.query("""
+                SELECT filename, chunk_count, bytes, content_hash, ingested_at, status
+                FROM bot_file
+                WHERE bot_id = ?::uuid
+                ORDER BY filename
+                """, (rs, rowNum) -> {
+            Map<String, Object> file = new LinkedHashMap<>();
+            file.put("filename", rs.getString("filename"));
+            file.put("chunkCount", rs.getInt("chunk_count"));
+            file.put("bytes", rs.getLong("bytes"));
+            file.put("contentHash", rs.getString("content_hash"));
+            Timestamp ingestedAt = rs.getTimestamp("ingested_at");
+            file.put("ingestedAt", ingestedAt == null ? null : ingestedAt.toInstant().toString());
+            file.put("status", rs.getString("status"));
+            return file;
+        }, botId.toString());
+    }
+
+    /** Files with searchable content across the given bots. */
+    public long countReady(Collection<UUID> botIds) {
+        Long count = jdbcTemplate.queryForObject(
+                "SELECT count(*) FROM bot_file WHERE bot_id = ANY(?::uuid[]) AND status = ?",
+                Long.class, botIds.stream().map(UUID::toString).toArray(String[]::new), BotFile.Status.READY.name());
+        return count == null ? 0 : count;
+    }
+
+    /** How much searchable content a bot has. */
+    public record KbSize(long chunks, long chars) {
+    }
+
+    public KbSize kbSize(UUID botId) {
+        return jdbcTemplate.queryForObject(
+                "SELECT coalesce(sum(chunk_count), 0), coalesce(sum(content_chars), 0) "
+                        + "FROM bot_file WHERE bot_id = ?::uuid AND status = ?",
+                (rs, rowNum) -> new KbSize(rs.getLong(1), rs.getLong(2)),
+                botId.toString(), BotFile.Status.READY.name());
+    }
+
+    /** Drops a row that has no chunks behind it, such as a failed upload. */
+    public void remove(UUID botId, String filename) {
+        jdbcTemplate.update("DELETE FROM bot_file WHERE bot_id = ?::uuid AND filename = ?", botId.toString(), filename);
+    }
+
+    /** SHA-256 of the upload, read as a stream so a large file is never held in memory. */
+    public static String sha256(InputStream in) throws IOException {
+        try (DigestInputStream digest = new DigestInputStream(in, MessageDigest.getInstance("SHA-256"))) {
+            digest.transferTo(OutputStream.nullOutputStream());
+            return HexFormat.of().formatHex(digest.getMessageDigest().digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * File-level routing for bots with many uploads.
+ *
+ * <p>{@code bot_file} keeps one centroid per file, recomputed from that file's chunks
+ * whenever the file changes. A question is first matched against the centroids, and
+ * chunk search then only scans the best {@code topFiles} files. Bots with
+ * {@code minFiles} files or fewer skip the step: their chunk search is already cheap and
+ * a wrong routing decision would only cost recall.
+ */
+@Component
+public class FileRoutingIndex {
+
+    private static final String REFRESH_SQL = """
+            INSERT INTO bot_file (id, bot_id, filename, chunk_count, content_chars, centroid)
+            SELECT gen_random_uuid(), bot_id, filename, count(*), sum(length(content)), avg(embedding)
+            FROM bot_document
+            WHERE bot_id = ?::uuid AND filename = ? AND embedding IS NOT NULL
+            GROUP BY bot_id, filename
+            ON CONFLICT (bot_id, filename)
+            DO UPDATE SET chunk_count = EXCLUDED.chunk_count, content_chars = EXCLUDED.content_chars,
+                          centroid = EXCLUDED.centroid, status = 'READY'
+            """;
+
+    private static final String SEARCH_SQL = """
+            SELECT id::text AS id, filename, content, 1 - (embedding <=> ?::vector) AS score
+            FROM bot_document
+            WHERE bot_id = ?::uuid AND filename = ANY(?) AND embedding IS NOT NULL
+            ORDER BY embedding <=> ?::vector
+            LIMIT ?
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean enabled;
+    private final int minFiles;
+    private final int topFiles;
+
+    // File count per bot, so bots under the threshold skip routing without a query.
+    // Dropped by forget() on every node when the bot's documents change.
+    private final Map<String, Integer> fileCounts = new ConcurrentHashMap<>();
+
+    public FileRoutingIndex(JdbcTemplate jdbcTemplate,
+                            @Value("${app.search.file-routing.enabled:true}") boolean enabled,
+                            @Value("${app.search.file-routing.min-files:50}") int minFiles,
+                            @Value("${app.search.file-routing.top-files:5}") int topFiles) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.enabled = enabled;
+        this.minFiles = minFiles;
+        this.topFiles = Math.max(1, topFiles);
+    }
+
+    /**
+     * The files worth searching for this question, or empty when the bot is too small
+     * to route. The embedding is only requested once routing applies.
+     */
+    public Optional<List<String>> route(String botId, Supplier<float[]> queryEmbedding) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        int files = fileCounts.computeIfAbsent(botId, id -> {
+            Integer count = jdbcTemplate.queryForObject(
+                    "SELECT count(*) FROM bot_file WHERE bot_id = ?::uuid AND status = 'READY'", Integer.class, id);
+            return count == null ? 0 : count;
+        });
+        if (files <= minFiles) {
+            return Optional.empty();
+        }
+        return Optional.of(jdbcTemplate.queryForList(
+                "SELECT filename FROM bot_file WHERE bot_id = ?::uuid AND status = 'READY' "
+                        + "ORDER BY centroid <=> ?::vector LIMIT ?",
+                String.class, botId, VectorLiterals.toLiteral(queryEmbedding.get()), topFiles));
+    }
+
+    /** Exact chunk search restricted to the routed files; a few files are cheap to scan. */
+    public List<Document> search(String botId, float[] queryEmbedding, List<String> filenames, int topK) {
+        String vector = VectorLiterals.toLiteral(queryEmbedding);
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList(SEARCH_SQL,
+                vector, botId, filenames.toArray(String[]::new), vector, topK);
+        return rows.stream().map(row -> VectorLiterals.toDocument(row, botId)).toList();
+    }
+
+    /** Recomputes one file's centroid after its chunks changed, dropping it if none remain. */
+    public void refresh(String botId, String filename) {
+        if (jdbcTemplate.update(REFRESH_SQL, botId, filename) == 0) {
+            jdbcTemplate.update("DELETE FROM bot_file WHERE bot_id = ?::uuid AND filename = ?", botId, filename);
+        }
+        fileCounts.remove(botId);
+    }
+
+    /**
+     * Adds files uploaded before this table existed. Runs even with routing off, since
+     * the table is also the file catalog. Only files without a row are aggregated, so
+     * later starts do a scan and insert nothing.
+     */
+    public int backfillMissing() {
+        // Rows from before content_chars existed; a READY file always has some content.
+        jdbcTemplate.update("""
+                UPDATE bot_file f SET content_chars = (
+                    SELECT coalesce(sum(length(d.content)), 0) FROM bot_document d
+                    WHERE d.bot_id = f.bot_id AND d.filename = f.filename)
+                WHERE f.content_chars = 0 AND f.chunk_count > 0
+                """);
+        return jdbcTemplate.update("""
+                INSERT INTO bot_file (id, bot_id, filename, chunk_count, content_chars, centroid)
+                SELECT gen_random_uuid(), d.bot_id, d.filename, count(*), sum(length(d.content)), avg(d.embedding)
+                FROM bot_document d
+                WHERE d.embedding IS NOT NULL AND NOT EXISTS (
+                    SELECT 1 FROM bot_file f WHERE f.bot_id = d.bot_id AND f.filename = d.filename)
+                GROUP BY d.bot_id, d.filename
+                ON CONFLICT (bot_id, filename) DO NOTHING
+                """);
+    }
+
+    public void removeBot(String botId) {
+        jdbcTemplate.update("DELETE FROM bot_file WHERE bot_id = ?::uuid", botId);
+        fileCounts.remove(botId);
+    }
+
+    /**
+     * The bot's files changed, possibly on another node: recount on its next question.
+     * {@link #refresh} only clears this node's count, and before the change commits.
+     */
+    public void forget(String botId) {
+        fileCounts.remove(botId);
+    }
+}
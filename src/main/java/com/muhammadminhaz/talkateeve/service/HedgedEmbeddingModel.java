@@ -0,0 +1,45 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+
+/**
+ * Puts {@link RequestHedger} in front of the embedding model for questions only: that is
+ * {@link #embed(String)}, which both vector stores and {@link EmbeddingService#createQueryEmbedding}
+ * use on the chat path. Everything else ({@link #call}, the list and document forms) is
+ * ingest or reindexing and goes straight through, even one chunk at a time: nobody is
+ * waiting on its tail, a duplicate doubles its cost, and its latencies would otherwise
+ * set the hedge delay and earn hedge budget meant for questions.
+ */
+public class HedgedEmbeddingModel implements EmbeddingModel {
+
+    private final EmbeddingModel delegate;
+    private final RequestHedger hedger;
+
+    public HedgedEmbeddingModel(EmbeddingModel delegate, RequestHedger hedger) {
+        this.delegate = delegate;
+        this.hedger = hedger;
+    }
+
+    @Override
+    public EmbeddingResponse call(EmbeddingRequest request) {
+        return delegate.call(request);
+    }
+
+    @Override
+    public float[] embed(String text) {
+        return hedger.hedgeBlocking("embedding", () -> delegate.embed(text));
+    }
+
+    @Override
+    public float[] embed(Document document) {
+        return delegate.embed(document);
+    }
+
+    @Override
+    public int dimensions() {
+        return delegate.dimensions();
+    }
+}
@@ -0,0 +1,39 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs a bot-filtered HNSW candidate query so it still returns its candidates.
+ *
+ * <p>The indexes cover every bot. For {@code WHERE bot_id = ? ORDER BY distance LIMIT n},
+ * pgvector walks the graph for {@code hnsw.ef_search} neighbours (40 by default) and only
+ * then applies the bot filter, so a small bot on a large table gets a few candidates or
+ * none. Each query therefore runs in its own transaction with
+ * {@code SET LOCAL hnsw.iterative_scan = relaxed_order} (pgvector 0.8), which keeps
+ * scanning until {@code n} rows pass the filter, and {@code ef_search} raised to the
+ * candidate count. Relaxed order may return candidates slightly out of distance order;
+ * every caller rescores them on the full-precision vector anyway.
+ */
+final class HnswScan {
+
+    /** pgvector's upper bound for {@code hnsw.ef_search}. */
+    private static final int MAX_EF_SEARCH = 1000;
+    private static final int DEFAULT_EF_SEARCH = 40;
+
+    private HnswScan() {
+    }
+
+    static List<Map<String, Object>> queryForList(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate,
+                                                  int candidates, String sql, Object... args) {
+        int efSearch = Math.min(MAX_EF_SEARCH, Math.max(DEFAULT_EF_SEARCH, candidates));
+        return transactionTemplate.execute(status -> {
+            jdbcTemplate.execute("SET LOCAL hnsw.iterative_scan = relaxed_order");
+            jdbcTemplate.execute("SET LOCAL hnsw.ef_search = " + efSearch);
+            return jdbcTemplate.queryForList(sql, args);
+        });
+    }
+}
@@ -0,0 +1,188 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.IntFunction;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Full-text search over {@code bot_document.content_tsv}, fused with vector search.
+ *
+ * <p>Embeddings blur exact strings: a question quoting "E-4012" or "XR200" often ranks
+ * chunks about similar codes above the one that contains it. So the question is also
+ * matched lexically (any of its terms, ranked by {@code ts_rank_cd}), and the two
+ * rankings are merged by reciprocal rank fusion, which needs no score calibration
+ * between them. The vector results arrive already cut to the relevant ones; a lexical
+ * hit the vector side dropped only comes back if it holds every distinctive token, so
+ * a question sharing a common word with a chunk does not drag it into the context.
+ *
+ * <p>The lexical query runs first because it is an index lookup of a few milliseconds,
+ * while vector search starts with a Gemini embedding call. When the question contains
+ * distinctive tokens (anything with a digit, an all-caps word, or joined by {@code _}
+ * or {@code .}) and the best lexical hit contains all of them, that hit is trusted and
+ * the embedding is skipped. Counted in {@code chat.retrieval.hybrid}.
+ */
+@Slf4j
+@Component
+public class HybridSearch {
+
+    /** The usual RRF constant; damps the difference between the first few ranks. */
+    static final int RRF_K = 60;
+
+    private static final Pattern TOKEN = Pattern.compile("[\\p{L}\\p{N}]+(?:[-_.][\\p{L}\\p{N}]+)*");
+
+    /**
+     * Both queries go through Postgres' own parser, so they tokenize exactly as
+     * {@code content_tsv} did. Any term may match; {@code exact} says whether the hit
+     * holds every distinctive token.
+     */
+    private static final String SQL = """
+            SELECT id::text AS id, filename, content,
+                   ts_rank_cd(content_tsv, any_terms, 32) AS score,
+                   content_tsv @@ plainto_tsquery('simple', ?) AS exact
+            FROM bot_document,
+                 CAST(replace(CAST(plainto_tsquery('simple', ?) AS text), '&', '|') AS tsquery) any_terms
+            WHERE bot_id = ?::uuid AND content_tsv @@ any_terms
+            ORDER BY score DESC
+            LIMIT ?
+            """;
+
+    /**
+     * One ranked list of lexical hits, those holding every distinctive token, and whether
+     * the first one can stand alone.
+     */
+    public record Lexical(List<Document> documents, Set<String> exact, boolean confident) {
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final boolean lexicalFastPath;
+    private final int candidateMultiplier;
+
+    public HybridSearch(JdbcTemplate jdbcTemplate,
+                        MeterRegistry meterRegistry,
+                        @Value("${app.search.hybrid.enabled:true}") boolean enabled,
+                        @Value("${app.search.hybrid.lexical-fast-path:true}") boolean lexicalFastPath,
+                        @Value("${app.search.hybrid.candidate-multiplier:3}") int candidateMultiplier) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.lexicalFastPath = lexicalFastPath;
+        this.candidateMultiplier = Math.max(1, candidateMultiplier);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * The lexical hits fused with {@code vector}'s, or the exact lexical hits alone when
+     * they are confident; rows that only share some words with the question are not
+     * trusted without the vector side. {@code vector} is called with the candidate count
+     * it should return.
+     */
+    public List<Document> search(String botId, String question, int topK,
+                                 IntFunction<List<Document>> vector) {
+        Lexical lexical = lexicalOrNothing(botId, question, topK * candidateMultiplier);
+        if (lexicalFastPath && lexical.confident()) {
+            meterRegistry.counter("chat.retrieval.hybrid", "path", "lexical").increment();
+            return lexical.documents().stream()
+                    .filter(document -> lexical.exact().contains(document.getId()))
+                    .limit(topK)
+                    .toList();
+        }
+        List<Document> semantic = vector.apply(topK * candidateMultiplier);
+        Set<String> relevant = semantic.stream().map(Document::getId).collect(Collectors.toSet());
+        List<Document> corroborated = lexical.documents().stream()
+                .filter(document -> relevant.contains(document.getId()) || lexical.exact().contains(document.getId()))
+                .toList();
+        meterRegistry.counter("chat.retrieval.hybrid", "path", corroborated.isEmpty() ? "vector" : "fused")
+                .increment();
+        return fuse(List.of(semantic, corroborated), topK);
+    }
+
+    /** The full-text side is an improvement, not a dependency: on failure, answer from vectors. */
+    private Lexical lexicalOrNothing(String botId, String question, int limit) {
+        try {
+            return lexical(botId, question, limit);
+        } catch (DataAccessException e) {
+            meterRegistry.counter("chat.retrieval.hybrid.failures").increment();
+            log.warn("Lexical search failed for bot {}, using vector results only", botId, e);
+            return new Lexical(List.of(), Set.of(), false);
+        }
+    }
+
+    Lexical lexical(String botId, String question, int limit) {
+        if (!TOKEN.matcher(question).find()) {
+            return new Lexical(List.of(), Set.of(), false);
+        }
+        List<String> distinctive = distinctive(question);
+        // An empty tsquery matches nothing, so a question without distinctive tokens is never exact.
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList(SQL,
+                String.join(" ", distinctive), question, botId, limit);
+        List<Document> documents = rows.stream().map(row -> VectorLiterals.toDocument(row, botId)).toList();
+        Set<String> exact = rows.stream()
+                .filter(row -> Boolean.TRUE.equals(row.get("exact")))
+                .map(row -> String.valueOf(row.get("id")))
+                .collect(Collectors.toSet());
+        boolean confident = !distinctive.isEmpty() && !rows.isEmpty()
+                && Boolean.TRUE.equals(rows.getFirst().get("exact"));
+        return new Lexical(documents, exact, confident);
+    }
+
+    /**
+     * Reciprocal rank fusion: each document scores {@code sum(1 / (RRF_K + rank))} over
+     * the lists it appears in, and the fused score replaces the per-list ones. Ties keep
+     * the order of the first list.
+     */
+    static List<Document> fuse(List<List<Document>> rankings, int topK) {
+        Map<String, Document> byId = new LinkedHashMap<>();
+        Map<String, Double> scores = new HashMap<>();
+        for (List<Document> ranking : rankings) {
+            for (int rank = 0; rank < ranking.size(); rank++) {
+                Document document = ranking.get(rank);
+                byId.putIfAbsent(document.getId(), document);
+                scores.merge(document.getId(), 1.0 / (RRF_K + rank + 1), Double::sum);
+            }
+        }
+        List<String> ids = new ArrayList<>(byId.keySet());
+        ids.sort((a, b) -> Double.compare(scores.get(b), scores.get(a)));
+        return ids.stream()
+                .limit(topK)
+                .map(id -> byId.get(id).mutate().score(scores.get(id)).build())
+                .toList();
+    }
+
+    /** Tokens an embedding is likely to blur: codes, numbers and acronyms. */
+    static List<String> distinctive(String question) {
+        Set<String> tokens = new LinkedHashSet<>();
+        Matcher m = TOKEN.matcher(question);
+        while (m.find()) {
+            String token = m.group();
+            boolean code = token.chars().anyMatch(Character::isDigit) || token.matches(".*[-_.].*");
+            boolean acronym = token.length() >= 3 && token.equals(token.toUpperCase(Locale.ROOT))
+                    && token.chars().anyMatch(Character::isLetter);
+            if (code || acronym) {
+                tokens.add(token);
+            }
+        }
+        return List.copyOf(tokens);
+    }
+}
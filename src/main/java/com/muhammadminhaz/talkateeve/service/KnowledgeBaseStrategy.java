@@ -0,0 +1,122 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Picks how a question gets its context from the size of the bot's knowledge base.
+ *
+ * <p>A bot with no documents needs no retrieval at all, and a bot whose whole KB is a
+ * few short chunks can have all of it in the prompt, which is both cheaper and better
+ * than embedding the question to pick three of them. Everything else uses vector
+ * search. Sizes come from the file catalog and are cached per KB generation, as are the
+ * chunks of inlined KBs, so a document change takes effect on the next question. The
+ * generation is only bumped once the change has committed (see
+ * {@link BotConfigCache#bumpKbGeneration}); a TTL still bounds an entry, because the
+ * catalog backfill sizes old files without a document change. Each choice is counted in
+ * {@code chat.retrieval.strategy}, tagged by bot.
+ */
+@Component
+public class KnowledgeBaseStrategy {
+
+    public enum Strategy {
+        /** No documents: answer from the instructions alone. */
+        NONE,
+        /** Small enough to send whole. */
+        INLINE,
+        VECTOR
+    }
+
+    private record Sized(long kbGeneration, Strategy strategy, long loadedAtNanos) {
+    }
+
+    private record Inlined(long kbGeneration, List<Document> chunks, long loadedAtNanos) {
+    }
+
+    private final FileCatalog fileCatalog;
+    private final BotDocumentService botDocumentService;
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final int inlineMaxTokens;
+    private final long ttlNanos;
+
+    private final Map<UUID, Sized> sizes = new ConcurrentHashMap<>();
+    /** Access-ordered LRU of inlined KBs, each at most inline-max-tokens. Guarded by itself. */
+    private final Map<UUID, Inlined> inlined;
+
+    public KnowledgeBaseStrategy(FileCatalog fileCatalog,
+                                 BotDocumentService botDocumentService,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${app.chat.kb-strategy.enabled:true}") boolean enabled,
+                                 @Value("${app.chat.kb-strategy.inline-max-tokens:1500}") int inlineMaxTokens,
+                                 @Value("${app.chat.kb-strategy.inline-cache-bots:1000}") int inlineCacheBots,
+                                 @Value("${app.chat.kb-strategy.ttl:10m}") Duration ttl) {
+        this.fileCatalog = fileCatalog;
+        this.botDocumentService = botDocumentService;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.inlineMaxTokens = inlineMaxTokens;
+        this.ttlNanos = ttl.toNanos();
+        this.inlined = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, Inlined> eldest) {
+                return size() > inlineCacheBots;
+            }
+        };
+    }
+
+    /** The strategy for this question, counted. Only a catalog lookup on a new KB generation. */
+    public Strategy choose(BotConfigCache.BotChatConfig config) {
+        Strategy strategy = enabled ? sizedFor(config) : Strategy.VECTOR;
+        meterRegistry.counter("chat.retrieval.strategy",
+                "bot", config.botId().toString(), "strategy", strategy.name().toLowerCase()).increment();
+        return strategy;
+    }
+
+    /** The whole KB of a bot {@link #choose} sent down the {@link Strategy#INLINE} path. */
+    public List<Document> inlineChunks(BotConfigCache.BotChatConfig config) {
+        synchronized (inlined) {
+            Inlined cached = inlined.get(config.botId());
+            if (cached != null && fresh(cached.kbGeneration(), cached.loadedAtNanos(), config)) {
+                return cached.chunks();
+            }
+        }
+        List<Document> chunks = botDocumentService.allChunks(config.botId().toString());
+        synchronized (inlined) {
+            inlined.put(config.botId(), new Inlined(config.kbGeneration(), chunks, System.nanoTime()));
+        }
+        return chunks;
+    }
+
+    private Strategy sizedFor(BotConfigCache.BotChatConfig config) {
+        Sized sized = sizes.get(config.botId());
+        if (sized != null && fresh(sized.kbGeneration(), sized.loadedAtNanos(), config)) {
+            return sized.strategy();
+        }
+        FileCatalog.KbSize size = fileCatalog.kbSize(config.botId());
+        Strategy strategy;
+        if (size.chunks() == 0) {
+            strategy = Strategy.NONE;
+        } else if (size.chars() > 0 && PromptBuilder.estimateTokens(size.chars()) <= inlineMaxTokens) {
+            strategy = Strategy.INLINE;
+        } else {
+            // Includes catalog rows not yet sized by the backfill: search is always safe.
+            strategy = Strategy.VECTOR;
+        }
+        sizes.put(config.botId(), new Sized(config.kbGeneration(), strategy, System.nanoTime()));
+        return strategy;
+    }
+
+    private boolean fresh(long kbGeneration, long loadedAtNanos, BotConfigCache.BotChatConfig config) {
+        return kbGeneration == config.kbGeneration() && System.nanoTime() - loadedAtNanos < ttlNanos;
+    }
+}
@@ -0,0 +1,292 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * In-JVM brute-force search tier for small bots.
+ *
+ * <p>Most bots hold a few hundred chunks, where a linear scan over normalised vectors
+ * is faster than the Postgres round trip plus the JSONB-filtered ANN search. Each bot's
+ * vectors are packed into one contiguous {@code float[]} so the scoring loop walks
+ * memory sequentially. The dot product runs on the incubator Vector API ({@link SimdDot})
+ * when the JVM was started with {@code --add-modules jdk.incubator.vector}, as the
+ * Dockerfile and the Maven build do, and on a scalar loop otherwise: C2 keeps a float
+ * sum in strict order, so it does not split the plain loop across lanes.
+ *
+ * <p>Blocks stay on the heap: they are already bounded by the memory budget below, and
+ * the Vector API reads heap arrays directly.
+ *
+ * <p>Blocks are loaded lazily from {@code bot_document}, evicted least-recently-used
+ * under {@code app.local-search.memory-budget-mb}, and dropped by
+ * {@link #invalidate(String)} whenever a bot's documents change. Bots above
+ * {@code app.local-search.max-chunks} are left to pgvector.
+ */
+@Slf4j
+@Component
+public class LocalVectorIndex {
+
+    /** Constant once C2 compiles the scan, so the unused branch costs nothing. */
+    private static final boolean SIMD = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+    private final JdbcTemplate jdbcTemplate;
+    private final boolean enabled;
+    private final int maxChunks;
+    private final long memoryBudgetBytes;
+
+    /** Access-ordered, so iteration starts at the least recently used block. Guarded by this. */
+    private final LinkedHashMap<String, Block> blocks = new LinkedHashMap<>(16, 0.75f, true);
+    private long residentBytes;
+
+    /** Bots known to exceed maxChunks, so a miss does not re-count them every time. */
+    private final Set<String> tooLarge = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Bumped on every invalidation. A load that started before an upload finished must
+     * not install its now-stale block afterwards.
+     */
+    private final Map<String, AtomicLong> versions = new ConcurrentHashMap<>();
+
+    public LocalVectorIndex(JdbcTemplate jdbcTemplate,
+                            @Value("${app.local-search.enabled:true}") boolean enabled,
+                            @Value("${app.local-search.max-chunks:2000}") int maxChunks,
+                            @Value("${app.local-search.memory-budget-mb:64}") long memoryBudgetMb) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.enabled = enabled;
+        this.maxChunks = maxChunks;
+        this.memoryBudgetBytes = memoryBudgetMb * 1024 * 1024;
+    }
+
+    /**
+     * Searches the bot in memory, or returns empty if it belongs on the pgvector path.
+     * The query is only embedded when there is something to score, so a bot with no
+     * documents costs no embedding call at all.
+     */
+    public Optional<List<Document>> search(String botId, Supplier<float[]> queryEmbedding, int topK) {
+        return search(botId, queryEmbedding, topK, SIMD);
+    }
+
+    /**
+     * {@link #search} with the dot product chosen by the caller, so
+     * {@link VectorSearchBenchmark} can time both loops in one JVM.
+     */
+    Optional<List<Document>> search(String botId, Supplier<float[]> queryEmbedding, int topK, boolean simd) {
+        if (!enabled || tooLarge.contains(botId)) {
+            return Optional.empty();
+        }
+
+        Block block = blockFor(botId);
+        if (block == null) {
+            return Optional.empty();
+        }
+        if (block.size() == 0) {
+            return Optional.of(List.of());
+        }
+
+        return Optional.of(block.topK(normalise(queryEmbedding.get()), topK, botId, simd && SIMD));
+    }
+
+    /** Whether this JVM can run the Vector API loop. */
+    static boolean simdAvailable() {
+        return SIMD;
+    }
+
+    public void invalidate(String botId) {
+        versions.computeIfAbsent(botId, k -> new AtomicLong()).incrementAndGet();
+        tooLarge.remove(botId);
+        synchronized (this) {
+            Block removed = blocks.remove(botId);
+            if (removed != null) {
+                residentBytes -= removed.bytes();
+            }
+        }
+    }
+
+    synchronized long residentBytes() {
+        return residentBytes;
+    }
+
+    private Block blockFor(String botId) {
+        synchronized (this) {
+            Block cached = blocks.get(botId);
+            if (cached != null) {
+                return cached;
+            }
+        }
+
+        long version = versions.computeIfAbsent(botId, k -> new AtomicLong()).get();
+
+        Long count = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM bot_document WHERE bot_id = ?::uuid", Long.class, botId);
+        if (count != null && count > maxChunks) {
+            tooLarge.add(botId);
+            return null;
+        }
+
+        Block block = load(botId);
+        if (block.bytes() > memoryBudgetBytes) {
+            log.info("Bot {} needs {}KB, above the whole local search budget; using pgvector",
+                    botId, block.bytes() / 1024);
+            tooLarge.add(botId);
+            return null;
+        }
+
+        synchronized (this) {
+            if (versions.get(botId).get() != version) {
+                // Invalidated while loading: serve this request, but do not keep the block.
+                return block;
+            }
+            Block raced = blocks.putIfAbsent(botId, block);
+            if (raced != null) {
+                return raced;
+            }
+            residentBytes += block.bytes();
+            evictOverBudget(botId);
+        }
+
+        log.debug("Loaded {} chunks for bot {} into local search ({}KB resident)",
+                block.size(), botId, residentBytes() / 1024);
+        return block;
+    }
+
+    /** Caller holds the monitor. Never evicts the block that was just installed. */
+    private void evictOverBudget(String keep) {
+        Iterator<Map.Entry<String, Block>> it = blocks.entrySet().iterator();
+        while (residentBytes > memoryBudgetBytes && it.hasNext()) {
+            Map.Entry<String, Block> eldest = it.next();
+            if (eldest.getKey().equals(keep)) {
+                continue;
+            }
+            residentBytes -= eldest.getValue().bytes();
+            it.remove();
+            log.debug("Evicted bot {} from local search", eldest.getKey());
+        }
+    }
+
+    private Block load(String botId) {
+        List<Map<String, Object>> rows = jdbcTemplate.queryForList(
+                "SELECT id, filename, content, embedding::text AS embedding "
+                        + "FROM bot_document WHERE bot_id = ?::uuid AND embedding IS NOT NULL",
+                botId);
+
+        int n = rows.size();
+        String[] ids = new String[n];
+        String[] filenames = new String[n];
+        String[] texts = new String[n];
+        float[] vectors = null;
+        int dims = 0;
+        long textBytes = 0;
+
+        for (int i = 0; i < n; i++) {
+            Map<String, Object> row = rows.get(i);
+            float[] vector = normalise(VectorLiterals.parse((String) row.get("embedding")));
+            if (vectors == null) {
+                dims = vector.length;
+                vectors = new float[n * dims];
+            }
+            System.arraycopy(vector, 0, vectors, i * dims, dims);
+            ids[i] = String.valueOf(row.get("id"));
+            filenames[i] = Objects.toString(row.get("filename"), "");
+            texts[i] = (String) row.get("content");
+            textBytes += texts[i] == null ? 0 : texts[i].length() * 2L;
+        }
+
+        long bytes = (vectors == null ? 0 : vectors.length * 4L) + textBytes + n * 64L;
+        return new Block(ids, filenames, texts, vectors == null ? new float[0] : vectors, dims, bytes);
+    }
+
+    /**
+     * MRL-truncated vectors are not unit length. Normalising once at load time turns
+     * cosine similarity into a plain dot product in the hot loop.
+     */
+    static float[] normalise(float[] vector) {
+        double sum = 0;
+        for (float v : vector) {
+            sum += v * v;
+        }
+        if (sum == 0) {
+            return vector;
+        }
+        float inv = (float) (1.0 / Math.sqrt(sum));
+        float[] out = new float[vector.length];
+        for (int i = 0; i < vector.length; i++) {
+            out[i] = vector[i] * inv;
+        }
+        return out;
+    }
+
+    private record Block(String[] ids, String[] filenames, String[] texts,
+                         float[] vectors, int dims, long bytes) {
+
+        int size() {
+            return ids.length;
+        }
+
+        List<Document> topK(float[] query, int k, String botId, boolean simd) {
+            if (query.length != dims) {
+                throw new IllegalStateException(
+                        "Query has " + query.length + " dimensions, stored vectors have " + dims);
+            }
+
+            int limit = Math.min(k, size());
+            if (limit <= 0) {
+                return List.of();
+            }
+            int[] best = new int[limit];
+            float[] bestScores = new float[limit];
+            Arrays.fill(bestScores, Float.NEGATIVE_INFINITY);
+
+            for (int i = 0; i < size(); i++) {
+                float score = dot(query, vectors, i * dims, simd);
+                if (score <= bestScores[limit - 1]) {
+                    continue;
+                }
+                // k is single digits, so insertion into a sorted array beats a heap.
+                int pos = limit - 1;
+                while (pos > 0 && bestScores[pos - 1] < score) {
+                    bestScores[pos] = bestScores[pos - 1];
+                    best[pos] = best[pos - 1];
+                    pos--;
+                }
+                bestScores[pos] = score;
+                best[pos] = i;
+            }
+
+            List<Document> results = new ArrayList<>(limit);
+            for (int j = 0; j < limit; j++) {
+                int i = best[j];
+                results.add(Document.builder()
+                        .id(ids[i])
+                        .text(texts[i])
+                        .metadata(Map.of("bot_id", botId, "filename", filenames[i]))
+                        .score((double) bestScores[j])
+                        .build());
+            }
+            return results;
+        }
+    }
+
+    static float dot(float[] query, float[] vectors, int offset) {
+        return dot(query, vectors, offset, SIMD);
+    }
+
+    private static float dot(float[] query, float[] vectors, int offset, boolean simd) {
+        return simd ? SimdDot.dot(query, vectors, offset) : scalarDot(query, vectors, offset);
+    }
+
+    static float scalarDot(float[] query, float[] vectors, int offset) {
+        float sum = 0;
+        for (int d = 0; d < query.length; d++) {
+            sum += query[d] * vectors[offset + d];
+        }
+        return sum;
+    }
+}
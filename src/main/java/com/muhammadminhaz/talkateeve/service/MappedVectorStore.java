@@ -0,0 +1,732 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.ai.vectorstore.filter.Filter;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Local, restart-safe {@link VectorStore} backed by memory-mapped segment files, selected
+ * with {@code app.vector-store.type=mapped}. Read-heavy nodes answer from the page cache
+ * instead of Postgres.
+ *
+ * <p>Layout is one directory per bot holding immutable {@code seg-<lo>-<hi>.seg} files and
+ * an append-only {@code tombstones} log. Every {@link #add} writes a new segment to a
+ * {@code .tmp} file, fsyncs it and renames it into place, so a crash leaves either the
+ * whole segment or nothing. Deletes append the id to the tombstone log. Once a bot has
+ * more than {@code compactAfterSegments} segments, a background merge rewrites the live
+ * records into one segment named for the range it replaces; on open, any segment whose
+ * range is covered by a merged one is a leftover from an interrupted merge and is removed.
+ *
+ * <p>Files live outside the database transaction that writes the chunk rows, so adds and
+ * deletes reach disk only once it commits (see {@link AfterCommit}). A rolled-back upload
+ * then leaves no segment behind that no {@code bot_document} row could ever delete, and a
+ * rolled-back delete keeps the vectors of the rows it restores. Embedding still happens
+ * up front, so a failing embedding call fails the transaction.
+ *
+ * <p>Search is an exact scan over the mapped vectors rather than a per-segment HNSW graph:
+ * bots are small enough that building and persisting a graph would cost more than the
+ * scan it saves (see {@link LocalVectorIndex}).
+ *
+ * <p>Segment format, big-endian: {@code int magic, int dims, int count,
+ * float[count * dims]} unit vectors, then {@code count} records of
+ * {@code int length, byte[length]} UTF-8 JSON holding id, text and metadata.
+ */
+@Slf4j
+public class MappedVectorStore implements VectorStore, DisposableBean {
+
+    private static final int MAGIC = 0x54565331; // "TVS1"
+    private static final int HEADER_BYTES = 12;
+    private static final String TOMBSTONES = "tombstones";
+    private static final Pattern SEGMENT_NAME = Pattern.compile("seg-(\\d+)-(\\d+)\\.seg");
+    private static final String BOT_KEY = "bot_id";
+
+    private final EmbeddingModel embeddingModel;
+    private final ObjectMapper objectMapper;
+    private final Path root;
+    private final int compactAfterSegments;
+
+    private final Map<String, Shard> shards = new ConcurrentHashMap<>();
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(
+            Thread.ofVirtual().name("vector-compactor").factory());
+
+    public MappedVectorStore(EmbeddingModel embeddingModel, ObjectMapper objectMapper,
+                             Path root, int compactAfterSegments) {
+        this.embeddingModel = embeddingModel;
+        this.objectMapper = objectMapper;
+        this.root = root;
+        this.compactAfterSegments = compactAfterSegments;
+        try {
+            Files.createDirectories(root);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create vector store directory " + root, e);
+        }
+        log.info("Mapped vector store at {}", root.toAbsolutePath());
+    }
+
+    @Override
+    public String getName() {
+        return "MappedVectorStore";
+    }
+
+    @Override
+    public void add(List<Document> documents) {
+        Map<String, List<Document>> byBot = new LinkedHashMap<>();
+        for (Document doc : documents) {
+            Object botId = doc.getMetadata().get(BOT_KEY);
+            if (botId == null) {
+                throw new IllegalArgumentException("Document " + doc.getId() + " has no bot_id metadata");
+            }
+            byBot.computeIfAbsent(botId.toString(), k -> new ArrayList<>()).add(doc);
+        }
+
+        byBot.forEach((botId, docs) -> {
+            List<float[]> vectors = embeddingModel.embed(docs.stream().map(Document::getText).toList());
+            Shard shard = shard(botId);
+            AfterCommit.run(() -> append(botId, shard, docs, vectors));
+        });
+    }
+
+    private void append(String botId, Shard shard, List<Document> docs, List<float[]> vectors) {
+        shard.lock.lock();
+        try {
+            shard.append(docs, vectors);
+        } finally {
+            shard.lock.unlock();
+        }
+        if (shard.segments.size() > compactAfterSegments) {
+            compactor.execute(() -> compact(botId));
+        }
+    }
+
+    /** Opens every bot's shard to find the ids; callers that know the bot use the overload. */
+    @Override
+    public void delete(List<String> idList) {
+        Set<String> ids = new HashSet<>(idList);
+        AfterCommit.run(() -> tombstone(allShards(), ids));
+    }
+
+    public void delete(String botId, List<String> idList) {
+        Set<String> ids = new HashSet<>(idList);
+        AfterCommit.run(() -> tombstone(existingShard(botId), ids));
+    }
+
+    private void tombstone(List<Shard> targets, Set<String> ids) {
+        for (Shard shard : targets) {
+            shard.lock.lock();
+            try {
+                List<String> present = ids.stream().filter(shard::contains).toList();
+                if (!present.isEmpty()) {
+                    shard.tombstone(present);
+                }
+            } finally {
+                shard.lock.unlock();
+            }
+            compactIfMostlyDeleted(shard);
+        }
+    }
+
+    @Override
+    public void delete(Filter.Expression filterExpression) {
+        AfterCommit.run(() -> tombstone(filterExpression));
+    }
+
+    private void tombstone(Filter.Expression filterExpression) {
+        String botId = botIdOf(filterExpression);
+        for (Shard shard : botId == null ? allShards() : existingShard(botId)) {
+            shard.lock.lock();
+            try {
+                List<String> matching = new ArrayList<>();
+                for (Segment segment : shard.segments) {
+                    for (int i = 0; i < segment.count(); i++) {
+                        Record record = segment.record(i);
+                        if (!shard.tombstones.contains(record.id()) && matches(filterExpression, record.metadata())) {
+                            matching.add(record.id());
+                        }
+                    }
+                }
+                if (!matching.isEmpty()) {
+                    shard.tombstone(matching);
+                }
+            } finally {
+                shard.lock.unlock();
+            }
+            compactIfMostlyDeleted(shard);
+        }
+    }
+
+    @Override
+    public List<Document> similaritySearch(SearchRequest request) {
+        Filter.Expression filter = request.getFilterExpression();
+        String botId = filter == null ? null : botIdOf(filter);
+        List<Shard> targets = botId == null ? allShards() : existingShard(botId);
+        if (targets.isEmpty()) {
+            return List.of();
+        }
+        float[] query = embeddingModel.embed(request.getQuery());
+        return search(targets, query, request.getTopK(), request.getSimilarityThreshold(), filter);
+    }
+
+    /** Search by an embedding already at hand, for {@link VectorSearchBenchmark}. */
+    List<Document> similaritySearch(String botId, float[] query, int topK) {
+        List<Shard> targets = existingShard(botId);
+        return targets.isEmpty() ? List.of() : search(targets, query, topK, SearchRequest.SIMILARITY_THRESHOLD_ACCEPT_ALL, null);
+    }
+
+    private List<Document> search(List<Shard> targets, float[] embedding, int topK, double threshold,
+                                  Filter.Expression filter) {
+        float[] query = LocalVectorIndex.normalise(embedding);
+        PriorityQueue<Scored> best = new PriorityQueue<>(Comparator.comparingDouble(Scored::score));
+
+        for (Shard shard : targets) {
+            // Segments are immutable and the list is swapped atomically, so no lock. Compaction
+            // swaps the segments before it clears the tombstones, so reading the tombstones
+            // first never pairs a cleared set with the segments it applied to.
+            Set<String> tombstones = shard.tombstones;
+            List<Segment> segments = shard.segments;
+            for (int s = 0; s < segments.size(); s++) {
+                Segment segment = segments.get(s);
+                if (segment.count() > 0 && segment.dims() != query.length) {
+                    throw new IllegalStateException("Query has " + query.length
+                            + " dimensions, segment " + segment.path() + " has " + segment.dims());
+                }
+                for (int i = 0; i < segment.count(); i++) {
+                    float score = segment.dot(i, query);
+                    if (score < threshold) {
+                        continue;
+                    }
+                    if (best.size() == topK && score <= best.peek().score()) {
+                        continue;
+                    }
+                    Record record = segment.record(i);
+                    if (tombstones.contains(record.id()) || supersededLater(segments, s, record.id())
+                            || (filter != null && !matches(filter, record.metadata()))) {
+                        continue;
+                    }
+                    best.add(new Scored(record, score));
+                    if (best.size() > topK) {
+                        best.poll();
+                    }
+                }
+            }
+        }
+
+        List<Document> results = new ArrayList<>(best.size());
+        while (!best.isEmpty()) {
+            Scored scored = best.poll();
+            Map<String, Object> metadata = new HashMap<>(scored.record().metadata());
+            metadata.put("distance", 1 - scored.score());
+            results.add(Document.builder()
+                    .id(scored.record().id())
+                    .text(scored.record().text())
+                    .metadata(metadata)
+                    .score((double) scored.score())
+                    .build());
+        }
+        Collections.reverse(results);
+        return results;
+    }
+
+    /**
+     * Whether a newer segment holds another copy of the id: a re-added chunk is served
+     * from its latest write only, as {@link #compact} keeps it, whichever copy scores
+     * higher. Only candidates that made the top k get here.
+     */
+    private static boolean supersededLater(List<Segment> segments, int s, String id) {
+        for (int t = s + 1; t < segments.size(); t++) {
+            if (segments.get(t).ids().contains(id)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void destroy() throws InterruptedException {
+        compactor.shutdown();
+        compactor.awaitTermination(30, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Rewrites every live record of a bot into a single segment and drops the tombstone
+     * log. A bot with nothing left loses its directory entirely.
+     */
+    void compact(String botId) {
+        Shard shard = shard(botId);
+        shard.lock.lock();
+        try {
+            List<Segment> old = shard.segments;
+            if (old.size() <= 1 && shard.tombstones.isEmpty()) {
+                return;
+            }
+
+            // Newest segment first, so an id that was re-added keeps only its latest copy.
+            List<Record> live = new ArrayList<>();
+            List<float[]> vectors = new ArrayList<>();
+            Set<String> seen = new HashSet<>();
+            for (int s = old.size() - 1; s >= 0; s--) {
+                Segment segment = old.get(s);
+                for (int i = 0; i < segment.count(); i++) {
+                    Record record = segment.record(i);
+                    if (!shard.tombstones.contains(record.id()) && seen.add(record.id())) {
+                        live.add(record);
+                        vectors.add(segment.vector(i));
+                    }
+                }
+            }
+
+            if (live.isEmpty()) {
+                shard.segments = List.of();
+                shard.tombstones = ConcurrentHashMap.newKeySet();
+                // Directory first: a reader that misses the shard in the map reopens it from
+                // disk, and a half-deleted directory would bring back what was just deleted.
+                deleteRecursively(shard.dir);
+                shards.remove(botId);
+                log.info("Compacted bot {}: no live vectors left, removed {}", botId, shard.dir);
+                return;
+            }
+
+            long lo = old.stream().mapToLong(Segment::lo).min().orElseThrow();
+            long hi = old.stream().mapToLong(Segment::hi).max().orElseThrow();
+            Segment merged = writeSegment(shard.dir, lo, hi, live, vectors);
+
+            shard.segments = List.of(merged);
+            for (Segment segment : old) {
+                // Compacting a single segment reuses its name: the rename already replaced it.
+                if (!segment.path().equals(merged.path())) {
+                    Files.deleteIfExists(segment.path());
+                }
+            }
+            shard.tombstones = ConcurrentHashMap.newKeySet();
+            Files.deleteIfExists(shard.dir.resolve(TOMBSTONES));
+            log.info("Compacted bot {}: {} segments into 1, {} live vectors", botId, old.size(), live.size());
+        } catch (IOException e) {
+            // The old segments are still intact and still listed, so search is unaffected.
+            log.error("Compaction failed for bot {}", botId, e);
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    private void compactIfMostlyDeleted(Shard shard) {
+        int total = shard.segments.stream().mapToInt(Segment::count).sum();
+        if (!shard.tombstones.isEmpty() && shard.tombstones.size() * 2 >= total) {
+            String botId = shard.dir.getFileName().toString();
+            compactor.execute(() -> compact(botId));
+        }
+    }
+
+    /** Reads must not create a directory for a bot that has never had a vector. */
+    private List<Shard> existingShard(String botId) {
+        if (!shards.containsKey(botId) && !Files.isDirectory(root.resolve(botId))) {
+            return List.of();
+        }
+        return List.of(shard(botId));
+    }
+
+    private Shard shard(String botId) {
+        return shards.computeIfAbsent(botId, id -> {
+            if (!id.matches("[0-9a-fA-F-]{1,64}")) {
+                // Becomes a directory name, so this is the path traversal guard.
+                throw new IllegalArgumentException("Invalid bot_id: " + id);
+            }
+            return openShard(root.resolve(id));
+        });
+    }
+
+    private List<Shard> allShards() {
+        try (Stream<Path> dirs = Files.list(root)) {
+            dirs.filter(Files::isDirectory).forEach(dir -> shard(dir.getFileName().toString()));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return List.copyOf(shards.values());
+    }
+
+    private Shard openShard(Path dir) {
+        try {
+            Files.createDirectories(dir);
+            List<Segment> segments = new ArrayList<>();
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path file : files.sorted().toList()) {
+                    String name = file.getFileName().toString();
+                    if (name.endsWith(".tmp")) {
+                        // A write that never reached its rename: it was never acknowledged.
+                        log.warn("Discarding incomplete segment {}", file);
+                        Files.delete(file);
+                        continue;
+                    }
+                    Matcher m = SEGMENT_NAME.matcher(name);
+                    if (m.matches()) {
+                        segments.add(mapSegment(file, Long.parseLong(m.group(1)), Long.parseLong(m.group(2))));
+                    }
+                }
+            }
+
+            // A merge that crashed after its rename but before deleting its inputs.
+            List<Segment> superseded = segments.stream()
+                    .filter(s -> segments.stream().anyMatch(o -> o != s && o.covers(s)))
+                    .toList();
+            for (Segment segment : superseded) {
+                log.warn("Removing segment {} superseded by a completed merge", segment.path());
+                Files.delete(segment.path());
+            }
+            List<Segment> live = new ArrayList<>(segments);
+            live.removeAll(superseded);
+            live.sort(Comparator.comparingLong(Segment::hi));
+
+            Shard shard = new Shard(dir);
+            shard.segments = List.copyOf(live);
+            shard.tombstones = readTombstones(dir.resolve(TOMBSTONES));
+            return shard;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot open vector shard " + dir, e);
+        }
+    }
+
+    private Set<String> readTombstones(Path file) throws IOException {
+        Set<String> ids = ConcurrentHashMap.newKeySet();
+        if (!Files.exists(file)) {
+            return ids;
+        }
+        String content = Files.readString(file, StandardCharsets.UTF_8);
+        if (!content.isEmpty() && !content.endsWith("\n")) {
+            // Torn final append: terminate it so the next id does not fuse onto it.
+            Files.writeString(file, "\n", StandardCharsets.UTF_8, StandardOpenOption.APPEND, StandardOpenOption.SYNC);
+        }
+        content.lines().filter(line -> !line.isBlank()).forEach(ids::add);
+        return ids;
+    }
+
+    private Segment writeSegment(Path dir, long lo, long hi, List<Record> records, List<float[]> vectors)
+            throws IOException {
+        int dims = vectors.isEmpty() ? 0 : vectors.getFirst().length;
+        List<byte[]> payloads = new ArrayList<>(records.size());
+        long size = HEADER_BYTES + 4L * dims * records.size();
+        for (Record record : records) {
+            byte[] json = objectMapper.writeValueAsBytes(Map.of(
+                    "id", record.id(), "text", record.text(), "metadata", record.metadata()));
+            payloads.add(json);
+            size += 4 + json.length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(size));
+        buffer.putInt(MAGIC).putInt(dims).putInt(records.size());
+        for (float[] vector : vectors) {
+            if (vector.length != dims) {
+                throw new IllegalArgumentException("Mixed dimensions in one segment: " + vector.length + " vs " + dims);
+            }
+            for (float v : vector) {
+                buffer.putFloat(v);
+            }
+        }
+        for (byte[] json : payloads) {
+            buffer.putInt(json.length).put(json);
+        }
+        buffer.flip();
+
+        String name = "seg-%016d-%016d".formatted(lo, hi);
+        Path tmp = dir.resolve(name + ".tmp");
+        Path target = dir.resolve(name + ".seg");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+        fsyncDirectory(dir);
+        return mapSegment(target, lo, hi);
+    }
+
+    private Segment mapSegment(Path file, long lo, long hi) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (map.capacity() < HEADER_BYTES || map.getInt(0) != MAGIC) {
+                throw new IOException("Not a vector segment: " + file);
+            }
+            int dims = map.getInt(4);
+            int count = map.getInt(8);
+            int[] offsets = new int[count];
+            int pos = HEADER_BYTES + 4 * dims * count;
+            for (int i = 0; i < count; i++) {
+                offsets[i] = pos;
+                pos += 4 + map.getInt(pos);
+            }
+            if (pos != map.capacity()) {
+                throw new IOException("Segment " + file + " is " + map.capacity() + " bytes, expected " + pos);
+            }
+            return new Segment(file, lo, hi, map, dims, count, offsets);
+        }
+    }
+
+    private static void fsyncDirectory(Path dir) {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not every platform can open a directory; the rename is still atomic there.
+            log.debug("Directory fsync unavailable for {}", dir, e);
+        }
+    }
+
+    private static void deleteRecursively(Path dir) {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.deleteIfExists(path);
+            }
+        } catch (IOException e) {
+            log.warn("Could not remove {}", dir, e);
+        }
+    }
+
+    /**
+     * Finds {@code bot_id == '...'} at the top of the filter or under top-level ANDs, so a
+     * search only opens the one bot's directory.
+     */
+    static String botIdOf(Filter.Operand operand) {
+        if (operand instanceof Filter.Group group) {
+            return botIdOf(group.content());
+        }
+        if (!(operand instanceof Filter.Expression expression)) {
+            return null;
+        }
+        if (expression.type() == Filter.ExpressionType.EQ
+                && expression.left() instanceof Filter.Key key && BOT_KEY.equals(unquote(key.key()))
+                && expression.right() instanceof Filter.Value value) {
+            return String.valueOf(value.value());
+        }
+        if (expression.type() == Filter.ExpressionType.AND) {
+            String left = botIdOf(expression.left());
+            return left != null ? left : botIdOf(expression.right());
+        }
+        return null;
+    }
+
+    static boolean matches(Filter.Operand operand, Map<String, Object> metadata) {
+        if (operand instanceof Filter.Group group) {
+            return matches(group.content(), metadata);
+        }
+        Filter.Expression e = (Filter.Expression) operand;
+        return switch (e.type()) {
+            case AND -> matches(e.left(), metadata) && matches(e.right(), metadata);
+            case OR -> matches(e.left(), metadata) || matches(e.right(), metadata);
+            case NOT -> !matches(e.left(), metadata);
+            default -> compare(e, metadata.get(unquote(((Filter.Key) e.left()).key())));
+        };
+    }
+
+    private static boolean compare(Filter.Expression e, Object actual) {
+        Object expected = ((Filter.Value) e.right()).value();
+        return switch (e.type()) {
+            case EQ -> sameValue(actual, expected);
+            case NE -> !sameValue(actual, expected);
+            case IN -> ((Collection<?>) expected).stream().anyMatch(v -> sameValue(actual, v));
+            case NIN -> ((Collection<?>) expected).stream().noneMatch(v -> sameValue(actual, v));
+            case GT -> actual instanceof Number a && a.doubleValue() > ((Number) expected).doubleValue();
+            case GTE -> actual instanceof Number a && a.doubleValue() >= ((Number) expected).doubleValue();
+            case LT -> actual instanceof Number a && a.doubleValue() < ((Number) expected).doubleValue();
+            case LTE -> actual instanceof Number a && a.doubleValue() <= ((Number) expected).doubleValue();
+            default -> throw new UnsupportedOperationException("Unsupported filter operator " + e.type());
+        };
+    }
+
+    /** Metadata round-trips through JSON, so 3 may come back as an Integer or a Long. */
+    private static boolean sameValue(Object actual, Object expected) {
+        if (actual instanceof Number a && expected instanceof Number b) {
+            return a.doubleValue() == b.doubleValue();
+        }
+        return actual != null && expected != null && actual.toString().equals(expected.toString());
+    }
+
+    private static String unquote(String key) {
+        if (key.length() >= 2 && (key.startsWith("\"") && key.endsWith("\"") || key.startsWith("'") && key.endsWith("'"))) {
+            return key.substring(1, key.length() - 1);
+        }
+        return key;
+    }
+
+    private record Scored(Record record, float score) {
+    }
+
+    private record Record(String id, String text, Map<String, Object> metadata) {
+    }
+
+    private final class Shard {
+        final Path dir;
+        final ReentrantLock lock = new ReentrantLock();
+        volatile List<Segment> segments = List.of();
+        volatile Set<String> tombstones = ConcurrentHashMap.newKeySet();
+
+        Shard(Path dir) {
+            this.dir = dir;
+        }
+
+        boolean contains(String id) {
+            if (tombstones.contains(id)) {
+                return false;
+            }
+            for (Segment segment : segments) {
+                if (segment.ids().contains(id)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /** Caller holds the lock. */
+        void append(List<Document> docs, List<float[]> vectors) {
+            long seq = segments.stream().mapToLong(Segment::hi).max().orElse(0) + 1;
+            List<Record> records = docs.stream()
+                    .map(d -> new Record(d.getId(), d.getText(), d.getMetadata()))
+                    .toList();
+            List<float[]> unit = vectors.stream().map(LocalVectorIndex::normalise).toList();
+            try {
+                // A compaction may have removed the directory of a fully deleted bot.
+                Files.createDirectories(dir);
+                Segment segment = writeSegment(dir, seq, seq, records, unit);
+                List<Segment> next = new ArrayList<>(segments);
+                next.add(segment);
+                segments = List.copyOf(next);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Vector segment write failed in " + dir, e);
+            }
+            // Re-adding a previously deleted id resurrects it, and must stay resurrected
+            // after a restart, so the log is rewritten without it.
+            List<String> resurrected = records.stream().map(Record::id).filter(tombstones::contains).toList();
+            if (!resurrected.isEmpty()) {
+                Set<String> remaining = ConcurrentHashMap.newKeySet();
+                remaining.addAll(tombstones);
+                resurrected.forEach(remaining::remove);
+                rewriteTombstones(remaining);
+                tombstones = remaining;
+            }
+        }
+
+        /** Caller holds the lock. Replaces the log atomically, like a segment write. */
+        private void rewriteTombstones(Set<String> ids) {
+            Path tmp = dir.resolve(TOMBSTONES + ".tmp");
+            try {
+                String lines = ids.isEmpty() ? "" : String.join("\n", ids) + "\n";
+                Files.writeString(tmp, lines, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE, StandardOpenOption.SYNC);
+                Files.move(tmp, dir.resolve(TOMBSTONES), StandardCopyOption.ATOMIC_MOVE);
+                fsyncDirectory(dir);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Tombstone rewrite failed in " + dir, e);
+            }
+        }
+
+        /** Caller holds the lock. The log is fsynced before the ids disappear from search. */
+        void tombstone(List<String> ids) {
+            String lines = String.join("\n", ids) + "\n";
+            try {
+                Files.writeString(dir.resolve(TOMBSTONES), lines, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND, StandardOpenOption.SYNC);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Tombstone write failed in " + dir, e);
+            }
+            tombstones.addAll(ids);
+        }
+    }
+
+    private final class Segment {
+        private final Path path;
+        private final long lo;
+        private final long hi;
+        private final MappedByteBuffer map;
+        private final int dims;
+        private final int count;
+        private final int[] offsets;
+        private volatile Set<String> ids;
+
+        Segment(Path path, long lo, long hi, MappedByteBuffer map, int dims, int count, int[] offsets) {
+            this.path = path;
+            this.lo = lo;
+            this.hi = hi;
+            this.map = map;
+            this.dims = dims;
+            this.count = count;
+            this.offsets = offsets;
+        }
+
+        Path path() { return path; }
+        long lo() { return lo; }
+        long hi() { return hi; }
+        int dims() { return dims; }
+        int count() { return count; }
+
+        /**
+         * Parsed on first use, by deletes or by a search hit in an older segment; a bot
+         * with one segment never pays for it.
+         */
+        Set<String> ids() {
+            Set<String> result = ids;
+            if (result == null) {
+                Set<String> parsed = new HashSet<>(count * 2);
+                for (int i = 0; i < count; i++) {
+                    parsed.add(record(i).id());
+                }
+                ids = result = parsed;
+            }
+            return result;
+        }
+
+        boolean covers(Segment other) {
+            return lo <= other.lo && other.hi <= hi && (lo != other.lo || hi != other.hi);
+        }
+
+        float dot(int i, float[] query) {
+            int base = HEADER_BYTES + 4 * dims * i;
+            float sum = 0;
+            for (int d = 0; d < dims; d++) {
+                sum += query[d] * map.getFloat(base + 4 * d);
+            }
+            return sum;
+        }
+
+        float[] vector(int i) {
+            float[] vector = new float[dims];
+            int base = HEADER_BYTES + 4 * dims * i;
+            for (int d = 0; d < dims; d++) {
+                vector[d] = map.getFloat(base + 4 * d);
+            }
+            return vector;
+        }
+
+        Record record(int i) {
+            int length = map.getInt(offsets[i]);
+            byte[] json = new byte[length];
+            map.get(offsets[i] + 4, json);
+            try {
+                Map<String, Object> fields = objectMapper.readValue(json, new TypeReference<>() {});
+                @SuppressWarnings("unchecked")
+                Map<String, Object> metadata = (Map<String, Object>) fields.getOrDefault("metadata", Map.of());
+                return new Record((String) fields.get("id"), (String) fields.get("text"), metadata);
+            } catch (IOException e) {
+                throw new UncheckedIOException("Corrupt record " + i + " in " + path, e);
+            }
+        }
+    }
+}
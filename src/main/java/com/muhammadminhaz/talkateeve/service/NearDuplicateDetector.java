@@ -0,0 +1,214 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Catches chunks that say what a file already says before they are embedded: repeated
+ * page furniture, the same paragraph twice, a revision uploaded again under its old name.
+ *
+ * <p>Each chunk gets a 64-bit SimHash over its word 3-grams, stored in
+ * {@code bot_document.simhash}. Chunks whose fingerprints differ in at most
+ * {@code max-distance} bits are near-duplicates, and the later one is skipped. With the
+ * fingerprint split into {@code max-distance + 1} bands, two such fingerprints agree
+ * exactly on at least one band, so lookups only compare against chunks sharing a band
+ * instead of every chunk the bot has. Chunks too short for shingles to mean much are
+ * only skipped when identical.
+ *
+ * <p>Chunks are only compared with chunks of the same filename. Files are deleted by
+ * name, so the kept copy always goes together with the skipped one; skipping a chunk
+ * because a different file has it would lose that text when the other file is deleted
+ * while this one is still uploaded. Chunks stored before fingerprints existed get one on
+ * the bot's next upload.
+ */
+@Slf4j
+@Component
+public class NearDuplicateDetector {
+
+    private static final Pattern WORD = Pattern.compile("[\\p{L}\\p{N}]+");
+    private static final int SHINGLE = 3;
+    /** Below this many shingles a one-word edit flips too many bits to tell apart from a near-duplicate. */
+    private static final int MIN_SHINGLES = 8;
+    private static final int BACKFILL_BATCH = 500;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final int maxDistance;
+
+    public NearDuplicateDetector(JdbcTemplate jdbcTemplate,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${app.ingest.dedup.enabled:true}") boolean enabled,
+                                 @Value("${app.ingest.dedup.max-distance:3}") int maxDistance) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.maxDistance = Math.max(0, Math.min(maxDistance, 15));
+    }
+
+    /** The bot's fingerprints, to check one upload's chunks against. Not thread-safe. */
+    public Index forBot(UUID botId) {
+        Index index = new Index();
+        if (!enabled) {
+            return index;
+        }
+        backfill(botId);
+        jdbcTemplate.queryForList("SELECT filename, simhash FROM bot_document WHERE bot_id = ?::uuid AND simhash IS NOT NULL",
+                botId.toString()).forEach(row -> index.bands(Objects.toString(row.get("filename"), ""))
+                        .add(((Number) row.get("simhash")).longValue()));
+        return index;
+    }
+
+    public class Index {
+
+        private final Map<String, Bands> byFile = new HashMap<>();
+        private int skipped;
+
+        /**
+         * The fingerprint to store with {@code chunk} of {@code filename}, or null if the
+         * file already has a near-duplicate of it, in which case the chunk should be dropped.
+         */
+        public Long admit(String filename, String chunk) {
+            List<String> words = words(chunk);
+            long fingerprint = simhash(words);
+            Bands file = bands(filename);
+            if (enabled) {
+                int allowed = words.size() - SHINGLE + 1 >= MIN_SHINGLES ? maxDistance : 0;
+                if (file.contains(fingerprint, allowed)) {
+                    skipped++;
+                    meterRegistry.counter("ingest.chunks.skipped", "reason", "near_duplicate").increment();
+                    return null;
+                }
+            }
+            file.add(fingerprint);
+            return fingerprint;
+        }
+
+        public int skipped() {
+            return skipped;
+        }
+
+        private Bands bands(String filename) {
+            return byFile.computeIfAbsent(filename, f -> new Bands(maxDistance));
+        }
+    }
+
+    /** One file's fingerprints, split into bands for lookup. */
+    private static final class Bands {
+
+        private final int bands;
+        private final int bandBits;
+        private final List<Map<Long, List<Long>>> byBand = new ArrayList<>();
+
+        private Bands(int maxDistance) {
+            this.bands = maxDistance + 1;
+            this.bandBits = (Long.SIZE + bands - 1) / bands;
+            for (int i = 0; i < bands; i++) {
+                byBand.add(new HashMap<>());
+            }
+        }
+
+        private boolean contains(long fingerprint, int allowed) {
+            for (int band = 0; band < bands; band++) {
+                List<Long> candidates = byBand.get(band).get(band(fingerprint, band));
+                if (candidates == null) {
+                    continue;
+                }
+                for (long candidate : candidates) {
+                    if (Long.bitCount(candidate ^ fingerprint) <= allowed) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private void add(long fingerprint) {
+            for (int band = 0; band < bands; band++) {
+                byBand.get(band).computeIfAbsent(band(fingerprint, band), b -> new ArrayList<>()).add(fingerprint);
+            }
+        }
+
+        private long band(long fingerprint, int band) {
+            int shift = band * bandBits;
+            int width = Math.min(bandBits, Long.SIZE - shift);
+            long mask = width == Long.SIZE ? -1L : (1L << width) - 1;
+            return (fingerprint >>> shift) & mask;
+        }
+    }
+
+    /** 64-bit SimHash of the text's word 3-grams, or of its words when it has fewer than three. */
+    static long simhash(String text) {
+        return simhash(words(text));
+    }
+
+    private static long simhash(List<String> words) {
+        int[] weights = new int[Long.SIZE];
+        int span = Math.min(SHINGLE, words.size());
+        for (int i = 0; i + span <= words.size() && span > 0; i++) {
+            long hash = fnv1a64(String.join(" ", words.subList(i, i + span)));
+            for (int bit = 0; bit < Long.SIZE; bit++) {
+                weights[bit] += ((hash >>> bit) & 1) == 1 ? 1 : -1;
+            }
+        }
+        long fingerprint = 0;
+        for (int bit = 0; bit < Long.SIZE; bit++) {
+            if (weights[bit] > 0) {
+                fingerprint |= 1L << bit;
+            }
+        }
+        return fingerprint;
+    }
+
+    /** Case, punctuation and spacing never make two chunks different. */
+    private static List<String> words(String text) {
+        List<String> words = new ArrayList<>();
+        Matcher m = WORD.matcher(text);
+        while (m.find()) {
+            words.add(m.group().toLowerCase(Locale.ROOT));
+        }
+        return words;
+    }
+
+    private static long fnv1a64(String s) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : s.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private void backfill(UUID botId) {
+        List<Map<String, Object>> rows;
+        int filled = 0;
+        do {
+            rows = jdbcTemplate.queryForList("SELECT id::text AS id, content FROM bot_document "
+                    + "WHERE bot_id = ?::uuid AND simhash IS NULL LIMIT " + BACKFILL_BATCH, botId.toString());
+            List<Object[]> updates = rows.stream()
+                    .map(row -> new Object[]{simhash(Objects.toString(row.get("content"), "")), row.get("id")})
+                    .toList();
+            if (!updates.isEmpty()) {
+                jdbcTemplate.batchUpdate("UPDATE bot_document SET simhash = ? WHERE id = ?::uuid", updates);
+                filled += updates.size();
+            }
+        } while (rows.size() == BACKFILL_BATCH);
+        if (filled > 0) {
+            log.info("Fingerprinted {} older chunks of bot {}", filled, botId);
+        }
+    }
+}
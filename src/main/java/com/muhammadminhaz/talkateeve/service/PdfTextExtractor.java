@@ -0,0 +1,110 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.apache.pdfbox.Loader;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.text.PDFTextStripper;
+import org.springframework.stereotype.Component;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * PDF text one page at a time, so a large PDF costs about one page of heap instead of
+ * the whole document plus its whole text, as {@code tika.parseToString} did.
+ *
+ * <p>The upload is streamed to a temp file and opened from there, with PDFBox's scratch
+ * buffers in temp files too. Each page's text goes to the {@link PageConsumer} as soon
+ * as it is extracted, with its running headers and footers already removed (see
+ * {@link BoilerplateStripper.PageEdges}). Extraction stops at the first page past
+ * {@code maxChars}; the rest of the document is never parsed.
+ */
+@Slf4j
+@Component
+public class PdfTextExtractor {
+
+    @FunctionalInterface
+    public interface PageConsumer {
+        /** {@code page} is 1-based. */
+        void accept(int page, List<String> lines);
+    }
+
+    /** Pages read, and how many boilerplate lines were dropped from them. */
+    public record Extracted(int pages, int boilerplateLinesStripped) {
+    }
+
+    public static boolean isPdf(MultipartFile file) {
+        String name = file.getOriginalFilename();
+        return "application/pdf".equals(file.getContentType())
+                || (name != null && name.toLowerCase(Locale.ROOT).endsWith(".pdf"));
+    }
+
+    public Extracted extract(MultipartFile file, long maxChars, int boilerplateMinRepeats,
+                             PageConsumer pages) throws IOException {
+        Path copy = Files.createTempFile("upload-", ".pdf");
+        try {
+            try (InputStream in = file.getInputStream()) {
+                Files.copy(in, copy, StandardCopyOption.REPLACE_EXISTING);
+            }
+            try (PDDocument document = Loader.loadPDF(copy.toFile(), MemoryUsageSetting.setupTempFileOnly().streamCache)) {
+                PageStripper stripper = new PageStripper(maxChars,
+                        new BoilerplateStripper.PageEdges(boilerplateMinRepeats), pages);
+                stripper.writeText(document, stripper.buffer);
+                if (stripper.truncated) {
+                    log.warn("Extracted text of {} passed {} chars at page {}, ignoring the rest",
+                            file.getOriginalFilename(), maxChars, stripper.pagesRead);
+                }
+                return new Extracted(stripper.pagesRead, stripper.edges.removed());
+            }
+        } finally {
+            Files.deleteIfExists(copy);
+        }
+    }
+
+    /** Hands over each page's text from {@code endPage}, then empties the buffer for the next one. */
+    private static final class PageStripper extends PDFTextStripper {
+
+        private final StringWriter buffer = new StringWriter();
+        private final long maxChars;
+        private final BoilerplateStripper.PageEdges edges;
+        private final PageConsumer pages;
+        private long chars;
+        private int pagesRead;
+        private boolean truncated;
+
+        private PageStripper(long maxChars, BoilerplateStripper.PageEdges edges, PageConsumer pages) {
+            this.maxChars = maxChars;
+            this.edges = edges;
+            this.pages = pages;
+        }
+
+        @Override
+        public void processPage(PDPage page) throws IOException {
+            if (!truncated) {
+                super.processPage(page);
+            }
+        }
+
+        @Override
+        protected void endPage(PDPage page) throws IOException {
+            super.endPage(page);
+            output.flush();
+            String text = buffer.toString();
+            buffer.getBuffer().setLength(0);
+            pagesRead = getCurrentPageNo();
+            chars += text.length();
+            pages.accept(pagesRead, edges.strip(Arrays.asList(text.split("\n"))));
+            truncated = chars >= maxChars;
+        }
+    }
+}
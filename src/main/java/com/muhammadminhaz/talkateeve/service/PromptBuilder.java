@@ -0,0 +1,290 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import com.muhammadminhaz.talkateeve.dto.ChatMessageDTO;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Collectors;
+
+/**
+ * Assembles the Gemini prompt within a per-bot input token budget.
+ *
+ * <p>Retrieved chunks overlap: the chunker repeats up to {@code CHUNK_OVERLAP} characters
+ * between neighbours, so two hits from the same passage used to send that text twice.
+ * Chunks from the same file are merged where one ends with the start of the other, and a
+ * chunk contained in another is dropped.
+ *
+ * <p>Instructions, the question and the template are always sent. Of what is left,
+ * history is guaranteed up to {@link #HISTORY_SHARE}; the knowledge base gets the rest,
+ * best-ranked chunk first, and history then takes whatever the context did not use,
+ * newest turn first, so it is trimmed from the oldest turn. Tokens are estimated at
+ * {@link #CHARS_PER_TOKEN} characters each, which is close enough for English text to
+ * size a budget without a tokenizer round-trip.
+ *
+ * <p>A prompt is a {@link BuiltPrompt#prefix() prefix} that depends only on the bot, sent
+ * as the system instruction, and a suffix with everything that changes per question.
+ * Keeping the prefix byte-identical across calls is what lets Gemini reuse it, implicitly
+ * or through a {@link PromptPrefixCache} handle, so nothing per-question may go in it.
+ */
+@Component
+public class PromptBuilder {
+
+    static final int CHARS_PER_TOKEN = 4;
+    static final double HISTORY_SHARE = 0.3;
+
+    /** Shorter shared runs are coincidence ("the ", ". "), not chunker overlap. */
+    private static final int MIN_OVERLAP = 20;
+
+    private static final String HISTORY_HEADER = "Previous conversation:\n";
+    private static final String CONTEXT_SEPARATOR = "\n\n";
+
+    private static final String SYSTEM_PREFIX = """
+            You are a helpful assistant. Follow these instructions:
+            %s
+
+            If the user's message is a greeting, thanks, or other small talk, just answer it like a person
+            would, briefly and warmly. Do not consult the knowledge base or pitch what you can do for it.
+            Otherwise answer from the conversation history and knowledge base given with the question, and
+            if the answer isn't there, say so politely.
+
+            Style: you are talking in a chat window, not writing a report.
+            - Match the length to the question. A simple question gets a sentence or two, a question that
+              genuinely needs detail gets as much room as it needs. Never pad to sound thorough.
+            - Do not dump everything you know. Answer only what was asked and let the user ask for more.
+            - Write plain text only. No markdown: no **bold**, no *italics*, no backticks, no #headings,
+              no bullet or numbered lists, no emoji. Just sentences, the way a person types in a chat.
+            - Only use a list if the user explicitly asks for one or for step-by-step instructions,
+              and even then keep it plain, one short item per line.
+            - Do not summarize the whole knowledge base or restate the document back to the user.
+            - Do not end with a menu of things you could do. At most one short natural follow-up question.
+            """;
+
+    /** {@code tokens} counts prefix and suffix together: the prefix is billed, if discounted, when cached. */
+    public record BuiltPrompt(String prefix, String suffix, int tokens, int tokensSaved, int contextTokens) {
+
+        public String text() {
+            return prefix + suffix;
+        }
+    }
+
+    private final int defaultBudget;
+    private final DistributionSummary sentTokens;
+    private final DistributionSummary savedTokens;
+    private final DistributionSummary contextTokens;
+
+    public PromptBuilder(@Value("${app.chat.prompt.token-budget:4000}") int defaultBudget,
+                         MeterRegistry meterRegistry) {
+        this.defaultBudget = defaultBudget;
+        this.sentTokens = DistributionSummary.builder("chat.prompt.tokens")
+                .description("Estimated input tokens per prompt")
+                .register(meterRegistry);
+        this.savedTokens = DistributionSummary.builder("chat.prompt.tokens.saved")
+                .description("Estimated input tokens removed by merging and budgeting")
+                .register(meterRegistry);
+        this.contextTokens = DistributionSummary.builder("chat.context.tokens")
+                .description("Estimated knowledge-base tokens per prompt, small talk excluded")
+                .register(meterRegistry);
+    }
+
+    public static int estimateTokens(String text) {
+        return (text.length() + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN;
+    }
+
+    public static long estimateTokens(long chars) {
+        return (chars + CHARS_PER_TOKEN - 1) / CHARS_PER_TOKEN;
+    }
+
+    /** One line per turn, oldest first. Cheap, but independent of retrieval, so it runs alongside it. */
+    public static List<String> formatTurns(List<ChatMessageDTO> history) {
+        if (history == null) {
+            return List.of();
+        }
+        return history.stream()
+                .map(msg -> ("user".equals(msg.getRole()) ? "User" : "Assistant") + ": " + msg.getContent() + "\n")
+                .toList();
+    }
+
+    /**
+     * A server-side session's turns, led by the summary of the compacted ones. The summary
+     * is the oldest part of the conversation, so it is also the first thing the budget trims.
+     */
+    public static List<String> formatTurns(String summary, List<ChatMessageDTO> turns) {
+        List<String> lines = new ArrayList<>();
+        if (summary != null && !summary.isBlank()) {
+            lines.add("Summary of the earlier conversation: " + summary + "\n");
+        }
+        lines.addAll(formatTurns(turns));
+        return lines;
+    }
+
+    public BuiltPrompt build(BotConfigCache.BotChatConfig config, String question,
+                             List<Document> docs, List<String> turns) {
+        String prefix = systemPrefix(config);
+        int available = budgetFor(config) - estimateTokens(prefix) - estimateTokens(answerSuffix("", "", question));
+
+        List<String> chunks = mergeChunks(docs);
+        int historyTokens = tokensOf(turns);
+        int contextBudget = available - (int) Math.min(historyTokens, available * HISTORY_SHARE);
+        List<String> context = new ArrayList<>();
+        int contextUsed = 0;
+        for (String chunk : chunks) {
+            int cost = estimateTokens(chunk) + estimateTokens(CONTEXT_SEPARATOR);
+            if (contextUsed + cost <= contextBudget) {
+                context.add(chunk);
+                contextUsed += cost;
+            }
+        }
+
+        String suffix = answerSuffix(conversation(recentTurns(turns, available - contextUsed)),
+                String.join(CONTEXT_SEPARATOR, context), question);
+        String unbudgeted = answerSuffix(conversation(turns),
+                docs.stream().map(Document::getText).collect(Collectors.joining(CONTEXT_SEPARATOR)),
+                question);
+        contextTokens.record(contextUsed);
+        return record(prefix, suffix, unbudgeted, contextUsed);
+    }
+
+    public BuiltPrompt buildSmallTalk(BotConfigCache.BotChatConfig config, String message, List<String> turns) {
+        String prefix = systemPrefix(config);
+        int available = budgetFor(config) - estimateTokens(prefix) - estimateTokens(smallTalkSuffix("", message));
+        String suffix = smallTalkSuffix(conversation(recentTurns(turns, available)), message);
+        return record(prefix, suffix, smallTalkSuffix(conversation(turns), message), 0);
+    }
+
+    /**
+     * The bot's instructions and the house rules, shared by every prompt for the bot,
+     * small talk included, so one cached prefix serves both.
+     */
+    public String systemPrefix(BotConfigCache.BotChatConfig config) {
+        return String.format(SYSTEM_PREFIX, config.instructionsText());
+    }
+
+    /**
+     * Merges chunks of the same file that overlap or contain one another, keeping each
+     * merged passage at the rank of its best-ranked part.
+     */
+    List<String> mergeChunks(List<Document> docs) {
+        List<String> merged = new ArrayList<>();
+        List<String> files = new ArrayList<>();
+        for (Document doc : docs) {
+            String text = Objects.toString(doc.getText(), "").trim();
+            String file = Objects.toString(doc.getMetadata().get("filename"), "");
+            boolean absorbed = false;
+            for (int i = 0; i < merged.size() && !absorbed; i++) {
+                if (!files.get(i).equals(file)) {
+                    continue;
+                }
+                String joined = join(merged.get(i), text);
+                if (joined != null) {
+                    merged.set(i, joined);
+                    absorbed = true;
+                }
+            }
+            if (!absorbed && !text.isEmpty()) {
+                merged.add(text);
+                files.add(file);
+            }
+        }
+        return merged;
+    }
+
+    /** {@code a} and {@code b} as one passage, or null if they do not overlap. */
+    private static String join(String a, String b) {
+        if (a.contains(b)) {
+            return a;
+        }
+        if (b.contains(a)) {
+            return b;
+        }
+        int ab = overlap(a, b);
+        if (ab >= MIN_OVERLAP) {
+            return a + b.substring(ab);
+        }
+        int ba = overlap(b, a);
+        if (ba >= MIN_OVERLAP) {
+            return b + a.substring(ba);
+        }
+        return null;
+    }
+
+    /** Length of the longest suffix of {@code a} that is a prefix of {@code b}. */
+    private static int overlap(String a, String b) {
+        for (int length = Math.min(a.length(), b.length()); length >= MIN_OVERLAP; length--) {
+            if (a.regionMatches(a.length() - length, b, 0, length)) {
+                return length;
+            }
+        }
+        return 0;
+    }
+
+    /** The longest run of most recent turns that fits, so history is trimmed oldest first. */
+    private static List<String> recentTurns(List<String> turns, int budget) {
+        Deque<String> kept = new ArrayDeque<>();
+        int used = estimateTokens(HISTORY_HEADER);
+        for (int i = turns.size() - 1; i >= 0; i--) {
+            int cost = estimateTokens(turns.get(i));
+            if (used + cost > budget) {
+                break;
+            }
+            kept.addFirst(turns.get(i));
+            used += cost;
+        }
+        return List.copyOf(kept);
+    }
+
+    private static String conversation(List<String> turns) {
+        return turns.isEmpty() ? "" : HISTORY_HEADER + String.join("", turns) + "\n";
+    }
+
+    private static int tokensOf(List<String> turns) {
+        return turns.isEmpty() ? 0 : estimateTokens(HISTORY_HEADER) + turns.stream().mapToInt(PromptBuilder::estimateTokens).sum();
+    }
+
+    private int budgetFor(BotConfigCache.BotChatConfig config) {
+        return config.promptTokenBudget() != null ? config.promptTokenBudget() : defaultBudget;
+    }
+
+    private BuiltPrompt record(String prefix, String suffix, String unbudgetedSuffix, int contextTokens) {
+        int tokens = estimateTokens(prefix) + estimateTokens(suffix);
+        int saved = Math.max(0, estimateTokens(unbudgetedSuffix) - estimateTokens(suffix));
+        sentTokens.record(tokens);
+        savedTokens.record(saved);
+        return new BuiltPrompt(prefix, suffix, tokens, saved, contextTokens);
+    }
+
+    private static String smallTalkSuffix(String conversationContext, String message) {
+        return String.format("""
+            %s
+            The user just said: %s
+
+            This is small talk: a greeting, thanks, or similar. Reply the way a person would in a chat
+            window, briefly and warmly, in plain text. Do not pitch what you can do or offer a menu of topics.
+            """,
+                conversationContext,
+                message
+        );
+    }
+
+    private static String answerSuffix(String conversationContext, String context, String question) {
+        return String.format("""
+            %s
+
+            Use the following knowledge base to answer questions:
+            %s
+
+            Current question: %s
+            """,
+                conversationContext,
+                context.isEmpty() ? "No specific context available." : context,
+                question
+        );
+    }
+}
@@ -0,0 +1,295 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import com.google.genai.errors.ApiException;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.ai.chat.prompt.ChatOptions;
+import org.springframework.ai.google.genai.GoogleGenAiChatModel;
+import org.springframework.ai.google.genai.cache.CachedContentRequest;
+import org.springframework.ai.google.genai.cache.GoogleGenAiCachedContent;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Component;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+/**
+ * Explicit Gemini cached contents for each bot's {@link PromptBuilder#systemPrefix prompt
+ * prefix}.
+ *
+ * <p>Gemini already discounts a repeated prefix implicitly, on a best-effort basis; a
+ * cached-content handle makes the discount certain, but is billed for storage while it
+ * lives and is only accepted above a model-specific minimum size. So it is opt-in, only
+ * for prefixes of at least {@code min-tokens}, and a handle is kept alive only while its
+ * bot is being asked questions: it is extended when a question arrives in the last
+ * quarter of its TTL, and an idle bot's handle simply expires.
+ *
+ * <p>Handles are created and extended off the request path. A question that finds no
+ * live handle for the bot's current prefix goes out uncached and triggers the lookup.
+ * Handle names are shared through Redis under the bot and prefix hash, so one node
+ * creates a handle (holding a short creation lock) and the others adopt it instead of
+ * paying for their own copy; whoever extends it moves the Redis expiry along. Bots with
+ * identical instructions still get a handle each, so deleting one bot's handle never
+ * pulls it from under another. The prefix hash is
+ * part of each handle, so a node that learns of an instructions change through the
+ * config cache stops using the old one at once, and {@link #refresh} builds the new one
+ * ahead of the next question. Replaced handles are not deleted: a question already sent
+ * with one would fail, and the handle costs at most one TTL of storage. A failed create
+ * or extend backs off exponentially from {@code retry-backoff}, up to the TTL, instead
+ * of being retried by every question. A handle Gemini no longer has (it expired early,
+ * or another node evicted it) is {@link #forget forgotten} by the caller, which resends
+ * the question uncached.
+ */
+@Slf4j
+@Component
+public class PromptPrefixCache {
+
+    private static final String OPENING = "The user's message follows.";
+    private static final String HANDLE_PREFIX = "prompt-prefix:";
+    private static final String CREATING_PREFIX = "prompt-prefix-creating:";
+    /** Longer than a create takes; a node that dies holding the lock only delays the next one. */
+    private static final Duration CREATING_LOCK = Duration.ofMinutes(1);
+
+    private record Handle(String prefixHash, String name, Instant expiresAt) {
+    }
+
+    private record Backoff(int failures, Instant retryAt) {
+    }
+
+    private final GoogleGenAiChatModel chatModel;
+    private final RedisTemplate<String, String> redisTemplate;
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final int minTokens;
+    private final Duration ttl;
+    private final Duration retryBackoff;
+
+    private final Map<UUID, Handle> handles = new ConcurrentHashMap<>();
+    /** Bots with a create or extend in flight, so a burst of questions starts only one. */
+    private final Set<UUID> pending = ConcurrentHashMap.newKeySet();
+    private final Map<UUID, Backoff> backoffs = new ConcurrentHashMap<>();
+    private final ExecutorService background = Executors.newVirtualThreadPerTaskExecutor();
+
+    public PromptPrefixCache(GoogleGenAiChatModel chatModel,
+                             RedisTemplate<String, String> redisTemplate,
+                             MeterRegistry meterRegistry,
+                             @Value("${app.chat.prompt-cache.enabled:false}") boolean enabled,
+                             @Value("${app.chat.prompt-cache.min-tokens:1024}") int minTokens,
+                             @Value("${app.chat.prompt-cache.ttl:1h}") Duration ttl,
+                             @Value("${app.chat.prompt-cache.retry-backoff:30s}") Duration retryBackoff) {
+        this.chatModel = chatModel;
+        this.redisTemplate = redisTemplate;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.minTokens = minTokens;
+        this.ttl = ttl;
+        this.retryBackoff = retryBackoff;
+    }
+
+    /** The cached-content name holding exactly {@code prefix}, if one is live. Never waits on Gemini. */
+    public Optional<String> handleFor(UUID botId, String prefix) {
+        if (!eligible(prefix)) {
+            return Optional.empty();
+        }
+        String hash = hash(prefix);
+        Handle handle = handles.get(botId);
+        Instant now = Instant.now();
+        if (handle == null || !handle.prefixHash().equals(hash) || !now.isBefore(handle.expiresAt())) {
+            meterRegistry.counter("chat.prompt.cache", "outcome", "miss").increment();
+            inBackground(botId, () -> adoptOrCreate(botId, prefix, hash));
+            return Optional.empty();
+        }
+        if (now.isAfter(handle.expiresAt().minus(ttl.dividedBy(4)))) {
+            inBackground(botId, () -> extend(botId, handle));
+        }
+        meterRegistry.counter("chat.prompt.cache", "outcome", "hit").increment();
+        return Optional.of(handle.name());
+    }
+
+    /**
+     * The bot's instructions changed: replace its handle now rather than on the next
+     * question. The new prefix is only built, off the request path, when caching is on.
+     */
+    public void refresh(UUID botId, Supplier<String> prefix) {
+        handles.remove(botId);
+        if (enabled) {
+            inBackground(botId, () -> {
+                String current = prefix.get();
+                if (eligible(current)) {
+                    adoptOrCreate(botId, current, hash(current));
+                }
+            });
+        }
+    }
+
+    /**
+     * Deletes the bot's handle, so a deleted bot's prefix is not billed until its TTL.
+     * Only this bot uses the handle. Other nodes may still hold the name, but stop asking
+     * for the bot once its config is gone; the shared entry is removed so none of them
+     * adopts it again.
+     */
+    public void evict(UUID botId) {
+        backoffs.remove(botId);
+        Handle old = handles.remove(botId);
+        if (old != null) {
+            background.execute(() -> {
+                try {
+                    redisTemplate.delete(sharedKey(botId, old.prefixHash()));
+                    chatModel.getCachedContentService().delete(old.name());
+                } catch (RuntimeException e) {
+                    log.warn("Could not delete cached prompt prefix {}; it expires at {}", old.name(), old.expiresAt(), e);
+                }
+            });
+        }
+    }
+
+    /**
+     * Gemini rejected {@code name}: drop it here and in Redis, so the next question
+     * creates a fresh handle instead of sending the dead one again.
+     */
+    public void forget(UUID botId, String name) {
+        Handle old = handles.get(botId);
+        if (old != null && old.name().equals(name) && handles.remove(botId, old)) {
+            redisTemplate.delete(sharedKey(botId, old.prefixHash()));
+            meterRegistry.counter("chat.prompt.cache", "outcome", "missing").increment();
+            log.warn("Cached prompt prefix {} of bot {} is gone; answering uncached", name, botId);
+        }
+    }
+
+    /** Whether {@code error} is Gemini reporting that a cached content does not exist (any more). */
+    public static boolean isMissingHandle(Throwable error) {
+        for (Throwable e = error; e != null; e = e.getCause()) {
+            if (e instanceof ApiException api && (api.code() == 403 || api.code() == 404)) {
+                String message = String.valueOf(api.message()).toLowerCase(Locale.ROOT);
+                return message.contains("cachedcontent") || message.contains("cached content");
+            }
+        }
+        return false;
+    }
+
+    private boolean eligible(String prefix) {
+        return enabled && PromptBuilder.estimateTokens(prefix) >= minTokens;
+    }
+
+    /** Takes the handle another node already created for this prefix, or creates it. */
+    private void adoptOrCreate(UUID botId, String prefix, String hash) {
+        String key = sharedKey(botId, hash);
+        String shared = redisTemplate.opsForValue().get(key);
+        if (shared != null) {
+            Long seconds = redisTemplate.getExpire(key);
+            if (seconds != null && seconds > 0) {
+                handles.put(botId, new Handle(hash, shared, Instant.now().plusSeconds(seconds)));
+                meterRegistry.counter("chat.prompt.cache", "outcome", "adopted").increment();
+                return;
+            }
+        }
+        String lock = CREATING_PREFIX + botId + ":" + hash;
+        if (!Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(lock, "1", CREATING_LOCK))) {
+            // Another node is creating it; a later question adopts the result.
+            return;
+        }
+        try {
+            create(botId, prefix, hash);
+        } finally {
+            redisTemplate.delete(lock);
+        }
+    }
+
+    private void create(UUID botId, String prefix, String hash) {
+        GoogleGenAiCachedContent created = chatModel.getCachedContentService().create(CachedContentRequest.builder()
+                .model(model())
+                .displayName("bot-" + botId)
+                // The same system instruction as an uncached call, so both paths behave alike.
+                // The API insists on at least one content; this one carries nothing per-question.
+                .systemInstruction(prefix)
+                .addTextContent(OPENING)
+                .ttl(ttl)
+                .build());
+        Handle handle = new Handle(hash, created.getName(), expiry(created));
+        handles.put(botId, handle);
+        share(botId, handle);
+        meterRegistry.counter("chat.prompt.cache", "outcome", "created").increment();
+        log.debug("cached prompt prefix botId={} name={}", botId, created.getName());
+    }
+
+    private void extend(UUID botId, Handle handle) {
+        GoogleGenAiCachedContent extended = chatModel.getCachedContentService().extendTtl(handle.name(), ttl);
+        Handle longer = new Handle(handle.prefixHash(), handle.name(), expiry(extended));
+        // Only if the handle was not replaced meanwhile.
+        handles.replace(botId, handle, longer);
+        share(botId, longer);
+    }
+
+    /** Publishes the handle for the other nodes, for as long as Gemini keeps it. */
+    private void share(UUID botId, Handle handle) {
+        Duration remaining = Duration.between(Instant.now(), handle.expiresAt());
+        if (!remaining.isNegative() && !remaining.isZero()) {
+            redisTemplate.opsForValue().set(sharedKey(botId, handle.prefixHash()), handle.name(), remaining);
+        }
+    }
+
+    private static String sharedKey(UUID botId, String hash) {
+        return HANDLE_PREFIX + botId + ":" + hash;
+    }
+
+    private Instant expiry(GoogleGenAiCachedContent content) {
+        return content.getExpireTime() != null ? content.getExpireTime() : Instant.now().plus(ttl);
+    }
+
+    private String model() {
+        ChatOptions options = chatModel.getDefaultOptions();
+        return options == null ? null : options.getModel();
+    }
+
+    private void inBackground(UUID botId, Runnable work) {
+        Backoff backoff = backoffs.get(botId);
+        if (backoff != null && Instant.now().isBefore(backoff.retryAt())) {
+            return;
+        }
+        if (!pending.add(botId)) {
+            return;
+        }
+        background.execute(() -> {
+            try {
+                work.run();
+                backoffs.remove(botId);
+            } catch (RuntimeException e) {
+                // Questions keep going out uncached; one after the backoff retries.
+                Backoff next = backoffs.merge(botId, backoff(1), (previous, first) -> backoff(previous.failures() + 1));
+                meterRegistry.counter("chat.prompt.cache", "outcome", "failed").increment();
+                log.warn("Could not cache the prompt prefix for bot {}; retrying after {} ({} failures)",
+                        botId, next.retryAt(), next.failures(), e);
+            } finally {
+                pending.remove(botId);
+            }
+        });
+    }
+
+    private Backoff backoff(int failures) {
+        Duration delay = retryBackoff.multipliedBy(1L << Math.min(failures - 1, 20));
+        return new Backoff(failures, Instant.now().plus(delay.compareTo(ttl) > 0 ? ttl : delay));
+    }
+
+    private static String hash(String prefix) {
+        try {
+            return HexFormat.of().formatHex(
+                    MessageDigest.getInstance("SHA-256").digest(prefix.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Fills {@code embedding_bits} for chunks stored before binary quantization existed, and
+ * measures how much recall the quantized path gives up, so a bot is only opted in once
+ * the numbers say it is safe.
+ */
+@Slf4j
+@Service
+public class QuantizationBackfillService {
+
+    private static final int BATCH_SIZE = 1000;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final QuantizedVectorSearch quantizedVectorSearch;
+
+    public QuantizationBackfillService(JdbcTemplate jdbcTemplate, QuantizedVectorSearch quantizedVectorSearch) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.quantizedVectorSearch = quantizedVectorSearch;
+    }
+
+    /** Share of the exact top-k that the quantized search also returned, averaged over the sampled queries. */
+    public record RecallReport(String botId, int k, int queries, double recall) {
+    }
+
+    public int backfill() {
+        int total = 0;
+        while (true) {
+            // Batched so a large table is not rewritten in one long transaction.
+            int updated = jdbcTemplate.update("""
+                    UPDATE bot_document SET embedding_bits = binary_quantize(embedding)
+                    WHERE id IN (
+                        SELECT id FROM bot_document
+                        WHERE embedding_bits IS NULL AND embedding IS NOT NULL
+                        LIMIT ?
+                    )
+                    """, BATCH_SIZE);
+            if (updated == 0) {
+                break;
+            }
+            total += updated;
+            log.info("Quantized {} chunks so far", total);
+        }
+        return total;
+    }
+
+    /**
+     * Uses a sample of the bot's own chunks as queries. That favours near-duplicates of
+     * stored text over real user questions, but needs no query log and no embedding calls.
+     */
+    public RecallReport recallAtK(String botId, int k, int queries) {
+        List<String> samples = jdbcTemplate.queryForList(
+                "SELECT embedding::text FROM bot_document WHERE bot_id = ?::uuid AND embedding IS NOT NULL "
+                        + "ORDER BY random() LIMIT ?",
+                String.class, botId, queries);
+        if (samples.isEmpty()) {
+            return new RecallReport(botId, k, 0, 0);
+        }
+
+        double recallSum = 0;
+        for (String sample : samples) {
+            // "+ 0" keeps the planner off any vector index, so this ranking is exact.
+            List<String> exact = jdbcTemplate.queryForList(
+                    "SELECT id::text FROM bot_document WHERE bot_id = ?::uuid AND embedding IS NOT NULL "
+                            + "ORDER BY (embedding <=> ?::vector) + 0 LIMIT ?",
+                    String.class, botId, sample, k);
+            if (exact.isEmpty()) {
+                continue;
+            }
+            Set<String> found = new HashSet<>();
+            quantizedVectorSearch.search(botId, VectorLiterals.parse(sample), k)
+                    .forEach(doc -> found.add(doc.getId()));
+            recallSum += (double) exact.stream().filter(found::contains).count() / exact.size();
+        }
+        return new RecallReport(botId, k, samples.size(), recallSum / samples.size());
+    }
+
+    public List<RecallReport> reportLargestBots(int bots, int k, int queries) {
+        List<String> botIds = jdbcTemplate.queryForList(
+                "SELECT bot_id::text FROM bot_document GROUP BY bot_id ORDER BY count(*) DESC LIMIT ?",
+                String.class, bots);
+        return botIds.stream().map(botId -> recallAtK(botId, k, queries)).toList();
+    }
+}
@@ -0,0 +1,92 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Quantized candidate search over {@code bot_document}, for bots that opt in.
+ *
+ * <p>Two representations, chosen by {@code app.search.quantized.representation}:
+ * <ul>
+ *   <li>{@code bit}: {@code embedding_bits} keeps one sign bit per dimension, 96 bytes per
+ *   chunk instead of 3 KB, so its HNSW index stays in cache where the float index does
+ *   not. Candidates are ranked by Hamming distance.</li>
+ *   <li>{@code halfvec}: scalar quantization to 16-bit floats through an expression index
+ *   on {@code embedding::halfvec(768)}, half the size of the float index and no backfill.
+ *   pgvector has no int8 vector type, so this is the nearest scalar form it can index.</li>
+ * </ul>
+ * Either way the best {@code topK * candidateMultiplier} candidates are rescored with the
+ * full-precision {@code embedding} from the same row, which restores the ordering the
+ * quantization loses. The candidate pass goes through {@link HnswScan}.
+ */
+@Component
+public class QuantizedVectorSearch {
+
+    public enum Representation {
+        BIT("embedding_bits IS NOT NULL", "embedding_bits <~> binary_quantize(?::vector)"),
+        HALFVEC("embedding IS NOT NULL", "embedding::halfvec(768) <=> ?::halfvec(768)");
+
+        private final String sql;
+
+        Representation(String present, String distance) {
+            this.sql = """
+                    SELECT id::text AS id, filename, content, 1 - (embedding <=> ?::vector) AS score
+                    FROM (
+                        SELECT id, filename, content, embedding
+                        FROM bot_document
+                        WHERE bot_id = ?::uuid AND %s
+                        ORDER BY %s
+                        LIMIT ?
+                    ) candidates
+                    ORDER BY embedding <=> ?::vector
+                    LIMIT ?
+                    """.formatted(present, distance);
+        }
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final int candidateMultiplier;
+    private final Representation representation;
+
+    // Opt-in flags, read on the query path; forget() drops an entry when the bot changes.
+    private final Map<String, Boolean> optedIn = new ConcurrentHashMap<>();
+
+    public QuantizedVectorSearch(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate,
+                                 @Value("${app.search.quantized.candidate-multiplier:10}") int candidateMultiplier,
+                                 @Value("${app.search.quantized.representation:bit}") String representation) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.candidateMultiplier = Math.max(1, candidateMultiplier);
+        this.representation = Representation.valueOf(representation.trim().toUpperCase(Locale.ROOT));
+    }
+
+    public Representation representation() {
+        return representation;
+    }
+
+    public boolean isEnabledFor(String botId) {
+        return optedIn.computeIfAbsent(botId, id -> !jdbcTemplate.queryForList(
+                "SELECT 1 FROM bot WHERE id = ?::uuid AND quantized_search", Integer.class, id).isEmpty());
+    }
+
+    public void forget(String botId) {
+        optedIn.remove(botId);
+    }
+
+    public List<Document> search(String botId, float[] queryEmbedding, int topK) {
+        String vector = VectorLiterals.toLiteral(queryEmbedding);
+        int candidates = topK * candidateMultiplier;
+        List<Map<String, Object>> rows = HnswScan.queryForList(jdbcTemplate, transactionTemplate, candidates,
+                representation.sql, vector, botId, vector, candidates, vector, topK);
+        return rows.stream().map(row -> VectorLiterals.toDocument(row, botId)).toList();
+    }
+}
@@ -0,0 +1,176 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Write-behind counting of answered questions for the dashboard.
+ *
+ * <p>Inserting a {@code bot_query} row per answer cost a pooled connection and a
+ * transaction per chat message on a five-connection pool. Instead each answer bumps an
+ * in-memory counter per bot and minute ({@link LongAdder}s, so concurrent answers do not
+ * contend), and every {@code flush-interval} the counts go out as one batch of
+ * {@code bot_query} rows carrying a {@code query_count}. Shutdown flushes too, so only a
+ * crash loses counts: at most one flush interval of them, which is the accepted price
+ * of a dashboard metric. A failed batch is added back and retried on the next flush.
+ *
+ * <p>The same transaction adds the batch to the {@code bot_query_daily} rollup the
+ * dashboard reads, so the rollup always equals the raw rows it summarises.
+ *
+ * <p>Counts not yet in the database are exposed by {@link #pendingByDay} so the
+ * dashboard shows them right away.
+ */
+@Slf4j
+@Component
+public class QueryCounter {
+
+    private record Bucket(UUID botId, Instant minute) {
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+
+    private final Map<Bucket, LongAdder> counts = new ConcurrentHashMap<>();
+    /** The batch being written, still counted by {@link #pendingByDay} until it commits. */
+    private volatile Map<Bucket, Long> writing = Map.of();
+
+    public QueryCounter(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate,
+                        MeterRegistry meterRegistry) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /** Counts one answered question. Never touches the database. */
+    public void increment(UUID botId) {
+        Bucket bucket = new Bucket(botId, Instant.now().truncatedTo(ChronoUnit.MINUTES));
+        counts.computeIfAbsent(bucket, k -> new LongAdder()).increment();
+    }
+
+    @Scheduled(fixedDelayString = "${app.query-count.flush-interval:5s}")
+    public void scheduledFlush() {
+        flush();
+    }
+
+    @PreDestroy
+    public void flushOnShutdown() {
+        flush();
+    }
+
+    /**
+     * Writes everything counted so far. A bucket is dropped from memory once its minute
+     * has been over for a full minute: answers only ever count into the current minute,
+     * so nothing can still be adding to it.
+     */
+    synchronized void flush() {
+        Instant stale = Instant.now().truncatedTo(ChronoUnit.MINUTES).minus(1, ChronoUnit.MINUTES);
+        Map<Bucket, Long> batch = new HashMap<>();
+        counts.forEach((bucket, adder) -> {
+            if (bucket.minute().isBefore(stale)) {
+                counts.remove(bucket, adder);
+            }
+            long count = adder.sumThenReset();
+            if (count > 0) {
+                batch.put(bucket, count);
+            }
+        });
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        writing = batch;
+        try {
+            transactionTemplate.executeWithoutResult(status -> write(batch));
+            meterRegistry.counter("chat.query_count.flushes", "outcome", "written").increment();
+        } catch (RuntimeException e) {
+            // Back into memory for the next flush; a bucket dropped above is simply re-created.
+            batch.forEach((bucket, count) -> counts.computeIfAbsent(bucket, k -> new LongAdder()).add(count));
+            meterRegistry.counter("chat.query_count.flushes", "outcome", "failed").increment();
+            log.warn("Could not write {} query counts, retrying on the next flush", batch.size(), e);
+        } finally {
+            writing = Map.of();
+        }
+    }
+
+    /**
+     * Raw rows first, then the rollup. {@link #backfillRollup} relies on this order: it
+     * locks the rollup before reading the raw rows, so a concurrent flush is either fully
+     * visible to it or adds its batch after it.
+     */
+    private void write(Map<Bucket, Long> batch) {
+        List<Object[]> rows = new ArrayList<>(batch.size());
+        Map<Bucket, Long> byDay = new HashMap<>();
+        batch.forEach((bucket, count) -> {
+            rows.add(new Object[]{UUID.randomUUID(), bucket.botId(), Timestamp.from(bucket.minute()), count});
+            byDay.merge(new Bucket(bucket.botId(), bucket.minute().truncatedTo(ChronoUnit.DAYS)), count, Long::sum);
+        });
+        jdbcTemplate.batchUpdate(
+                "INSERT INTO bot_query (id, bot_id, asked_at, query_count) VALUES (?, ?, ?, ?)", rows);
+
+        List<Object[]> days = new ArrayList<>(byDay.size());
+        byDay.forEach((bucket, count) ->
+                days.add(new Object[]{bucket.botId(), LocalDate.ofInstant(bucket.minute(), ZoneOffset.UTC), count}));
+        jdbcTemplate.batchUpdate("""
+                INSERT INTO bot_query_daily (bot_id, day, query_count) VALUES (?, ?, ?)
+                ON CONFLICT (bot_id, day) DO UPDATE SET query_count = bot_query_daily.query_count + EXCLUDED.query_count
+                """, days);
+    }
+
+    /**
+     * Brings the rollup up to the raw rows, for history written before it existed.
+     * Idempotent, and it only ever raises a day's count, so raw rows already removed by
+     * retention never shrink the rollup. Scans all of {@code bot_query}: a one-off job.
+     */
+    public int backfillRollup() {
+        Integer updated = transactionTemplate.execute(status -> {
+            jdbcTemplate.execute("LOCK TABLE bot_query_daily IN EXCLUSIVE MODE");
+            return jdbcTemplate.update("""
+                    INSERT INTO bot_query_daily (bot_id, day, query_count)
+                    SELECT bot_id, CAST(asked_at AT TIME ZONE 'UTC' AS date), SUM(query_count)
+                    FROM bot_query
+                    GROUP BY 1, 2
+                    ON CONFLICT (bot_id, day) DO UPDATE
+                    SET query_count = GREATEST(bot_query_daily.query_count, EXCLUDED.query_count)
+                    """);
+        });
+        return updated == null ? 0 : updated;
+    }
+
+    /** Counts per bot and UTC day that are not in {@code bot_query} yet. */
+    public Map<UUID, Map<LocalDate, Long>> pendingByDay(Collection<UUID> botIds) {
+        Map<UUID, Map<LocalDate, Long>> pending = new HashMap<>();
+        counts.forEach((bucket, adder) -> addPending(pending, botIds, bucket, adder.sum()));
+        writing.forEach((bucket, count) -> addPending(pending, botIds, bucket, count));
+        return pending;
+    }
+
+    private static void addPending(Map<UUID, Map<LocalDate, Long>> pending, Collection<UUID> botIds,
+                                   Bucket bucket, long count) {
+        if (count > 0 && botIds.contains(bucket.botId())) {
+            pending.computeIfAbsent(bucket.botId(), k -> new HashMap<>())
+                    .merge(LocalDate.ofInstant(bucket.minute(), ZoneOffset.UTC), count, Long::sum);
+        }
+    }
+}
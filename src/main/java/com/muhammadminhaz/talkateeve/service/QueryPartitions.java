@@ -0,0 +1,182 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Keeps {@code bot_query} range-partitioned by month, so its indexes and vacuum work
+ * stay the size of the retention window instead of growing with every question.
+ *
+ * <p>Partitions are created {@code ahead-months} in advance; a write for a month with no
+ * partition fails and is retried by QueryCounter, so the margin only has to outlast a
+ * missed maintenance run. Partitions older than {@code retention-months} are first
+ * folded into {@code bot_query_daily}, so the dashboard keeps their counts, and then
+ * dropped, or only detached when {@code drop} is off, leaving a plain table to archive.
+ *
+ * <p>Every run takes a transaction-scoped advisory lock, so nodes starting or running
+ * the job together take turns rather than racing on DDL.
+ */
+@Slf4j
+@Component
+public class QueryPartitions {
+
+    private static final long LOCK_ID = 0x626f745f7175L;
+    private static final DateTimeFormatter SUFFIX = DateTimeFormatter.ofPattern("'y'yyyy'm'MM");
+    private static final Pattern PARTITION = Pattern.compile("bot_query_y(\\d{4})m(\\d{2})");
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final MeterRegistry meterRegistry;
+    private final int aheadMonths;
+    private final int retentionMonths;
+    private final boolean drop;
+
+    public QueryPartitions(JdbcTemplate jdbcTemplate,
+                           TransactionTemplate transactionTemplate,
+                           MeterRegistry meterRegistry,
+                           @Value("${app.query-partitions.ahead-months:3}") int aheadMonths,
+                           @Value("${app.query-partitions.retention-months:13}") int retentionMonths,
+                           @Value("${app.query-partitions.drop:true}") boolean drop) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.meterRegistry = meterRegistry;
+        this.aheadMonths = Math.max(1, aheadMonths);
+        this.retentionMonths = Math.max(1, retentionMonths);
+        this.drop = drop;
+    }
+
+    /**
+     * Replaces the plain table Hibernate created with a partitioned one. The rows are
+     * folded into the rollup first, then those within retention are copied over, all in
+     * one transaction holding the table, so no flush sees a half-converted table.
+     * Returns whether anything changed.
+     */
+    public boolean ensurePartitioned() {
+        return Boolean.TRUE.equals(transactionTemplate.execute(status -> {
+            lock();
+            Boolean partitioned = jdbcTemplate.queryForObject("""
+                    SELECT EXISTS (SELECT 1 FROM pg_partitioned_table p
+                                   JOIN pg_class c ON c.oid = p.partrelid
+                                   WHERE c.relname = 'bot_query' AND pg_table_is_visible(c.oid))
+                    """, Boolean.class);
+            if (Boolean.TRUE.equals(partitioned)) {
+                return false;
+            }
+            YearMonth current = YearMonth.now(ZoneOffset.UTC);
+            jdbcTemplate.execute("LOCK TABLE bot_query IN ACCESS EXCLUSIVE MODE");
+            jdbcTemplate.execute("ALTER TABLE bot_query RENAME TO bot_query_legacy");
+            jdbcTemplate.execute("ALTER INDEX IF EXISTS idx_bot_query_bot_asked RENAME TO idx_bot_query_legacy_bot_asked");
+            jdbcTemplate.execute("""
+                    CREATE TABLE bot_query (
+                        id uuid NOT NULL,
+                        bot_id uuid NOT NULL,
+                        asked_at timestamp(6) with time zone NOT NULL,
+                        query_count integer NOT NULL DEFAULT 1,
+                        CONSTRAINT bot_query_partitioned_pkey PRIMARY KEY (id, asked_at)
+                    ) PARTITION BY RANGE (asked_at)
+                    """);
+            jdbcTemplate.execute("CREATE INDEX idx_bot_query_bot_asked ON bot_query (bot_id, asked_at)");
+            foldIntoRollup("bot_query_legacy");
+            for (YearMonth month = oldestKept(current); !month.isAfter(current.plusMonths(aheadMonths)); month = month.plusMonths(1)) {
+                createPartition(month);
+            }
+            int copied = jdbcTemplate.update("INSERT INTO bot_query (id, bot_id, asked_at, query_count) "
+                    + "SELECT id, bot_id, asked_at, query_count FROM bot_query_legacy WHERE asked_at >= ?",
+                    oldestKept(current).atDay(1).atStartOfDay().atOffset(ZoneOffset.UTC));
+            jdbcTemplate.execute("DROP TABLE bot_query_legacy");
+            log.info("Partitioned bot_query by month, keeping {} rows", copied);
+            return true;
+        }));
+    }
+
+    @Scheduled(cron = "${app.query-partitions.cron:0 15 3 * * *}", zone = "UTC")
+    public void scheduledMaintain() {
+        try {
+            maintain(YearMonth.now(ZoneOffset.UTC));
+        } catch (RuntimeException e) {
+            meterRegistry.counter("chat.query_partitions.maintenance", "outcome", "failed").increment();
+            log.warn("bot_query partition maintenance failed; retrying on the next run", e);
+        }
+    }
+
+    /** Creates the coming partitions and retires those past retention. */
+    void maintain(YearMonth current) {
+        transactionTemplate.executeWithoutResult(status -> {
+            lock();
+            for (int i = 0; i <= aheadMonths; i++) {
+                createPartition(current.plusMonths(i));
+            }
+            YearMonth oldestKept = oldestKept(current);
+            for (String partition : partitions()) {
+                Matcher m = PARTITION.matcher(partition);
+                if (m.matches() && YearMonth.of(Integer.parseInt(m.group(1)), Integer.parseInt(m.group(2))).isBefore(oldestKept)) {
+                    retire(partition);
+                }
+            }
+        });
+        meterRegistry.counter("chat.query_partitions.maintenance", "outcome", "done").increment();
+    }
+
+    private void retire(String partition) {
+        foldIntoRollup(partition);
+        jdbcTemplate.execute("ALTER TABLE bot_query DETACH PARTITION " + partition);
+        if (drop) {
+            jdbcTemplate.execute("DROP TABLE " + partition);
+        }
+        log.info("{} bot_query partition {} past {} months of retention", drop ? "Dropped" : "Detached",
+                partition, retentionMonths);
+    }
+
+    /**
+     * The rollup normally already holds these counts; this is the safety net for history
+     * it never saw. Raising only, so it never undoes what flushes recorded.
+     */
+    private void foldIntoRollup(String table) {
+        jdbcTemplate.update("""
+                INSERT INTO bot_query_daily (bot_id, day, query_count)
+                SELECT bot_id, CAST(asked_at AT TIME ZONE 'UTC' AS date), SUM(query_count)
+                FROM %s
+                GROUP BY 1, 2
+                ON CONFLICT (bot_id, day) DO UPDATE
+                SET query_count = GREATEST(bot_query_daily.query_count, EXCLUDED.query_count)
+                """.formatted(table));
+    }
+
+    private void createPartition(YearMonth month) {
+        LocalDate from = month.atDay(1);
+        jdbcTemplate.execute("CREATE TABLE IF NOT EXISTS bot_query_" + month.format(SUFFIX)
+                + " PARTITION OF bot_query FOR VALUES FROM ('" + from + " 00:00:00+00') TO ('"
+                + from.plusMonths(1) + " 00:00:00+00')");
+    }
+
+    private List<String> partitions() {
+        return jdbcTemplate.queryForList("""
+                SELECT c.relname FROM pg_inherits i
+                JOIN pg_class c ON c.oid = i.inhrelid
+                JOIN pg_class p ON p.oid = i.inhparent
+                WHERE p.relname = 'bot_query' AND pg_table_is_visible(p.oid)
+                ORDER BY c.relname
+                """, String.class);
+    }
+
+    private YearMonth oldestKept(YearMonth current) {
+        return current.minusMonths(retentionMonths - 1L);
+    }
+
+    private void lock() {
+        jdbcTemplate.queryForObject("SELECT pg_advisory_xact_lock(?)", Object.class, LOCK_ID);
+    }
+}
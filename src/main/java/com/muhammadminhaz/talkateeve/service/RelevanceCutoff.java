@@ -0,0 +1,79 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decides how many of the retrieved chunks are worth sending to Gemini.
+ *
+ * <p>Retrieval asks for up to {@code max-results} chunks, and every vector tier ranks
+ * them by cosine similarity. A chunk is kept while its score reaches the bot's
+ * {@code min_relevance} (or {@code min-score}) and has not fallen more than
+ * {@code drop-off} below the chunk ranked just above it: a sharp drop means the rest
+ * are about something else, even if they clear the threshold. So a precise question
+ * gets one or two chunks, a broad one gets more, and an off-topic one gets none and is
+ * answered from the instructions alone.
+ *
+ * <p>Chunks without a score are kept; the cutoff cannot judge them.
+ */
+@Component
+public class RelevanceCutoff {
+
+    private final MeterRegistry meterRegistry;
+    private final double defaultMinScore;
+    private final double dropOff;
+    private final int maxResults;
+    private final DistributionSummary kept;
+
+    public RelevanceCutoff(MeterRegistry meterRegistry,
+                           @Value("${app.search.relevance.min-score:0.5}") double defaultMinScore,
+                           @Value("${app.search.relevance.drop-off:0.1}") double dropOff,
+                           @Value("${app.search.relevance.max-results:5}") int maxResults) {
+        this.meterRegistry = meterRegistry;
+        this.defaultMinScore = defaultMinScore;
+        this.dropOff = dropOff;
+        this.maxResults = Math.max(1, maxResults);
+        this.kept = DistributionSummary.builder("chat.retrieval.chunks")
+                .description("Vector search results passing the relevance cutoff")
+                .register(meterRegistry);
+    }
+
+    /** How many chunks retrieval should ask for; the cutoff decides how many it keeps. */
+    public int maxResults() {
+        return maxResults;
+    }
+
+    /** The leading chunks of {@code ranked} (best first) that pass the cutoff. */
+    public List<Document> apply(List<Document> ranked, Double botMinScore) {
+        double minScore = botMinScore != null ? botMinScore : defaultMinScore;
+        List<Document> relevant = new ArrayList<>();
+        Double previous = null;
+        for (Document document : ranked) {
+            Double score = document.getScore();
+            if (score != null) {
+                if (score < minScore) {
+                    dropped("threshold", ranked.size() - relevant.size());
+                    break;
+                }
+                if (previous != null && previous - score > dropOff) {
+                    dropped("drop_off", ranked.size() - relevant.size());
+                    break;
+                }
+                previous = score;
+            }
+            relevant.add(document);
+        }
+        kept.record(relevant.size());
+        return relevant;
+    }
+
+    private void dropped(String reason, int count) {
+        meterRegistry.counter("chat.retrieval.dropped", "reason", reason).increment(count);
+    }
+}
@@ -0,0 +1,165 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Hedged requests to the Gemini models. If a call has not produced anything after the
+ * hedge delay, an identical second call is issued; whichever produces its first signal
+ * first is kept and the other is cancelled. For a stream, that means the first chunk
+ * decides the race.
+ *
+ * <p>The delay is {@code app.hedging.delay-ms} when set, otherwise the live p95 of recent
+ * calls to the same target, so about one call in twenty is duplicated when nothing is
+ * wrong. Every call adds {@code max-rate} of a hedge to a shared budget and every hedge
+ * spends one, which keeps hedges at or under that fraction of calls. Without the cap, a
+ * model that slows down across the board would get twice the traffic exactly when it can
+ * least take it.
+ */
+@Component
+public class RequestHedger {
+
+    static final int WINDOW_SIZE = 512;
+    static final double MAX_BURST = 10;
+
+    private final boolean enabled;
+    private final Duration fixedDelay;
+    private final double maxRate;
+    private final int minSamples;
+    private final MeterRegistry meterRegistry;
+
+    private final Map<String, LatencyWindow> windows = new ConcurrentHashMap<>();
+    private double budget;
+
+    /** Blocking calls race on virtual threads, so the loser can be interrupted. */
+    private final Scheduler blockingCalls = Schedulers.fromExecutorService(
+            Executors.newVirtualThreadPerTaskExecutor(), "hedged-calls");
+
+    public RequestHedger(@Value("${app.hedging.enabled:false}") boolean enabled,
+                         @Value("${app.hedging.delay-ms:0}") long delayMs,
+                         @Value("${app.hedging.max-rate:0.05}") double maxRate,
+                         @Value("${app.hedging.min-samples:50}") int minSamples,
+                         MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.fixedDelay = delayMs > 0 ? Duration.ofMillis(delayMs) : null;
+        this.maxRate = Math.max(0, maxRate);
+        this.minSamples = Math.max(1, minSamples);
+        this.meterRegistry = meterRegistry;
+    }
+
+    public <T> Flux<T> hedgeStream(String target, Supplier<Flux<T>> call) {
+        if (!enabled) {
+            return Flux.defer(call);
+        }
+        return Flux.defer(() -> {
+            LatencyWindow window = windows.computeIfAbsent(target, t -> new LatencyWindow());
+            Duration delay = fixedDelay != null ? fixedDelay : window.p95(minSamples);
+            earnBudget();
+            long start = System.nanoTime();
+            AtomicBoolean firstSignal = new AtomicBoolean(true);
+            Runnable recordLatency = () -> {
+                if (firstSignal.compareAndSet(true, false)) {
+                    window.record(System.nanoTime() - start);
+                }
+            };
+
+            Flux<T> primary = Flux.defer(call);
+            Flux<T> raced = delay == null ? primary : Flux.firstWithSignal(primary, hedge(target, delay, call));
+            return raced
+                    .doOnNext(item -> recordLatency.run())
+                    .doOnComplete(recordLatency);
+        });
+    }
+
+    public <T> Mono<T> hedge(String target, Supplier<Mono<T>> call) {
+        return hedgeStream(target, () -> call.get().flux()).next();
+    }
+
+    /** For blocking clients such as the embedding model; the caller's thread waits. */
+    public <T> T hedgeBlocking(String target, Supplier<T> call) {
+        if (!enabled) {
+            return call.get();
+        }
+        return hedge(target, () -> Mono.fromSupplier(call).subscribeOn(blockingCalls)).block();
+    }
+
+    /**
+     * The duplicate call. It only counts once it produces something: failing before that
+     * leaves the race to the primary instead of failing a request the primary might
+     * still answer.
+     */
+    private <T> Flux<T> hedge(String target, Duration delay, Supplier<Flux<T>> call) {
+        return Mono.delay(delay).flatMapMany(tick -> {
+            if (!spendBudget()) {
+                count(target, "denied");
+                return Flux.never();
+            }
+            count(target, "issued");
+            AtomicBoolean started = new AtomicBoolean();
+            return Flux.defer(call)
+                    .doOnNext(item -> {
+                        if (started.compareAndSet(false, true)) {
+                            count(target, "won");
+                        }
+                    })
+                    .onErrorResume(e -> started.get() ? Flux.error(e) : Flux.never());
+        });
+    }
+
+    private synchronized void earnBudget() {
+        budget = Math.min(MAX_BURST, budget + maxRate);
+    }
+
+    private synchronized boolean spendBudget() {
+        if (budget < 1) {
+            return false;
+        }
+        budget -= 1;
+        return true;
+    }
+
+    private void count(String target, String outcome) {
+        meterRegistry.counter("model.hedge", "target", target, "outcome", outcome).increment();
+    }
+
+    /** The last {@link #WINDOW_SIZE} latencies for one target; p95 recomputed every 32 samples. */
+    private static final class LatencyWindow {
+
+        private final long[] samples = new long[WINDOW_SIZE];
+        private long recorded;
+        private Duration p95;
+
+        synchronized void record(long nanos) {
+            samples[(int) (recorded % WINDOW_SIZE)] = nanos;
+            recorded++;
+            if (recorded % 32 == 0) {
+                p95 = null;
+            }
+        }
+
+        synchronized Duration p95(int minSamples) {
+            if (recorded < minSamples) {
+                return null;
+            }
+            if (p95 == null) {
+                long[] sorted = Arrays.copyOf(samples, (int) Math.min(recorded, WINDOW_SIZE));
+                Arrays.sort(sorted);
+                p95 = Duration.ofNanos(sorted[(int) Math.ceil(sorted.length * 0.95) - 1]);
+            }
+            return p95;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Dot product on the incubator Vector API, at the widest lane count the CPU offers. Only
+ * loaded when the JVM was started with {@code --add-modules jdk.incubator.vector}; see
+ * {@link LocalVectorIndex#dot}.
+ */
+final class SimdDot {
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    private SimdDot() {
+    }
+
+    /** {@code query} against the {@code query.length} floats of {@code vectors} at {@code offset}. */
+    static float dot(float[] query, float[] vectors, int offset) {
+        int dims = query.length;
+        FloatVector acc = FloatVector.zero(SPECIES);
+        int d = 0;
+        for (int bound = SPECIES.loopBound(dims); d < bound; d += SPECIES.length()) {
+            FloatVector q = FloatVector.fromArray(SPECIES, query, d);
+            acc = q.fma(FloatVector.fromArray(SPECIES, vectors, offset + d), acc);
+        }
+        float sum = acc.reduceLanes(VectorOperators.ADD);
+        for (; d < dims; d++) {
+            sum += query[d] * vectors[offset + d];
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,236 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces identical concurrent work, so a burst of visitors asking a busy bot the same
+ * opening question costs one embedding, one search and one Gemini call instead of one
+ * each.
+ *
+ * <p>On a node, callers with the same key share the first caller's in-flight result.
+ * Across nodes, the first caller takes a short-lived Redis lock ({@code flight:<key>});
+ * a node that finds it taken waits for the holder to publish its result (the retrieval
+ * cache, or {@code flight-result:<key>} for answers) and only computes it itself if the
+ * lock goes away without one. The lock expires after {@code lock-ttl}, so a crashed
+ * holder delays its followers at most that long. Every shared result is counted in
+ * {@code chat.coalesced}, tagged by layer and by whether it was shared on the node or
+ * across the cluster.
+ */
+@Slf4j
+@Component
+public class SingleFlight {
+
+    private static final String LOCK_PREFIX = "flight:";
+    private static final String RESULT_PREFIX = "flight-result:";
+    private static final Duration POLL_INTERVAL = Duration.ofMillis(50);
+
+    private final RedisTemplate<String, String> redisTemplate;
+    private final MeterRegistry meterRegistry;
+    private final boolean enabled;
+    private final Duration lockTtl;
+
+    private final Map<String, CompletableFuture<Object>> calls = new ConcurrentHashMap<>();
+    private final Map<String, Flux<?>> streams = new ConcurrentHashMap<>();
+
+    /** Waiting on another node is a sleep loop; a virtual thread makes it free. */
+    private final Scheduler waits = Schedulers.fromExecutorService(
+            Executors.newVirtualThreadPerTaskExecutor(), "single-flight");
+
+    public SingleFlight(RedisTemplate<String, String> redisTemplate,
+                        MeterRegistry meterRegistry,
+                        @Value("${app.single-flight.enabled:true}") boolean enabled,
+                        @Value("${app.single-flight.lock-ttl:10s}") Duration lockTtl) {
+        this.redisTemplate = redisTemplate;
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.lockTtl = lockTtl;
+    }
+
+    /**
+     * Runs {@code work} once for all concurrent callers of {@code key}. {@code work} must
+     * publish its result where {@code published} finds it, so followers on other nodes
+     * can pick it up.
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T call(String layer, String key, Supplier<T> work, Supplier<Optional<T>> published) {
+        if (!enabled) {
+            return work.get();
+        }
+        CompletableFuture<Object> mine = new CompletableFuture<>();
+        CompletableFuture<Object> inFlight = calls.putIfAbsent(key, mine);
+        if (inFlight != null) {
+            coalesced(layer, "local");
+            return (T) await(inFlight);
+        }
+        try {
+            T result = acrossCluster(layer, key, work, published);
+            mine.complete(result);
+            return result;
+        } catch (RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            calls.remove(key, mine);
+        }
+    }
+
+    /**
+     * Shares one text stream among all concurrent subscribers for {@code key}. Late
+     * subscribers on this node are replayed what was already emitted; the source is
+     * cancelled only when every subscriber has gone. Subscribers on other nodes get the
+     * complete text as one chunk once the first node finishes.
+     */
+    @SuppressWarnings("unchecked")
+    public Flux<String> shareText(String layer, String key, Supplier<Flux<String>> source) {
+        if (!enabled) {
+            return Flux.defer(source);
+        }
+        return Flux.defer(() -> {
+            AtomicReference<Flux<String>> self = new AtomicReference<>();
+            Flux<String> shared = textAcrossCluster(layer, key, source)
+                    .doFinally(signal -> streams.remove(key, self.get()))
+                    .replay()
+                    .refCount();
+            self.set(shared);
+            Flux<?> inFlight = streams.putIfAbsent(key, shared);
+            if (inFlight == null) {
+                return shared;
+            }
+            coalesced(layer, "local");
+            return (Flux<String>) inFlight;
+        });
+    }
+
+    private <T> T acrossCluster(String layer, String key, Supplier<T> work, Supplier<Optional<T>> published) {
+        Optional<String> lock = tryLock(key);
+        if (lock.isPresent()) {
+            try {
+                return work.get();
+            } finally {
+                unlock(key, lock.get());
+            }
+        }
+        Optional<T> result = awaitPublished(key, published);
+        if (result.isPresent()) {
+            coalesced(layer, "cluster");
+            return result.get();
+        }
+        return work.get();
+    }
+
+    private Flux<String> textAcrossCluster(String layer, String key, Supplier<Flux<String>> source) {
+        return Mono.fromCallable(() -> claim(key))
+                .subscribeOn(waits)
+                .flatMapMany(claim -> {
+                    if (claim.published() != null) {
+                        coalesced(layer, "cluster");
+                        return Flux.just(claim.published());
+                    }
+                    if (claim.token() == null) {
+                        // Nothing published and the lock is gone: the other node failed or was cut off.
+                        return Flux.defer(source);
+                    }
+                    StringBuilder text = new StringBuilder();
+                    return Flux.defer(source)
+                            .doOnNext(text::append)
+                            .doOnComplete(() -> redisTemplate.opsForValue()
+                                    .set(RESULT_PREFIX + key, text.toString(), lockTtl))
+                            .doFinally(signal -> unlock(key, claim.token()));
+                });
+    }
+
+    /** Either the lock, or the text another node published while holding it, or neither. */
+    private record Claim(String token, String published) {
+    }
+
+    private Claim claim(String key) {
+        Optional<String> lock = tryLock(key);
+        if (lock.isPresent()) {
+            return new Claim(lock.get(), null);
+        }
+        return new Claim(null, awaitPublished(key,
+                () -> Optional.ofNullable(redisTemplate.opsForValue().get(RESULT_PREFIX + key))).orElse(null));
+    }
+
+    /** The lock's token if this caller now holds it. A Redis outage just means no cross-node sharing. */
+    private Optional<String> tryLock(String key) {
+        String token = UUID.randomUUID().toString();
+        try {
+            return Boolean.TRUE.equals(redisTemplate.opsForValue().setIfAbsent(LOCK_PREFIX + key, token, lockTtl))
+                    ? Optional.of(token)
+                    : Optional.empty();
+        } catch (RuntimeException e) {
+            log.warn("Single-flight lock unavailable for {}, computing locally", key, e);
+            return Optional.of(token);
+        }
+    }
+
+    /** Releases the lock unless it already expired and another caller took it. */
+    private void unlock(String key, String token) {
+        try {
+            if (token.equals(redisTemplate.opsForValue().get(LOCK_PREFIX + key))) {
+                redisTemplate.delete(LOCK_PREFIX + key);
+            }
+        } catch (RuntimeException e) {
+            log.warn("Could not release single-flight lock {}; it expires in {}", key, lockTtl, e);
+        }
+    }
+
+    private <T> Optional<T> awaitPublished(String key, Supplier<Optional<T>> published) {
+        long deadline = System.nanoTime() + lockTtl.toNanos();
+        while (System.nanoTime() < deadline) {
+            try {
+                Thread.sleep(POLL_INTERVAL.toMillis());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted waiting for " + key, e);
+            }
+            Optional<T> result = published.get();
+            if (result.isPresent()) {
+                return result;
+            }
+            if (!Boolean.TRUE.equals(redisTemplate.hasKey(LOCK_PREFIX + key))) {
+                // Released without a result: one last look, since publishing precedes release.
+                return published.get();
+            }
+        }
+        return Optional.empty();
+    }
+
+    private static Object await(CompletableFuture<Object> inFlight) {
+        try {
+            return inFlight.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted waiting for a coalesced result", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtime) {
+                throw runtime;
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private void coalesced(String layer, String scope) {
+        meterRegistry.counter("chat.coalesced", "layer", layer, "scope", scope).increment();
+    }
+}
@@ -0,0 +1,167 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.stereotype.Component;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Decides, in-process and in microseconds, whether a chat turn is small talk ("hi",
+ * "thanks!", "ok bye") that needs no knowledge base: no embedding call, no vector
+ * search, no KB context in the prompt.
+ *
+ * <p>Rules go first. A few phrases are always small talk; a question word or a long
+ * message never is, because answering a real question without its context is the
+ * expensive mistake here. Whatever the rules leave open goes to a naive Bayes model over
+ * character trigrams, trained at startup from {@code small-talk/training.tsv}, which
+ * copes with "heyy", "thx" and "tysm" without a list of every spelling. It only says
+ * small talk above {@code threshold}, so doubtful turns still get retrieval.
+ *
+ * <p>Precision and recall are measured against a held-out labeled set in the tests.
+ */
+@Component
+public class SmallTalkClassifier {
+
+    private static final int MAX_WORDS = 6;
+
+    private static final Set<String> ALWAYS = Set.of(
+            "hi", "hello", "hey", "thanks", "thank you", "ok", "okay", "bye", "goodbye",
+            "how are you", "good morning", "good afternoon", "good evening", "good night");
+
+    /** Words that turn a greeting into a request: "hi, what are your hours". */
+    private static final Set<String> INFORMATION_WORDS = Set.of(
+            "what", "whats", "when", "where", "which", "who", "why", "how", "can", "could",
+            "do", "does", "did", "is", "are", "will", "would", "should", "need", "want",
+            "help", "price", "cost", "order", "account", "problem", "issue", "error");
+
+    private static final Set<String> SOCIAL_QUESTIONS = Set.of(
+            "how are you", "how are you doing", "how's it going", "hows it going", "what's up", "whats up");
+
+    private final boolean enabled;
+    private final double threshold;
+    private final MeterRegistry meterRegistry;
+
+    private final Map<String, int[]> trigramCounts = new HashMap<>();
+    private final int[] trigramTotals = new int[2];
+    private final int[] examples = new int[2];
+
+    private static final int KB = 0;
+    private static final int SMALL = 1;
+
+    public SmallTalkClassifier(@Value("${app.chat.small-talk.enabled:true}") boolean enabled,
+                               @Value("${app.chat.small-talk.threshold:0.9}") double threshold,
+                               MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.threshold = threshold;
+        this.meterRegistry = meterRegistry;
+        train(readLabeled("small-talk/training.tsv"));
+    }
+
+    /** Classifies and counts the decision, so the diverted share shows in chat.small_talk. */
+    public boolean isSmallTalk(String message) {
+        if (!enabled) {
+            return false;
+        }
+        boolean smallTalk = classify(message);
+        meterRegistry.counter("chat.small_talk", "diverted", String.valueOf(smallTalk)).increment();
+        return smallTalk;
+    }
+
+    boolean classify(String message) {
+        if (message == null) {
+            return false;
+        }
+        String text = normalize(message);
+        if (text.isEmpty()) {
+            // Only emoji or punctuation: a reaction, not a question.
+            return !message.isBlank();
+        }
+        if (ALWAYS.contains(text) || SOCIAL_QUESTIONS.contains(text)) {
+            return true;
+        }
+        String[] words = text.split(" ");
+        if (words.length > MAX_WORDS) {
+            return false;
+        }
+        for (String word : words) {
+            if (INFORMATION_WORDS.contains(word)) {
+                return false;
+            }
+        }
+        return smallTalkProbability(text) >= threshold;
+    }
+
+    /** Posterior probability of small talk under the trigram model. */
+    double smallTalkProbability(String normalized) {
+        double[] logScore = new double[2];
+        int vocabulary = Math.max(1, trigramCounts.size());
+        for (int label = 0; label < 2; label++) {
+            logScore[label] = Math.log((examples[label] + 1.0) / (examples[KB] + examples[SMALL] + 2.0));
+        }
+        for (String trigram : trigrams(normalized)) {
+            int[] counts = trigramCounts.getOrDefault(trigram, new int[2]);
+            for (int label = 0; label < 2; label++) {
+                logScore[label] += Math.log((counts[label] + 1.0) / (trigramTotals[label] + vocabulary));
+            }
+        }
+        double max = Math.max(logScore[KB], logScore[SMALL]);
+        double small = Math.exp(logScore[SMALL] - max);
+        double kb = Math.exp(logScore[KB] - max);
+        return small / (small + kb);
+    }
+
+    private void train(List<Map.Entry<Boolean, String>> labeled) {
+        for (Map.Entry<Boolean, String> example : labeled) {
+            int label = example.getKey() ? SMALL : KB;
+            examples[label]++;
+            for (String trigram : trigrams(normalize(example.getValue()))) {
+                trigramCounts.computeIfAbsent(trigram, t -> new int[2])[label]++;
+                trigramTotals[label]++;
+            }
+        }
+    }
+
+    static String normalize(String message) {
+        return message.toLowerCase(Locale.ROOT)
+                .replaceAll("[^\\p{L}\\p{N}' ]", " ")
+                .replaceAll("\\s+", " ")
+                .trim();
+    }
+
+    private static List<String> trigrams(String normalized) {
+        String padded = " " + normalized + " ";
+        List<String> grams = new java.util.ArrayList<>(padded.length());
+        for (int i = 0; i + 3 <= padded.length(); i++) {
+            grams.add(padded.substring(i, i + 3));
+        }
+        return grams;
+    }
+
+    /**
+     * Reads {@code small<TAB>text} / {@code kb<TAB>text} lines; {@code #} starts a comment.
+     * Package-private so the tests can read their evaluation set the same way.
+     */
+    static List<Map.Entry<Boolean, String>> readLabeled(String resource) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new ClassPathResource(resource).getInputStream(), StandardCharsets.UTF_8))) {
+            return reader.lines()
+                    .filter(line -> !line.isBlank() && !line.startsWith("#"))
+                    .map(line -> line.split("\t", 2))
+                    .map(parts -> Map.entry("small".equals(parts[0]), parts[1]))
+                    .toList();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot read " + resource, e);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Wall-clock time spent in each stage of one chat answer. Stages that run concurrently
+ * are timed independently, so the entries do not add up to {@code total}.
+ *
+ * <p>Callers create one per request, hand it to {@link BotService}, and read it once the
+ * answer completes: as a {@code Server-Timing} header, or in the SSE {@code done} event.
+ */
+public class StageTimings {
+
+    private final Map<String, Long> nanos = Collections.synchronizedMap(new LinkedHashMap<>());
+
+    public void record(String stage, long elapsedNanos) {
+        nanos.put(stage, elapsedNanos);
+    }
+
+    /** Milliseconds per stage, rounded to 0.1, in the order the stages finished. */
+    public Map<String, String> toMillis() {
+        synchronized (nanos) {
+            return nanos.entrySet().stream().collect(Collectors.toMap(
+                    Map.Entry::getKey, e -> millis(e.getValue()), (a, b) -> b, LinkedHashMap::new));
+        }
+    }
+
+    /** The {@code Server-Timing} header value, e.g. {@code retrieval;dur=41.3, total;dur=860.2}. */
+    public String toServerTiming() {
+        return toMillis().entrySet().stream()
+                .map(e -> e.getKey() + ";dur=" + e.getValue())
+                .collect(Collectors.joining(", "));
+    }
+
+    Map<String, Long> snapshot() {
+        synchronized (nanos) {
+            return new LinkedHashMap<>(nanos);
+        }
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / 1e6);
+    }
+}
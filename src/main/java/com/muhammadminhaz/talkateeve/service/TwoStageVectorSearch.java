@@ -0,0 +1,66 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import org.springframework.ai.document.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Matryoshka two-stage search over {@code bot_document}.
+ *
+ * <p>gemini-embedding-001 is MRL-trained, so the first {@link #COARSE_DIMENSIONS} values
+ * of each vector are a usable embedding on their own. Stage one ranks candidates on
+ * that prefix ({@code embedding_coarse}, with its own HNSW index) and keeps
+ * {@code topK * candidateMultiplier} of them; stage two rescores only those with the
+ * full 768-dimension vector. Cosine distance is scale-invariant, so the prefix needs no
+ * renormalisation. The coarse pass goes through {@link HnswScan}, so the bot filter does
+ * not starve it of candidates.
+ */
+@Component
+public class TwoStageVectorSearch {
+
+    public static final int COARSE_DIMENSIONS = 256;
+
+    private static final String SQL = """
+            SELECT id::text AS id, filename, content, 1 - (embedding <=> ?::vector) AS score
+            FROM (
+                SELECT id, filename, content, embedding
+                FROM bot_document
+                WHERE bot_id = ?::uuid AND embedding_coarse IS NOT NULL
+                ORDER BY embedding_coarse <=> subvector(?::vector, 1, %d)
+                LIMIT ?
+            ) candidates
+            ORDER BY embedding <=> ?::vector
+            LIMIT ?
+            """.formatted(COARSE_DIMENSIONS);
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final boolean enabled;
+    private final int candidateMultiplier;
+
+    public TwoStageVectorSearch(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate,
+                                @Value("${app.search.two-stage.enabled:false}") boolean enabled,
+                                @Value("${app.search.two-stage.candidate-multiplier:4}") int candidateMultiplier) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.enabled = enabled;
+        this.candidateMultiplier = Math.max(1, candidateMultiplier);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public List<Document> search(String botId, float[] queryEmbedding, int topK) {
+        String vector = VectorLiterals.toLiteral(queryEmbedding);
+        int candidates = topK * candidateMultiplier;
+        List<Map<String, Object>> rows = HnswScan.queryForList(jdbcTemplate, transactionTemplate, candidates, SQL,
+                vector, botId, vector, candidates, vector, topK);
+        return rows.stream().map(row -> VectorLiterals.toDocument(row, botId)).toList();
+    }
+}
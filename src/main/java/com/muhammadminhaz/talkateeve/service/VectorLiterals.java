@@ -0,0 +1,47 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import org.springframework.ai.document.Document;
+
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * pgvector text-format helpers for the search paths that query {@code bot_document}
+ * directly instead of going through the VectorStore.
+ */
+final class VectorLiterals {
+
+    private VectorLiterals() {
+    }
+
+    static String toLiteral(float[] vector) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < vector.length; i++) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(vector[i]);
+        }
+        return sb.append(']').toString();
+    }
+
+    static float[] parse(String literal) {
+        String body = literal.substring(1, literal.length() - 1);
+        String[] parts = body.split(",");
+        float[] vector = new float[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            vector[i] = Float.parseFloat(parts[i]);
+        }
+        return vector;
+    }
+
+    /** Maps an (id, filename, content, score) row to the shape PgVectorStore returns. */
+    static Document toDocument(Map<String, Object> row, String botId) {
+        return Document.builder()
+                .id(String.valueOf(row.get("id")))
+                .text((String) row.get("content"))
+                .metadata(Map.of("bot_id", botId, "filename", Objects.toString(row.get("filename"), "")))
+                .score(row.get("score") == null ? null : ((Number) row.get("score")).doubleValue())
+                .build();
+    }
+}
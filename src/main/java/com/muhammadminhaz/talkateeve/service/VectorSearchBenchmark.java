@@ -0,0 +1,189 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Latency and recall@k of the candidate-pass search paths against an exact ranking, at
+ * several corpus sizes. Bots are picked evenly across the chunk-count distribution, so
+ * the report shows the small bots a global HNSW index can starve as well as the large
+ * ones the candidate passes exist for.
+ *
+ * <p>The in-JVM {@link LocalVectorIndex} tier is timed with both its dot products, the
+ * scalar loop and the Vector API one when the JVM has the module, for bots small enough
+ * to load.
+ *
+ * <p>The configured {@link VectorStore}, which answers when the other tiers cannot, is
+ * measured on the same queries: {@link MappedVectorStore} directly, PgVectorStore by the
+ * query it issues against {@code rag_documents}, since its own API would embed the text
+ * again.
+ *
+ * <p>Like {@link QuantizationBackfillService#recallAtK}, queries are a sample of each
+ * bot's own chunks: no query log and no embedding calls, at the price of favouring
+ * near-duplicates of stored text. Each path answers one untimed query per bot first,
+ * so loading and cold pages are not counted against it.
+ */
+@Service
+public class VectorSearchBenchmark {
+
+    /** One search path over one bot. Latencies are per query, in milliseconds. */
+    public record Result(String botId, long chunks, String path, int k, int queries,
+                         double recall, double p50Millis, double p95Millis) {
+    }
+
+    /** Returns null for a bot the path does not serve, which is then left out of the report. */
+    @FunctionalInterface
+    interface SearchPath {
+        List<Document> search(String botId, float[] query, int topK);
+    }
+
+    /** What PgVectorStore.similaritySearch sends for a bot_id filter, minus the threshold. */
+    private static final String PGVECTOR_SQL = """
+            SELECT id::text AS id, content FROM rag_documents
+            WHERE metadata::jsonb @@ ?::jsonpath
+            ORDER BY embedding <=> ?::vector
+            LIMIT ?
+            """;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final VectorStore vectorStore;
+    private final LocalVectorIndex localVectorIndex;
+    private final TwoStageVectorSearch twoStageVectorSearch;
+    private final QuantizedVectorSearch quantizedVectorSearch;
+
+    public VectorSearchBenchmark(JdbcTemplate jdbcTemplate, VectorStore vectorStore,
+                                 LocalVectorIndex localVectorIndex,
+                                 TwoStageVectorSearch twoStageVectorSearch,
+                                 QuantizedVectorSearch quantizedVectorSearch) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.vectorStore = vectorStore;
+        this.localVectorIndex = localVectorIndex;
+        this.twoStageVectorSearch = twoStageVectorSearch;
+        this.quantizedVectorSearch = quantizedVectorSearch;
+    }
+
+    public List<Result> run(int bots, int k, int queries) {
+        Map<String, SearchPath> paths = new LinkedHashMap<>();
+        paths.put("local-scalar", localPath(false));
+        if (LocalVectorIndex.simdAvailable()) {
+            paths.put("local-simd", localPath(true));
+        }
+        if (twoStageVectorSearch.isEnabled()) {
+            paths.put("two-stage", twoStageVectorSearch::search);
+        }
+        // Whether or not the bot opted in: the report is how one decides to.
+        paths.put("quantized-" + quantizedVectorSearch.representation().name().toLowerCase(Locale.ROOT),
+                quantizedVectorSearch::search);
+        if (vectorStore instanceof MappedVectorStore mapped) {
+            paths.put("mapped", mapped::similaritySearch);
+        } else {
+            paths.put("pgvector", this::pgVectorSearch);
+        }
+
+        List<Result> results = new ArrayList<>();
+        for (Map<String, Object> bot : botsAcrossSizes(bots)) {
+            results.addAll(benchmarkBot((String) bot.get("bot_id"), ((Number) bot.get("chunks")).longValue(),
+                    k, queries, paths));
+        }
+        return results;
+    }
+
+    List<Result> benchmarkBot(String botId, long chunks, int k, int queries, Map<String, SearchPath> paths) {
+        List<String> samples = jdbcTemplate.queryForList(
+                "SELECT embedding::text FROM bot_document WHERE bot_id = ?::uuid AND embedding IS NOT NULL "
+                        + "ORDER BY random() LIMIT ?",
+                String.class, botId, queries);
+        if (samples.isEmpty()) {
+            return List.of();
+        }
+
+        List<List<String>> exact = new ArrayList<>(samples.size());
+        long[] exactNanos = new long[samples.size()];
+        for (int i = 0; i < samples.size(); i++) {
+            long start = System.nanoTime();
+            // "+ 0" keeps the planner off any vector index, so this ranking is exact.
+            exact.add(jdbcTemplate.queryForList(
+                    "SELECT id::text FROM bot_document WHERE bot_id = ?::uuid AND embedding IS NOT NULL "
+                            + "ORDER BY (embedding <=> ?::vector) + 0 LIMIT ?",
+                    String.class, botId, samples.get(i), k));
+            exactNanos[i] = System.nanoTime() - start;
+        }
+
+        List<Result> results = new ArrayList<>();
+        results.add(result(botId, chunks, "exact", k, samples.size(), 1, exactNanos));
+        paths.forEach((name, path) -> {
+            if (path.search(botId, VectorLiterals.parse(samples.getFirst()), k) == null) {
+                return;
+            }
+            long[] nanos = new long[samples.size()];
+            double recallSum = 0;
+            for (int i = 0; i < samples.size(); i++) {
+                float[] query = VectorLiterals.parse(samples.get(i));
+                long start = System.nanoTime();
+                List<Document> found = path.search(botId, query, k);
+                nanos[i] = System.nanoTime() - start;
+                recallSum += recall(exact.get(i), found);
+            }
+            results.add(result(botId, chunks, name, k, samples.size(), recallSum / samples.size(), nanos));
+        });
+        return results;
+    }
+
+    private SearchPath localPath(boolean simd) {
+        return (botId, query, topK) -> localVectorIndex.search(botId, () -> query, topK, simd).orElse(null);
+    }
+
+    private List<Document> pgVectorSearch(String botId, float[] query, int topK) {
+        return jdbcTemplate.queryForList(PGVECTOR_SQL, "$.bot_id == \"" + botId + "\"",
+                        VectorLiterals.toLiteral(query), topK).stream()
+                .map(row -> new Document((String) row.get("id"), (String) row.get("content"), Map.of()))
+                .toList();
+    }
+
+    /** Up to {@code bots} bots at evenly spaced ranks of the chunk count, smallest to largest. */
+    private List<Map<String, Object>> botsAcrossSizes(int bots) {
+        List<Map<String, Object>> all = jdbcTemplate.queryForList(
+                "SELECT bot_id::text AS bot_id, count(*) AS chunks FROM bot_document "
+                        + "WHERE embedding IS NOT NULL GROUP BY bot_id ORDER BY count(*)");
+        if (all.size() <= bots) {
+            return all;
+        }
+        List<Map<String, Object>> picked = new ArrayList<>(bots);
+        for (int i = 0; i < bots; i++) {
+            picked.add(all.get(bots == 1 ? all.size() - 1 : (int) ((long) i * (all.size() - 1) / (bots - 1))));
+        }
+        return picked;
+    }
+
+    private static double recall(List<String> exact, List<Document> found) {
+        if (exact.isEmpty()) {
+            return 1;
+        }
+        Set<String> ids = new HashSet<>();
+        found.forEach(doc -> ids.add(doc.getId()));
+        return (double) exact.stream().filter(ids::contains).count() / exact.size();
+    }
+
+    private static Result result(String botId, long chunks, String path, int k, int queries,
+                                 double recall, long[] nanos) {
+        long[] sorted = nanos.clone();
+        Arrays.sort(sorted);
+        return new Result(botId, chunks, path, k, queries, recall,
+                percentile(sorted, 0.50) / 1e6, percentile(sorted, 0.95) / 1e6);
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(p * sorted.length) - 1)];
+    }
+}
@@ -1,6 +1,8 @@
 package com.muhammadminhaz.talkateeve.validation;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.util.Arrays;
@@ -9,7 +11,6 @@ import java.util.List;
 @Component
 public class FileUploadValidator {
 
-    private static final long MAX_FILE_SIZE = 10 * 1024 * 1024; // 10MB
     private static final List<String> ALLOWED_CONTENT_TYPES = Arrays.asList(
             "application/pdf",
             "application/vnd.openxmlformats-officedocument.wordprocessingml.document", // .docx
@@ -18,18 +19,32 @@ public class FileUploadValidator {
             "text/markdown"
     );
 
+    private final DataSize maxFileSize;
+    private final DataSize maxPdfSize;
+    private final DataSize maxRequestSize;
+
+    public FileUploadValidator(@Value("${app.ingest.max-file-size:5MB}") DataSize maxFileSize,
+                               @Value("${app.ingest.max-pdf-size:50MB}") DataSize maxPdfSize,
+                               @Value("${spring.servlet.multipart.max-request-size:50MB}") DataSize maxRequestSize) {
+        this.maxFileSize = maxFileSize;
+        this.maxPdfSize = maxPdfSize;
+        this.maxRequestSize = maxRequestSize;
+    }
+
     public void validateFile(MultipartFile file) {
         if (file.isEmpty()) {
             throw new IllegalArgumentException("File is empty");
         }
 
-        if (file.getSize() > MAX_FILE_SIZE) {
+        String contentType = file.getContentType();
+        // PDFs are read a page at a time; DOCX is extracted whole in memory
+        DataSize limit = "application/pdf".equals(contentType) ? maxPdfSize : maxFileSize;
+        if (file.getSize() > limit.toBytes()) {
             throw new IllegalArgumentException(
-                    String.format("File size exceeds maximum limit of %dMB", MAX_FILE_SIZE / 1024 / 1024)
+                    String.format("File size exceeds maximum limit of %dMB", limit.toMegabytes())
             );
         }
 
-        String contentType = file.getContentType();
         if (contentType == null || !ALLOWED_CONTENT_TYPES.contains(contentType)) {
             throw new IllegalArgumentException(
                     "Unsupported file type. Allowed: PDF, DOCX, DOC, TXT, MD"
@@ -52,8 +67,8 @@ public class FileUploadValidator {
         }
 
         long totalSize = files.stream().mapToLong(MultipartFile::getSize).sum();
-        if (totalSize > 50 * 1024 * 1024) { // 50MB total
-            throw new IllegalArgumentException("Total file size exceeds 50MB");
+        if (totalSize > maxRequestSize.toBytes()) {
+            throw new IllegalArgumentException("Total file size exceeds " + maxRequestSize.toMegabytes() + "MB");
         }
 
         files.forEach(this::validateFile);
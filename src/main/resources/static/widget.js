@@ -20,13 +20,15 @@
         return;
     }
 
-    // Chat history storage (last 5 messages)
-    let chatHistory = [];
-    const MAX_HISTORY = 5;
+    // The server keeps the conversation; requests carry only this id and the new message.
+    // Per page load, like the messages on screen.
+    let sessionId = null;
 
     // Widget state
     let isOpen = false;
     let isLoading = false;
+    // Aborting the fetch closes the connection, which makes the server cancel the answer
+    let inFlight = null;
 
     // Create widget HTML
     function createWidget() {
@@ -374,6 +376,12 @@
 
     // Add message to chat
     function addMessage(content, isUser = false) {
+        renderMessage(content, isUser);
+    }
+
+    // Append a message bubble and return its content element, so a streamed answer can
+    // keep writing into it
+    function renderMessage(content, isUser) {
         const messagesContainer = document.getElementById('talkateave-messages');
         const messageDiv = document.createElement('div');
         messageDiv.className = `talkateave-message ${isUser ? 'user' : 'bot'}`;
@@ -385,17 +393,7 @@
 
         messagesContainer.appendChild(messageDiv);
         messagesContainer.scrollTop = messagesContainer.scrollHeight;
-
-        // Update chat history
-        chatHistory.push({
-            role: isUser ? 'user' : 'assistant',
-            content: content
-        });
-
-        // Keep only last 5 messages
-        if (chatHistory.length > MAX_HISTORY * 2) {
-            chatHistory = chatHistory.slice(-MAX_HISTORY * 2);
-        }
+        return messageDiv.querySelector('.talkateave-message-content');
     }
 
     // Show typing indicator
@@ -426,6 +424,57 @@
         }
     }
 
+    // Read a text/event-stream response, calling onEvent(name, data) per event.
+    // EventSource cannot POST a body, so the stream is parsed by hand.
+    async function readEvents(response, onEvent) {
+        const reader = response.body.getReader();
+        const decoder = new TextDecoder();
+        let buffer = '';
+
+        while (true) {
+            const { done, value } = await reader.read();
+            if (done) break;
+            buffer += decoder.decode(value, { stream: true }).replace(/\r\n/g, '\n');
+
+            let boundary;
+            while ((boundary = buffer.indexOf('\n\n')) !== -1) {
+                const block = buffer.slice(0, boundary);
+                buffer = buffer.slice(boundary + 2);
+
+                let name = 'message';
+                const data = [];
+                for (const line of block.split('\n')) {
+                    if (line.startsWith('event:')) name = line.slice(6).trim();
+                    else if (line.startsWith('data:')) data.push(line.slice(5).replace(/^ /, ''));
+                }
+                if (data.length) onEvent(name, JSON.parse(data.join('\n')));
+            }
+        }
+    }
+
+    async function openSession() {
+        const response = await fetch(`${apiUrl}/api/bots/widget/session?botId=${botId}`, {
+            method: 'POST',
+            signal: inFlight.signal,
+        });
+        if (!response.ok) {
+            throw new Error('Failed to start a chat session');
+        }
+        sessionId = (await response.json()).sessionId;
+    }
+
+    function askStream(message) {
+        return fetch(`${apiUrl}/api/bots/widget/ask/stream?botId=${botId}`, {
+            method: 'POST',
+            signal: inFlight.signal,
+            headers: {
+                'Content-Type': 'application/json',
+                'Accept': 'text/event-stream',
+            },
+            body: JSON.stringify({ message, sessionId })
+        });
+    }
+
     // Send message to bot
     async function sendMessage(message) {
         if (!message.trim() || isLoading) return;
@@ -444,35 +493,64 @@
         // Show typing indicator
         showTypingIndicator();
 
+        let answer = '';
+        let answerElement = null;
+
+        inFlight = new AbortController();
+
         try {
-            const response = await fetch(`${apiUrl}/api/bots/widget/ask?botId=${botId}`, {
-                method: 'POST',
-                headers: {
-                    'Content-Type': 'application/json',
-                },
-                body: JSON.stringify({
-                    message: message,
-                    history: chatHistory.slice(-MAX_HISTORY * 2) // Send last 5 exchanges
-                })
-            });
+            if (!sessionId) await openSession();
+            let response = await askStream(message);
+            // 404 means the session expired while the page sat idle; start a new one
+            if (response.status === 404) {
+                await openSession();
+                response = await askStream(message);
+            }
 
-            if (!response.ok) {
+            if (!response.ok || !response.body) {
                 throw new Error('Failed to get response from bot');
             }
 
-            const answer = await response.text();
-
-            // Remove typing indicator
-            removeTypingIndicator();
+            let finished = false;
+            await readEvents(response, (name, data) => {
+                if (name === 'error') {
+                    throw new Error('Bot stream failed: ' + data.errorId);
+                }
+                if (name === 'done') {
+                    finished = true;
+                    return;
+                }
+                // First text replaces the typing indicator; the rest is appended in place
+                if (!answerElement) {
+                    removeTypingIndicator();
+                    answerElement = renderMessage('', false);
+                }
+                answer += data.text;
+                answerElement.textContent = answer;
+                const messagesContainer = document.getElementById('talkateave-messages');
+                messagesContainer.scrollTop = messagesContainer.scrollHeight;
+            });
 
-            // Add bot response
-            addMessage(answer, false);
+            if (!finished) {
+                throw new Error('Bot stream ended early');
+            }
+            if (!answerElement) {
+                removeTypingIndicator();
+                answerElement = renderMessage('', false);
+            }
 
         } catch (error) {
+            if (error.name === 'AbortError') return; // Page is going away, nobody to tell
             console.error('TalkAtEve Widget Error:', error);
             removeTypingIndicator();
-            addMessage('Sorry, I encountered an error. Please try again.', false);
+            const fallback = 'Sorry, I encountered an error. Please try again.';
+            if (answerElement) {
+                answerElement.textContent = answer ? answer + '\n\n' + fallback : fallback;
+            } else {
+                renderMessage(fallback, false);
+            }
         } finally {
+            inFlight = null;
             isLoading = false;
             sendButton.disabled = false;
             input.disabled = false;
@@ -508,6 +586,11 @@
             sendMessage(input.value);
         });
 
+        // Stop generating an answer the visitor will never see
+        window.addEventListener('pagehide', () => {
+            if (inFlight) inFlight.abort();
+        });
+
         // Send message on Enter key
         input.addEventListener('keypress', (e) => {
             if (e.key === 'Enter' && !e.shiftKey) {
@@ -7,6 +7,7 @@ import com.muhammadminhaz.talkateeve.model.Bot;
 import com.muhammadminhaz.talkateeve.model.User;
 import com.muhammadminhaz.talkateeve.service.AuthService;
 import com.muhammadminhaz.talkateeve.service.BotService;
+import com.muhammadminhaz.talkateeve.service.StageTimings;
 import com.muhammadminhaz.talkateeve.validation.FileUploadValidator;
 import jakarta.servlet.http.Cookie;
 import org.junit.jupiter.api.BeforeEach;
@@ -19,7 +20,11 @@ import org.mockito.quality.Strictness;
 import org.springframework.http.MediaType;
 import org.springframework.mock.web.MockMultipartFile;
 import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.util.unit.DataSize;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 import java.util.List;
 import java.util.UUID;
@@ -46,7 +51,7 @@ class BotControllerTests {
 
     @BeforeEach
     void setUp() {
-        mockMvc = MockMvcBuilders.standaloneSetup(new BotController(botService, authService, new FileUploadValidator()))
+        mockMvc = MockMvcBuilders.standaloneSetup(new BotController(botService, authService, new FileUploadValidator(DataSize.ofMegabytes(10), DataSize.ofMegabytes(50), DataSize.ofMegabytes(50))))
                 .setControllerAdvice(new GlobalExceptionHandler())
                 .build();
 
@@ -76,13 +81,22 @@ class BotControllerTests {
         request.setMessage("hello");
         request.setHistory(List.of());
 
-        when(botService.askBotWithHistory(eq(botId), eq("hello"), anyList())).thenReturn("Hi there!");
+        when(botService.askBotWithHistory(eq(botId), eq("hello"), anyList(), any(StageTimings.class)))
+                .thenAnswer(inv -> {
+                    inv.<StageTimings>getArgument(3).record("retrieval", 41_300_000);
+                    return Mono.just("Hi there!");
+                });
 
-        mockMvc.perform(post("/api/bots/widget/ask")
+        MvcResult result = mockMvc.perform(post("/api/bots/widget/ask")
                         .param("botId", botId.toString())
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(objectMapper.writeValueAsString(request)))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
                 .andExpect(status().isOk())
+                .andExpect(header().string("Server-Timing", "retrieval;dur=41.3"))
                 .andExpect(content().string("Hi there!"));
     }
 
@@ -93,17 +107,129 @@ class BotControllerTests {
         ChatRequestDTO request = new ChatRequestDTO();
         request.setMessage("hello");
 
-        when(botService.askBotWithHistory(any(UUID.class), anyString(), any()))
-                .thenThrow(new RuntimeException("embedding model unavailable"));
+        when(botService.askBotWithHistory(any(UUID.class), anyString(), any(), any()))
+                .thenReturn(Mono.error(new RuntimeException("embedding model unavailable")));
 
-        mockMvc.perform(post("/api/bots/widget/ask")
+        MvcResult result = mockMvc.perform(post("/api/bots/widget/ask")
                         .param("botId", botId.toString())
                         .contentType(MediaType.APPLICATION_JSON)
                         .content(objectMapper.writeValueAsString(request)))
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
                 .andExpect(status().isInternalServerError())
                 .andExpect(jsonPath("$.errorId").exists());
     }
 
+    @Test
+    void widgetAskStream_sendsTextEventsThenDone() throws Exception {
+        ChatRequestDTO request = new ChatRequestDTO();
+        request.setMessage("hello");
+
+        when(botService.streamAnswerWithHistory(eq(botId), eq("hello"), any(), any(StageTimings.class)))
+                .thenAnswer(inv -> Flux.just("Hi", " there!")
+                        .doOnComplete(() -> inv.<StageTimings>getArgument(3).record("total", 812_000_000)));
+
+        MvcResult result = mockMvc.perform(post("/api/bots/widget/ask/stream")
+                        .param("botId", botId.toString())
+                        .accept(MediaType.TEXT_EVENT_STREAM)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(request)))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(content().string(
+                        "data:{\"text\":\"Hi\"}\n\ndata:{\"text\":\" there!\"}\n\nevent:done\ndata:{\"total\":\"812.0\"}\n\n"));
+    }
+
+    @Test
+    void widgetAskStream_turnsAMidStreamFailureIntoAnErrorEvent() throws Exception {
+        ChatRequestDTO request = new ChatRequestDTO();
+        request.setMessage("hello");
+
+        when(botService.streamAnswerWithHistory(eq(botId), eq("hello"), any(), any()))
+                .thenReturn(Flux.concat(Flux.just("Hi"), Flux.error(new RuntimeException("gemini reset"))));
+
+        MvcResult result = mockMvc.perform(post("/api/bots/widget/ask/stream")
+                        .param("botId", botId.toString())
+                        .accept(MediaType.TEXT_EVENT_STREAM)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(request)))
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(content().string(org.hamcrest.Matchers.containsString("event:error\ndata:{\"errorId\":")));
+    }
+
+    @Test
+    void widgetAskStream_sendsKeepAliveCommentsWhileWaitingForTheAnswer() throws Exception {
+        ChatRequestDTO request = new ChatRequestDTO();
+        request.setMessage("hello");
+
+        when(botService.streamAnswerWithHistory(eq(botId), eq("hello"), any(), any()))
+                .thenReturn(Flux.just("Hi").delaySubscription(java.time.Duration.ofMillis(2500)));
+
+        MvcResult result = mockMvc.perform(post("/api/bots/widget/ask/stream")
+                        .param("botId", botId.toString())
+                        .accept(MediaType.TEXT_EVENT_STREAM)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(request)))
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(content().string(":keep-alive\n\ndata:{\"text\":\"Hi\"}\n\nevent:done\ndata:{}\n\n"));
+    }
+
+    @Test
+    void widgetSession_returnsANewSessionId() throws Exception {
+        when(botService.openSession(botId)).thenReturn("s1");
+
+        mockMvc.perform(post("/api/bots/widget/session").param("botId", botId.toString()))
+                .andExpect(status().isCreated())
+                .andExpect(jsonPath("$.sessionId").value("s1"));
+    }
+
+    @Test
+    void widgetAskStream_withASessionSendsOnlyTheMessageToTheSession() throws Exception {
+        ChatRequestDTO request = new ChatRequestDTO();
+        request.setMessage("hello");
+        request.setSessionId("s1");
+
+        when(botService.streamInSession(eq(botId), eq("s1"), eq("hello"), any(StageTimings.class)))
+                .thenReturn(Flux.just("Hi"));
+
+        MvcResult result = mockMvc.perform(post("/api/bots/widget/ask/stream")
+                        .param("botId", botId.toString())
+                        .accept(MediaType.TEXT_EVENT_STREAM)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(request)))
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(content().string("data:{\"text\":\"Hi\"}\n\nevent:done\ndata:{}\n\n"));
+        verify(botService, never()).streamAnswerWithHistory(any(), anyString(), any(), any());
+    }
+
+    @Test
+    void widgetAskStream_returns404ForAnExpiredSessionSoTheWidgetCanOpenANewOne() throws Exception {
+        ChatRequestDTO request = new ChatRequestDTO();
+        request.setMessage("hello");
+        request.setSessionId("gone");
+
+        when(botService.streamInSession(eq(botId), eq("gone"), anyString(), any()))
+                .thenThrow(new org.springframework.web.server.ResponseStatusException(
+                        org.springframework.http.HttpStatus.NOT_FOUND, "Chat session not found or expired"));
+
+        mockMvc.perform(post("/api/bots/widget/ask/stream")
+                        .param("botId", botId.toString())
+                        .accept(MediaType.TEXT_EVENT_STREAM)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(objectMapper.writeValueAsString(request)))
+                .andExpect(status().isNotFound());
+    }
+
     @Test
     void widgetAsk_returns400_whenBotIdIsNotAUuid() throws Exception {
         ChatRequestDTO request = new ChatRequestDTO();
@@ -115,7 +241,7 @@ class BotControllerTests {
                         .content(objectMapper.writeValueAsString(request)))
                 .andExpect(status().isBadRequest());
 
-        verify(botService, never()).askBotWithHistory(any(), anyString(), any());
+        verify(botService, never()).askBotWithHistory(any(), anyString(), any(), any());
     }
 
     @Test
@@ -185,12 +311,15 @@ class BotControllerTests {
     @Test
     void askBot_returnsAnswer_whenAuthenticated() throws Exception {
         authenticated();
-        when(botService.askBot(botId, "hello")).thenReturn("Hi!");
+        when(botService.askBot(eq(botId), eq("hello"), any(StageTimings.class))).thenReturn(Mono.just("Hi!"));
 
-        mockMvc.perform(post("/api/bots/" + botId + "/ask")
+        MvcResult result = mockMvc.perform(post("/api/bots/" + botId + "/ask")
                         .cookie(new Cookie("token", "good"))
                         .contentType(MediaType.APPLICATION_JSON)
                         .content("{\"question\":\"hello\"}"))
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
                 .andExpect(status().isOk())
                 .andExpect(content().string("Hi!"));
     }
@@ -201,7 +330,7 @@ class BotControllerTests {
                         .contentType(MediaType.APPLICATION_JSON)
                         .content("{\"question\":\"hello\"}"))
                 .andExpect(status().isUnauthorized());
-        verify(botService, never()).askBot(any(), anyString());
+        verify(botService, never()).askBot(any(), anyString(), any());
     }
 
     @Test
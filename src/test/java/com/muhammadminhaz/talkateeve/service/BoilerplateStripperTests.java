@@ -0,0 +1,33 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BoilerplateStripperTests {
+
+    private static final List<String> BODY = List.of(
+            "Holiday requests go to your manager at least two weeks ahead.",
+            "Expenses are reimbursed with the next payroll run.",
+            "Remote work is agreed team by team.",
+            "Laptops are replaced every three years.");
+
+    @Test
+    void pageEdges_dropsRepeatedHeadersAndFootersOnlyAtTheTopAndBottomOfAPage() {
+        BoilerplateStripper.PageEdges edges = new BoilerplateStripper.PageEdges(3);
+        List<List<String>> kept = new ArrayList<>();
+        for (int page = 1; page <= 4; page++) {
+            kept.add(edges.strip(List.of("ACME Corp  -  Employee Handbook", "",
+                    BODY.get(page - 1), "See the policy portal", BODY.get((page) % 4),
+                    "Page " + page + " of 4")));
+        }
+
+        assertThat(kept.get(0)).contains("ACME Corp  -  Employee Handbook", "Page 1 of 4");
+        assertThat(kept.get(2)).doesNotContain("ACME Corp  -  Employee Handbook", "Page 3 of 4");
+        assertThat(kept.get(3)).contains("See the policy portal", BODY.get(3)).hasSize(4);
+        assertThat(edges.removed()).isEqualTo(4);
+    }
+}
@@ -0,0 +1,185 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import com.muhammadminhaz.talkateeve.model.Bot;
+import com.muhammadminhaz.talkateeve.repository.BotRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class BotConfigCacheTests {
+
+    @Mock
+    private BotRepository botRepository;
+    @Mock
+    private RedisTemplate<String, String> redisTemplate;
+    @Mock
+    private ValueOperations<String, String> valueOperations;
+
+    private BotConfigCache cache;
+    private Bot bot;
+
+    @BeforeEach
+    void setUp() {
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        cache = new BotConfigCache(botRepository, redisTemplate, Duration.ofMinutes(10));
+
+        bot = new Bot();
+        bot.setId(UUID.randomUUID());
+        bot.setInstructions(List.of("Be brief.", "Be kind."));
+        when(botRepository.findById(bot.getId())).thenReturn(Optional.of(bot));
+    }
+
+    private void receive(String body) {
+        cache.onMessage(new DefaultMessage(BotConfigCache.CHANNEL.getBytes(StandardCharsets.UTF_8),
+                body.getBytes(StandardCharsets.UTF_8)), null);
+    }
+
+    @Test
+    void get_loadsOnceAndPreJoinsTheInstructions() {
+        when(valueOperations.get("kb-generation:" + bot.getId())).thenReturn("7");
+
+        BotConfigCache.BotChatConfig first = cache.get(bot.getId());
+        BotConfigCache.BotChatConfig second = cache.get(bot.getId());
+
+        assertThat(second).isSameAs(first);
+        assertThat(first.instructionsText()).isEqualTo("Be brief.\nBe kind.");
+        assertThat(first.kbGeneration()).isEqualTo(7);
+        verify(botRepository, times(1)).findById(bot.getId());
+    }
+
+    @Test
+    void get_throwsForAnUnknownBot() {
+        UUID unknown = UUID.randomUUID();
+        when(botRepository.findById(unknown)).thenReturn(Optional.empty());
+
+        assertThatThrownBy(() -> cache.get(unknown)).hasMessage("Bot not found");
+    }
+
+    @Test
+    void invalidate_reloadsLocallyAndTellsTheOtherNodes() {
+        cache.get(bot.getId());
+
+        cache.invalidate(bot.getId());
+        cache.get(bot.getId());
+
+        verify(botRepository, times(2)).findById(bot.getId());
+        verify(redisTemplate).convertAndSend(BotConfigCache.CHANNEL, "config:" + bot.getId());
+    }
+
+    @Test
+    void messageFromAnotherNode_evictsTheEntry() {
+        cache.get(bot.getId());
+
+        receive("config:" + bot.getId());
+        cache.get(bot.getId());
+
+        verify(botRepository, times(2)).findById(bot.getId());
+    }
+
+    @Test
+    void kbChangeFromAnotherNode_runsTheLocalIndexListeners() {
+        List<String> evicted = new ArrayList<>();
+        cache.onKbChange(evicted::add);
+
+        receive("kb:" + bot.getId());
+        receive("not-a-bot-event");
+
+        assertThat(evicted).containsExactly(bot.getId().toString());
+    }
+
+    @Test
+    void bumpKbGeneration_incrementsTheCounterAndPublishes() {
+        cache.bumpKbGeneration(bot.getId().toString());
+
+        verify(valueOperations).increment("kb-generation:" + bot.getId());
+        verify(redisTemplate).convertAndSend(BotConfigCache.CHANNEL, "kb:" + bot.getId());
+    }
+
+    @Test
+    void bumpKbGeneration_insideATransactionWaitsForTheCommit() {
+        // A question between the bump and the commit would cache the old chunks under
+        // the new generation.
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            cache.bumpKbGeneration(bot.getId().toString());
+            verify(valueOperations, never()).increment(anyString());
+            verify(redisTemplate, never()).convertAndSend(anyString(), any());
+
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        verify(valueOperations).increment("kb-generation:" + bot.getId());
+        verify(redisTemplate).convertAndSend(BotConfigCache.CHANNEL, "kb:" + bot.getId());
+    }
+
+    @Test
+    void bumpKbGeneration_isDroppedOnRollback() {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            cache.bumpKbGeneration(bot.getId().toString());
+            TransactionSynchronizationManager.getSynchronizations()
+                    .forEach(s -> s.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        verify(valueOperations, never()).increment(anyString());
+    }
+
+    @Test
+    void kbGeneration_isZeroOnlyForAnUnknownBot() {
+        UUID unknown = UUID.randomUUID();
+        when(botRepository.findById(unknown)).thenReturn(Optional.empty());
+        when(valueOperations.get("kb-generation:" + bot.getId())).thenThrow(new RuntimeException("redis down"));
+
+        assertThat(cache.kbGeneration(unknown.toString())).isZero();
+        assertThat(cache.kbGeneration("not-a-uuid")).isZero();
+        assertThatThrownBy(() -> cache.kbGeneration(bot.getId().toString())).hasMessage("redis down");
+    }
+
+    @Test
+    void loadThatRacedAnInvalidation_isNotCached() {
+        // The update commits and evicts while this load is between its two reads.
+        when(valueOperations.get(anyString())).thenAnswer(inv -> {
+            cache.invalidate(bot.getId());
+            return null;
+        }).thenReturn(null);
+
+        cache.get(bot.getId());
+        cache.get(bot.getId());
+
+        verify(botRepository, times(2)).findById(bot.getId());
+    }
+
+    @Test
+    void failedPublish_doesNotFailTheUpdate() {
+        doThrow(new RuntimeException("redis down")).when(redisTemplate).convertAndSend(anyString(), any());
+
+        cache.invalidate(bot.getId());
+    }
+}
@@ -3,9 +3,12 @@ package com.muhammadminhaz.talkateeve.service;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.muhammadminhaz.talkateeve.model.Bot;
 import com.muhammadminhaz.talkateeve.model.BotDocument;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.mockito.junit.jupiter.MockitoSettings;
@@ -17,12 +20,24 @@ import org.springframework.data.redis.core.RedisTemplate;
 import org.springframework.data.redis.core.ValueOperations;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
@@ -42,21 +57,42 @@ class BotDocumentServiceTests {
     private ValueOperations<String, String> valueOperations;
     @Mock
     private JdbcTemplate jdbcTemplate;
+    @Mock
+    private LocalVectorIndex localVectorIndex;
+    @Mock
+    private TwoStageVectorSearch twoStageVectorSearch;
+    @Mock
+    private QuantizedVectorSearch quantizedVectorSearch;
+    @Mock
+    private FileRoutingIndex fileRoutingIndex;
+    @Mock
+    private FileCatalog fileCatalog;
+    @Mock
+    private BotConfigCache botConfigCache;
+    @Mock
+    private HybridSearch hybridSearch;
 
     private BotDocumentService service;
     private Bot bot;
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
 
     @BeforeEach
     void setUp() {
         // Real ObjectMapper: the cache round-trip is part of what we are testing.
         service = new BotDocumentService(vectorStore, embeddingService, redisTemplate,
-                new ObjectMapper(), jdbcTemplate);
+                new ObjectMapper(), jdbcTemplate, localVectorIndex, twoStageVectorSearch,
+                quantizedVectorSearch, fileRoutingIndex, fileCatalog, hybridSearch,
+                new RelevanceCutoff(meterRegistry, 0.5, 0.1, 5),
+                new NearDuplicateDetector(jdbcTemplate, meterRegistry, true, 3), new PdfTextExtractor(),
+                botConfigCache, new SingleFlight(redisTemplate, meterRegistry, true, Duration.ofSeconds(2)),
+                DataSize.ofMegabytes(5), DataSize.ofMegabytes(50));
 
         bot = new Bot();
         bot.setId(UUID.randomUUID());
         bot.setName("Test Bot");
 
         when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.setIfAbsent(startsWith("flight:"), anyString(), any(Duration.class))).thenReturn(true);
     }
 
     private MultipartFile textFile(String name, String content) {
@@ -68,15 +104,82 @@ class BotDocumentServiceTests {
         when(embeddingService.createEmbedding(anyString())).thenReturn(new float[]{0.1f, 0.2f});
 
         List<BotDocument> saved = service.uploadDocuments(bot,
-                List.of(textFile("kb.txt", "Support hours are 9am to 5pm.")));
+                List.of(textFile("kb.txt", "Support hours are 9am to 5pm."))).documents();
 
         assertFalse(saved.isEmpty(), "expected at least one persisted chunk");
         assertEquals("kb.txt", saved.getFirst().getFilename());
         verify(jdbcTemplate, atLeastOnce()).update(contains("INSERT INTO bot_document"),
-                any(), any(), any(), any(), any());
+                any(), any(), any(), any(), any(), any());
         verify(vectorStore, atLeastOnce()).add(anyList());
     }
 
+    @Test
+    void uploadDocuments_skipsNearDuplicatesOfTheSameFileBeforeEmbeddingThem() throws Exception {
+        when(embeddingService.createEmbedding(anyString())).thenReturn(new float[]{0.1f, 0.2f});
+        String known = "Orders placed before noon on a weekday ship the same day from our Leeds warehouse.";
+        when(jdbcTemplate.queryForList(contains("SELECT filename, simhash"), eq(bot.getId().toString())))
+                .thenReturn(List.of(Map.of("filename", "shipping.txt", "simhash", NearDuplicateDetector.simhash(known))));
+        String handbook = "Support hours are 9am to 5pm, Monday to Friday, except on public holidays.";
+
+        BotDocumentService.UploadResult result = service.uploadDocuments(bot, List.of(
+                textFile("shipping.txt", "Orders placed before noon on a weekday ship the same day from our Leeds warehouse!"),
+                textFile("handbook.txt", handbook),
+                textFile("handbook-copy.txt", handbook)));
+
+        // The copy is its own file: deleting handbook.txt must not take its text with it.
+        assertEquals(List.of("handbook.txt", "handbook-copy.txt"),
+                result.documents().stream().map(BotDocument::getFilename).toList());
+        assertEquals(1, result.duplicateChunksSkipped());
+        verify(embeddingService, times(2)).createEmbedding(anyString());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void uploadDocuments_readsPdfsPageByPageAndRecordsTheStartingPage() throws Exception {
+        when(embeddingService.createEmbedding(anyString())).thenReturn(new float[]{0.1f, 0.2f});
+        List<String> bodies = java.util.stream.IntStream.rangeClosed(1, 6)
+                .mapToObj(i -> "Section " + "ABCDEF".charAt(i - 1) + " covers policy number " + i
+                        + " in enough words to fill most of a chunk. ".repeat(4))
+                .toList();
+        MultipartFile pdf = new MockMultipartFile("files", "handbook.pdf", "application/pdf",
+                PdfTextExtractorTests.pdf(bodies));
+
+        BotDocumentService.UploadResult result = service.uploadDocuments(bot, List.of(pdf));
+
+        assertTrue(result.boilerplateLinesStripped() > 0);
+        assertTrue(result.documents().stream().noneMatch(d -> d.getContent().contains("Page 6 of 6")));
+        ArgumentCaptor<List<Document>> batches = ArgumentCaptor.forClass(List.class);
+        verify(vectorStore, atLeastOnce()).add(batches.capture());
+        List<Object> pages = batches.getAllValues().stream().flatMap(List::stream)
+                .map(d -> d.getMetadata().get("page")).toList();
+        assertEquals(1, pages.getFirst());
+        assertTrue(pages.stream().anyMatch(page -> (Integer) page > 1), pages.toString());
+    }
+
+    @Test
+    void uploadDocuments_catalogsTheFileWithItsSizeAndHash() throws Exception {
+        when(embeddingService.createEmbedding(anyString())).thenReturn(new float[]{0.1f, 0.2f});
+        MultipartFile file = textFile("kb.txt", "Support hours are 9am to 5pm.");
+
+        service.uploadDocuments(bot, List.of(file));
+
+        InOrder order = inOrder(fileRoutingIndex, fileCatalog);
+        order.verify(fileRoutingIndex).refresh(bot.getId().toString(), "kb.txt");
+        order.verify(fileCatalog).recordUpload(bot.getId(), "kb.txt", file.getSize(),
+                FileCatalog.sha256(file.getInputStream()));
+    }
+
+    @Test
+    void uploadDocuments_catalogsAFailedFileAsFailed() {
+        when(embeddingService.createEmbedding(anyString())).thenThrow(new RuntimeException("404 model not found"));
+
+        assertThrows(RuntimeException.class,
+                () -> service.uploadDocuments(bot, List.of(textFile("kb.txt", "some content"))));
+
+        verify(fileCatalog).recordFailure(eq(bot.getId()), eq("kb.txt"), eq(12L), anyString());
+        verify(fileCatalog, never()).recordUpload(any(), anyString(), anyLong(), anyString());
+    }
+
     @Test
     void uploadDocuments_throwsWhenEmbeddingFails() {
         // Regression test for the live outage: a retired embedding model used to leave
@@ -94,7 +197,7 @@ class BotDocumentServiceTests {
 
     @Test
     void uploadDocuments_reportsOversizedFileAsFailedRatherThanSkippingSilently() {
-        byte[] tooBig = new byte[6 * 1024 * 1024]; // MAX_FILE_SIZE is 5MB
+        byte[] tooBig = new byte[6 * 1024 * 1024]; // the limit for non-PDF files is 5MB
         MultipartFile big = new MockMultipartFile("files", "big.txt", "text/plain", tooBig);
 
         RuntimeException ex = assertThrows(RuntimeException.class,
@@ -103,6 +206,54 @@ class BotDocumentServiceTests {
         assertTrue(ex.getMessage().contains("big.txt"), ex.getMessage());
     }
 
+    @Test
+    void querySimilar_concurrentMissesForTheSameQuestionShareOneSearch() throws Exception {
+        CountDownLatch searching = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(localVectorIndex.search(anyString(), any(), anyInt())).thenAnswer(inv -> {
+            searching.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return Optional.of(List.of(new Document("d1", "Open 9 to 5.", Map.of())));
+        });
+        String botId = bot.getId().toString();
+
+        ExecutorService visitors = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<List<Document>>> answers = new ArrayList<>();
+            answers.add(visitors.submit(() -> service.querySimilar(botId, "hours?", 3)));
+            assertTrue(searching.await(5, TimeUnit.SECONDS));
+            for (int i = 0; i < 3; i++) {
+                answers.add(visitors.submit(() -> service.querySimilar(botId, "hours?", 3)));
+            }
+            Thread.sleep(100);
+            release.countDown();
+            for (Future<List<Document>> answer : answers) {
+                assertEquals("Open 9 to 5.", answer.get(5, TimeUnit.SECONDS).getFirst().getText());
+            }
+        } finally {
+            visitors.shutdownNow();
+        }
+
+        verify(localVectorIndex, times(1)).search(anyString(), any(), anyInt());
+        assertEquals(3, meterRegistry.get("chat.coalesced").tag("layer", "retrieval").tag("scope", "local")
+                .counter().count());
+    }
+
+    @Test
+    void querySimilar_waitsForTheNodeHoldingTheLockInsteadOfSearchingToo() {
+        String cached = """
+                [{"id":"doc-1","content":"from the other node","metadata":{"bot_id":"b1"}}]""";
+        when(valueOperations.setIfAbsent(startsWith("flight:"), anyString(), any(Duration.class))).thenReturn(false);
+        when(redisTemplate.hasKey(startsWith("flight:"))).thenReturn(true);
+        when(valueOperations.get(startsWith("query:"))).thenReturn(null, null, cached);
+
+        List<Document> results = service.querySimilar(bot.getId().toString(), "hours?", 3);
+
+        assertEquals("from the other node", results.getFirst().getText());
+        verify(localVectorIndex, never()).search(anyString(), any(), anyInt());
+        verify(vectorStore, never()).similaritySearch(any(SearchRequest.class));
+    }
+
     @Test
     void querySimilar_returnsCachedDocumentsOnHit() {
         String cached = """
@@ -129,6 +280,200 @@ class BotDocumentServiceTests {
         verify(valueOperations).set(anyString(), anyString(), any(Duration.class));
     }
 
+    @Test
+    void querySimilar_usesLocalIndexForSmallBotsAndSkipsPgvector() {
+        when(valueOperations.get(anyString())).thenReturn(null);
+        when(localVectorIndex.search(eq(bot.getId().toString()), any(), eq(3)))
+                .thenReturn(java.util.Optional.of(List.of(new Document("doc-1", "local answer", Map.of()))));
+
+        List<Document> results = service.querySimilar(bot.getId().toString(), "hello", 3);
+
+        assertEquals("local answer", results.getFirst().getText());
+        verify(vectorStore, never()).similaritySearch(any(SearchRequest.class));
+    }
+
+    @Test
+    void querySimilar_usesTwoStageSearchForLargeBotsWhenEnabled() {
+        when(valueOperations.get(anyString())).thenReturn(null);
+        when(twoStageVectorSearch.isEnabled()).thenReturn(true);
+        when(embeddingService.createQueryEmbedding("hello")).thenReturn(new float[]{0.1f, 0.2f});
+        when(twoStageVectorSearch.search(eq(bot.getId().toString()), any(float[].class), eq(3)))
+                .thenReturn(List.of(new Document("doc-1", "reranked answer", Map.of())));
+
+        List<Document> results = service.querySimilar(bot.getId().toString(), "hello", 3);
+
+        assertEquals("reranked answer", results.getFirst().getText());
+        verify(vectorStore, never()).similaritySearch(any(SearchRequest.class));
+    }
+
+    @Test
+    void querySimilar_usesQuantizedSearchForBotsThatOptedIn() {
+        when(valueOperations.get(anyString())).thenReturn(null);
+        when(twoStageVectorSearch.isEnabled()).thenReturn(true);
+        when(quantizedVectorSearch.isEnabledFor(bot.getId().toString())).thenReturn(true);
+        when(embeddingService.createQueryEmbedding("hello")).thenReturn(new float[]{0.1f, 0.2f});
+        when(quantizedVectorSearch.search(eq(bot.getId().toString()), any(float[].class), eq(3)))
+                .thenReturn(List.of(new Document("doc-1", "rescored answer", Map.of())));
+
+        List<Document> results = service.querySimilar(bot.getId().toString(), "hello", 3);
+
+        assertEquals("rescored answer", results.getFirst().getText());
+        verify(twoStageVectorSearch, never()).search(anyString(), any(float[].class), anyInt());
+        verify(vectorStore, never()).similaritySearch(any(SearchRequest.class));
+    }
+
+    @Test
+    void querySimilar_searchesOnlyTheRoutedFilesAndEmbedsOnce() {
+        String botId = bot.getId().toString();
+        when(valueOperations.get(anyString())).thenReturn(null);
+        when(embeddingService.createQueryEmbedding("hello")).thenReturn(new float[]{0.1f, 0.2f});
+        when(fileRoutingIndex.route(eq(botId), any())).thenAnswer(inv -> {
+            inv.<Supplier<float[]>>getArgument(1).get();
+            return Optional.of(List.of("faq.txt"));
+        });
+        when(fileRoutingIndex.search(eq(botId), any(float[].class), eq(List.of("faq.txt")), eq(3)))
+                .thenReturn(List.of(new Document("doc-1", "routed answer", Map.of())));
+
+        List<Document> results = service.querySimilar(botId, "hello", 3);
+
+        assertEquals("routed answer", results.getFirst().getText());
+        verify(embeddingService, times(1)).createQueryEmbedding("hello");
+        verify(vectorStore, never()).similaritySearch(any(SearchRequest.class));
+    }
+
+    @Test
+    void querySimilar_appliesTheBotsOwnRelevanceCutoff() {
+        String botId = bot.getId().toString();
+        when(valueOperations.get(anyString())).thenReturn(null);
+        when(botConfigCache.minRelevance(botId)).thenReturn(0.7);
+        when(vectorStore.similaritySearch(any(SearchRequest.class))).thenReturn(List.of(
+                Document.builder().id("doc-1").text("Support hours are 9 to 5.").score(0.82).build(),
+                Document.builder().id("doc-2").text("Shipping is free.").score(0.66).build()));
+
+        List<Document> results = service.querySimilar(botId, "hours?");
+
+        assertEquals(List.of("doc-1"), results.stream().map(Document::getId).toList());
+        ArgumentCaptor<SearchRequest> request = ArgumentCaptor.forClass(SearchRequest.class);
+        verify(vectorStore).similaritySearch(request.capture());
+        assertEquals(5, request.getValue().getTopK());
+    }
+
+    @Test
+    void querySimilar_confidentFullTextHitSkipsTheEmbedding() {
+        String botId = bot.getId().toString();
+        when(valueOperations.get(anyString())).thenReturn(null);
+        useHybridSearch();
+        when(jdbcTemplate.queryForList(contains("ts_rank_cd"), eq("E-4012"), eq("What does E-4012 mean?"),
+                eq(botId), eq(9)))
+                .thenReturn(List.of(Map.of("id", UUID.randomUUID().toString(), "filename", "errors.txt",
+                        "content", "E-4012: the printer is out of toner.", "score", 0.4, "exact", true)));
+
+        List<Document> results = service.querySimilar(botId, "What does E-4012 mean?", 3);
+
+        assertEquals("E-4012: the printer is out of toner.", results.getFirst().getText());
+        verifyNoInteractions(embeddingService);
+        verify(vectorStore, never()).similaritySearch(any(SearchRequest.class));
+    }
+
+    @Test
+    void querySimilar_fusesFullTextAndVectorHitsWhenFullTextIsNotConclusive() {
+        String botId = bot.getId().toString();
+        String both = UUID.randomUUID().toString();
+        when(valueOperations.get(anyString())).thenReturn(null);
+        useHybridSearch();
+        when(jdbcTemplate.queryForList(contains("ts_rank_cd"), eq(""), anyString(), eq(botId), eq(9)))
+                .thenReturn(List.of(Map.of("id", both, "filename", "faq.txt",
+                        "content", "Refunds take five days.", "score", 0.2, "exact", false)));
+        when(vectorStore.similaritySearch(any(SearchRequest.class))).thenReturn(List.of(
+                new Document(UUID.randomUUID().toString(), "Shipping is free.", Map.of()),
+                new Document(both, "Refunds take five days.", Map.of())));
+
+        List<Document> results = service.querySimilar(botId, "how long do refunds take", 3);
+
+        assertEquals(both, results.getFirst().getId(), "found by both searches, so ranked first");
+        assertEquals(2, results.size());
+        ArgumentCaptor<SearchRequest> request = ArgumentCaptor.forClass(SearchRequest.class);
+        verify(vectorStore).similaritySearch(request.capture());
+        assertEquals(9, request.getValue().getTopK());
+    }
+
+    private void useHybridSearch() {
+        service = new BotDocumentService(vectorStore, embeddingService, redisTemplate,
+                new ObjectMapper(), jdbcTemplate, localVectorIndex, twoStageVectorSearch,
+                quantizedVectorSearch, fileRoutingIndex, fileCatalog,
+                new HybridSearch(jdbcTemplate, meterRegistry, true, true, 3),
+                new RelevanceCutoff(meterRegistry, 0.5, 0.1, 5),
+                new NearDuplicateDetector(jdbcTemplate, meterRegistry, true, 3), new PdfTextExtractor(),
+                botConfigCache, new SingleFlight(redisTemplate, meterRegistry, true, Duration.ofSeconds(2)),
+                DataSize.ofMegabytes(5), DataSize.ofMegabytes(50));
+    }
+
+    @Test
+    void deleteFile_dropsTheFileFromTheRoutingIndex() {
+        when(jdbcTemplate.queryForList(anyString(), eq(String.class), any(), any()))
+                .thenReturn(List.of("c1"));
+
+        service.deleteFile(bot.getId(), "faq.txt");
+
+        verify(fileRoutingIndex).refresh(bot.getId().toString(), "faq.txt");
+    }
+
+    @Test
+    void uploadDocuments_invalidatesTheLocalIndexForTheBot() throws Exception {
+        when(embeddingService.createEmbedding(anyString())).thenReturn(new float[]{0.1f, 0.2f});
+
+        service.uploadDocuments(bot, List.of(textFile("kb.txt", "Support hours are 9am to 5pm.")));
+
+        verify(localVectorIndex).invalidate(bot.getId().toString());
+        verify(botConfigCache).bumpKbGeneration(bot.getId().toString());
+        verify(redisTemplate, never()).keys(anyString());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void kbChangeFromAnotherNode_dropsEveryInMemoryIndexForTheBot() {
+        ArgumentCaptor<Consumer<String>> listener = ArgumentCaptor.forClass(Consumer.class);
+        verify(botConfigCache).onKbChange(listener.capture());
+
+        listener.getValue().accept(bot.getId().toString());
+
+        verify(localVectorIndex).invalidate(bot.getId().toString());
+        verify(quantizedVectorSearch).forget(bot.getId().toString());
+        verify(fileRoutingIndex).forget(bot.getId().toString());
+    }
+
+    @Test
+    void deleteAllDocuments_evictsTheLocalIndexOnlyAfterTheCommit() {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            service.deleteAllDocuments(bot.getId());
+            verify(localVectorIndex, never()).invalidate(anyString());
+
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        verify(localVectorIndex).invalidate(bot.getId().toString());
+    }
+
+    @Test
+    void querySimilar_cacheKeyChangesWithTheKbGeneration() {
+        String botId = bot.getId().toString();
+        when(botConfigCache.kbGeneration(botId)).thenReturn(3L, 4L);
+        when(vectorStore.similaritySearch(any(SearchRequest.class))).thenReturn(List.of());
+
+        service.querySimilar(botId, "hours", 3);
+        service.querySimilar(botId, "hours", 3);
+
+        ArgumentCaptor<String> keys = ArgumentCaptor.forClass(String.class);
+        verify(valueOperations, atLeast(2)).get(keys.capture());
+        List<String> cacheKeys = keys.getAllValues().stream().filter(key -> key.startsWith("query:")).toList();
+        assertEquals(2, cacheKeys.size());
+        assertTrue(cacheKeys.get(0).startsWith("query:" + botId + ":3:"));
+        assertTrue(cacheKeys.get(1).startsWith("query:" + botId + ":4:"));
+    }
+
     @Test
     void querySimilar_evictsCorruptCacheEntryAndFallsThroughToSearch() {
         when(valueOperations.get(anyString())).thenReturn("{ this is not valid json");
@@ -171,5 +516,19 @@ class BotDocumentServiceTests {
         service.deleteFile(bot.getId(), "missing.txt");
 
         verify(vectorStore, never()).delete(anyList());
+        // A failed upload has a catalog row but no chunks.
+        verify(fileCatalog).remove(bot.getId(), "missing.txt");
+    }
+
+    @Test
+    void deleteAllDocuments_removesVectorsThroughTheVectorStore() {
+        when(jdbcTemplate.queryForList(contains("SELECT id::text"), eq(String.class), any()))
+                .thenReturn(List.of("c1", "c2"));
+
+        service.deleteAllDocuments(bot.getId());
+
+        verify(jdbcTemplate).update(contains("DELETE FROM bot_document"), eq(bot.getId().toString()));
+        verify(vectorStore).delete(List.of("c1", "c2"));
+        verify(localVectorIndex).invalidate(bot.getId().toString());
     }
 }
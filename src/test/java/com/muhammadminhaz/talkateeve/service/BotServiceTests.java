@@ -1,11 +1,14 @@
 package com.muhammadminhaz.talkateeve.service;
 
+import com.google.genai.errors.ClientException;
 import com.muhammadminhaz.talkateeve.dto.BotRequest;
 import com.muhammadminhaz.talkateeve.dto.BotResponse;
 import com.muhammadminhaz.talkateeve.model.Bot;
+import com.muhammadminhaz.talkateeve.model.BotQueryDaily;
 import com.muhammadminhaz.talkateeve.model.User;
 import com.muhammadminhaz.talkateeve.repository.BotRepository;
 import com.muhammadminhaz.talkateeve.repository.UserRepository;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -19,12 +22,23 @@ import org.springframework.ai.chat.model.Generation;
 import org.springframework.ai.chat.prompt.Prompt;
 import org.springframework.ai.document.Document;
 import org.springframework.ai.google.genai.GoogleGenAiChatModel;
+import org.springframework.ai.google.genai.GoogleGenAiChatOptions;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
 
+import java.time.Duration;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.*;
@@ -47,17 +61,47 @@ class BotServiceTests {
     @Mock
     private NamedParameterJdbcTemplate namedParameterJdbcTemplate;
     @Mock
-    private com.muhammadminhaz.talkateeve.repository.BotQueryRepository botQueryRepository;
+    private com.muhammadminhaz.talkateeve.repository.BotQueryDailyRepository botQueryDailyRepository;
+    @Mock
+    private RedisTemplate<String, String> redisTemplate;
+    @Mock
+    private ValueOperations<String, String> valueOperations;
+    @Mock
+    private ConversationSessions conversationSessions;
+    @Mock
+    private FileCatalog fileCatalog;
+    /** Answers with no handle unless a test says otherwise, like a disabled cache. */
+    @Mock
+    private PromptPrefixCache promptPrefixCache;
 
     private BotService botService;
+    private SimpleMeterRegistry meterRegistry;
+    private QueryCounter queryCounter;
 
     private User owner;
     private Bot bot;
 
     @BeforeEach
     void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        // A real cache over the mocked repository, so tests see the same loads and
+        // evictions the chat path does.
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.setIfAbsent(startsWith("flight:"), anyString(), any(Duration.class))).thenReturn(true);
+        // Big enough for vector search unless a test says otherwise.
+        when(fileCatalog.kbSize(any())).thenReturn(new FileCatalog.KbSize(500, 400_000));
+        queryCounter = new QueryCounter(jdbcTemplate,
+                new TransactionTemplate(mock(PlatformTransactionManager.class)), meterRegistry);
+        BotConfigCache botConfigCache = new BotConfigCache(botRepository, redisTemplate, Duration.ofMinutes(10));
         botService = new BotService(chatModel, botRepository, userRepository,
-                botDocumentService, jdbcTemplate, namedParameterJdbcTemplate, botQueryRepository);
+                botDocumentService, namedParameterJdbcTemplate, botQueryDailyRepository, meterRegistry,
+                botConfigCache, new AnswerDeadlines(Duration.ofSeconds(20), 0.4, "Sorry, too slow.", meterRegistry),
+                new RequestHedger(false, 0, 0.05, 50, meterRegistry),
+                new SmallTalkClassifier(true, 0.9, meterRegistry),
+                new PromptBuilder(4000, meterRegistry), conversationSessions,
+                promptPrefixCache,
+                new SingleFlight(redisTemplate, meterRegistry, true, Duration.ofSeconds(10)), queryCounter, fileCatalog,
+                new KnowledgeBaseStrategy(fileCatalog, botDocumentService, meterRegistry, true, 1500, 100, Duration.ofMinutes(10)));
 
         owner = new User();
         owner.setId(UUID.randomUUID());
@@ -70,9 +114,14 @@ class BotServiceTests {
         bot.setInstructions(List.of("Be brief."));
     }
 
+    private long pendingQueries() {
+        return queryCounter.pendingByDay(List.of(bot.getId())).values().stream()
+                .flatMap(days -> days.values().stream()).mapToLong(Long::longValue).sum();
+    }
+
     private void stubChatReply(String reply) {
         ChatResponse response = new ChatResponse(List.of(new Generation(new AssistantMessage(reply))));
-        when(chatModel.call(any(Prompt.class))).thenReturn(response);
+        when(chatModel.stream(any(Prompt.class))).thenReturn(Flux.just(response));
     }
 
     @Test
@@ -108,6 +157,34 @@ class BotServiceTests {
         assertEquals("User not found", ex.getMessage());
     }
 
+    @Test
+    void updateBot_togglingQuantizedSearchInvalidatesTheBotsCache() throws Exception {
+        when(botRepository.findById(bot.getId())).thenReturn(Optional.of(bot));
+        when(botRepository.save(any(Bot.class))).thenAnswer(inv -> inv.getArgument(0));
+        BotRequest request = new BotRequest();
+        request.setName("Support Bot");
+        request.setQuantizedSearch(true);
+
+        BotResponse response = botService.updateBot(bot.getId(), request, owner.getId(), null);
+
+        assertTrue(response.isQuantizedSearch());
+        verify(botDocumentService).invalidateBotCache(bot.getId().toString());
+    }
+
+    @Test
+    void updateBot_withoutTheFlagKeepsTheSearchMode() throws Exception {
+        bot.setQuantizedSearch(true);
+        when(botRepository.findById(bot.getId())).thenReturn(Optional.of(bot));
+        when(botRepository.save(any(Bot.class))).thenAnswer(inv -> inv.getArgument(0));
+        BotRequest request = new BotRequest();
+        request.setName("Support Bot");
+
+        botService.updateBot(bot.getId(), request, owner.getId(), null);
+
+        assertTrue(bot.isQuantizedSearch());
+        verify(botDocumentService, never()).invalidateBotCache(anyString());
+    }
+
     @Test
     void updateBot_rejectsNonOwner() {
         when(botRepository.findById(bot.getId())).thenReturn(Optional.of(bot));
@@ -135,32 +212,480 @@ class BotServiceTests {
         verify(namedParameterJdbcTemplate, never()).update(anyString(), any(org.springframework.jdbc.core.namedparam.SqlParameterSource.class));
     }
 
+    @Test
+    void deleteBot_removesChunksThroughTheDocumentServiceOnly() {
+        when(botRepository.findById(bot.getId())).thenReturn(Optional.of(bot));
+
+        botService.deleteBot(bot.getId(), bot.getUser().getId());
+
+        verify(botDocumentService).deleteAllDocuments(bot.getId());
+        // rag_documents only exists with the pgvector store.
+        verify(namedParameterJdbcTemplate).update(
+                argThat((String sql) -> !sql.contains("rag_documents") && !sql.contains("bot_document")),
+                any(org.springframework.jdbc.core.namedparam.SqlParameterSource.class));
+    }
+
     @Test
     void askBotWithHistory_buildsPromptFromRetrievedContextAndReturnsAnswer() {
         when(botRepository.findById(bot.getId())).thenReturn(Optional.of(bot));
-        when(botDocumentService.querySimilar(eq(bot.getId().toString()), eq("What are your hours?"), anyInt()))
+        when(botDocumentService.querySimilar(eq(bot.getId().toString()), eq("What are your hours?")))
                 .thenReturn(List.of(new Document("d1", "Support hours are 9am to 5pm.", java.util.Map.of())));
         stubChatReply("We are open 9am to 5pm.");
 
-        String answer = botService.askBotWithHistory(bot.getId(), "What are your hours?", List.of());
+        String answer = botService.askBotWithHistory(bot.getId(), "What are your hours?", List.of(), new StageTimings()).block();
 
         assertEquals("We are open 9am to 5pm.", answer);
 
         org.mockito.ArgumentCaptor<Prompt> captor = org.mockito.ArgumentCaptor.forClass(Prompt.class);
-        verify(chatModel).call(captor.capture());
+        verify(chatModel).stream(captor.capture());
         String prompt = captor.getValue().getContents();
         assertTrue(prompt.contains("Support hours are 9am to 5pm."), "retrieved context missing from prompt");
         assertTrue(prompt.contains("What are your hours?"), "question missing from prompt");
         assertTrue(prompt.contains("Be brief."), "bot instructions missing from prompt");
     }
 
+    @Test
+    void askBotWithHistory_resendsUncachedWhenGeminiHasDroppedTheCachedPrefix() {
+        when(botRepository.findById(bot.getId())).thenReturn(Optional.of(bot));
+        when(botDocumentService.querySimilar(anyString(), anyString())).thenReturn(List.of());
+        when(promptPrefixCache.handleFor(eq(bot.getId()), anyString())).thenReturn(Optional.of("cachedContents/1"));
+        ChatResponse reply = new ChatResponse(List.of(new Generation(new AssistantMessage("Hi!"))));
+        when(chatModel.stream(any(Prompt.class)))
+                .thenReturn(Flux.error(new ClientException(403, "PERMISSION_DENIED", "CachedContent not found (or permission denied)")))
+                .thenReturn(Flux.just(reply));
+
+        String answer = botService.askBotWithHistory(bot.getId(), "Hello?", List.of(), new StageTimings()).block();
+
+        assertEquals("Hi!", answer);
+        verify(promptPrefixCache).forget(bot.getId(), "cachedContents/1");
+        org.mockito.ArgumentCaptor<Prompt> captor = org.mockito.ArgumentCaptor.forClass(Prompt.class);
+        verify(chatModel, times(2)).stream(captor.capture());
+        Prompt resent = captor.getAllValues().get(1);
+        assertTrue(resent.getContents().contains("Be brief."), "the resent prompt must carry the instructions itself");
+        assertFalse(resent.getOptions() instanceof GoogleGenAiChatOptions options && options.getCachedContentName() != null,
+                "the resent prompt must not name the dropped cached content");
+    }
+
+    @Test
+    void askBotWithHistory_readsTheBotOnceAndPicksUpUpdatedInstructions() throws Exception {
+        when(botRepository.findById(bot.getId())).thenReturn(Optional.of(bot));
+        when(botRepository.save(any(Bot.class))).thenAnswer(inv -> inv.getArgument(0));
+        when(botDocumentService.querySimilar(anyString(), anyString())).thenReturn(List.of());
+        stubChatReply("Hi!");
+
+        botService.askBotWithHistory(bot.getId(), "Do you ship to Canada?", List.of(), new StageTimings()).block();
+        botService.askBotWithHistory(bot.getId(), "And to Mexico?", List.of(), new StageTimings()).block();
+        verify(botRepository, times(1)).findById(bot.getId());
+
+        BotRequest request = new BotRequest();
+        request.setName("Support Bot");
+        request.setInstructions(List.of("Answer in French."));
+        botService.updateBot(bot.getId(), request, owner.getId(), null);
+        botService.askBotWithHistory(bot.getId(), "Do you ship to Canada?", List.of(), new StageTimings()).block();
+
+        org.mockito.ArgumentCaptor<Prompt> captor = org.mockito.ArgumentCaptor.forClass(Prompt.class);
+        verify(chatModel, times(3)).stream(captor.capture());
+        assertTrue(captor.getValue().getContents().contains("Answer in French."), "stale instructions served");
+        verify(redisTemplate).convertAndSend(eq(BotConfigCache.CHANNEL), contains(bot.getId().toString()));
+    }
+
+    @Test
+    void promptPrefix_isByteIdenticalAcrossQuestionsHistoryAndContext() {
+        when(botRepository.findById(bot.getId())).thenReturn(Optional.of(bot));
+        when(botDocumentService.querySimilar(anyString(), eq("What are your hours?")))
+                .thenReturn(List.of(new Document("d1", "Support hours are 9am to 5pm.", java.util.Map.of())));
+        when(botDocumentService.querySimilar(anyString(), eq("Do you ship to Canada?")))
+                .thenReturn(List.of(new Document("d2", "We ship worldwide.", java.util.Map.of())));
+        stubChatReply("OK.");
+
+        botService.askBotWithHistory(bot.getId(), "What are your hours?", List.of(), new StageTimings()).block();
+        botService.askBotWithHistory(bot.getId(), "Do you ship to Canada?", List.of(
+                new com.muhammadminhaz.talkateeve.dto.ChatMessageDTO("user", "hi"),
+                new com.muhammadminhaz.talkateeve.dto.ChatMessageDTO("assistant", "Hello!")), new StageTimings()).block();
+        botService.askBotWithHistory(bot.getId(), "thanks!", List.of(), new StageTimings()).block();
+
+        org.mockito.ArgumentCaptor<Prompt> captor = org.mockito.ArgumentCaptor.forClass(Prompt.class);
+        verify(chatModel, times(3)).stream(captor.capture());
+        List<byte[]> prefixes = captor.getAllValues().stream()
+                .map(p -> p.getInstructions().getFirst())
+                .peek(m -> assertEquals(org.springframework.ai.chat.messages.MessageType.SYSTEM, m.getMessageType()))
+                .map(m -> m.getText().getBytes(java.nio.charset.StandardCharsets.UTF_8))
+                .toList();
+        assertArrayEquals(prefixes.get(0), prefixes.get(1));
+        assertArrayEquals(prefixes.get(0), prefixes.get(2));
+        String prefix = captor.getValue().getInstructions().getFirst().getText();
+        assertTrue(prefix.contains("Be brief."));
+        assertFalse(prefix.contains("thanks!") || prefix.contains("9am") || prefix.contains("Hello!"),
+                "per-question text leaked into the cached prefix");
+    }
+
+    @Test
+    void concurrentIdenticalQuestions_shareOneGeneration() throws Exception {
+        when(botRepository.findById(bot.getId())).thenReturn(Optional.of(bot));
+        when(botDocumentService.querySimilar(anyString(), anyString())).thenReturn(List.of());
+        reactor.core.publisher.Sinks.Many<ChatResponse> gemini = reactor.core.publisher.Sinks.many().unicast().onBackpressureBuffer();
+        when(chatModel.stream(any(Prompt.class))).thenReturn(gemini.asFlux());
+
+        reactor.core.publisher.Mono<List<String>> first = botService
+                .askBotWithHistory(bot.getId(), "Do you ship to Canada?", List.of(), new StageTimings()).map(List::of).cache();
+        reactor.core.publisher.Mono<List<String>> second = botService
+                .askBotWithHistory(bot.getId(), "Do you ship to Canada?", List.of(), new StageTimings()).map(List::of).cache();
+        first.subscribe();
+        second.subscribe();
+        verify(chatModel, timeout(2000)).stream(any(Prompt.class));
+        // Hold Gemini's answer until the second visitor has joined the first one's call.
+        long waitUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (meterRegistry.find("chat.coalesced").counter() == null && System.nanoTime() < waitUntil) {
+            Thread.onSpinWait();
+        }
+        gemini.tryEmitNext(new ChatResponse(List.of(new Generation(new AssistantMessage("Yes, we do.")))));
+        gemini.tryEmitComplete();
+
+        assertEquals(List.of("Yes, we do."), first.block(Duration.ofSeconds(2)));
+        assertEquals(List.of("Yes, we do."), second.block(Duration.ofSeconds(2)));
+        verify(chatModel, times(1)).stream(any(Prompt.class));
+        assertEquals(1, meterRegistry.get("chat.coalesced").tag("layer", "answer").counter().count());
+    }
+
+    @Test
+    void smallTalk_skipsRetrievalAndSendsNoKnowledgeBase() {
+        when(botRepository.findById(bot.getId())).thenReturn(Optional.of(bot));
+        stubChatReply("Hi! How can I help?");
+
+        String answer = botService.askBotWithHistory(bot.getId(), "hey there!", List.of(), new StageTimings()).block();
+
+        assertEquals("Hi! How can I help?", answer);
+        verify(botDocumentService, never()).querySimilar(anyString(), anyString());
+        org.mockito.ArgumentCaptor<Prompt> captor = org.mockito.ArgumentCaptor.forClass(Prompt.class);
+        verify(chatModel).stream(captor.capture());
+        String prompt = captor.getValue().getContents();
+        assertFalse(prompt.contains("knowledge base to answer"), "small talk should get the minimal prompt");
+        assertTrue(prompt.contains("Be brief."), "bot instructions still apply to small talk");
+    }
+
+    @Test
+    void emptyKnowledgeBase_skipsRetrievalEntirely() {
+        when(botRepository.findById(bot.getId())).thenReturn(Optional.of(bot));
+        when(fileCatalog.kbSize(bot.getId())).thenReturn(new FileCatalog.KbSize(0, 0));
+        stubChatReply("We ship worldwide.");
+
+        botService.askBotWithHistory(bot.getId(), "Do you ship to Canada?", List.of(), new StageTimings()).block();
+
+        verify(botDocumentService, never()).querySimilar(anyString(), anyString());
+        verify(botDocumentService, never()).allChunks(anyString());
+        assertEquals(1, meterRegistry.get("chat.retrieval.strategy")
+                .tag("bot", bot.getId().toString()).tag("strategy", "none").counter().count());
+    }
+
+    @Test
+    void tinyKnowledgeBase_isSentWholeWithoutEmbeddingTheQuestion() {
+        when(botRepository.findById(bot.getId())).thenReturn(Optional.of(bot));
+        when(fileCatalog.kbSize(bot.getId())).thenReturn(new FileCatalog.KbSize(1, 40));
+        when(botDocumentService.allChunks(bot.getId().toString())).thenReturn(List.of(
+                new Document("c1", "We ship to Canada in 5 days.", java.util.Map.of("filename", "faq.txt"))));
+        stubChatReply("Yes, in 5 days.");
+
+        botService.askBotWithHistory(bot.getId(), "Do you ship to Canada?", List.of(), new StageTimings()).block();
+
+        verify(botDocumentService, never()).querySimilar(anyString(), anyString());
+        org.mockito.ArgumentCaptor<Prompt> captor = org.mockito.ArgumentCaptor.forClass(Prompt.class);
+        verify(chatModel).stream(captor.capture());
+        assertTrue(captor.getValue().getContents().contains("We ship to Canada in 5 days."));
+    }
+
+    @Test
+    void askInSession_promptsWithTheStoredConversationAndAppendsTheExchange() {
+        when(botRepository.findById(bot.getId())).thenReturn(Optional.of(bot));
+        when(botDocumentService.querySimilar(anyString(), anyString())).thenReturn(List.of());
+        ConversationSessions.Session session = new ConversationSessions.Session("s1", bot.getId(), "User wants a refund.");
+        when(conversationSessions.find(bot.getId(), "s1")).thenReturn(Optional.of(session));
+        when(conversationSessions.turns(session)).thenReturn(List.of(
+                new com.muhammadminhaz.talkateeve.dto.ChatMessageDTO("user", "Order 1234 arrived broken")));
+        stubChatReply("Sorry to hear that.");
+
+        String answer = botService.askInSession(bot.getId(), "s1", "What now?", new StageTimings()).block();
+
+        assertEquals("Sorry to hear that.", answer);
+        org.mockito.ArgumentCaptor<Prompt> captor = org.mockito.ArgumentCaptor.forClass(Prompt.class);
+        verify(chatModel).stream(captor.capture());
+        String prompt = captor.getValue().getContents();
+        assertTrue(prompt.contains("User wants a refund."), "session summary missing from prompt");
+        assertTrue(prompt.contains("User: Order 1234 arrived broken"), "session turns missing from prompt");
+        verify(conversationSessions, timeout(1000)).append(session, "What now?", "Sorry to hear that.");
+    }
+
+    @Test
+    void askInSession_rejectsAnUnknownSessionBeforeDoingAnyWork() {
+        when(botRepository.findById(bot.getId())).thenReturn(Optional.of(bot));
+        when(conversationSessions.find(bot.getId(), "gone")).thenReturn(Optional.empty());
+
+        org.springframework.web.server.ResponseStatusException ex = assertThrows(
+                org.springframework.web.server.ResponseStatusException.class,
+                () -> botService.streamInSession(bot.getId(), "gone", "What now?", new StageTimings()));
+
+        assertEquals(404, ex.getStatusCode().value());
+        verifyNoInteractions(chatModel, botDocumentService);
+    }
+
+    @Test
+    void askBotWithHistory_usesOnlyTheMostRecentClientTurns() {
+        when(botRepository.findById(bot.getId())).thenReturn(Optional.of(bot));
+        when(botDocumentService.querySimilar(anyString(), anyString())).thenReturn(List.of());
+        stubChatReply("OK.");
+        List<com.muhammadminhaz.talkateeve.dto.ChatMessageDTO> history = java.util.stream.IntStream.range(0, 30)
+                .mapToObj(i -> new com.muhammadminhaz.talkateeve.dto.ChatMessageDTO("user", "turn-" + i + "."))
+                .toList();
+
+        botService.askBotWithHistory(bot.getId(), "Do you ship to Canada?", history, new StageTimings()).block();
+
+        org.mockito.ArgumentCaptor<Prompt> captor = org.mockito.ArgumentCaptor.forClass(Prompt.class);
+        verify(chatModel).stream(captor.capture());
+        String prompt = captor.getValue().getContents();
+        assertTrue(prompt.contains("turn-29."));
+        assertTrue(prompt.contains("turn-20."));
+        assertFalse(prompt.contains("turn-19."), "client history should be capped");
+    }
+
+    @Test
+    void streamAnswerWithHistory_emitsTextAsItArrivesAndCountsTheQueryOnCompletion() {
+        when(botRepository.findById(bot.getId())).thenReturn(Optional.of(bot));
+        when(botDocumentService.querySimilar(anyString(), anyString())).thenReturn(List.of());
+        when(chatModel.stream(any(Prompt.class))).thenReturn(Flux.just(
+                new ChatResponse(List.of(new Generation(new AssistantMessage("We are")))),
+                new ChatResponse(List.of(new Generation(new AssistantMessage(" open 9 to 5.")))),
+                new ChatResponse(List.of())));
+
+        Flux<String> answer = botService.streamAnswerWithHistory(bot.getId(), "What are your hours?", List.of(), new StageTimings());
+        assertEquals(0, pendingQueries());
+
+        assertEquals(List.of("We are", " open 9 to 5."), answer.collectList().block());
+        assertEquals(1, pendingQueries());
+        assertEquals(1, meterRegistry.get("chat.answer.latency")
+                .tag("stage", "first_token").tag("mode", "stream").timer().count());
+    }
+
+    @Test
+    void getDashboardStats_readsTheRollupAndAddsCountsNotYetFlushed() {
+        when(botRepository.findByUserId(owner.getId())).thenReturn(List.of(bot));
+        when(botQueryDailyRepository.sumQueryCountByBotIdIn(List.of(bot.getId()))).thenReturn(5L);
+        java.time.LocalDate today = java.time.LocalDate.now(java.time.ZoneOffset.UTC);
+        BotQueryDaily rollup = new BotQueryDaily();
+        rollup.setBotId(bot.getId());
+        rollup.setDay(today);
+        rollup.setQueryCount(5);
+        when(botQueryDailyRepository.findByBotIdInAndDayGreaterThanEqual(List.of(bot.getId()), today.minusDays(6)))
+                .thenReturn(List.of(rollup));
+        when(fileCatalog.countReady(List.of(bot.getId()))).thenReturn(3L);
+        queryCounter.increment(bot.getId());
+        queryCounter.increment(bot.getId());
+
+        var stats = botService.getDashboardStats(owner.getId(), 7);
+
+        assertEquals(7, stats.getTotalInteractions());
+        assertEquals(3, stats.getTotalDocuments());
+        assertEquals(7L, stats.getSeries().getFirst().getData().get(6));
+    }
+
+    @Test
+    void askBotWithHistory_timesEachStageAndCountsTheQueryWithoutTouchingTheDatabase() {
+        when(botRepository.findById(bot.getId())).thenReturn(Optional.of(bot));
+        when(botDocumentService.querySimilar(anyString(), anyString())).thenReturn(List.of());
+        stubChatReply("Hi!");
+        StageTimings timings = new StageTimings();
+
+        String answer = botService.askBotWithHistory(bot.getId(), "Do you ship to Canada?", List.of(), timings)
+                .block(java.time.Duration.ofSeconds(2));
+
+        assertEquals("Hi!", answer);
+        assertEquals(java.util.Set.of("config", "retrieval", "history", "first_token", "generation", "total"),
+                timings.toMillis().keySet());
+        assertTrue(timings.toServerTiming().contains("total;dur="));
+        assertEquals(1, pendingQueries());
+        verify(jdbcTemplate, never()).batchUpdate(anyString(), anyList());
+        assertEquals(1, meterRegistry.get("chat.stage.latency").tag("stage", "retrieval").timer().count());
+    }
+
+    @Test
+    void askBotWithHistory_recordsGenerationLatencyByContextSize() {
+        when(botRepository.findById(bot.getId())).thenReturn(Optional.of(bot));
+        when(botDocumentService.querySimilar(anyString(), eq("What are your hours?"))).thenReturn(List.of(
+                new org.springframework.ai.document.Document("Support hours are 9am to 5pm, Monday to Friday.")));
+        when(botDocumentService.querySimilar(anyString(), eq("Tell me a joke"))).thenReturn(List.of());
+        stubChatReply("Sure.");
+
+        botService.askBotWithHistory(bot.getId(), "What are your hours?", List.of(), new StageTimings())
+                .block(java.time.Duration.ofSeconds(2));
+        botService.askBotWithHistory(bot.getId(), "Tell me a joke", List.of(), new StageTimings())
+                .block(java.time.Duration.ofSeconds(2));
+
+        assertEquals(1, meterRegistry.get("chat.generation.latency").tag("context", "small").timer().count());
+        assertEquals(1, meterRegistry.get("chat.generation.latency").tag("context", "none").timer().count());
+    }
+
+    @Test
+    void slowRetrieval_isCancelledAndTheAnswerUsesCachedContext() throws Exception {
+        bot.setAnswerDeadlineMs(500);
+        when(botRepository.findById(bot.getId())).thenReturn(Optional.of(bot));
+        CountDownLatch interrupted = new CountDownLatch(1);
+        when(botDocumentService.querySimilar(anyString(), anyString())).thenAnswer(inv -> {
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw e;
+            }
+            return List.of();
+        });
+        when(botDocumentService.cachedSimilar(bot.getId().toString(), "hours?"))
+                .thenReturn(Optional.of(List.of(new Document("d1", "Open 9 to 5.", java.util.Map.of()))));
+        stubChatReply("9 to 5.");
+
+        String answer = botService.askBotWithHistory(bot.getId(), "hours?", List.of(), new StageTimings())
+                .block(java.time.Duration.ofSeconds(5));
+
+        assertEquals("9 to 5.", answer);
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS), "the overrunning search should be interrupted");
+        org.mockito.ArgumentCaptor<Prompt> captor = org.mockito.ArgumentCaptor.forClass(Prompt.class);
+        verify(chatModel).stream(captor.capture());
+        assertTrue(captor.getValue().getContents().contains("Open 9 to 5."));
+        assertEquals(1, meterRegistry.get("chat.answer.degraded")
+                .tag("stage", "retrieval").tag("outcome", "cached_context").counter().count());
+    }
+
+    @Test
+    void slowGeneration_returnsTheFallbackAnswerAndCancelsGemini() {
+        bot.setAnswerDeadlineMs(300);
+        when(botRepository.findById(bot.getId())).thenReturn(Optional.of(bot));
+        when(botDocumentService.querySimilar(anyString(), anyString())).thenReturn(List.of());
+        AtomicBoolean modelCancelled = new AtomicBoolean();
+        when(chatModel.stream(any(Prompt.class))).thenReturn(Flux.<ChatResponse>never()
+                .doOnCancel(() -> modelCancelled.set(true)));
+
+        String answer = botService.askBotWithHistory(bot.getId(), "Do you ship to Canada?", List.of(), new StageTimings())
+                .block(java.time.Duration.ofSeconds(5));
+
+        assertEquals("Sorry, too slow.", answer);
+        assertTrue(modelCancelled.get());
+        assertEquals(1, meterRegistry.get("chat.answer.degraded")
+                .tag("stage", "generation").tag("outcome", "fallback").counter().count());
+    }
+
+    @Test
+    void fallbackAnswer_isNeitherCountedNorAddedToTheSession() {
+        bot.setAnswerDeadlineMs(300);
+        when(botRepository.findById(bot.getId())).thenReturn(Optional.of(bot));
+        when(botDocumentService.querySimilar(anyString(), anyString())).thenReturn(List.of());
+        ConversationSessions.Session session = new ConversationSessions.Session("s1", bot.getId(), null);
+        when(conversationSessions.find(bot.getId(), "s1")).thenReturn(Optional.of(session));
+        when(conversationSessions.turns(session)).thenReturn(List.of());
+        when(chatModel.stream(any(Prompt.class))).thenReturn(Flux.never());
+
+        String answer = botService.askInSession(bot.getId(), "s1", "Do you ship to Canada?", new StageTimings())
+                .block(java.time.Duration.ofSeconds(5));
+
+        assertEquals("Sorry, too slow.", answer);
+        verify(conversationSessions, after(500).never()).append(any(), anyString(), anyString());
+        assertEquals(0, pendingQueries());
+    }
+
+    @Test
+    void streamThatStallsAfterStarting_keepsWhatWasSent() {
+        bot.setAnswerDeadlineMs(300);
+        when(botRepository.findById(bot.getId())).thenReturn(Optional.of(bot));
+        when(botDocumentService.querySimilar(anyString(), anyString())).thenReturn(List.of());
+        when(chatModel.stream(any(Prompt.class))).thenReturn(Flux.concat(
+                Flux.just(new ChatResponse(List.of(new Generation(new AssistantMessage("We open at 9"))))),
+                Flux.never()));
+
+        List<String> chunks = botService.streamAnswerWithHistory(bot.getId(), "Do you ship to Canada?", List.of(), new StageTimings())
+                .collectList().block(java.time.Duration.ofSeconds(5));
+
+        assertEquals(List.of("We open at 9"), chunks);
+        assertEquals(1, meterRegistry.get("chat.answer.degraded")
+                .tag("stage", "generation").tag("outcome", "truncated").counter().count());
+    }
+
+    @Test
+    void updateBot_setsAndResetsTheAnswerDeadline() throws Exception {
+        when(botRepository.findById(bot.getId())).thenReturn(Optional.of(bot));
+        when(botRepository.save(any(Bot.class))).thenAnswer(inv -> inv.getArgument(0));
+        BotRequest request = new BotRequest();
+        request.setName("Support Bot");
+
+        request.setAnswerDeadlineMs(8000);
+        assertEquals(8000, botService.updateBot(bot.getId(), request, owner.getId(), null).getAnswerDeadlineMs());
+
+        request.setAnswerDeadlineMs(0);
+        assertNull(botService.updateBot(bot.getId(), request, owner.getId(), null).getAnswerDeadlineMs());
+    }
+
+    @Test
+    void streamAnswerWithHistory_reportsRetrievalFailureThroughTheStream() {
+        when(botRepository.findById(bot.getId())).thenReturn(Optional.of(bot));
+        when(botDocumentService.querySimilar(anyString(), anyString()))
+                .thenThrow(new RuntimeException("404 model not found"));
+
+        Flux<String> answer = botService.streamAnswerWithHistory(bot.getId(), "Do you ship to Canada?", List.of(), new StageTimings());
+
+        assertThrows(RuntimeException.class, answer::blockLast);
+        verify(chatModel, never()).stream(any(Prompt.class));
+    }
+
+    @Test
+    void cancellingDuringGeneration_stopsTheModelStreamAndCountsItAsAbandoned() throws Exception {
+        when(botRepository.findById(bot.getId())).thenReturn(Optional.of(bot));
+        when(botDocumentService.querySimilar(anyString(), anyString())).thenReturn(List.of());
+        CountDownLatch generating = new CountDownLatch(1);
+        CountDownLatch modelCancelled = new CountDownLatch(1);
+        when(chatModel.stream(any(Prompt.class))).thenReturn(Flux.<ChatResponse>never()
+                .doOnSubscribe(sub -> generating.countDown())
+                .doOnCancel(modelCancelled::countDown));
+
+        Disposable subscription = botService.askBotWithHistory(bot.getId(), "Do you ship to Canada?", List.of(), new StageTimings()).subscribe();
+        assertTrue(generating.await(5, TimeUnit.SECONDS));
+        subscription.dispose();
+
+        // The model subscribes on a pipeline thread, so the cancel can land a moment
+        // after dispose() returns.
+        assertTrue(modelCancelled.await(5, TimeUnit.SECONDS), "Gemini stream must be cancelled, not left running");
+        assertEquals(1, meterRegistry.get("chat.answer.abandoned")
+                .tag("mode", "blocking").tag("stage", "generation").counter().count());
+        assertEquals(0, pendingQueries());
+    }
+
+    @Test
+    void cancellingDuringRetrieval_neverCallsTheModel() throws Exception {
+        when(botRepository.findById(bot.getId())).thenReturn(Optional.of(bot));
+        CountDownLatch retrieving = new CountDownLatch(1);
+        CountDownLatch interrupted = new CountDownLatch(1);
+        when(botDocumentService.querySimilar(anyString(), anyString())).thenAnswer(inv -> {
+            retrieving.countDown();
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+                throw e;
+            }
+            return List.of();
+        });
+
+        Disposable subscription = botService.streamAnswerWithHistory(bot.getId(), "Do you ship to Canada?", List.of(), new StageTimings()).subscribe();
+        assertTrue(retrieving.await(5, TimeUnit.SECONDS));
+        subscription.dispose();
+
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS), "retrieval thread should be interrupted");
+        verify(chatModel, never()).stream(any(Prompt.class));
+        assertEquals(1, meterRegistry.get("chat.answer.abandoned")
+                .tag("mode", "stream").tag("stage", "retrieval").counter().count());
+    }
+
     @Test
     void askBotWithHistory_throwsWhenBotMissing() {
         UUID unknown = UUID.randomUUID();
         when(botRepository.findById(unknown)).thenReturn(Optional.empty());
 
         RuntimeException ex = assertThrows(RuntimeException.class,
-                () -> botService.askBotWithHistory(unknown, "hello", List.of()));
+                () -> botService.askBotWithHistory(unknown, "Do you ship to Canada?", List.of(), new StageTimings()));
         assertEquals("Bot not found", ex.getMessage());
     }
 
@@ -169,11 +694,11 @@ class BotServiceTests {
         // The old behaviour returned "I'm sorry, I encountered an error..." with HTTP 200,
         // which is how a broken embedding model looked identical to a successful answer.
         when(botRepository.findById(bot.getId())).thenReturn(Optional.of(bot));
-        when(botDocumentService.querySimilar(anyString(), anyString(), anyInt()))
+        when(botDocumentService.querySimilar(anyString(), anyString()))
                 .thenThrow(new RuntimeException("404 model not found"));
 
         RuntimeException ex = assertThrows(RuntimeException.class,
-                () -> botService.askBotWithHistory(bot.getId(), "hello", List.of()));
+                () -> botService.askBotWithHistory(bot.getId(), "Do you ship to Canada?", List.of(), new StageTimings()).block());
 
         assertTrue(ex.getMessage().contains("Bot query failed"), ex.getMessage());
         assertNotNull(ex.getCause());
@@ -182,11 +707,11 @@ class BotServiceTests {
     @Test
     void askBotWithHistory_throwsWhenChatModelFails() {
         when(botRepository.findById(bot.getId())).thenReturn(Optional.of(bot));
-        when(botDocumentService.querySimilar(anyString(), anyString(), anyInt())).thenReturn(List.of());
-        when(chatModel.call(any(Prompt.class))).thenThrow(new RuntimeException("gemini unavailable"));
+        when(botDocumentService.querySimilar(anyString(), anyString())).thenReturn(List.of());
+        when(chatModel.stream(any(Prompt.class))).thenReturn(Flux.error(new RuntimeException("gemini unavailable")));
 
         assertThrows(RuntimeException.class,
-                () -> botService.askBotWithHistory(bot.getId(), "hello", List.of()));
+                () -> botService.askBotWithHistory(bot.getId(), "Do you ship to Canada?", List.of(), new StageTimings()).block());
     }
 
     @Test
@@ -0,0 +1,166 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.muhammadminhaz.talkateeve.dto.ChatMessageDTO;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.ai.chat.messages.AssistantMessage;
+import org.springframework.ai.chat.model.ChatResponse;
+import org.springframework.ai.chat.model.Generation;
+import org.springframework.ai.chat.prompt.Prompt;
+import org.springframework.ai.google.genai.GoogleGenAiChatModel;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.ListOperations;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class ConversationSessionsTests {
+
+    @Mock
+    private RedisTemplate<String, String> redisTemplate;
+    @Mock
+    private HashOperations<String, Object, Object> hashOperations;
+    @Mock
+    private ListOperations<String, String> listOperations;
+    @Mock
+    private ValueOperations<String, String> valueOperations;
+    @Mock
+    private GoogleGenAiChatModel chatModel;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final UUID botId = UUID.randomUUID();
+    private ConversationSessions sessions;
+
+    @BeforeEach
+    void setUp() {
+        when(redisTemplate.<Object, Object>opsForHash()).thenReturn(hashOperations);
+        when(redisTemplate.opsForList()).thenReturn(listOperations);
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.setIfAbsent(anyString(), anyString(), any(Duration.class))).thenReturn(true);
+        sessions = new ConversationSessions(redisTemplate, chatModel, objectMapper, meterRegistry,
+                Duration.ofMinutes(30), 8, 4);
+    }
+
+    private ConversationSessions.Session session() {
+        return new ConversationSessions.Session("s1", botId, "");
+    }
+
+    private List<String> storedTurns(int count) {
+        return IntStream.range(0, count)
+                .mapToObj(i -> json(new ChatMessageDTO(i % 2 == 0 ? "user" : "assistant", "turn " + i)))
+                .toList();
+    }
+
+    private String json(ChatMessageDTO turn) {
+        try {
+            return objectMapper.writeValueAsString(turn);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void stubSummary(String text) {
+        when(chatModel.call(any(Prompt.class)))
+                .thenReturn(new ChatResponse(List.of(new Generation(new AssistantMessage(text)))));
+    }
+
+    @Test
+    void open_bindsTheSessionToTheBotWithATtl() {
+        String id = sessions.open(botId);
+
+        verify(hashOperations).putAll("chat-session:" + id, Map.of("bot", botId.toString(), "summary", ""));
+        verify(redisTemplate).expire("chat-session:" + id, Duration.ofMinutes(30));
+    }
+
+    @Test
+    void find_treatsAnotherBotsSessionAsUnknown() {
+        when(hashOperations.entries("chat-session:s1"))
+                .thenReturn(Map.of("bot", UUID.randomUUID().toString(), "summary", ""));
+
+        assertThat(sessions.find(botId, "s1")).isEmpty();
+    }
+
+    @Test
+    void find_returnsTheSummaryOfAnOwnedSession() {
+        when(hashOperations.entries("chat-session:s1"))
+                .thenReturn(Map.of("bot", botId.toString(), "summary", "Wants a refund."));
+
+        assertThat(sessions.find(botId, "s1")).contains(new ConversationSessions.Session("s1", botId, "Wants a refund."));
+        assertThat(sessions.find(botId, null)).isEmpty();
+    }
+
+    @Test
+    void append_storesBothTurnsAndRefreshesTheTtlWithoutCompactingShortSessions() {
+        when(listOperations.rightPushAll(eq("chat-session:s1:turns"), any(String[].class))).thenReturn(4L);
+
+        sessions.append(session(), "Where is my order?", "It ships tomorrow.");
+
+        verify(listOperations).rightPushAll("chat-session:s1:turns",
+                json(new ChatMessageDTO("user", "Where is my order?")),
+                json(new ChatMessageDTO("assistant", "It ships tomorrow.")));
+        verify(redisTemplate).expire("chat-session:s1:turns", Duration.ofMinutes(30));
+        verify(chatModel, never()).call(any(Prompt.class));
+    }
+
+    @Test
+    void append_pastTheThresholdFoldsAllButTheRecentTurnsIntoTheSummary() {
+        when(listOperations.rightPushAll(eq("chat-session:s1:turns"), any(String[].class))).thenReturn(10L);
+        when(listOperations.range("chat-session:s1:turns", 0, -1)).thenReturn(storedTurns(10));
+        when(hashOperations.get("chat-session:s1", "summary")).thenReturn("Earlier: asked about pricing.");
+        stubSummary("Asked about pricing, then a refund for order 1234.");
+
+        sessions.append(session(), "turn 8", "turn 9");
+
+        ArgumentCaptor<Prompt> prompt = ArgumentCaptor.forClass(Prompt.class);
+        verify(chatModel).call(prompt.capture());
+        assertThat(prompt.getValue().getContents())
+                .contains("Earlier: asked about pricing.", "User: turn 0", "Assistant: turn 5")
+                .doesNotContain("turn 6");
+        verify(hashOperations).put("chat-session:s1", "summary", "Asked about pricing, then a refund for order 1234.");
+        verify(listOperations).trim("chat-session:s1:turns", 6, -1);
+        verify(redisTemplate).delete("chat-session:s1:compacting");
+    }
+
+    @Test
+    void compact_keepsTheTurnsWhenTheSummaryFails() {
+        when(listOperations.range("chat-session:s1:turns", 0, -1)).thenReturn(storedTurns(10));
+        when(chatModel.call(any(Prompt.class))).thenThrow(new RuntimeException("Gemini down"));
+
+        sessions.compact("s1");
+
+        verify(listOperations, never()).trim(anyString(), anyLong(), anyLong());
+        verify(hashOperations, never()).put(anyString(), any(), any());
+        verify(redisTemplate).delete("chat-session:s1:compacting");
+        assertThat(meterRegistry.get("chat.session.compactions").tag("outcome", "failed").counter().count())
+                .isEqualTo(1);
+    }
+
+    @Test
+    void compact_skipsWhileAnotherNodeHoldsTheLock() {
+        when(valueOperations.setIfAbsent(anyString(), anyString(), any(Duration.class))).thenReturn(false);
+
+        sessions.compact("s1");
+
+        verifyNoInteractions(chatModel, listOperations);
+    }
+}
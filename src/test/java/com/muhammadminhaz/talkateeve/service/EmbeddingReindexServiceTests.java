@@ -31,7 +31,7 @@ class EmbeddingReindexServiceTests {
 
     @BeforeEach
     void setUp() {
-        service = new EmbeddingReindexService(jdbcTemplate, embeddingService);
+        service = new EmbeddingReindexService(jdbcTemplate, embeddingService, "pgvector");
         when(embeddingService.createEmbedding(anyString())).thenReturn(new float[]{0.1f, 0.2f});
     }
 
@@ -86,4 +86,14 @@ class EmbeddingReindexServiceTests {
                 .isInstanceOf(IllegalArgumentException.class);
         verifyNoInteractions(jdbcTemplate);
     }
+
+    @Test
+    void reindexAll_skipsThePgVectorTableWhenTheMappedStoreIsConfigured() {
+        withRows(List.of());
+        EmbeddingReindexService mapped = new EmbeddingReindexService(jdbcTemplate, embeddingService, "mapped");
+
+        assertThat(mapped.reindexAll()).extracting(EmbeddingReindexService.Result::table)
+                .containsExactly("bot_document");
+        verify(jdbcTemplate, never()).queryForList(contains("rag_documents"), anyInt(), anyInt());
+    }
 }
@@ -33,6 +33,14 @@ class EmbeddingServiceTests {
         assertArrayEquals(vector, embeddingService.createEmbedding("hello"));
     }
 
+    @Test
+    void createQueryEmbedding_embedsTheQuestionAsASingleText() {
+        float[] vector = {0.1f, 0.2f, 0.3f};
+        when(embeddingModel.embed("hello")).thenReturn(vector);
+
+        assertArrayEquals(vector, embeddingService.createQueryEmbedding("hello"));
+    }
+
     @Test
     void createEmbedding_propagatesModelFailure() {
         // A dead or retired embedding model must surface, never be swallowed.
@@ -0,0 +1,81 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class FileCatalogTests {
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    private final UUID botId = UUID.randomUUID();
+    private FileCatalog catalog;
+
+    @BeforeEach
+    void setUp() {
+        catalog = new FileCatalog(jdbcTemplate);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void recordFailure_waitsUntilTheUploadTransactionHasRolledBack() {
+        TransactionSynchronizationManager.initSynchronization();
+
+        catalog.recordFailure(botId, "kb.txt", 12, "abc");
+
+        verifyNoInteractions(jdbcTemplate);
+        List<TransactionSynchronization> pending = TransactionSynchronizationManager.getSynchronizations();
+        pending.forEach(sync -> sync.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+        verify(jdbcTemplate).update(contains("ON CONFLICT (bot_id, filename) DO NOTHING"),
+                eq(botId.toString()), eq("kb.txt"), eq(12L), eq("abc"), eq("FAILED"));
+    }
+
+    @Test
+    void recordFailure_neverFailsTheCaller() {
+        when(jdbcTemplate.update(anyString(), any(Object[].class))).thenThrow(new RuntimeException("db down"));
+
+        catalog.recordFailure(botId, "kb.txt", 12, null);
+    }
+
+    @Test
+    void countReady_matchesBotIdsWithoutCastingTheColumn() {
+        when(jdbcTemplate.queryForObject(anyString(), eq(Long.class), any(), any())).thenReturn(4L);
+
+        assertThat(catalog.countReady(List.of(botId))).isEqualTo(4);
+
+        verify(jdbcTemplate).queryForObject(contains("bot_id = ANY(?::uuid[])"), eq(Long.class),
+                eq(new String[]{botId.toString()}), eq("READY"));
+    }
+
+    @Test
+    void sha256_hashesTheWholeStream() throws Exception {
+        assertThat(FileCatalog.sha256(new ByteArrayInputStream("abc".getBytes(StandardCharsets.UTF_8))))
+                .isEqualTo("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad");
+    }
+}
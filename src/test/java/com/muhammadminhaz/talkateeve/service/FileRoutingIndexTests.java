@@ -0,0 +1,106 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class FileRoutingIndexTests {
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    private FileRoutingIndex index;
+
+    @BeforeEach
+    void setUp() {
+        index = new FileRoutingIndex(jdbcTemplate, true, 2, 3);
+    }
+
+    private void withFileCount(int files) {
+        when(jdbcTemplate.queryForObject(contains("count(*) FROM bot_file"), eq(Integer.class), eq("bot-1")))
+                .thenReturn(files);
+    }
+
+    @Test
+    void route_skipsSmallBotsWithoutEmbeddingTheQuestion() {
+        withFileCount(2);
+        AtomicInteger embedCalls = new AtomicInteger();
+
+        assertThat(index.route("bot-1", () -> {
+            embedCalls.incrementAndGet();
+            return new float[]{1f};
+        })).isEmpty();
+        assertThat(embedCalls).hasValue(0);
+    }
+
+    @Test
+    void route_picksTheClosestFilesForLargeBots() {
+        withFileCount(3);
+        when(jdbcTemplate.queryForList(contains("ORDER BY centroid"), eq(String.class), eq("bot-1"), eq("[1.0,0.0]"), eq(3)))
+                .thenReturn(List.of("faq.txt", "pricing.txt"));
+
+        assertThat(index.route("bot-1", () -> new float[]{1f, 0f})).contains(List.of("faq.txt", "pricing.txt"));
+    }
+
+    @Test
+    void refresh_dropsTheFileWhenNoChunksRemainAndRecountsTheBot() {
+        withFileCount(3);
+        index.route("bot-1", () -> new float[]{1f});
+        when(jdbcTemplate.update(contains("INSERT INTO bot_file"), eq("bot-1"), eq("faq.txt"))).thenReturn(0);
+
+        index.refresh("bot-1", "faq.txt");
+        index.route("bot-1", () -> new float[]{1f});
+
+        verify(jdbcTemplate).update(contains("DELETE FROM bot_file"), eq("bot-1"), eq("faq.txt"));
+        verify(jdbcTemplate, times(2)).queryForObject(anyString(), eq(Integer.class), eq("bot-1"));
+    }
+
+    @Test
+    void forget_recountsAfterAnotherNodeChangedTheFiles() {
+        withFileCount(3);
+        index.route("bot-1", () -> new float[]{1f});
+
+        index.forget("bot-1");
+        index.route("bot-1", () -> new float[]{1f});
+
+        verify(jdbcTemplate, times(2)).queryForObject(anyString(), eq(Integer.class), eq("bot-1"));
+    }
+
+    @Test
+    void search_restrictsChunksToTheRoutedFiles() {
+        index.search("bot-1", new float[]{1f}, List.of("faq.txt"), 4);
+
+        verify(jdbcTemplate).queryForList(contains("filename = ANY(?)"),
+                eq("[1.0]"), eq("bot-1"), eq(new String[]{"faq.txt"}), eq("[1.0]"), eq(4));
+    }
+
+    @Test
+    void disabledRouting_neverTouchesTheDatabaseToRoute() {
+        FileRoutingIndex disabled = new FileRoutingIndex(jdbcTemplate, false, 2, 3);
+
+        assertThat(disabled.route("bot-1", () -> new float[]{1f})).isEmpty();
+        verifyNoInteractions(jdbcTemplate);
+    }
+
+    @Test
+    void disabledRouting_stillBackfillsTheFileCatalog() {
+        FileRoutingIndex disabled = new FileRoutingIndex(jdbcTemplate, false, 2, 3);
+        when(jdbcTemplate.update(contains("INSERT INTO bot_file"))).thenReturn(4);
+
+        assertThat(disabled.backfillMissing()).isEqualTo(4);
+    }
+}
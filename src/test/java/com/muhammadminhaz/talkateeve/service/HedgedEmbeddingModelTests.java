@@ -0,0 +1,71 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.Embedding;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.embedding.EmbeddingRequest;
+import org.springframework.ai.embedding.EmbeddingResponse;
+import org.springframework.ai.embedding.TokenCountBatchingStrategy;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class HedgedEmbeddingModelTests {
+
+    @Mock
+    private EmbeddingModel delegate;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final float[] vector = {0.1f, 0.2f};
+    private HedgedEmbeddingModel model;
+
+    @BeforeEach
+    void setUp() {
+        // Every call is slower than the 20ms hedge delay, and the budget allows a hedge per call.
+        when(delegate.embed(anyString())).thenAnswer(inv -> {
+            Thread.sleep(100);
+            return vector;
+        });
+        when(delegate.call(any(EmbeddingRequest.class))).thenAnswer(inv -> {
+            Thread.sleep(100);
+            return new EmbeddingResponse(List.of(new Embedding(vector, 0)));
+        });
+        model = new HedgedEmbeddingModel(delegate, new RequestHedger(true, 20, 1.0, 1, meterRegistry));
+    }
+
+    private double hedges() {
+        var counter = meterRegistry.find("model.hedge").tag("outcome", "issued").counter();
+        return counter == null ? 0 : counter.count();
+    }
+
+    @Test
+    void aQuestionIsHedged() {
+        assertThat(model.embed("what are your hours?")).isEqualTo(vector);
+
+        assertThat(hedges()).isEqualTo(1.0);
+        verify(delegate, timeout(1000).times(2)).embed("what are your hours?");
+    }
+
+    @Test
+    void aSingleChunkBeingIngestedIsNotHedged() {
+        assertThat(model.embedForResponse(List.of("Support hours are 9am to 5pm.")).getResults()).hasSize(1);
+        model.embed(List.of(new Document("Support hours are 9am to 5pm.")), null, new TokenCountBatchingStrategy());
+
+        assertThat(hedges()).isZero();
+        verify(delegate, after(100).times(2)).call(any(EmbeddingRequest.class));
+    }
+}
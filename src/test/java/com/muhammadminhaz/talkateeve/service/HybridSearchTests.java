@@ -0,0 +1,177 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.ai.document.Document;
+import org.springframework.jdbc.BadSqlGrammarException;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class HybridSearchTests {
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private HybridSearch hybrid(boolean fastPath) {
+        return new HybridSearch(jdbcTemplate, meterRegistry, true, fastPath, 3);
+    }
+
+    private static List<Document> ranking(String... ids) {
+        return Arrays.stream(ids).map(id -> new Document(id, "chunk " + id, Map.of())).toList();
+    }
+
+    private static Map<String, Object> row(String id, boolean exact) {
+        return Map.of("id", id, "filename", "kb.txt", "content", "chunk " + id, "score", 0.1, "exact", exact);
+    }
+
+    @Test
+    void distinctive_picksCodesNumbersAndAcronyms() {
+        assertThat(HybridSearch.distinctive("Does the XR200 support SSO on plan_pro, see E-4012 or v2.1?"))
+                .containsExactly("XR200", "SSO", "plan_pro", "E-4012", "v2.1");
+        assertThat(HybridSearch.distinctive("How do I reset my password?")).isEmpty();
+    }
+
+    @Test
+    void fuse_ranksDocumentsFoundByBothListsFirst() {
+        List<Document> fused = HybridSearch.fuse(List.of(ranking("a", "b", "c"), ranking("c", "d")), 3);
+
+        assertThat(fused).extracting(Document::getId).containsExactly("c", "a", "b");
+        assertThat(fused.getFirst().getScore()).isEqualTo(1.0 / 63 + 1.0 / 61);
+    }
+
+    /**
+     * A small fixture corpus where the embedding ranks a near-miss above the chunk that
+     * quotes the code the visitor asked about, and full text ranks it first. Fusion must
+     * keep the vector-only hits and recover the lexical ones.
+     */
+    @Test
+    void fuse_recoversExactMatchesTheVectorRankingMissesOnAFixtureCorpus() {
+        record Case(List<Document> vector, List<Document> lexical, String relevant) {
+        }
+        List<Case> corpus = List.of(
+                // "What does E-4012 mean?": the vector side prefers other error codes.
+                new Case(ranking("e4011", "e4013", "e5000", "toner", "e4012"), ranking("e4012"), "e4012"),
+                // "XR200 battery life": the vector side prefers the XR100 page.
+                new Case(ranking("xr100", "battery", "xr300", "xr200"), ranking("xr200", "xr100"), "xr200"),
+                // "How do refunds work?": paraphrase only; full text finds nothing.
+                new Case(ranking("refunds", "returns", "shipping"), ranking(), "refunds"),
+                // "cancel subscription": both agree.
+                new Case(ranking("cancel", "billing", "plans"), ranking("cancel", "plans"), "cancel"));
+
+        long vectorHits = corpus.stream()
+                .filter(c -> c.vector().subList(0, 3).stream().anyMatch(d -> d.getId().equals(c.relevant())))
+                .count();
+        long fusedHits = corpus.stream()
+                .filter(c -> HybridSearch.fuse(List.of(c.vector(), c.lexical()), 3).stream()
+                        .anyMatch(d -> d.getId().equals(c.relevant())))
+                .count();
+
+        assertThat(vectorHits).isEqualTo(2);
+        assertThat(fusedHits).isEqualTo(4);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void search_trustsAnExactHitForADistinctiveQuestionWithoutCallingVector() {
+        when(jdbcTemplate.queryForList(contains("ts_rank_cd"), eq("E-4012"), eq("What does E-4012 mean?"),
+                eq("bot-1"), eq(3))).thenReturn(List.of(row("e4012", true), row("e4011", false)));
+        IntFunction<List<Document>> vector = mock(IntFunction.class);
+
+        List<Document> results = hybrid(true).search("bot-1", "What does E-4012 mean?", 1, vector);
+
+        assertThat(results).extracting(Document::getId).containsExactly("e4012");
+        verifyNoInteractions(vector);
+        assertThat(meterRegistry.get("chat.retrieval.hybrid").tag("path", "lexical").counter().count())
+                .isEqualTo(1);
+    }
+
+    @Test
+    void search_fusesWhenTheQuestionHasNothingDistinctive() {
+        when(jdbcTemplate.queryForList(contains("ts_rank_cd"), eq(""), anyString(), eq("bot-1"), eq(9)))
+                .thenReturn(List.of(row("refunds", true)));
+
+        List<Document> results = hybrid(true).search("bot-1", "how do refunds work", 3,
+                candidates -> ranking("returns", "refunds"));
+
+        assertThat(results).extracting(Document::getId).containsExactly("refunds", "returns");
+        assertThat(meterRegistry.get("chat.retrieval.hybrid").tag("path", "fused").counter().count())
+                .isEqualTo(1);
+    }
+
+    @Test
+    void search_leavesOutLexicalHitsTheVectorSideDroppedUnlessTheyAreExact() {
+        when(jdbcTemplate.queryForList(contains("ts_rank_cd"), eq("SSO"), anyString(), eq("bot-1"), eq(9)))
+                .thenReturn(List.of(row("pricing", false), row("sso-setup", true)));
+
+        List<Document> results = hybrid(false).search("bot-1", "how do I set up SSO for the team", 3,
+                candidates -> ranking("login"));
+
+        assertThat(results).extracting(Document::getId).containsExactlyInAnyOrder("login", "sso-setup");
+    }
+
+    @Test
+    void search_withoutTheFastPathAlwaysAsksVectorForCandidates() {
+        when(jdbcTemplate.queryForList(contains("ts_rank_cd"), any(), any(), any(), any()))
+                .thenReturn(List.of(row("e4012", true)));
+        int[] asked = new int[1];
+
+        hybrid(false).search("bot-1", "E-4012", 2, candidates -> {
+            asked[0] = candidates;
+            return ranking("e4011");
+        });
+
+        assertThat(asked[0]).isEqualTo(6);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void search_fastPathReturnsOnlyTheExactHits() {
+        when(jdbcTemplate.queryForList(contains("ts_rank_cd"), eq("E-4012"), eq("What does E-4012 mean?"),
+                eq("bot-1"), eq(6))).thenReturn(List.of(row("e4012", true), row("e4011", false)));
+        IntFunction<List<Document>> vector = mock(IntFunction.class);
+
+        List<Document> results = hybrid(true).search("bot-1", "What does E-4012 mean?", 2, vector);
+
+        assertThat(results).extracting(Document::getId).containsExactly("e4012");
+        verifyNoInteractions(vector);
+    }
+
+    @Test
+    void search_fallsBackToVectorResultsWhenTheLexicalQueryFails() {
+        when(jdbcTemplate.queryForList(contains("ts_rank_cd"), eq("E-4012"), eq("What does E-4012 mean?"),
+                eq("bot-1"), eq(6)))
+                .thenThrow(new BadSqlGrammarException("lexical", "SELECT", new SQLException("column content_tsv does not exist")));
+
+        List<Document> results = hybrid(true).search("bot-1", "What does E-4012 mean?", 2,
+                candidates -> ranking("e4011", "e4013"));
+
+        assertThat(results).extracting(Document::getId).containsExactly("e4011", "e4013");
+        assertThat(meterRegistry.counter("chat.retrieval.hybrid.failures").count()).isEqualTo(1);
+    }
+
+    @Test
+    void search_skipsTheDatabaseForAQuestionWithoutWords() {
+        List<Document> results = hybrid(true).search("bot-1", "?!", 3, candidates -> ranking("a"));
+
+        assertThat(results).extracting(Document::getId).containsExactly("a");
+        verifyNoInteractions(jdbcTemplate);
+    }
+}
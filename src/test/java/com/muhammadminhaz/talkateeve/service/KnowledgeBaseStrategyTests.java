@@ -0,0 +1,104 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.ai.document.Document;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class KnowledgeBaseStrategyTests {
+
+    @Mock
+    private FileCatalog fileCatalog;
+    @Mock
+    private BotDocumentService botDocumentService;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final UUID botId = UUID.randomUUID();
+
+    private KnowledgeBaseStrategy strategy(boolean enabled) {
+        return new KnowledgeBaseStrategy(fileCatalog, botDocumentService, meterRegistry, enabled, 100, 10, Duration.ofMinutes(10));
+    }
+
+    private BotConfigCache.BotChatConfig config(long kbGeneration) {
+        return new BotConfigCache.BotChatConfig(botId, List.of(), "", null, null, null, kbGeneration, System.nanoTime());
+    }
+
+    @Test
+    void choose_followsTheSizeOfTheKnowledgeBase() {
+        KnowledgeBaseStrategy strategy = strategy(true);
+        when(fileCatalog.kbSize(botId)).thenReturn(
+                new FileCatalog.KbSize(0, 0),
+                new FileCatalog.KbSize(2, 400),
+                new FileCatalog.KbSize(3, 401));
+
+        assertThat(strategy.choose(config(1))).isEqualTo(KnowledgeBaseStrategy.Strategy.NONE);
+        assertThat(strategy.choose(config(2))).isEqualTo(KnowledgeBaseStrategy.Strategy.INLINE);
+        assertThat(strategy.choose(config(3))).isEqualTo(KnowledgeBaseStrategy.Strategy.VECTOR);
+    }
+
+    @Test
+    void choose_readsTheCatalogOncePerKbGenerationAndCountsEveryChoice() {
+        KnowledgeBaseStrategy strategy = strategy(true);
+        when(fileCatalog.kbSize(botId)).thenReturn(new FileCatalog.KbSize(2, 400));
+
+        strategy.choose(config(7));
+        strategy.choose(config(7));
+
+        verify(fileCatalog, times(1)).kbSize(botId);
+        assertThat(meterRegistry.get("chat.retrieval.strategy")
+                .tag("bot", botId.toString()).tag("strategy", "inline").counter().count()).isEqualTo(2);
+    }
+
+    @Test
+    void choose_rereadsTheCatalogOnceTheEntryExpires() {
+        // The catalog backfill sizes old files without bumping the generation.
+        KnowledgeBaseStrategy strategy = new KnowledgeBaseStrategy(
+                fileCatalog, botDocumentService, meterRegistry, true, 100, 10, Duration.ZERO);
+        when(fileCatalog.kbSize(botId)).thenReturn(new FileCatalog.KbSize(2, 0), new FileCatalog.KbSize(2, 400));
+
+        assertThat(strategy.choose(config(7))).isEqualTo(KnowledgeBaseStrategy.Strategy.VECTOR);
+        assertThat(strategy.choose(config(7))).isEqualTo(KnowledgeBaseStrategy.Strategy.INLINE);
+    }
+
+    @Test
+    void choose_searchesWhenTheCatalogHasChunksButNoSizeYet() {
+        when(fileCatalog.kbSize(botId)).thenReturn(new FileCatalog.KbSize(4, 0));
+
+        assertThat(strategy(true).choose(config(1))).isEqualTo(KnowledgeBaseStrategy.Strategy.VECTOR);
+    }
+
+    @Test
+    void disabled_alwaysSearchesWithoutReadingTheCatalog() {
+        assertThat(strategy(false).choose(config(1))).isEqualTo(KnowledgeBaseStrategy.Strategy.VECTOR);
+
+        verify(fileCatalog, never()).kbSize(any());
+    }
+
+    @Test
+    void inlineChunks_areReloadedOnlyAfterTheKbChanges() {
+        KnowledgeBaseStrategy strategy = strategy(true);
+        List<Document> before = List.of(new Document("c1", "old", Map.of()));
+        List<Document> after = List.of(new Document("c2", "new", Map.of()));
+        when(botDocumentService.allChunks(botId.toString())).thenReturn(before).thenReturn(after);
+
+        assertThat(strategy.inlineChunks(config(1))).isEqualTo(before);
+        assertThat(strategy.inlineChunks(config(1))).isEqualTo(before);
+        assertThat(strategy.inlineChunks(config(2))).isEqualTo(after);
+        verify(botDocumentService, times(2)).allChunks(botId.toString());
+    }
+}
@@ -0,0 +1,149 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.ai.document.Document;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class LocalVectorIndexTests {
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    private LocalVectorIndex index;
+    private final String botId = UUID.randomUUID().toString();
+
+    @BeforeEach
+    void setUp() {
+        index = new LocalVectorIndex(jdbcTemplate, true, 100, 64);
+    }
+
+    private void withChunks(List<Map<String, Object>> rows) {
+        when(jdbcTemplate.queryForObject(contains("COUNT(*)"), eq(Long.class), eq(botId)))
+                .thenReturn((long) rows.size());
+        when(jdbcTemplate.queryForList(contains("embedding::text"), eq(botId))).thenReturn(rows);
+    }
+
+    private Map<String, Object> chunk(String id, String content, String vector) {
+        return Map.of("id", id, "filename", "kb.txt", "content", content, "embedding", vector);
+    }
+
+    @Test
+    void dot_matchesTheScalarLoopIncludingTheTailLanes() {
+        // 771 is not a multiple of any lane count, so the remainder loop runs too.
+        Random random = new Random(42);
+        float[] query = new float[771];
+        float[] vectors = new float[3 * 771];
+        for (int i = 0; i < query.length; i++) {
+            query[i] = random.nextFloat() - 0.5f;
+        }
+        for (int i = 0; i < vectors.length; i++) {
+            vectors[i] = random.nextFloat() - 0.5f;
+        }
+
+        for (int offset = 0; offset < vectors.length; offset += 771) {
+            assertThat(LocalVectorIndex.dot(query, vectors, offset))
+                    .isCloseTo(LocalVectorIndex.scalarDot(query, vectors, offset), within(1e-3f));
+        }
+    }
+
+    @Test
+    void search_ranksByCosineRegardlessOfVectorLength() {
+        // MRL-truncated vectors are not unit length; a raw dot product would rank the
+        // long-but-wrong vector first.
+        withChunks(List.of(
+                chunk("a", "hours", "[10,0,0]"),
+                chunk("b", "pricing", "[0,0.5,0.1]")));
+
+        List<Document> results = index.search(botId, () -> new float[]{0f, 1f, 0f}, 1).orElseThrow();
+
+        assertThat(results).extracting(Document::getText).containsExactly("pricing");
+        assertThat(results.getFirst().getScore()).isGreaterThan(0.9);
+    }
+
+    @Test
+    void search_returnsAtMostTopKInScoreOrder() {
+        withChunks(List.of(
+                chunk("a", "far", "[0,1]"),
+                chunk("b", "near", "[1,0]"),
+                chunk("c", "middle", "[1,1]")));
+
+        List<Document> results = index.search(botId, () -> new float[]{1f, 0f}, 2).orElseThrow();
+
+        assertThat(results).extracting(Document::getText).containsExactly("near", "middle");
+    }
+
+    @Test
+    void search_loadsOnceAndServesLaterQueriesFromMemory() {
+        withChunks(List.of(chunk("a", "hours", "[1,0]")));
+
+        index.search(botId, () -> new float[]{1f, 0f}, 3);
+        index.search(botId, () -> new float[]{1f, 0f}, 3);
+
+        verify(jdbcTemplate, times(1)).queryForList(contains("embedding::text"), eq(botId));
+    }
+
+    @Test
+    void search_skipsTheEmbeddingCallForABotWithNoDocuments() {
+        withChunks(List.of());
+        AtomicInteger embedCalls = new AtomicInteger();
+
+        Optional<List<Document>> results = index.search(botId, () -> {
+            embedCalls.incrementAndGet();
+            return new float[]{1f};
+        }, 3);
+
+        assertThat(results).contains(List.of());
+        assertThat(embedCalls).hasValue(0);
+    }
+
+    @Test
+    void search_defersToPgvectorForBotsAboveTheChunkThreshold() {
+        when(jdbcTemplate.queryForObject(contains("COUNT(*)"), eq(Long.class), eq(botId))).thenReturn(101L);
+
+        assertThat(index.search(botId, () -> new float[]{1f}, 3)).isEmpty();
+        assertThat(index.search(botId, () -> new float[]{1f}, 3)).isEmpty();
+
+        verify(jdbcTemplate, times(1)).queryForObject(anyString(), eq(Long.class), eq(botId));
+        verify(jdbcTemplate, never()).queryForList(anyString(), eq(botId));
+    }
+
+    @Test
+    void invalidate_forcesAReloadSoNewUploadsAreSearchable() {
+        withChunks(List.of(chunk("a", "hours", "[1,0]")));
+        index.search(botId, () -> new float[]{1f, 0f}, 3);
+
+        withChunks(List.of(chunk("a", "hours", "[1,0]"), chunk("b", "pricing", "[0,1]")));
+        index.invalidate(botId);
+
+        List<Document> results = index.search(botId, () -> new float[]{0f, 1f}, 1).orElseThrow();
+        assertThat(results).extracting(Document::getText).containsExactly("pricing");
+    }
+
+    @Test
+    void disabledIndex_neverTouchesTheDatabase() {
+        LocalVectorIndex disabled = new LocalVectorIndex(jdbcTemplate, false, 100, 64);
+
+        assertThat(disabled.search(botId, () -> new float[]{1f}, 3)).isEmpty();
+        verifyNoInteractions(jdbcTemplate);
+    }
+}
@@ -0,0 +1,304 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.embedding.EmbeddingModel;
+import org.springframework.ai.vectorstore.SearchRequest;
+import org.springframework.ai.vectorstore.filter.FilterExpressionBuilder;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class MappedVectorStoreTests {
+
+    @TempDir
+    Path dir;
+
+    private final EmbeddingModel embeddingModel = mock(EmbeddingModel.class);
+    private final String botId = UUID.randomUUID().toString();
+    private MappedVectorStore store;
+
+    /** A two-dimensional "embedding": texts mentioning hours point one way, the rest the other. */
+    private static float[] embed(String text) {
+        return text.contains("hours") ? new float[]{1f, 0.1f} : new float[]{0.1f, 1f};
+    }
+
+    @BeforeEach
+    void setUp() {
+        when(embeddingModel.embed(anyString())).thenAnswer(inv -> embed(inv.getArgument(0)));
+        when(embeddingModel.embed(anyList())).thenAnswer(inv ->
+                inv.<List<String>>getArgument(0).stream().map(MappedVectorStoreTests::embed).toList());
+        store = open();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        store.destroy();
+    }
+
+    private MappedVectorStore open() {
+        return new MappedVectorStore(embeddingModel, new ObjectMapper(), dir, 100);
+    }
+
+    private Document chunk(String id, String text) {
+        return new Document(id, text, Map.of("bot_id", botId, "filename", "kb.txt"));
+    }
+
+    private List<String> search(MappedVectorStore s, String query, int topK) {
+        return s.similaritySearch(SearchRequest.builder()
+                        .query(query)
+                        .topK(topK)
+                        .filterExpression("bot_id == '" + botId + "'")
+                        .build())
+                .stream().map(Document::getId).toList();
+    }
+
+    @Test
+    void search_returnsNearestChunkForTheBot() {
+        store.add(List.of(chunk("a", "our opening hours"), chunk("b", "pricing plans")));
+
+        assertThat(search(store, "what are your hours", 1)).containsExactly("a");
+    }
+
+    @Test
+    void search_neverReturnsAnotherBotsChunks() {
+        String otherBot = UUID.randomUUID().toString();
+        store.add(List.of(new Document("x", "other hours", Map.of("bot_id", otherBot))));
+        store.add(List.of(chunk("a", "pricing plans")));
+
+        assertThat(search(store, "hours", 5)).containsExactly("a");
+    }
+
+    @Test
+    void data_survivesARestartWithoutRebuilding() throws Exception {
+        store.add(List.of(chunk("a", "our opening hours"), chunk("b", "pricing plans")));
+        store.destroy();
+
+        MappedVectorStore reopened = open();
+        try {
+            assertThat(search(reopened, "hours", 2)).containsExactly("a", "b");
+        } finally {
+            reopened.destroy();
+        }
+    }
+
+    @Test
+    void deletes_areTombstonedAndStayDeletedAfterRestart() throws Exception {
+        store.add(List.of(chunk("a", "our opening hours"), chunk("b", "pricing plans"), chunk("c", "more hours")));
+        store.delete(List.of("a"));
+
+        assertThat(search(store, "hours", 3)).doesNotContain("a");
+        store.destroy();
+
+        MappedVectorStore reopened = open();
+        try {
+            assertThat(search(reopened, "hours", 3)).containsExactlyInAnyOrder("b", "c");
+        } finally {
+            reopened.destroy();
+        }
+    }
+
+    @Test
+    void open_discardsASegmentWhoseWriteNeverCompleted() throws Exception {
+        // Simulates a crash between writing the temp file and the atomic rename.
+        store.add(List.of(chunk("a", "our opening hours")));
+        store.destroy();
+        Files.write(dir.resolve(botId).resolve("seg-0000000000000002-0000000000000002.tmp"), new byte[]{1, 2, 3});
+
+        MappedVectorStore reopened = open();
+        try {
+            assertThat(search(reopened, "hours", 5)).containsExactly("a");
+            assertThat(files()).noneMatch(name -> name.endsWith(".tmp"));
+        } finally {
+            reopened.destroy();
+        }
+    }
+
+    @Test
+    void open_toleratesATornTombstoneAppend() throws Exception {
+        store.add(List.of(chunk("a", "our opening hours"), chunk("b", "pricing plans")));
+        store.destroy();
+        Files.writeString(dir.resolve(botId).resolve("tombstones"), "a\nhalf-writ");
+
+        MappedVectorStore reopened = open();
+        try {
+            reopened.delete(List.of("b"));
+            assertThat(search(reopened, "hours", 5)).isEmpty();
+        } finally {
+            reopened.destroy();
+        }
+    }
+
+    @Test
+    void compaction_keepsLiveRecordsAndDropsTombstones() {
+        store.add(List.of(chunk("a", "our opening hours")));
+        store.add(List.of(chunk("b", "pricing plans")));
+        store.add(List.of(chunk("c", "more hours")));
+        store.delete(List.of("c"));
+
+        store.compact(botId);
+
+        assertThat(files()).containsExactly("seg-0000000000000001-0000000000000003.seg");
+        assertThat(search(store, "hours", 5)).containsExactly("a", "b");
+    }
+
+    @Test
+    void compaction_ofASingleSegmentKeepsItsLiveRecordsAcrossARestart() throws Exception {
+        // The merge reuses the segment's own name, so deleting the inputs must skip it.
+        store.add(List.of(chunk("a", "our opening hours"), chunk("b", "pricing plans"),
+                chunk("c", "more hours"), chunk("d", "refund policy")));
+        store.delete(List.of("c", "d"));
+
+        store.compact(botId);
+        store.destroy();
+
+        MappedVectorStore reopened = open();
+        try {
+            assertThat(search(reopened, "hours", 5)).containsExactly("a", "b");
+            assertThat(files()).containsExactly("seg-0000000000000001-0000000000000001.seg");
+        } finally {
+            reopened.destroy();
+        }
+    }
+
+    @Test
+    void readding_aDeletedIdSurvivesARestart() throws Exception {
+        store.add(List.of(chunk("a", "our opening hours"), chunk("b", "pricing plans")));
+        store.delete(List.of("a"));
+        store.add(List.of(chunk("a", "new opening hours")));
+        store.destroy();
+
+        MappedVectorStore reopened = open();
+        try {
+            assertThat(search(reopened, "hours", 1)).containsExactly("a");
+            reopened.compact(botId);
+            assertThat(search(reopened, "hours", 5)).containsExactly("a", "b");
+        } finally {
+            reopened.destroy();
+        }
+    }
+
+    @Test
+    void open_removesSegmentsAlreadyCoveredByACompletedMerge() throws Exception {
+        // Simulates a crash after the merged segment was renamed into place but before
+        // its inputs were deleted: reopening must not return every chunk twice.
+        store.add(List.of(chunk("a", "our opening hours")));
+        store.add(List.of(chunk("b", "pricing plans")));
+        Path shard = dir.resolve(botId);
+        Path first = shard.resolve("seg-0000000000000001-0000000000000001.seg");
+        Path second = shard.resolve("seg-0000000000000002-0000000000000002.seg");
+        byte[] firstBytes = Files.readAllBytes(first);
+        byte[] secondBytes = Files.readAllBytes(second);
+        store.compact(botId);
+        store.destroy();
+        Files.write(first, firstBytes);
+        Files.write(second, secondBytes);
+
+        MappedVectorStore reopened = open();
+        try {
+            assertThat(search(reopened, "hours", 5)).containsExactly("a", "b");
+            assertThat(files()).containsExactly("seg-0000000000000001-0000000000000002.seg");
+        } finally {
+            reopened.destroy();
+        }
+    }
+
+    @Test
+    void deleteByFilter_removesOnlyMatchingChunks() {
+        store.add(List.of(chunk("a", "our opening hours"),
+                new Document("b", "more hours", Map.of("bot_id", botId, "filename", "other.txt"))));
+
+        FilterExpressionBuilder b = new FilterExpressionBuilder();
+        store.delete(b.and(b.eq("bot_id", botId), b.eq("filename", "other.txt")).build());
+
+        assertThat(search(store, "hours", 5)).containsExactly("a");
+    }
+
+    @Test
+    void search_servesAReaddedIdOnceFromItsNewestSegment() {
+        store.add(List.of(chunk("a", "our opening hours")));
+        store.add(List.of(chunk("b", "hours too")));
+        store.add(List.of(chunk("a", "pricing plans")));
+
+        List<Document> found = store.similaritySearch(SearchRequest.builder()
+                .query("hours").topK(3).filterExpression("bot_id == '" + botId + "'").build());
+
+        assertThat(found).extracting(Document::getId).containsExactly("b", "a");
+        assertThat(found.get(1).getText()).isEqualTo("pricing plans");
+    }
+
+    @Test
+    void deleteForABot_leavesOtherBotsAlone() {
+        String otherBot = UUID.randomUUID().toString();
+        store.add(List.of(chunk("a", "our opening hours"), new Document("a2", "other hours", Map.of("bot_id", otherBot))));
+
+        store.delete(botId, List.of("a", "a2"));
+
+        assertThat(search(store, "hours", 5)).isEmpty();
+        assertThat(store.similaritySearch(SearchRequest.builder().query("hours").topK(5)
+                .filterExpression("bot_id == '" + otherBot + "'").build()))
+                .extracting(Document::getId).containsExactly("a2");
+    }
+
+    @Test
+    void add_reachesDiskOnlyOnceTheTransactionCommits() {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            store.add(List.of(chunk("a", "our opening hours")));
+            assertThat(search(store, "hours", 1)).isEmpty();
+
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+
+        assertThat(search(store, "hours", 1)).containsExactly("a");
+    }
+
+    @Test
+    void rolledBackAddsAndDeletesLeaveTheStoreAsItWas() throws Exception {
+        store.add(List.of(chunk("a", "our opening hours")));
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            store.add(List.of(chunk("b", "more hours")));
+            store.delete(List.of("a"));
+        } finally {
+            // Rolled back: the synchronizations are dropped without afterCommit.
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        store.destroy();
+        store = open();
+
+        assertThat(search(store, "hours", 5)).containsExactly("a");
+    }
+
+    @Test
+    void search_forABotWithNoVectorsCreatesNothingOnDisk() {
+        assertThat(search(store, "hours", 3)).isEmpty();
+        assertThat(Files.exists(dir.resolve(botId))).isFalse();
+    }
+
+    private List<String> files() {
+        try (Stream<Path> files = Files.list(dir.resolve(botId))) {
+            return files.map(p -> p.getFileName().toString()).sorted().toList();
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class NearDuplicateDetectorTests {
+
+    private static final String POLICY = """
+            Refunds are available within thirty days of delivery for items returned unused and in
+            their original packaging. Once the warehouse receives the return, the refund is issued
+            to the original payment method within five business days.""";
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final UUID botId = UUID.randomUUID();
+
+    private NearDuplicateDetector detector(boolean enabled) {
+        return new NearDuplicateDetector(jdbcTemplate, meterRegistry, enabled, 3);
+    }
+
+    @Test
+    void simhash_ignoresCasePunctuationAndSpacing() {
+        assertThat(NearDuplicateDetector.simhash(POLICY))
+                .isEqualTo(NearDuplicateDetector.simhash(POLICY.toUpperCase().replace(",", " ;  ")));
+    }
+
+    @Test
+    void simhash_keepsAOneWordEditCloseAndUnrelatedTextFar() {
+        long original = NearDuplicateDetector.simhash(POLICY);
+        long edited = NearDuplicateDetector.simhash(POLICY.replace("five", "seven"));
+        long unrelated = NearDuplicateDetector.simhash(
+                "Our support team answers chat and email from nine to five, Monday to Friday, except public holidays.");
+
+        assertThat(Long.bitCount(original ^ edited)).isLessThan(Long.bitCount(original ^ unrelated));
+        assertThat(Long.bitCount(original ^ unrelated)).isGreaterThan(3);
+    }
+
+    @Test
+    void admit_skipsChunksTheFileAlreadyHasAndCountsThem() {
+        when(jdbcTemplate.queryForList(contains("SELECT filename, simhash"), eq(botId.toString())))
+                .thenReturn(List.of(Map.of("filename", "refunds.txt", "simhash", NearDuplicateDetector.simhash(POLICY))));
+        NearDuplicateDetector.Index index = detector(true).forBot(botId);
+
+        assertThat(index.admit("refunds.txt", POLICY.replace("\n", " "))).isNull();
+        assertThat(index.admit("refunds.txt", "Shipping to Canada takes seven to ten business days by standard post.")).isNotNull();
+        assertThat(index.skipped()).isEqualTo(1);
+        assertThat(meterRegistry.get("ingest.chunks.skipped").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void admit_keepsAChunkThatOnlyAnotherFileHas() {
+        when(jdbcTemplate.queryForList(contains("SELECT filename, simhash"), eq(botId.toString())))
+                .thenReturn(List.of(Map.of("filename", "refunds.txt", "simhash", NearDuplicateDetector.simhash(POLICY))));
+        NearDuplicateDetector.Index index = detector(true).forBot(botId);
+
+        // Deleting refunds.txt would otherwise take the policy out of the handbook too.
+        assertThat(index.admit("handbook.txt", POLICY)).isNotNull();
+        assertThat(index.skipped()).isZero();
+    }
+
+    @Test
+    void admit_catchesRepeatsWithinTheSameUpload() {
+        NearDuplicateDetector.Index index = detector(true).forBot(botId);
+
+        assertThat(index.admit("refunds.txt", POLICY)).isNotNull();
+        assertThat(index.admit("refunds.txt", POLICY)).isNull();
+    }
+
+    @Test
+    void admit_onlySkipsShortChunksWhenTheyAreIdentical() {
+        NearDuplicateDetector.Index index = detector(true).forBot(botId);
+
+        assertThat(index.admit("contact.txt", "Call us on 0800 123 456.")).isNotNull();
+        assertThat(index.admit("contact.txt", "Call us on 0800 123 457.")).isNotNull();
+        assertThat(index.admit("contact.txt", "call us on 0800 123 456")).isNull();
+    }
+
+    @Test
+    void disabled_admitsEverythingWithoutReadingTheBotsChunks() {
+        NearDuplicateDetector.Index index = detector(false).forBot(botId);
+
+        assertThat(index.admit("refunds.txt", POLICY)).isNotNull();
+        assertThat(index.admit("refunds.txt", POLICY)).isNotNull();
+        verifyNoInteractions(jdbcTemplate);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void forBot_fingerprintsOlderChunksFirst() {
+        String id = UUID.randomUUID().toString();
+        when(jdbcTemplate.queryForList(contains("simhash IS NULL"), eq(botId.toString())))
+                .thenReturn(List.of(Map.of("id", id, "content", POLICY)));
+
+        detector(true).forBot(botId);
+
+        ArgumentCaptor<List<Object[]>> updates = ArgumentCaptor.forClass(List.class);
+        verify(jdbcTemplate).batchUpdate(contains("SET simhash"), updates.capture());
+        assertThat(updates.getValue()).containsExactly(new Object[]{NearDuplicateDetector.simhash(POLICY), id});
+    }
+}
@@ -0,0 +1,90 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.font.Standard14Fonts;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockMultipartFile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PdfTextExtractorTests {
+
+    private final PdfTextExtractor extractor = new PdfTextExtractor();
+
+    /** One page per body line, each under the same header and a numbered footer. */
+    static byte[] pdf(List<String> bodies) throws IOException {
+        try (PDDocument document = new PDDocument(); ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+            PDType1Font font = new PDType1Font(Standard14Fonts.FontName.HELVETICA);
+            for (int i = 0; i < bodies.size(); i++) {
+                PDPage page = new PDPage();
+                document.addPage(page);
+                try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                    content.beginText();
+                    content.setFont(font, 11);
+                    content.newLineAtOffset(72, 720);
+                    content.showText("ACME Corp Employee Handbook");
+                    content.newLineAtOffset(0, -300);
+                    content.showText(bodies.get(i));
+                    content.newLineAtOffset(0, -300);
+                    content.showText("Page " + (i + 1) + " of " + bodies.size());
+                    content.endText();
+                }
+            }
+            document.save(out);
+            return out.toByteArray();
+        }
+    }
+
+    private static MockMultipartFile upload(byte[] content) {
+        return new MockMultipartFile("files", "handbook.pdf", "application/pdf", content);
+    }
+
+    private static final List<String> BODIES = List.of(
+            "Holiday requests go to your manager two weeks ahead.",
+            "Expenses are reimbursed with the next payroll run.",
+            "Remote work is agreed team by team.",
+            "Laptops are replaced every three years.");
+
+    @Test
+    void extract_handsOverEachPageWithItsNumberAndWithoutRepeatedHeaders() throws IOException {
+        Map<Integer, List<String>> pages = new LinkedHashMap<>();
+
+        PdfTextExtractor.Extracted extracted = extractor.extract(upload(pdf(BODIES)), 1_000_000, 3,
+                (page, lines) -> pages.put(page, lines.stream().map(String::trim).filter(l -> !l.isEmpty()).toList()));
+
+        assertThat(extracted.pages()).isEqualTo(4);
+        assertThat(pages.keySet()).containsExactly(1, 2, 3, 4);
+        assertThat(pages.get(1)).containsExactly("ACME Corp Employee Handbook", BODIES.get(0), "Page 1 of 4");
+        assertThat(pages.get(4)).containsExactly(BODIES.get(3));
+        assertThat(extracted.boilerplateLinesStripped()).isEqualTo(4);
+    }
+
+    @Test
+    void extract_stopsReadingPagesOnceTheTextCapIsReached() throws IOException {
+        List<Integer> pages = new ArrayList<>();
+
+        PdfTextExtractor.Extracted extracted = extractor.extract(upload(pdf(BODIES)), 100, 3,
+                (page, lines) -> pages.add(page));
+
+        assertThat(pages).containsExactly(1, 2);
+        assertThat(extracted.pages()).isEqualTo(2);
+    }
+
+    @Test
+    void isPdf_acceptsTheContentTypeOrTheExtension() {
+        assertThat(PdfTextExtractor.isPdf(upload(new byte[0]))).isTrue();
+        assertThat(PdfTextExtractor.isPdf(new MockMultipartFile("files", "a.PDF", null, new byte[0]))).isTrue();
+        assertThat(PdfTextExtractor.isPdf(new MockMultipartFile("files", "a.docx", "application/msword", new byte[0])))
+                .isFalse();
+    }
+}
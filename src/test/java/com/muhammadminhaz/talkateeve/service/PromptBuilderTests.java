@@ -0,0 +1,99 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import com.muhammadminhaz.talkateeve.dto.ChatMessageDTO;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PromptBuilderTests {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final PromptBuilder builder = new PromptBuilder(4000, meterRegistry);
+
+    private static BotConfigCache.BotChatConfig config(Integer budget) {
+        return new BotConfigCache.BotChatConfig(UUID.randomUUID(), List.of("Be brief."), "Be brief.",
+                null, budget, null, 0, System.nanoTime());
+    }
+
+    private static Document chunk(String file, String text) {
+        return new Document(text, Map.of("filename", file));
+    }
+
+    private static ChatMessageDTO turn(String role, String content) {
+        ChatMessageDTO message = new ChatMessageDTO();
+        message.setRole(role);
+        message.setContent(content);
+        return message;
+    }
+
+    @Test
+    void overlappingChunksFromTheSameFile_areSentOnce() {
+        String shared = "Refunds are issued within 14 days of the return arriving.";
+        List<Document> docs = List.of(
+                chunk("faq.txt", "Returns are free for 30 days. " + shared),
+                chunk("faq.txt", shared + " Store credit is instant."));
+
+        PromptBuilder.BuiltPrompt prompt = builder.build(config(null), "refund?", docs, List.of());
+
+        assertThat(prompt.text()).containsOnlyOnce(shared);
+        assertThat(prompt.text()).contains("Returns are free for 30 days.", "Store credit is instant.");
+        assertThat(prompt.tokensSaved()).isPositive();
+    }
+
+    @Test
+    void mergeChunks_keepsRankAndLeavesOtherFilesAlone() {
+        String shared = "Our office is open from nine until five.";
+        List<String> merged = builder.mergeChunks(List.of(
+                chunk("a.txt", "Visit us downtown. " + shared),
+                chunk("b.txt", shared + " Parking is free."),
+                chunk("a.txt", shared + " Closed on holidays."),
+                chunk("a.txt", "Visit us downtown.")));
+
+        assertThat(merged).containsExactly(
+                "Visit us downtown. " + shared + " Closed on holidays.",
+                shared + " Parking is free.");
+    }
+
+    @Test
+    void historyIsTrimmedFromTheOldestTurn() {
+        List<ChatMessageDTO> history = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            history.add(turn(i % 2 == 0 ? "user" : "assistant", "message number " + i + " " + "x".repeat(80)));
+        }
+
+        PromptBuilder.BuiltPrompt prompt = builder.build(config(800), "and now?",
+                List.of(chunk("kb.txt", "Some context.")), PromptBuilder.formatTurns(history));
+
+        assertThat(prompt.tokens()).isLessThanOrEqualTo(800);
+        assertThat(prompt.text()).contains("message number 39", "Some context.");
+        assertThat(prompt.text()).doesNotContain("message number 0 ");
+    }
+
+    @Test
+    void lowestRankedChunksAreDroppedFirstWhenOverBudget() {
+        List<Document> docs = List.of(
+                chunk("a.txt", "best " + "a".repeat(800)),
+                chunk("b.txt", "second " + "b".repeat(800)),
+                chunk("c.txt", "third " + "c".repeat(800)));
+
+        PromptBuilder.BuiltPrompt prompt = builder.build(config(800), "question", docs, List.of());
+
+        assertThat(prompt.tokens()).isLessThanOrEqualTo(800);
+        assertThat(prompt.text()).contains("best ").doesNotContain("third ");
+    }
+
+    @Test
+    void tokensSentAndSavedAreRecordedPerPrompt() {
+        builder.build(config(null), "question", List.of(chunk("a.txt", "context")), List.of());
+
+        assertThat(meterRegistry.get("chat.prompt.tokens").summary().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("chat.prompt.tokens.saved").summary().count()).isEqualTo(1);
+    }
+}
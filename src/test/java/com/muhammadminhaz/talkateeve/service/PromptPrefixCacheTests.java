@@ -0,0 +1,256 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import com.google.genai.errors.ClientException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.ai.google.genai.GoogleGenAiChatModel;
+import org.springframework.ai.google.genai.GoogleGenAiChatOptions;
+import org.springframework.ai.google.genai.cache.CachedContentRequest;
+import org.springframework.ai.google.genai.cache.GoogleGenAiCachedContent;
+import org.springframework.ai.google.genai.cache.GoogleGenAiCachedContentService;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class PromptPrefixCacheTests {
+
+    @Mock
+    private GoogleGenAiChatModel chatModel;
+    @Mock
+    private GoogleGenAiCachedContentService cachedContentService;
+    @Mock
+    private RedisTemplate<String, String> redisTemplate;
+    @Mock
+    private ValueOperations<String, String> valueOperations;
+
+    /** Stands in for Redis, shared by every cache built in a test as it is by every node. */
+    private final Map<String, String> redis = new ConcurrentHashMap<>();
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final UUID botId = UUID.randomUUID();
+    private final String prefix = "You are a helpful assistant. " + "Rules. ".repeat(50);
+    private final AtomicInteger created = new AtomicInteger();
+
+    @BeforeEach
+    void setUp() {
+        when(chatModel.getCachedContentService()).thenReturn(cachedContentService);
+        when(chatModel.getDefaultOptions()).thenReturn(GoogleGenAiChatOptions.builder().model("gemini-2.5-flash").build());
+        when(cachedContentService.create(any(CachedContentRequest.class))).thenAnswer(inv -> GoogleGenAiCachedContent.builder()
+                .name("cachedContents/" + created.incrementAndGet())
+                .model("gemini-2.5-flash")
+                .expireTime(Instant.now().plus(Duration.ofHours(1)))
+                .build());
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.get(anyString())).thenAnswer(inv -> redis.get(inv.<String>getArgument(0)));
+        when(valueOperations.setIfAbsent(anyString(), anyString(), any(Duration.class)))
+                .thenAnswer(inv -> redis.putIfAbsent(inv.getArgument(0), inv.getArgument(1)) == null);
+        doAnswer(inv -> redis.put(inv.getArgument(0), inv.getArgument(1)))
+                .when(valueOperations).set(anyString(), anyString(), any(Duration.class));
+        when(redisTemplate.delete(anyString())).thenAnswer(inv -> redis.remove(inv.<String>getArgument(0)) != null);
+        when(redisTemplate.getExpire(anyString())).thenAnswer(inv -> redis.containsKey(inv.<String>getArgument(0)) ? 3600L : -2L);
+    }
+
+    private PromptPrefixCache cache(boolean enabled, int minTokens) {
+        return cache(enabled, minTokens, Duration.ofSeconds(30));
+    }
+
+    private PromptPrefixCache cache(boolean enabled, int minTokens, Duration retryBackoff) {
+        return new PromptPrefixCache(chatModel, redisTemplate, meterRegistry, enabled, minTokens,
+                Duration.ofHours(1), retryBackoff);
+    }
+
+    /** Creation happens in the background; poll until the next question would see it. */
+    private Optional<String> awaitHandle(PromptPrefixCache cache, String prefix) throws InterruptedException {
+        return awaitHandle(cache, botId, prefix);
+    }
+
+    private Optional<String> awaitHandle(PromptPrefixCache cache, UUID botId, String prefix) throws InterruptedException {
+        for (int i = 0; i < 100; i++) {
+            Optional<String> handle = cache.handleFor(botId, prefix);
+            if (handle.isPresent()) {
+                return handle;
+            }
+            Thread.sleep(20);
+        }
+        return Optional.empty();
+    }
+
+    @Test
+    void firstQuestionGoesOutUncachedAndLaterOnesUseTheHandle() throws Exception {
+        PromptPrefixCache cache = cache(true, 10);
+
+        assertThat(cache.handleFor(botId, prefix)).isEmpty();
+        assertThat(awaitHandle(cache, prefix)).contains("cachedContents/1");
+        assertThat(cache.handleFor(botId, prefix)).contains("cachedContents/1");
+
+        verify(cachedContentService, times(1)).create(any(CachedContentRequest.class));
+    }
+
+    @Test
+    void aChangedPrefixNeverUsesTheOldHandle() throws Exception {
+        PromptPrefixCache cache = cache(true, 10);
+        awaitHandle(cache, prefix);
+
+        String updated = prefix + "Answer in French.";
+        assertThat(cache.handleFor(botId, updated)).isEmpty();
+        assertThat(awaitHandle(cache, updated)).contains("cachedContents/2");
+    }
+
+    @Test
+    void prefixesBelowTheProviderMinimumAreNeverCached() throws Exception {
+        PromptPrefixCache cache = cache(true, 100_000);
+
+        assertThat(cache.handleFor(botId, prefix)).isEmpty();
+        Thread.sleep(100);
+
+        verifyNoInteractions(cachedContentService);
+    }
+
+    @Test
+    void refreshBuildsTheNewHandleBeforeTheNextQuestion() throws Exception {
+        PromptPrefixCache cache = cache(true, 10);
+        awaitHandle(cache, prefix);
+        String updated = prefix + "Answer in French.";
+
+        cache.refresh(botId, () -> updated);
+
+        verify(cachedContentService, timeout(1000).times(2)).create(any(CachedContentRequest.class));
+        assertThat(awaitHandle(cache, updated)).contains("cachedContents/2");
+        verify(cachedContentService, never()).delete(anyString());
+    }
+
+    @Test
+    void evictDeletesTheHandleAtTheProvider() throws Exception {
+        PromptPrefixCache cache = cache(true, 10);
+        awaitHandle(cache, prefix);
+
+        cache.evict(botId);
+
+        verify(cachedContentService, timeout(1000)).delete("cachedContents/1");
+    }
+
+    @Test
+    void anotherNodeAdoptsTheSharedHandleInsteadOfCreatingItsOwn() throws Exception {
+        PromptPrefixCache first = cache(true, 10);
+        PromptPrefixCache second = cache(true, 10);
+        awaitHandle(first, prefix);
+
+        assertThat(second.handleFor(botId, prefix)).isEmpty();
+        assertThat(awaitHandle(second, prefix)).contains("cachedContents/1");
+
+        verify(cachedContentService, times(1)).create(any(CachedContentRequest.class));
+        assertThat(meterRegistry.counter("chat.prompt.cache", "outcome", "adopted").count()).isEqualTo(1.0);
+    }
+
+    @Test
+    void evictRemovesTheSharedHandle() throws Exception {
+        PromptPrefixCache cache = cache(true, 10);
+        awaitHandle(cache, prefix);
+        assertThat(redis).hasSize(1);
+
+        cache.evict(botId);
+
+        verify(cachedContentService, timeout(1000)).delete("cachedContents/1");
+        assertThat(redis).isEmpty();
+    }
+
+    @Test
+    void botsWithTheSameInstructionsKeepTheirOwnHandles() throws Exception {
+        PromptPrefixCache cache = cache(true, 10);
+        UUID otherBot = UUID.randomUUID();
+        awaitHandle(cache, prefix);
+        assertThat(awaitHandle(cache, otherBot, prefix)).contains("cachedContents/2");
+
+        cache.evict(botId);
+
+        verify(cachedContentService, timeout(1000)).delete("cachedContents/1");
+        verify(cachedContentService, after(100).never()).delete("cachedContents/2");
+        assertThat(cache.handleFor(otherBot, prefix)).contains("cachedContents/2");
+        assertThat(redis).containsValue("cachedContents/2").hasSize(1);
+    }
+
+    @Test
+    void aForgottenHandleIsReplacedInsteadOfAdoptedAgain() throws Exception {
+        PromptPrefixCache cache = cache(true, 10);
+        awaitHandle(cache, prefix);
+
+        cache.forget(botId, "cachedContents/1");
+
+        assertThat(redis).isEmpty();
+        assertThat(cache.handleFor(botId, prefix)).isEmpty();
+        assertThat(awaitHandle(cache, prefix)).contains("cachedContents/2");
+        assertThat(meterRegistry.counter("chat.prompt.cache", "outcome", "missing").count()).isEqualTo(1.0);
+    }
+
+    @Test
+    void forgettingAnOlderNameKeepsTheCurrentHandle() throws Exception {
+        PromptPrefixCache cache = cache(true, 10);
+        awaitHandle(cache, prefix);
+
+        cache.forget(botId, "cachedContents/0");
+
+        assertThat(cache.handleFor(botId, prefix)).contains("cachedContents/1");
+    }
+
+    @Test
+    void onlyAMissingCachedContentCountsAsAMissingHandle() {
+        assertThat(PromptPrefixCache.isMissingHandle(new RuntimeException(
+                new ClientException(403, "PERMISSION_DENIED", "CachedContent not found (or permission denied)")))).isTrue();
+        assertThat(PromptPrefixCache.isMissingHandle(
+                new ClientException(404, "NOT_FOUND", "Cached content cachedContents/1 not found"))).isTrue();
+        assertThat(PromptPrefixCache.isMissingHandle(
+                new ClientException(403, "PERMISSION_DENIED", "API key not valid"))).isFalse();
+        assertThat(PromptPrefixCache.isMissingHandle(
+                new ClientException(429, "RESOURCE_EXHAUSTED", "Quota exceeded"))).isFalse();
+        assertThat(PromptPrefixCache.isMissingHandle(new IllegalStateException("cached content"))).isFalse();
+    }
+
+    @Test
+    void aFailedCreateIsNotRetriedUntilTheBackoffExpires() throws Exception {
+        when(cachedContentService.create(any(CachedContentRequest.class))).thenThrow(new IllegalStateException("quota"));
+        PromptPrefixCache cache = cache(true, 10, Duration.ofMillis(300));
+
+        cache.handleFor(botId, prefix);
+        verify(cachedContentService, timeout(1000).times(1)).create(any(CachedContentRequest.class));
+        Thread.sleep(50);
+        for (int i = 0; i < 5; i++) {
+            cache.handleFor(botId, prefix);
+        }
+        verify(cachedContentService, after(100).times(1)).create(any(CachedContentRequest.class));
+
+        Thread.sleep(300);
+        cache.handleFor(botId, prefix);
+        verify(cachedContentService, timeout(1000).times(2)).create(any(CachedContentRequest.class));
+        assertThat(redis).as("the creation lock is released after a failure").isEmpty();
+    }
+
+    @Test
+    void disabledCacheNeverTouchesTheProvider() {
+        PromptPrefixCache cache = cache(false, 0);
+
+        assertThat(cache.handleFor(botId, prefix)).isEmpty();
+        cache.refresh(botId, () -> prefix);
+
+        verifyNoInteractions(cachedContentService);
+    }
+}
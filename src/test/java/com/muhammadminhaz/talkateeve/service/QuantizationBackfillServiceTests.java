@@ -0,0 +1,68 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.ai.document.Document;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class QuantizationBackfillServiceTests {
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+    @Mock
+    private QuantizedVectorSearch quantizedVectorSearch;
+
+    private Document doc(String id) {
+        return new Document(id, "text", Map.of());
+    }
+
+    @Test
+    void backfill_runsBatchesUntilNothingIsLeft() {
+        QuantizationBackfillService service = new QuantizationBackfillService(jdbcTemplate, quantizedVectorSearch);
+        when(jdbcTemplate.update(contains("binary_quantize"), anyInt())).thenReturn(1000, 250, 0);
+
+        assertThat(service.backfill()).isEqualTo(1250);
+        verify(jdbcTemplate, times(3)).update(contains("binary_quantize"), anyInt());
+    }
+
+    @Test
+    void recallAtK_averagesTheOverlapWithTheExactRanking() {
+        QuantizationBackfillService service = new QuantizationBackfillService(jdbcTemplate, quantizedVectorSearch);
+        when(jdbcTemplate.queryForList(contains("random()"), eq(String.class), eq("bot-1"), eq(2)))
+                .thenReturn(List.of("[1,0]", "[0,1]"));
+        when(jdbcTemplate.queryForList(contains("+ 0"), eq(String.class), eq("bot-1"), eq("[1,0]"), eq(2)))
+                .thenReturn(List.of("a", "b"));
+        when(jdbcTemplate.queryForList(contains("+ 0"), eq(String.class), eq("bot-1"), eq("[0,1]"), eq(2)))
+                .thenReturn(List.of("c", "d"));
+        when(quantizedVectorSearch.search(eq("bot-1"), any(float[].class), eq(2))).thenAnswer(inv ->
+                inv.<float[]>getArgument(1)[0] == 1f ? List.of(doc("b"), doc("a")) : List.of(doc("c"), doc("x")));
+
+        QuantizationBackfillService.RecallReport report = service.recallAtK("bot-1", 2, 2);
+
+        assertThat(report.queries()).isEqualTo(2);
+        assertThat(report.recall()).isCloseTo(0.75, within(1e-9));
+    }
+
+    @Test
+    void recallAtK_forABotWithNoChunksReportsNoQueries() {
+        QuantizationBackfillService service = new QuantizationBackfillService(jdbcTemplate, quantizedVectorSearch);
+        when(jdbcTemplate.queryForList(anyString(), eq(String.class), any(), any())).thenReturn(List.of());
+
+        assertThat(service.recallAtK("bot-1", 5, 10).queries()).isZero();
+        verifyNoInteractions(quantizedVectorSearch);
+    }
+}
@@ -0,0 +1,67 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class QuantizedVectorSearchTests {
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    @Test
+    void search_ranksOnHammingThenRescoresAtFullPrecision() {
+        QuantizedVectorSearch search = new QuantizedVectorSearch(jdbcTemplate, new TransactionTemplate(transactionManager), 10, "bit");
+
+        search.search("bot-1", new float[]{0.5f, -0.25f}, 3);
+
+        verify(jdbcTemplate).queryForList(contains("embedding_bits <~> binary_quantize"),
+                eq("[0.5,-0.25]"), eq("bot-1"), eq("[0.5,-0.25]"), eq(30), eq("[0.5,-0.25]"), eq(3));
+    }
+
+    @Test
+    void halfvec_ranksCandidatesOnTheScalarQuantizedExpressionIndex() {
+        QuantizedVectorSearch search = new QuantizedVectorSearch(
+                jdbcTemplate, new TransactionTemplate(transactionManager), 10, "halfvec");
+
+        search.search("bot-1", new float[]{0.5f, -0.25f}, 3);
+
+        verify(jdbcTemplate).execute("SET LOCAL hnsw.iterative_scan = relaxed_order");
+        verify(jdbcTemplate).execute("SET LOCAL hnsw.ef_search = 40");
+        verify(jdbcTemplate).queryForList(contains("embedding::halfvec(768) <=> ?::halfvec(768)"),
+                eq("[0.5,-0.25]"), eq("bot-1"), eq("[0.5,-0.25]"), eq(30), eq("[0.5,-0.25]"), eq(3));
+    }
+
+    @Test
+    void isEnabledFor_readsTheOptInOnceUntilForgotten() {
+        QuantizedVectorSearch search = new QuantizedVectorSearch(jdbcTemplate, new TransactionTemplate(transactionManager), 10, "bit");
+        when(jdbcTemplate.queryForList(contains("quantized_search"), eq(Integer.class), eq("bot-1")))
+                .thenReturn(List.of(1));
+
+        assertThat(search.isEnabledFor("bot-1")).isTrue();
+        assertThat(search.isEnabledFor("bot-1")).isTrue();
+        verify(jdbcTemplate, times(1)).queryForList(anyString(), eq(Integer.class), eq("bot-1"));
+
+        when(jdbcTemplate.queryForList(contains("quantized_search"), eq(Integer.class), eq("bot-1")))
+                .thenReturn(List.of());
+        search.forget("bot-1");
+
+        assertThat(search.isEnabledFor("bot-1")).isFalse();
+    }
+}
@@ -0,0 +1,146 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class QueryCounterTests {
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final UUID botId = UUID.randomUUID();
+    private QueryCounter counter;
+
+    @BeforeEach
+    void setUp() {
+        counter = new QueryCounter(jdbcTemplate, new TransactionTemplate(transactionManager), meterRegistry);
+    }
+
+    private long pending() {
+        return counter.pendingByDay(List.of(botId)).getOrDefault(botId, Map.of())
+                .values().stream().mapToLong(Long::longValue).sum();
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Object[]> writtenRows(String table) {
+        ArgumentCaptor<List<Object[]>> rows = ArgumentCaptor.forClass(List.class);
+        verify(jdbcTemplate).batchUpdate(startsWith("INSERT INTO " + table + " ("), rows.capture());
+        return rows.getValue();
+    }
+
+    @Test
+    void concurrentIncrements_areAllCountedAndWrittenAsOneRow() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            for (int i = 0; i < 1000; i++) {
+                pool.execute(() -> counter.increment(botId));
+            }
+        } finally {
+            pool.shutdown();
+        }
+        assertThat(pool.awaitTermination(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(pending()).isEqualTo(1000);
+
+        counter.flush();
+
+        List<Object[]> rows = writtenRows("bot_query");
+        assertThat(rows).hasSize(1);
+        assertThat(rows.getFirst()[1]).isEqualTo(botId);
+        assertThat(rows.getFirst()[3]).isEqualTo(1000L);
+        assertThat(pending()).isZero();
+    }
+
+    @Test
+    void flush_addsTheBatchToTheDailyRollupInTheSameTransaction() {
+        counter.increment(botId);
+        counter.increment(botId);
+
+        counter.flush();
+
+        List<Object[]> days = writtenRows("bot_query_daily");
+        assertThat(days).hasSize(1);
+        assertThat(days.getFirst()).containsExactly(botId, LocalDate.now(ZoneOffset.UTC), 2L);
+        var order = inOrder(transactionManager, jdbcTemplate);
+        order.verify(transactionManager).getTransaction(any());
+        order.verify(jdbcTemplate).batchUpdate(startsWith("INSERT INTO bot_query ("), anyList());
+        order.verify(jdbcTemplate).batchUpdate(startsWith("INSERT INTO bot_query_daily ("), anyList());
+        order.verify(transactionManager).commit(any());
+    }
+
+    @Test
+    void backfillRollup_locksTheRollupBeforeReadingTheRawRows() {
+        when(jdbcTemplate.update(contains("FROM bot_query"))).thenReturn(12);
+
+        assertThat(counter.backfillRollup()).isEqualTo(12);
+
+        var order = inOrder(jdbcTemplate);
+        order.verify(jdbcTemplate).execute("LOCK TABLE bot_query_daily IN EXCLUSIVE MODE");
+        order.verify(jdbcTemplate).update(contains("GREATEST(bot_query_daily.query_count, EXCLUDED.query_count)"));
+    }
+
+    @Test
+    void flush_withNothingCountedSkipsTheDatabase() {
+        counter.flush();
+
+        verifyNoInteractions(jdbcTemplate);
+    }
+
+    @Test
+    void flush_failureKeepsTheCountsForTheNextFlush() {
+        when(jdbcTemplate.batchUpdate(anyString(), anyList())).thenThrow(new RuntimeException("pool exhausted"));
+        counter.increment(botId);
+        counter.increment(botId);
+
+        counter.flush();
+
+        assertThat(pending()).isEqualTo(2);
+        assertThat(meterRegistry.get("chat.query_count.flushes").tag("outcome", "failed").counter().count())
+                .isEqualTo(1);
+    }
+
+    @Test
+    void pendingByDay_onlyReportsTheRequestedBotsByUtcDay() {
+        counter.increment(botId);
+        counter.increment(UUID.randomUUID());
+
+        assertThat(counter.pendingByDay(List.of(botId)))
+                .containsOnly(Map.entry(botId, Map.of(LocalDate.now(ZoneOffset.UTC), 1L)));
+    }
+
+    @Test
+    void shutdown_flushesWhatIsLeft() {
+        counter.increment(botId);
+
+        counter.flushOnShutdown();
+
+        assertThat(writtenRows("bot_query")).hasSize(1);
+    }
+}
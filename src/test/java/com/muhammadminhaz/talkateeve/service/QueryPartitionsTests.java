@@ -0,0 +1,101 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InOrder;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.time.YearMonth;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class QueryPartitionsTests {
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private QueryPartitions partitions(boolean drop) {
+        return new QueryPartitions(jdbcTemplate, new TransactionTemplate(transactionManager), meterRegistry,
+                2, 3, drop);
+    }
+
+    @BeforeEach
+    void setUp() {
+        when(jdbcTemplate.queryForList(contains("pg_inherits"), eq(String.class))).thenReturn(List.of(
+                "bot_query_y2026m06", "bot_query_y2026m07", "bot_query_y2026m08", "bot_query_y2026m09",
+                "bot_query_y2026m10"));
+    }
+
+    @Test
+    void maintain_createsTheComingMonthsAhead() {
+        partitions(true).maintain(YearMonth.of(2026, 10));
+
+        verify(jdbcTemplate).execute("CREATE TABLE IF NOT EXISTS bot_query_y2026m10 PARTITION OF bot_query "
+                + "FOR VALUES FROM ('2026-10-01 00:00:00+00') TO ('2026-11-01 00:00:00+00')");
+        verify(jdbcTemplate).execute("CREATE TABLE IF NOT EXISTS bot_query_y2026m12 PARTITION OF bot_query "
+                + "FOR VALUES FROM ('2026-12-01 00:00:00+00') TO ('2027-01-01 00:00:00+00')");
+        verify(jdbcTemplate, never()).execute(contains("bot_query_y2027m01 PARTITION OF"));
+    }
+
+    @Test
+    void maintain_foldsExpiredPartitionsIntoTheRollupBeforeDroppingThem() {
+        partitions(true).maintain(YearMonth.of(2026, 10));
+
+        InOrder order = inOrder(jdbcTemplate);
+        order.verify(jdbcTemplate).queryForObject(eq("SELECT pg_advisory_xact_lock(?)"), eq(Object.class), anyLong());
+        order.verify(jdbcTemplate).update(contains("FROM bot_query_y2026m06"));
+        order.verify(jdbcTemplate).execute("ALTER TABLE bot_query DETACH PARTITION bot_query_y2026m06");
+        order.verify(jdbcTemplate).execute("DROP TABLE bot_query_y2026m06");
+        verify(jdbcTemplate).execute("DROP TABLE bot_query_y2026m07");
+        // Three months of retention in October keeps August onwards.
+        verify(jdbcTemplate, never()).execute(contains("DETACH PARTITION bot_query_y2026m08"));
+    }
+
+    @Test
+    void maintain_withDropOffOnlyDetaches() {
+        partitions(false).maintain(YearMonth.of(2026, 10));
+
+        verify(jdbcTemplate).execute("ALTER TABLE bot_query DETACH PARTITION bot_query_y2026m06");
+        verify(jdbcTemplate, never()).execute(startsWith("DROP TABLE"));
+    }
+
+    @Test
+    void ensurePartitioned_leavesAnAlreadyPartitionedTableAlone() {
+        when(jdbcTemplate.queryForObject(contains("pg_partitioned_table"), eq(Boolean.class))).thenReturn(true);
+
+        assertThat(partitions(true).ensurePartitioned()).isFalse();
+
+        verify(jdbcTemplate, never()).execute(anyString());
+    }
+
+    @Test
+    void ensurePartitioned_foldsThePlainTableIntoTheRollupThenCopiesWhatIsKept() {
+        when(jdbcTemplate.queryForObject(contains("pg_partitioned_table"), eq(Boolean.class))).thenReturn(false);
+
+        assertThat(partitions(true).ensurePartitioned()).isTrue();
+
+        InOrder order = inOrder(jdbcTemplate);
+        order.verify(jdbcTemplate).execute("ALTER TABLE bot_query RENAME TO bot_query_legacy");
+        order.verify(jdbcTemplate).execute(contains("PARTITION BY RANGE (asked_at)"));
+        order.verify(jdbcTemplate).update(contains("FROM bot_query_legacy\n"));
+        order.verify(jdbcTemplate).update(contains("SELECT id, bot_id, asked_at, query_count FROM bot_query_legacy"), any(Object.class));
+        order.verify(jdbcTemplate).execute("DROP TABLE bot_query_legacy");
+    }
+}
@@ -0,0 +1,64 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.ai.document.Document;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RelevanceCutoffTests {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final RelevanceCutoff cutoff = new RelevanceCutoff(meterRegistry, 0.5, 0.1, 5);
+
+    private static List<Document> scored(Double... scores) {
+        return IntStream.range(0, scores.length)
+                .mapToObj(i -> Document.builder().id("doc-" + i).text("chunk " + i).score(scores[i]).build())
+                .toList();
+    }
+
+    private static List<String> ids(List<Document> documents) {
+        return documents.stream().map(Document::getId).toList();
+    }
+
+    @Test
+    void apply_keepsChunksDownToTheThreshold() {
+        assertThat(ids(cutoff.apply(scored(0.74, 0.68, 0.61, 0.52, 0.47), null)))
+                .containsExactly("doc-0", "doc-1", "doc-2", "doc-3");
+        assertThat(meterRegistry.get("chat.retrieval.dropped").tag("reason", "threshold").counter().count())
+                .isEqualTo(1);
+    }
+
+    @Test
+    void apply_stopsAtASharpDropEvenAboveTheThreshold() {
+        assertThat(ids(cutoff.apply(scored(0.86, 0.83, 0.64, 0.62), null)))
+                .containsExactly("doc-0", "doc-1");
+        assertThat(meterRegistry.get("chat.retrieval.dropped").tag("reason", "drop_off").counter().count())
+                .isEqualTo(2);
+    }
+
+    @Test
+    void apply_keepsNothingForAnOffTopicQuestion() {
+        assertThat(cutoff.apply(scored(0.41, 0.39, 0.38), null)).isEmpty();
+        assertThat(meterRegistry.get("chat.retrieval.chunks").summary().max()).isZero();
+    }
+
+    @Test
+    void apply_prefersTheBotsOwnThreshold() {
+        assertThat(ids(cutoff.apply(scored(0.74, 0.68, 0.61), 0.65))).containsExactly("doc-0", "doc-1");
+        assertThat(ids(cutoff.apply(scored(0.48, 0.45), 0.4))).containsExactly("doc-0", "doc-1");
+    }
+
+    @Test
+    void apply_keepsChunksItCannotJudge() {
+        assertThat(cutoff.apply(scored(null, null), null)).hasSize(2);
+    }
+
+    @Test
+    void maxResults_isAtLeastOne() {
+        assertThat(new RelevanceCutoff(meterRegistry, 0.5, 0.1, 0).maxResults()).isEqualTo(1);
+    }
+}
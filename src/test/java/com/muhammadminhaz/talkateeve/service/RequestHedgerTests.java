@@ -0,0 +1,139 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RequestHedgerTests {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    /**
+     * A stand-in model whose n-th call answers after {@code latency.apply(n)} ms, and that
+     * records how many calls it received and whether any was cancelled.
+     */
+    private static final class StubModel {
+        private final IntFunction<Long> latency;
+        final AtomicInteger calls = new AtomicInteger();
+        final AtomicBoolean cancelled = new AtomicBoolean();
+
+        StubModel(IntFunction<Long> latency) {
+            this.latency = latency;
+        }
+
+        Mono<String> call() {
+            int n = calls.getAndIncrement();
+            return Mono.delay(Duration.ofMillis(latency.apply(n)))
+                    .map(tick -> "answer " + n)
+                    .doOnCancel(() -> cancelled.set(true));
+        }
+    }
+
+    private double hedges(String outcome) {
+        var counter = meterRegistry.find("model.hedge").tag("outcome", outcome).counter();
+        return counter == null ? 0 : counter.count();
+    }
+
+    @Test
+    void disabled_makesExactlyOneCall() {
+        RequestHedger hedger = new RequestHedger(false, 1, 1.0, 1, meterRegistry);
+        StubModel model = new StubModel(n -> 50L);
+
+        assertThat(hedger.hedge("chat", model::call).block()).isEqualTo("answer 0");
+        assertThat(model.calls).hasValue(1);
+    }
+
+    @Test
+    void slowPrimary_losesToTheHedgeAndIsCancelled() {
+        RequestHedger hedger = new RequestHedger(true, 20, 1.0, 1, meterRegistry);
+        StubModel model = new StubModel(n -> n == 0 ? 5_000L : 10L);
+
+        long start = System.nanoTime();
+        String answer = hedger.hedge("chat", model::call).block(Duration.ofSeconds(2));
+
+        assertThat(answer).isEqualTo("answer 1");
+        assertThat(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(1));
+        assertThat(model.cancelled).isTrue();
+        assertThat(hedges("won")).isEqualTo(1);
+    }
+
+    @Test
+    void fastPrimary_neverSendsAHedge() {
+        RequestHedger hedger = new RequestHedger(true, 200, 1.0, 1, meterRegistry);
+        StubModel model = new StubModel(n -> 5L);
+
+        hedger.hedge("chat", model::call).block();
+
+        assertThat(model.calls).hasValue(1);
+        assertThat(hedges("issued")).isZero();
+    }
+
+    @Test
+    void hedgeThatFails_leavesTheRaceToThePrimary() {
+        RequestHedger hedger = new RequestHedger(true, 10, 1.0, 1, meterRegistry);
+        AtomicInteger calls = new AtomicInteger();
+
+        String answer = hedger.hedge("chat", () -> calls.getAndIncrement() == 0
+                ? Mono.delay(Duration.ofMillis(100)).map(tick -> "primary")
+                : Mono.<String>error(new RuntimeException("429"))).block(Duration.ofSeconds(2));
+
+        assertThat(answer).isEqualTo("primary");
+    }
+
+    @Test
+    void streams_raceOnTheFirstChunk() {
+        RequestHedger hedger = new RequestHedger(true, 20, 1.0, 1, meterRegistry);
+        AtomicInteger calls = new AtomicInteger();
+
+        var chunks = hedger.hedgeStream("chat", () -> calls.getAndIncrement() == 0
+                        ? Flux.just("slow").delaySubscription(Duration.ofSeconds(5))
+                        : Flux.just("fast", " answer"))
+                .collectList().block(Duration.ofSeconds(2));
+
+        assertThat(chunks).containsExactly("fast", " answer");
+    }
+
+    @Test
+    void hedgeRate_staysUnderTheCapWhenEverythingIsSlow() {
+        // A model that has slowed down across the board: hedging cannot help, and must
+        // not double the load on it.
+        RequestHedger hedger = new RequestHedger(true, 1, 0.1, 1, meterRegistry);
+        StubModel model = new StubModel(n -> 5L);
+
+        for (int i = 0; i < 100; i++) {
+            hedger.hedge("chat", model::call).block();
+        }
+
+        assertThat(hedges("issued")).isLessThanOrEqualTo(100 * 0.1);
+        assertThat(hedges("denied")).isPositive();
+    }
+
+    @Test
+    void liveP95Delay_cutsTheTailOfALongTailedModel() {
+        // 1 call in 25 takes 400 ms, the rest 5 ms. The p95 delay is learned after 20
+        // calls, and a duplicate of a slow call lands on a fast one.
+        RequestHedger hedger = new RequestHedger(true, 0, 0.2, 20, meterRegistry);
+        StubModel model = new StubModel(n -> n % 25 == 24 ? 400L : 5L);
+
+        long slowAnswers = 0;
+        for (int i = 0; i < 150; i++) {
+            long start = System.nanoTime();
+            hedger.hedge("embedding", model::call).block(Duration.ofSeconds(2));
+            if (i >= 20 && Duration.ofNanos(System.nanoTime() - start).toMillis() >= 400) {
+                slowAnswers++;
+            }
+        }
+
+        assertThat(slowAnswers).isZero();
+        assertThat(hedges("won")).isPositive();
+        assertThat(hedges("issued")).isLessThanOrEqualTo(150 * 0.2);
+    }
+}
@@ -0,0 +1,176 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Sinks;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class SingleFlightTests {
+
+    @Mock
+    private RedisTemplate<String, String> redisTemplate;
+    @Mock
+    private ValueOperations<String, String> valueOperations;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private SingleFlight singleFlight;
+
+    @BeforeEach
+    void setUp() {
+        when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        when(valueOperations.setIfAbsent(anyString(), anyString(), any(Duration.class))).thenReturn(true);
+        singleFlight = new SingleFlight(redisTemplate, meterRegistry, true, Duration.ofSeconds(2));
+    }
+
+    private double coalesced(String scope) {
+        var counter = meterRegistry.find("chat.coalesced").tag("scope", scope).counter();
+        return counter == null ? 0 : counter.count();
+    }
+
+    @Test
+    void call_failureReachesEveryWaiterAndTheNextCallRetries() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> leader = CompletableFuture.supplyAsync(() -> singleFlight.call("test", "k", () -> {
+            started.countDown();
+            await(release);
+            throw new IllegalStateException("search failed");
+        }, Optional::empty));
+        assertThat(started.await(2, TimeUnit.SECONDS)).isTrue();
+        CompletableFuture<String> follower = CompletableFuture.supplyAsync(
+                () -> singleFlight.call("test", "k", () -> "computed twice", Optional::empty));
+        while (coalesced("local") == 0) {
+            Thread.onSpinWait();
+        }
+        release.countDown();
+
+        assertThatThrownBy(() -> follower.get(2, TimeUnit.SECONDS)).hasRootCauseMessage("search failed");
+        assertThatThrownBy(() -> leader.get(2, TimeUnit.SECONDS)).hasRootCauseMessage("search failed");
+        assertThat(singleFlight.call("test", "k", () -> "fresh", Optional::empty)).isEqualTo("fresh");
+    }
+
+    @Test
+    void call_computesItselfWhenTheLockHolderGoesAwayWithoutAResult() {
+        when(valueOperations.setIfAbsent(anyString(), anyString(), any(Duration.class))).thenReturn(false);
+        when(redisTemplate.hasKey("flight:k")).thenReturn(false);
+
+        assertThat(singleFlight.call("test", "k", () -> "mine", Optional::empty)).isEqualTo("mine");
+        assertThat(coalesced("cluster")).isZero();
+    }
+
+    @Test
+    void call_computesLocallyWhenRedisIsDown() {
+        when(valueOperations.setIfAbsent(anyString(), anyString(), any(Duration.class)))
+                .thenThrow(new RuntimeException("connection refused"));
+
+        assertThat(singleFlight.call("test", "k", () -> "mine", Optional::empty)).isEqualTo("mine");
+    }
+
+    @Test
+    void shareText_lateSubscribersGetTheWholeTextFromOneSource() {
+        Sinks.Many<String> source = Sinks.many().unicast().onBackpressureBuffer();
+        AtomicInteger subscriptions = new AtomicInteger();
+        Flux<String> first = singleFlight.shareText("answer", "k",
+                () -> source.asFlux().doOnSubscribe(s -> subscriptions.incrementAndGet()));
+        Flux<String> second = singleFlight.shareText("answer", "k", () -> Flux.just("second source"));
+
+        CompletableFuture<List<String>> a = first.collectList().toFuture();
+        waitUntil(() -> subscriptions.get() == 1);
+        source.tryEmitNext("We ship ");
+        CompletableFuture<List<String>> b = second.collectList().toFuture();
+        source.tryEmitNext("worldwide.");
+        source.tryEmitComplete();
+
+        assertThat(a.join()).containsExactly("We ship ", "worldwide.");
+        assertThat(b.join()).containsExactly("We ship ", "worldwide.");
+        assertThat(subscriptions).hasValue(1);
+        verify(valueOperations).set("flight-result:k", "We ship worldwide.", Duration.ofSeconds(2));
+    }
+
+    @Test
+    void shareText_cancellingOneSubscriberKeepsTheSourceForTheOthers() {
+        Sinks.Many<String> source = Sinks.many().unicast().onBackpressureBuffer();
+        AtomicBoolean cancelled = new AtomicBoolean();
+        AtomicInteger subscriptions = new AtomicInteger();
+        Flux<String> shared = singleFlight.shareText("answer", "k", () -> source.asFlux()
+                .doOnSubscribe(s -> subscriptions.incrementAndGet())
+                .doOnCancel(() -> cancelled.set(true)));
+
+        Disposable leaving = shared.subscribe();
+        waitUntil(() -> subscriptions.get() == 1);
+        CompletableFuture<List<String>> staying = singleFlight.shareText("answer", "k", Flux::empty)
+                .collectList().toFuture();
+        leaving.dispose();
+        source.tryEmitNext("Still here.");
+        source.tryEmitComplete();
+
+        assertThat(staying.join()).containsExactly("Still here.");
+        assertThat(cancelled).isFalse();
+    }
+
+    @Test
+    void shareText_takesTheTextPublishedByTheNodeHoldingTheLock() {
+        when(valueOperations.setIfAbsent(anyString(), anyString(), any(Duration.class))).thenReturn(false);
+        when(redisTemplate.hasKey("flight:k")).thenReturn(true);
+        when(valueOperations.get("flight-result:k")).thenReturn(null, "We ship worldwide.");
+        AtomicBoolean generated = new AtomicBoolean();
+
+        List<String> text = singleFlight.shareText("answer", "k", () -> {
+            generated.set(true);
+            return Flux.just("generated here");
+        }).collectList().block(Duration.ofSeconds(2));
+
+        assertThat(text).containsExactly("We ship worldwide.");
+        assertThat(generated).isFalse();
+        assertThat(coalesced("cluster")).isEqualTo(1);
+    }
+
+    @Test
+    void disabled_neverCoalescesOrTouchesRedis() {
+        SingleFlight off = new SingleFlight(redisTemplate, meterRegistry, false, Duration.ofSeconds(2));
+
+        assertThat(off.call("test", "k", () -> "mine", Optional::empty)).isEqualTo("mine");
+        assertThat(off.shareText("answer", "k", () -> Flux.just("text")).collectList().block()).containsExactly("text");
+        verifyNoInteractions(redisTemplate);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void waitUntil(java.util.function.BooleanSupplier condition) {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+            Thread.onSpinWait();
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SmallTalkClassifierTests {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final SmallTalkClassifier classifier = new SmallTalkClassifier(true, 0.9, meterRegistry);
+
+    @Test
+    void heldOutSet_precisionAndRecall() {
+        // Precision matters most: a question misread as small talk is answered with no
+        // knowledge base. A missed "thanks" only costs one unnecessary retrieval.
+        List<Map.Entry<Boolean, String>> labeled = SmallTalkClassifier.readLabeled("small-talk/labeled.tsv");
+        int truePositives = 0, falsePositives = 0, falseNegatives = 0, diverted = 0;
+        for (Map.Entry<Boolean, String> example : labeled) {
+            boolean predicted = classifier.classify(example.getValue());
+            if (predicted) {
+                diverted++;
+            }
+            if (predicted && example.getKey()) {
+                truePositives++;
+            } else if (predicted) {
+                falsePositives++;
+            } else if (example.getKey()) {
+                falseNegatives++;
+            }
+        }
+        double precision = truePositives / (double) (truePositives + falsePositives);
+        double recall = truePositives / (double) (truePositives + falseNegatives);
+        // At the time of writing: precision 1.0, recall 0.9, 36 of 70 turns diverted.
+        assertThat(precision).as("precision").isGreaterThanOrEqualTo(0.97);
+        assertThat(recall).as("recall").isGreaterThanOrEqualTo(0.8);
+        assertThat(diverted).as("diverted turns").isPositive();
+    }
+
+    @Test
+    void heldOutSet_sharesNoExampleWithTheTrainingSet() {
+        // An example the classifier was trained on scores itself, not the classifier.
+        Set<String> training = SmallTalkClassifier.readLabeled("small-talk/training.tsv").stream()
+                .map(example -> SmallTalkClassifier.normalize(example.getValue()))
+                .collect(Collectors.toSet());
+
+        assertThat(SmallTalkClassifier.readLabeled("small-talk/labeled.tsv"))
+                .extracting(example -> SmallTalkClassifier.normalize(example.getValue()))
+                .doesNotContainAnyElementsOf(training);
+    }
+
+    @Test
+    void greetingWithAQuestion_isNotSmallTalk() {
+        assertThat(classifier.classify("hi, what are your opening hours?")).isFalse();
+        assertThat(classifier.classify("thanks! can I also get a refund")).isFalse();
+    }
+
+    @Test
+    void variantSpellings_areSmallTalk() {
+        assertThat(classifier.classify("heyyy")).isTrue();
+        assertThat(classifier.classify("thx!")).isTrue();
+    }
+
+    @Test
+    void isSmallTalk_countsTheDivertedShare() {
+        classifier.isSmallTalk("hello");
+        classifier.isSmallTalk("what is your refund policy");
+
+        assertThat(meterRegistry.get("chat.small_talk").tag("diverted", "true").counter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get("chat.small_talk").tag("diverted", "false").counter().count()).isEqualTo(1);
+    }
+
+    @Test
+    void disabled_neverDiverts() {
+        assertThat(new SmallTalkClassifier(false, 0.9, meterRegistry).isSmallTalk("hi")).isFalse();
+    }
+}
@@ -0,0 +1,76 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.ai.document.Document;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+class TwoStageVectorSearchTests {
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+    @Mock
+    private PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate transactionTemplate;
+
+    @BeforeEach
+    void setUp() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+    }
+
+    @Test
+    void search_widensTheCoarsePassByTheMultiplierAndRescoresToTopK() {
+        TwoStageVectorSearch search = new TwoStageVectorSearch(jdbcTemplate, transactionTemplate, true, 5);
+        when(jdbcTemplate.queryForList(anyString(), any(Object[].class))).thenReturn(List.of(
+                Map.of("id", "c1", "filename", "kb.txt", "content", "hours", "score", 0.9)));
+
+        List<Document> results = search.search("bot-1", new float[]{0.5f, 0.25f}, 3);
+
+        verify(jdbcTemplate).queryForList(contains("embedding_coarse <=> subvector"),
+                eq("[0.5,0.25]"), eq("bot-1"), eq("[0.5,0.25]"), eq(15), eq("[0.5,0.25]"), eq(3));
+        assertThat(results).singleElement().satisfies(doc -> {
+            assertThat(doc.getText()).isEqualTo("hours");
+            assertThat(doc.getScore()).isEqualTo(0.9);
+            assertThat(doc.getMetadata()).containsEntry("bot_id", "bot-1").containsEntry("filename", "kb.txt");
+        });
+    }
+
+    @Test
+    void search_scansTheIndexIterativelyInsideOneTransaction() {
+        // Without the iterative scan, the bot filter runs after ef_search neighbours and a
+        // small bot on a large table gets almost no candidates.
+        TwoStageVectorSearch search = new TwoStageVectorSearch(jdbcTemplate, transactionTemplate, true, 50);
+
+        search.search("bot-1", new float[]{1f}, 5);
+
+        var order = inOrder(transactionManager, jdbcTemplate);
+        order.verify(transactionManager).getTransaction(any());
+        order.verify(jdbcTemplate).execute("SET LOCAL hnsw.iterative_scan = relaxed_order");
+        order.verify(jdbcTemplate).execute("SET LOCAL hnsw.ef_search = 250");
+        order.verify(jdbcTemplate).queryForList(contains("embedding_coarse"), any(Object[].class));
+        order.verify(transactionManager).commit(any());
+    }
+
+    @Test
+    void multiplierBelowOne_stillFetchesAtLeastTopKCandidates() {
+        TwoStageVectorSearch search = new TwoStageVectorSearch(jdbcTemplate, transactionTemplate, true, 0);
+
+        search.search("bot-1", new float[]{1f}, 3);
+
+        verify(jdbcTemplate).queryForList(anyString(), eq("[1.0]"), eq("bot-1"), eq("[1.0]"), eq(3), eq("[1.0]"), eq(3));
+    }
+}
@@ -0,0 +1,123 @@
+package com.muhammadminhaz.talkateeve.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+import org.springframework.ai.document.Document;
+import org.springframework.ai.vectorstore.VectorStore;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class VectorSearchBenchmarkTests {
+
+    @Mock
+    private JdbcTemplate jdbcTemplate;
+    @Mock
+    private VectorStore vectorStore;
+    @Mock
+    private LocalVectorIndex localVectorIndex;
+    @Mock
+    private TwoStageVectorSearch twoStageVectorSearch;
+    @Mock
+    private QuantizedVectorSearch quantizedVectorSearch;
+
+    private Document doc(String id) {
+        return new Document(id, "text", Map.of());
+    }
+
+    @Test
+    void benchmarkBot_reportsRecallOfEachPathAgainstTheExactRanking() {
+        VectorSearchBenchmark benchmark = new VectorSearchBenchmark(jdbcTemplate, vectorStore, localVectorIndex,
+                twoStageVectorSearch, quantizedVectorSearch);
+        when(jdbcTemplate.queryForList(contains("random()"), eq(String.class), eq("bot-1"), eq(2)))
+                .thenReturn(List.of("[1,0]", "[0,1]"));
+        when(jdbcTemplate.queryForList(contains("+ 0"), eq(String.class), eq("bot-1"), eq("[1,0]"), eq(2)))
+                .thenReturn(List.of("a", "b"));
+        when(jdbcTemplate.queryForList(contains("+ 0"), eq(String.class), eq("bot-1"), eq("[0,1]"), eq(2)))
+                .thenReturn(List.of("c", "d"));
+        VectorSearchBenchmark.SearchPath path = (botId, query, topK) ->
+                query[0] == 1f ? List.of(doc("b"), doc("a")) : List.of(doc("c"), doc("x"));
+
+        List<VectorSearchBenchmark.Result> results =
+                benchmark.benchmarkBot("bot-1", 40, 2, 2, Map.of("two-stage", path));
+
+        assertThat(results).extracting(VectorSearchBenchmark.Result::path).containsExactly("exact", "two-stage");
+        assertThat(results.get(0).recall()).isEqualTo(1);
+        assertThat(results.get(1).recall()).isCloseTo(0.75, within(1e-9));
+        assertThat(results.get(1).queries()).isEqualTo(2);
+        assertThat(results.get(1).p95Millis()).isGreaterThanOrEqualTo(results.get(1).p50Millis());
+    }
+
+    @Test
+    void run_picksBotsFromTheSmallestToTheLargest() {
+        VectorSearchBenchmark benchmark = new VectorSearchBenchmark(jdbcTemplate, vectorStore, localVectorIndex,
+                twoStageVectorSearch, quantizedVectorSearch);
+        List<Map<String, Object>> bots = new ArrayList<>();
+        for (int i = 1; i <= 9; i++) {
+            bots.add(Map.of("bot_id", "bot-" + i, "chunks", (long) i * 100));
+        }
+        when(jdbcTemplate.queryForList(contains("GROUP BY bot_id"))).thenReturn(bots);
+        when(jdbcTemplate.queryForList(contains("random()"), eq(String.class), anyString(), anyInt()))
+                .thenReturn(List.of("[1,0]"));
+        when(jdbcTemplate.queryForList(contains("+ 0"), eq(String.class), anyString(), anyString(), anyInt()))
+                .thenReturn(List.of("a"));
+
+        when(quantizedVectorSearch.representation()).thenReturn(QuantizedVectorSearch.Representation.BIT);
+        when(quantizedVectorSearch.search(anyString(), any(float[].class), anyInt())).thenReturn(List.of(doc("a")));
+
+        List<VectorSearchBenchmark.Result> results = benchmark.run(3, 1, 1);
+
+        assertThat(results).filteredOn(r -> r.path().equals("quantized-bit"))
+                .extracting(VectorSearchBenchmark.Result::botId).containsExactly("bot-1", "bot-5", "bot-9");
+        assertThat(results).filteredOn(r -> r.path().equals("exact"))
+                .extracting(VectorSearchBenchmark.Result::chunks).containsExactly(100L, 500L, 900L);
+    }
+
+    @Test
+    void run_measuresTheConfiguredVectorStore() {
+        VectorSearchBenchmark benchmark = new VectorSearchBenchmark(jdbcTemplate, vectorStore, localVectorIndex,
+                twoStageVectorSearch, quantizedVectorSearch);
+        when(jdbcTemplate.queryForList(contains("GROUP BY bot_id")))
+                .thenReturn(List.of(Map.of("bot_id", "bot-1", "chunks", 10L)));
+        when(jdbcTemplate.queryForList(contains("random()"), eq(String.class), anyString(), anyInt()))
+                .thenReturn(List.of("[1,0]"));
+        when(jdbcTemplate.queryForList(contains("+ 0"), eq(String.class), anyString(), anyString(), anyInt()))
+                .thenReturn(List.of("a"));
+        when(jdbcTemplate.queryForList(contains("rag_documents"), eq("$.bot_id == \"bot-1\""), eq("[1.0,0.0]"), eq(1)))
+                .thenReturn(List.of(Map.of("id", "a", "content", "text")));
+        when(quantizedVectorSearch.representation()).thenReturn(QuantizedVectorSearch.Representation.BIT);
+
+        List<VectorSearchBenchmark.Result> results = benchmark.run(1, 1, 1);
+
+        assertThat(results).filteredOn(r -> r.path().equals("pgvector"))
+                .singleElement().extracting(VectorSearchBenchmark.Result::recall).isEqualTo(1.0);
+    }
+
+    @Test
+    void benchmarkBot_leavesOutAPathThatDoesNotServeTheBot() {
+        VectorSearchBenchmark benchmark = new VectorSearchBenchmark(jdbcTemplate, vectorStore, localVectorIndex,
+                twoStageVectorSearch, quantizedVectorSearch);
+        when(jdbcTemplate.queryForList(contains("random()"), eq(String.class), eq("bot-1"), eq(1)))
+                .thenReturn(List.of("[1,0]"));
+        Map<String, VectorSearchBenchmark.SearchPath> paths = new java.util.LinkedHashMap<>();
+        paths.put("local-scalar", (botId, query, topK) -> null);
+        paths.put("pgvector", (botId, query, topK) -> List.of());
+
+        List<VectorSearchBenchmark.Result> results = benchmark.benchmarkBot("bot-1", 5000, 1, 1, paths);
+
+        assertThat(results).extracting(VectorSearchBenchmark.Result::path).containsExactly("exact", "pgvector");
+    }
+}
@@ -2,6 +2,7 @@ package com.muhammadminhaz.talkateeve.validation;
 
 import org.junit.jupiter.api.Test;
 import org.springframework.mock.web.MockMultipartFile;
+import org.springframework.util.unit.DataSize;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.util.ArrayList;
@@ -11,7 +12,7 @@ import static org.junit.jupiter.api.Assertions.*;
 
 class FileUploadValidatorTests {
 
-    private final FileUploadValidator validator = new FileUploadValidator();
+    private final FileUploadValidator validator = new FileUploadValidator(DataSize.ofMegabytes(10), DataSize.ofMegabytes(40), DataSize.ofMegabytes(50));
 
     private MockMultipartFile file(String name, String contentType, byte[] content) {
         return new MockMultipartFile("files", name, contentType, content);
@@ -42,6 +43,17 @@ class FileUploadValidatorTests {
         assertTrue(ex.getMessage().contains("exceeds maximum limit"), ex.getMessage());
     }
 
+    @Test
+    void validateFile_allowsPdfsPastTheLimitForOtherFiles() {
+        MultipartFile pdf = file("manual.pdf", "application/pdf", new byte[11 * 1024 * 1024]);
+        MultipartFile tooBig = file("archive.pdf", "application/pdf", new byte[41 * 1024 * 1024]);
+
+        assertDoesNotThrow(() -> validator.validateFile(pdf));
+        IllegalArgumentException ex =
+                assertThrows(IllegalArgumentException.class, () -> validator.validateFile(tooBig));
+        assertTrue(ex.getMessage().contains("40MB"), ex.getMessage());
+    }
+
     @Test
     void validateFile_rejectsUnsupportedContentType() {
         MultipartFile exe = file("virus.exe", "application/x-msdownload", "MZ".getBytes());